@@ -1,12 +1,22 @@
 package com.apocscode.mcai;
 
 import com.apocscode.mcai.ai.AIService;
+import com.apocscode.mcai.ai.AiExecutor;
+import com.apocscode.mcai.ai.AiHttpClient;
 import com.apocscode.mcai.ai.AiLogger;
+import com.apocscode.mcai.ai.CircuitBreaker;
+import com.apocscode.mcai.ai.HedgedCall;
+import com.apocscode.mcai.ai.IntentClassifier;
+import com.apocscode.mcai.ai.RateLimiter;
+import com.apocscode.mcai.ai.StructuredOutput;
+import com.apocscode.mcai.ai.tool.SemanticToolRouter;
+import com.apocscode.mcai.ai.tool.ToolRegistry;
 import com.apocscode.mcai.config.AiConfig;
 import net.neoforged.bus.api.IEventBus;
 import net.neoforged.fml.ModContainer;
 import net.neoforged.fml.common.Mod;
 import net.neoforged.fml.config.ModConfig;
+import net.neoforged.fml.event.config.ModConfigEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,6 +30,8 @@ public class MCAi {
 
         // Register configuration
         modContainer.registerConfig(ModConfig.Type.COMMON, AiConfig.SPEC);
+        modEventBus.addListener(MCAi::onConfigLoad);
+        modEventBus.addListener(MCAi::onConfigReload);
 
         // Register all deferred registries
         ModRegistry.register(modEventBus);
@@ -38,4 +50,30 @@ public class MCAi {
 
         LOGGER.info("MCAi initialized");
     }
+
+    /**
+     * Config loaded from disk — anything cached against the defaults is stale.
+     */
+    private static void onConfigLoad(ModConfigEvent.Loading event) {
+        if (event.getConfig().getSpec() != AiConfig.SPEC) return;
+        ToolRegistry.invalidateSchemaCache();
+    }
+
+    /**
+     * Config file edited while the game is running — drop anything built from the old values.
+     */
+    private static void onConfigReload(ModConfigEvent.Reloading event) {
+        if (event.getConfig().getSpec() != AiConfig.SPEC) return;
+        AiHttpClient.reset();
+        AiExecutor.applyLimits();
+        RateLimiter.resetAll();
+        HedgedCall.reset();
+        CircuitBreaker.resetAll();
+        ToolRegistry.invalidateSchemaCache();
+        SemanticToolRouter.reset();
+        IntentClassifier.reset();
+        StructuredOutput.reset();
+        AIService.invalidatePromptCache();
+        AiLogger.config("reload", event.getConfig().getFileName());
+    }
 }
@@ -1,6 +1,8 @@
 package com.apocscode.mcai;
 
 import com.apocscode.mcai.network.ChatMessagePacket;
+import com.apocscode.mcai.network.ChatOpenedPacket;
+import com.apocscode.mcai.network.ChatResponseChunkPacket;
 import com.apocscode.mcai.network.ChatResponsePacket;
 import com.apocscode.mcai.network.OpenChatScreenPacket;
 import com.apocscode.mcai.network.CycleWandModePacket;
@@ -45,6 +47,12 @@ public class ModNetworking {
                 ChatResponsePacket.STREAM_CODEC,
                 ChatResponsePacket::handle);
 
+        // Server → Client: streamed AI response text (partial)
+        registrar.playToClient(
+                ChatResponseChunkPacket.TYPE,
+                ChatResponseChunkPacket.STREAM_CODEC,
+                ChatResponseChunkPacket::handle);
+
         // Client → Server: set companion behavior mode
         registrar.playToServer(
                 SetBehaviorModePacket.TYPE,
@@ -81,6 +89,12 @@ public class ModNetworking {
                 WhistleCompanionPacket.STREAM_CODEC,
                 WhistleCompanionPacket::handle);
 
+        // Client → Server: chat screen opened (start prefetching the request context)
+        registrar.playToServer(
+                ChatOpenedPacket.TYPE,
+                ChatOpenedPacket.STREAM_CODEC,
+                ChatOpenedPacket::handle);
+
         // Client → Server: owner done interacting (unfreeze companion)
         registrar.playToServer(
                 StopInteractingPacket.TYPE,
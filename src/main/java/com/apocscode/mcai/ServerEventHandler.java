@@ -1,7 +1,10 @@
 package com.apocscode.mcai;
 
+import com.apocscode.mcai.ai.ConversationStore;
 import com.apocscode.mcai.ai.OllamaManager;
+import com.apocscode.mcai.ai.tool.ToolResultCache;
 import com.apocscode.mcai.command.DiagnoseCommand;
+import com.apocscode.mcai.command.MacroCommand;
 import com.apocscode.mcai.entity.CompanionEntity;
 import com.apocscode.mcai.item.LogisticsWandItem;
 import com.apocscode.mcai.logistics.TaggedBlock;
@@ -12,7 +15,12 @@ import net.neoforged.bus.api.SubscribeEvent;
 import net.neoforged.fml.common.EventBusSubscriber;
 import net.neoforged.neoforge.event.RegisterCommandsEvent;
 import net.neoforged.neoforge.event.ServerChatEvent;
+import net.neoforged.neoforge.event.entity.item.ItemTossEvent;
+import net.neoforged.neoforge.event.entity.player.ItemEntityPickupEvent;
+import net.neoforged.neoforge.event.entity.player.PlayerContainerEvent;
 import net.neoforged.neoforge.event.entity.player.PlayerEvent;
+import net.neoforged.neoforge.event.level.BlockEvent;
+import net.neoforged.neoforge.event.server.ServerStartedEvent;
 import net.neoforged.neoforge.event.server.ServerStoppingEvent;
 import net.neoforged.neoforge.network.PacketDistributor;
 
@@ -25,7 +33,8 @@ public class ServerEventHandler {
     @SubscribeEvent
     public static void onRegisterCommands(RegisterCommandsEvent event) {
         DiagnoseCommand.register(event.getDispatcher());
-        MCAi.LOGGER.info("MCAi commands registered (/mcai diagnose)");
+        MacroCommand.register(event.getDispatcher());
+        MCAi.LOGGER.info("MCAi commands registered (/mcai diagnose, /mcai macros)");
     }
 
     @SubscribeEvent
@@ -69,8 +78,48 @@ public class ServerEventHandler {
         ChatMessageHandler.handleFromGameChat(raw, player, companion);
     }
 
+    // ---- World / inventory changes: cached read-only tool results around them are stale ----
+
+    @SubscribeEvent
+    public static void onBlockBreak(BlockEvent.BreakEvent event) {
+        ToolResultCache.blockChanged(event.getLevel(), event.getPos());
+    }
+
+    @SubscribeEvent
+    public static void onBlockPlace(BlockEvent.EntityPlaceEvent event) {
+        ToolResultCache.blockChanged(event.getLevel(), event.getPos());
+    }
+
+    @SubscribeEvent
+    public static void onContainerClose(PlayerContainerEvent.Close event) {
+        // The container itself isn't known here, only that it was within the player's reach
+        ToolResultCache.playerChanged(event.getEntity().getUUID());
+        ToolResultCache.areaChanged(event.getEntity().level(), event.getEntity().blockPosition(), 8);
+    }
+
+    @SubscribeEvent
+    public static void onItemPickup(ItemEntityPickupEvent.Post event) {
+        ToolResultCache.playerChanged(event.getPlayer().getUUID());
+    }
+
+    @SubscribeEvent
+    public static void onItemToss(ItemTossEvent event) {
+        ToolResultCache.playerChanged(event.getPlayer().getUUID());
+    }
+
+    @SubscribeEvent
+    public static void onItemCrafted(PlayerEvent.ItemCraftedEvent event) {
+        ToolResultCache.playerChanged(event.getEntity().getUUID());
+    }
+
+    @SubscribeEvent
+    public static void onServerStarted(ServerStartedEvent event) {
+        OllamaManager.onServerStarted();
+    }
+
     @SubscribeEvent
     public static void onServerStopping(ServerStoppingEvent event) {
         OllamaManager.shutdown();
+        ConversationStore.clearAll();
     }
 }
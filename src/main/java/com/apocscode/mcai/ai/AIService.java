@@ -4,9 +4,13 @@ import com.apocscode.mcai.MCAi;
 import com.apocscode.mcai.ai.tool.AiTool;
 import com.apocscode.mcai.ai.tool.ToolContext;
 import com.apocscode.mcai.ai.tool.ToolRegistry;
+import com.apocscode.mcai.ai.tool.ToolResultCache;
+import com.apocscode.mcai.ai.tool.ToolSchemaCache;
+import com.apocscode.mcai.ai.tool.WebCache;
 import com.apocscode.mcai.config.AiConfig;
 import com.apocscode.mcai.entity.CompanionEntity;
 import com.apocscode.mcai.entity.CompanionChat;
+import com.apocscode.mcai.network.ChatResponseChunkPacket;
 import com.apocscode.mcai.network.ChatResponsePacket;
 import com.apocscode.mcai.task.TaskContinuation;
 import com.google.gson.*;
@@ -15,16 +19,16 @@ import net.minecraft.world.entity.player.Inventory;
 import net.minecraft.world.item.ItemStack;
 
 import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -38,15 +42,26 @@ import java.util.regex.Pattern;
  */
 public class AIService {
     private static final Gson GSON = new GsonBuilder().create();
+    /** Most history messages sent with a request, see {@link #historyStart} */
+    private static final int HISTORY_MAX = 20;
+    private static final int HISTORY_KEEP = 10;
+    /** Static system prompt per companion name, see {@link #staticSystemPrompt} */
+    private static final Map<String, String> STATIC_PROMPTS = new ConcurrentHashMap<>();
 
-    private static ExecutorService executor;
+    /**
+     * Receives assistant text while a streamed response is being generated.
+     * Used to forward partial replies to the player's chat screen.
+     */
+    public interface StreamSink {
+        /**
+         * @param delta New text
+         * @param reset True on the first delta of a new LLM call — earlier partial text is stale
+         */
+        void onText(String delta, boolean reset);
+    }
 
     public static void init() {
-        executor = Executors.newFixedThreadPool(2, r -> {
-            Thread t = new Thread(r, "MCAi-AI-Worker");
-            t.setDaemon(true);
-            return t;
-        });
+        AiExecutor.init();
 
         // Initialize tool registry
         ToolRegistry.init();
@@ -80,26 +95,69 @@ public class AIService {
     public static CompletableFuture<String> chat(String userMessage, ServerPlayer player,
                                                   List<ConversationManager.ChatMessage> history,
                                                   String companionName) {
-        return CompletableFuture.supplyAsync(() -> {
+        return chat(userMessage, player, history, companionName, null);
+    }
+
+    /**
+     * Same as {@link #chat(String, ServerPlayer, List, String)}, but streams partial
+     * response text to the given sink while it is generated (when streaming is enabled).
+     * The returned future still completes with the full final response.
+     */
+    public static CompletableFuture<String> chat(String userMessage, ServerPlayer player,
+                                                  List<ConversationManager.ChatMessage> history,
+                                                  String companionName, StreamSink sink) {
+        CancellationToken token = CancellationToken.register(player.getUUID());
+        // A superseded loop must not keep drawing into the chat screen
+        StreamSink activeSink = !isStreamingEnabled() || sink == null ? null : (delta, reset) -> {
+            if (!token.isCancelled()) sink.onText(delta, reset);
+        };
+        return AiExecutor.submitForPlayer(player.getUUID(), () -> {
             long startMs = System.currentTimeMillis();
+            token.bind();
             try {
+                token.throwIfCancelled();
                 AiLogger.chat(player.getName().getString(), userMessage);
-                String context = buildPlayerContext(player);
+                String context = ChatPrefetch.contextFor(player);
                 ToolContext toolCtx = new ToolContext(player, player.getServer());
-                String response = agentLoop(userMessage, context, history, toolCtx, companionName);
+                // Learned macro: replay the tool sequence that worked for this request before
+                String signature = MacroCache.signatureFor(player);
+                StringBuilder macroFailure = new StringBuilder();
+                String response = MacroCache.tryReplay(userMessage, signature, toolCtx, token, macroFailure);
+                // Plan mode: one LLM call for the whole tool program; task follow-ups stay in the loop
+                if (response == null && PlanExecutor.isEnabled() && !userMessage.startsWith("[TASK_")) {
+                    response = PlanExecutor.run(userMessage, context, history, toolCtx, companionName, token);
+                }
+                MacroCache.Trace trace = null;
+                if (response == null) {
+                    trace = new MacroCache.Trace();
+                    String loopMessage = macroFailure.isEmpty() ? userMessage : userMessage + "\n\n" + macroFailure;
+                    response = agentLoop(loopMessage, context, history, toolCtx, companionName, activeSink, token, trace);
+                }
+                token.throwIfCancelled();
+                if (trace != null && macroFailure.isEmpty()) MacroCache.record(player, userMessage, signature, trace);
+                ConversationStore.forPlayer(player.getUUID()).addAiMessage(response);
+                ConversationDigest.maybeCompact(player);
                 long elapsed = System.currentTimeMillis() - startMs;
-                AiLogger.aiResponse(response, elapsed);
+                AiLogger.aiResponse(player.getName().getString(), response, elapsed);
                 AiLogger.performance("Full chat cycle", elapsed);
                 return response;
             } catch (Exception e) {
                 long elapsed = System.currentTimeMillis() - startMs;
+                if (token.isCancelled()) {
+                    // Superseded: whatever failed (interrupted socket, aborted tool) was us stopping it
+                    AiLogger.log(AiLogger.Category.AI_REQUEST, "INFO",
+                            "Request superseded by a newer message after " + elapsed + "ms — discarded");
+                    throw new CancellationException("AI request superseded by a newer message");
+                }
                 AiLogger.error("AI chat error after " + elapsed + "ms", e);
                 MCAi.LOGGER.error("AI chat error: {}", e.getMessage(), e);
                 return "I'm having trouble connecting to my brain. " +
                         (AiConfig.isCloudEnabled() ? "Check your cloud API key in config." : "Make sure Ollama is running on localhost:11434.") +
                         " Error: " + e.getMessage();
+            } finally {
+                token.release();
             }
-        }, executor);
+        });
     }
 
     /**
@@ -109,22 +167,24 @@ public class AIService {
      */
     private static String agentLoop(String userMessage, String playerContext,
                                      List<ConversationManager.ChatMessage> history,
-                                     ToolContext toolCtx, String companionName) throws IOException {
+                                     ToolContext toolCtx, String companionName,
+                                     StreamSink sink, CancellationToken token,
+                                     MacroCache.Trace trace) throws IOException {
 
         // Build initial messages array
         boolean useCloud = AiConfig.isCloudEnabled();
+        boolean structured = StructuredOutput.isEnabled();
+        StructuredOutput.countChat(structured);
         JsonArray messages = new JsonArray();
 
-        // System prompt
+        // Static system prompt — identical across requests, so it stays a cached prefix
         JsonObject systemMsg = new JsonObject();
         systemMsg.addProperty("role", "system");
-        systemMsg.addProperty("content", buildSystemPrompt(playerContext, companionName));
+        systemMsg.addProperty("content", staticSystemPrompt(companionName));
         messages.add(systemMsg);
 
-        // Conversation history — fewer messages for cloud to stay within free-tier TPM limits
-        int historyLimit = useCloud ? 8 : 20;
-        int startIdx = Math.max(0, history.size() - historyLimit);
-        for (int i = startIdx; i < history.size(); i++) {
+        // Conversation history — the token budget below trims it further when messages are long
+        for (int i = historyStart(history.size()); i < history.size(); i++) {
             ConversationManager.ChatMessage msg = history.get(i);
             if (msg.isSystem()) continue; // Skip system messages like "Thinking..."
 
@@ -134,59 +194,45 @@ public class AIService {
             messages.add(histMsg);
         }
 
-        // Current user message
+        // Current turn: volatile game state, then the user message. Everything before it is
+        // append-only from turn to turn, so the history stays part of the cached prefix too.
+        int turnStart = messages.size();
+        messages.add(contextMessage(playerContext, conversationDigest(toolCtx)));
         JsonObject userMsg = new JsonObject();
         userMsg.addProperty("role", "user");
         userMsg.addProperty("content", userMessage);
         messages.add(userMsg);
+        int tokenBudget = PromptBudget.getBudget(useCloud);
 
         // Agent loop — keep going until AI gives a text response or limit reached
         int maxIterations = AiConfig.MAX_TOOL_ITERATIONS.get();
         // Track repeated identical tool calls to break infinite retry loops
         Map<String, Integer> repeatedToolCalls = new HashMap<>();
+        long loopStartMs = System.currentTimeMillis();
+        boolean[] firstToken = {true};
         for (int iteration = 0; iteration < maxIterations; iteration++) {
+            token.throwIfCancelled();
+            StructuredOutput.countIteration(structured);
+            // Tool calls that finish streaming start executing right away through the pipeline.
+            // A cancelled loop starts no further tools, so a superseded request has no more side effects.
+            ToolCallPipeline pipeline = new ToolCallPipeline(AiExecutor.executor(), (name, args) -> {
+                token.throwIfCancelled();
+                return executeTool(name, args, toolCtx);
+            }, ToolRegistry::effectOf);
+            StreamingResponseParser.Listener listener = sink == null ? null
+                    : streamListener(sink, pipeline, loopStartMs, firstToken);
+            turnStart = PromptBudget.fit(messages, turnStart, tokenBudget);
             JsonObject response;
             try {
-                response = useCloud ? callCloudAI(messages, userMessage) : callOllama(messages, userMessage);
+                response = callWithFailover(messages, userMessage, useCloud, listener);
             } catch (IOException e) {
-                if (useCloud && e.getMessage() != null && e.getMessage().contains("429")) {
-                    // Primary cloud rate limited — try fallback cloud provider first
-                    if (AiConfig.isCloudFallbackEnabled()) {
-                        MCAi.LOGGER.info("Primary cloud rate limited, trying fallback cloud provider");
-                        AiLogger.log(AiLogger.Category.AI_REQUEST, "WARN",
-                                "Primary cloud rate limited — trying fallback provider");
-                        try {
-                            response = callCloudAI(messages, userMessage,
-                                    AiConfig.CLOUD_FALLBACK_URL.get(),
-                                    AiConfig.CLOUD_FALLBACK_API_KEY.get(),
-                                    AiConfig.CLOUD_FALLBACK_MODEL.get());
-                        } catch (IOException fallbackEx) {
-                            // Fallback cloud also failed — try local Ollama
-                            MCAi.LOGGER.warn("Fallback cloud also failed: {}", fallbackEx.getMessage());
-                            try {
-                                response = callOllama(messages, userMessage);
-                            } catch (IOException ollamaEx) {
-                                MCAi.LOGGER.warn("Ollama also failed: {}", ollamaEx.getMessage());
-                                return "All AI backends are down — primary cloud hit rate limit, " +
-                                        "fallback cloud failed, and Ollama isn't running. Try again shortly.";
-                            }
-                        }
-                    } else {
-                        // No fallback cloud — go straight to Ollama
-                        MCAi.LOGGER.info("Cloud AI rate limited, falling back to Ollama");
-                        AiLogger.log(AiLogger.Category.AI_REQUEST, "WARN",
-                                "Cloud AI rate limited — falling back to Ollama");
-                        try {
-                            response = callOllama(messages, userMessage);
-                        } catch (IOException ollamaEx) {
-                            MCAi.LOGGER.warn("Ollama fallback also failed: {}", ollamaEx.getMessage());
-                            return "My cloud AI hit its rate limit and Ollama isn't running. " +
-                                    "Try again in about 30 seconds.";
-                        }
-                    }
-                } else {
-                    throw e;
+                pipeline.close();
+                trace.fail();
+                if (useCloud && httpStatus(e) == 429) {
+                    return "My cloud AI hit its rate limit and no other backend answered. " +
+                            "Try again in about 30 seconds.";
                 }
+                throw e;
             }
 
             // Extract assistant message — detect format dynamically:
@@ -219,8 +265,10 @@ public class AIService {
                     // and string arguments for cross-backend compatibility
                     JsonArray normalizedToolCalls = normalizedAssistant.getAsJsonArray("tool_calls");
 
-                    // Execute each tool call and add results
-                    boolean asyncTaskQueued = false;
+                    // Parse every tool call first, so independent read-only calls can run together
+                    List<String> callNames = new ArrayList<>();
+                    List<String> callIds = new ArrayList<>();
+                    List<JsonObject> callArgs = new ArrayList<>();
                     for (JsonElement tcElement : normalizedToolCalls) {
                         JsonObject toolCall = tcElement.getAsJsonObject();
                         JsonObject function = toolCall.getAsJsonObject("function");
@@ -242,6 +290,7 @@ public class AIService {
 
                         // Log parsed args for debugging (especially Ollama fallback issues)
                         MCAi.LOGGER.info("Tool '{}' args: {}", toolName, toolArgs);
+                        ToolRegistry.recordToolCalled(userMessage, toolName);
 
                         // If args are empty but the model returned content text, try parsing args from text
                         if (toolArgs.size() == 0 && assistantMessage.has("content")
@@ -251,15 +300,38 @@ public class AIService {
                                 JsonObject textArgs = tryParseTextToolArgs(contentText);
                                 if (textArgs.size() > 0) {
                                     MCAi.LOGGER.info("Recovered args from content text for '{}': {}", toolName, textArgs);
+                                    StructuredOutput.countRecovery(structured);
                                     toolArgs = textArgs;
                                 }
                             }
                         }
 
-                        // Execute the tool
+                        callNames.add(toolName);
+                        callIds.add(toolCallId);
+                        callArgs.add(toolArgs);
+                    }
+
+                    // Read-only calls run in parallel, mutating calls keep their order
+                    long batchStartMs = System.currentTimeMillis();
+                    if (callNames.size() > 1) {
+                        int parallel = pipeline.submitAll(callNames, callArgs);
+                        if (parallel > 0) {
+                            MCAi.LOGGER.debug("Running {} read-only tool call(s) alongside others", parallel);
+                        }
+                    }
+
+                    // Collect results and add them in the original tool_call order
+                    boolean asyncTaskQueued = false;
+                    for (int callIndex = 0; callIndex < callNames.size(); callIndex++) {
+                        String toolName = callNames.get(callIndex);
+                        String toolCallId = callIds.get(callIndex);
+                        JsonObject toolArgs = callArgs.get(callIndex);
+
+                        // Execute the tool (or collect the result of its early/parallel start)
                         long toolStartMs = System.currentTimeMillis();
-                        String result = executeTool(toolName, toolArgs, toolCtx);
+                        String result = pipeline.resultFor(callIndex, toolName, toolArgs);
                         long toolElapsed = System.currentTimeMillis() - toolStartMs;
+                        trace.add(toolName, toolArgs, result);
 
                         // Track repeated identical tool calls
                         String callSignature = toolName + "|" + toolArgs.toString();
@@ -286,6 +358,11 @@ public class AIService {
                         MCAi.LOGGER.info("Tool '{}' executed in {}ms, result length: {} chars",
                                 toolName, toolElapsed, result.length());
                     }
+                    pipeline.close();
+                    if (callNames.size() > 1) {
+                        AiLogger.performance("Tool batch (" + callNames.size() + " calls)",
+                                System.currentTimeMillis() - batchStartMs);
+                    }
 
                     // === Repeated tool call breaker ===
                     // If the AI called the same tool with identical args 3+ times, it's stuck in a loop.
@@ -313,8 +390,11 @@ public class AIService {
 
                     // If loop detected, do one final LLM call for a response then stop
                     if (loopDetected) {
+                        trace.fail();
                         try {
-                            JsonObject finalResp = useCloud ? callCloudAI(messages, userMessage) : callOllama(messages, userMessage);
+                            StreamingResponseParser.Listener finalListener = sink == null ? null
+                                    : streamListener(sink, null, loopStartMs, firstToken);
+                            JsonObject finalResp = callWithFailover(messages, userMessage, useCloud, finalListener);
                             JsonObject finalMsg;
                             if (finalResp.has("choices")) {
                                 finalMsg = finalResp.getAsJsonArray("choices")
@@ -347,7 +427,9 @@ public class AIService {
 
                         // One more LLM call to get the final text
                         try {
-                            JsonObject finalResp = useCloud ? callCloudAI(messages, userMessage) : callOllama(messages, userMessage);
+                            StreamingResponseParser.Listener finalListener = sink == null ? null
+                                    : streamListener(sink, null, loopStartMs, firstToken);
+                            JsonObject finalResp = callWithFailover(messages, userMessage, useCloud, finalListener);
                             JsonObject finalMsg;
                             if (finalResp.has("choices")) {
                                 finalMsg = finalResp.getAsJsonArray("choices")
@@ -373,6 +455,7 @@ public class AIService {
             }
 
             // No tool calls — extract the text response
+            pipeline.close();
             String content = "";
             if (assistantMessage.has("content") && !assistantMessage.get("content").isJsonNull()) {
                 content = assistantMessage.get("content").getAsString().trim();
@@ -382,6 +465,7 @@ public class AIService {
             // using the tool_calls format. Detect and execute them.
             String parsedToolName = tryParseTextToolCall(content);
             if (parsedToolName != null) {
+                StructuredOutput.countRecovery(structured);
                 JsonObject parsedArgs = tryParseTextToolArgs(content);
                 MCAi.LOGGER.info("Fallback: parsed text tool call '{}' with args: {}",
                         parsedToolName, parsedArgs);
@@ -411,6 +495,7 @@ public class AIService {
                 long toolStartMs = System.currentTimeMillis();
                 String result = executeTool(parsedToolName, parsedArgs, toolCtx);
                 long toolElapsed = System.currentTimeMillis() - toolStartMs;
+                trace.add(parsedToolName, parsedArgs, result);
 
                 // Add tool result with proper tool_call_id
                 JsonObject toolResultMsg = new JsonObject();
@@ -433,6 +518,7 @@ public class AIService {
         }
 
         // Exceeded iteration limit
+        trace.fail();
         MCAi.LOGGER.warn("Agent loop hit max iterations ({})", maxIterations);
         AiLogger.log(AiLogger.Category.AI_RESPONSE, "WARN",
                 "Agent loop exceeded max iterations (" + maxIterations + ")");
@@ -581,10 +667,65 @@ public class AIService {
         return normalized;
     }
 
+    /**
+     * Build the listener for one streamed LLM call: forwards text to the player's sink
+     * and hands completed tool calls to the pipeline so they start before the stream ends.
+     *
+     * @param pipeline   Where to early-start tool calls, or null to only forward text
+     * @param firstToken Shared flag so time-to-first-token is logged once per chat
+     */
+    private static StreamingResponseParser.Listener streamListener(StreamSink sink, ToolCallPipeline pipeline,
+                                                                   long loopStartMs, boolean[] firstToken) {
+        return new StreamingResponseParser.Listener() {
+            private boolean firstDeltaOfCall = true;
+
+            @Override
+            public void onTextDelta(String delta) {
+                if (firstToken[0]) {
+                    firstToken[0] = false;
+                    AiLogger.performance("Time to first token", System.currentTimeMillis() - loopStartMs);
+                }
+                sink.onText(delta, firstDeltaOfCall);
+                firstDeltaOfCall = false;
+            }
+
+            @Override
+            public void onToolCall(int index, JsonObject toolCall) {
+                if (pipeline == null || !toolCall.has("function")) return;
+                JsonObject function = toolCall.getAsJsonObject("function");
+                String toolName = function.has("name") ? function.get("name").getAsString() : "";
+                if (ToolRegistry.get(toolName) == null) return;
+
+                // Same argument handling as the agent loop, so the early result can be reused
+                JsonObject args;
+                try {
+                    JsonElement argsEl = function.get("arguments");
+                    args = argsEl == null ? new JsonObject()
+                            : argsEl.isJsonObject() ? argsEl.getAsJsonObject().deepCopy()
+                            : JsonParser.parseString(argsEl.getAsString()).getAsJsonObject();
+                } catch (Exception e) {
+                    return; // Malformed — the loop will handle it after the stream ends
+                }
+                // Empty args may still be recovered from content text — wait for the full message
+                if (args.size() == 0) return;
+                pipeline.submitEarly(index, toolName, args);
+            }
+        };
+    }
+
+    /** Whether responses should be streamed (config may not be loaded yet). */
+    private static boolean isStreamingEnabled() {
+        try {
+            return AiConfig.STREAM_RESPONSES.get();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
     /**
      * Execute a single tool by name.
      */
-    private static String executeTool(String toolName, JsonObject args, ToolContext context) {
+    static String executeTool(String toolName, JsonObject args, ToolContext context) {
         AiTool tool = ToolRegistry.get(toolName);
         if (tool == null) {
             AiLogger.error("AI tried to call unknown tool: " + toolName);
@@ -599,13 +740,37 @@ public class AIService {
             return "Error: tool '" + toolName + "' is disabled in the server configuration.";
         }
 
-        AiLogger.toolCall(toolName, args.toString());
+        // Structured mode: reject malformed arguments here instead of inside the tool
+        if (StructuredOutput.isEnabled()) {
+            String problem = StructuredOutput.validateArgs(tool, args);
+            if (problem != null) {
+                AiLogger.log(AiLogger.Category.TOOL_CALL, "WARN", "Rejected " + toolName + args + ": " + problem);
+                return "Error: invalid arguments for " + toolName + ": " + problem
+                        + ". Expected parameters: " + tool.parameterSchema().get("properties");
+            }
+        }
+
+        AiLogger.toolCall(context.player() != null ? context.player().getName().getString() : null,
+                toolName, args.toString());
         long startMs = System.currentTimeMillis();
 
+        // Same read-only lookup as a moment ago, and nothing changed since
+        ToolResultCache.Lookup cacheSlot = ToolResultCache.lookup(tool, args, context);
+        String cached = cacheSlot != null ? cacheSlot.get() : null;
+        if (cached != null) {
+            AiLogger.toolCacheHit(toolName, cached);
+            return cached;
+        }
+
         try {
             String result = tool.execute(args, context);
             long elapsed = System.currentTimeMillis() - startMs;
             AiLogger.toolResult(toolName, result, elapsed);
+            if (tool.effect().isOrdered()) {
+                if (context.player() != null) ToolResultCache.playerChanged(context.player().getUUID());
+            } else if (cacheSlot != null) {
+                cacheSlot.put(result);
+            }
             return result;
         } catch (Exception e) {
             long elapsed = System.currentTimeMillis() - startMs;
@@ -618,7 +783,7 @@ public class AIService {
     /**
      * Build context string from player's current game state.
      */
-    private static String buildPlayerContext(ServerPlayer player) {
+    static String buildPlayerContext(ServerPlayer player) {
         StringBuilder ctx = new StringBuilder();
 
         // Position and dimension
@@ -725,26 +890,159 @@ public class AIService {
         return ctx.toString();
     }
 
+    /**
+     * Serialize a request and splice the pre-serialized tools array in before the closing
+     * brace, so tool schemas are never rebuilt or re-encoded per request.
+     *
+     * @param toolChoice Also add "tool_choice": "auto" (OpenAI format)
+     */
+    private static byte[] serializeRequest(JsonObject request, ToolSchemaCache.ToolSet tools, boolean toolChoice) {
+        byte[] head = GSON.toJson(request).getBytes(StandardCharsets.UTF_8);
+        if (tools.isEmpty()) return head;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(head.length + tools.bytes() + 48);
+        out.write(head, 0, head.length - 1); // Drop the closing '}'
+        out.writeBytes(",\"tools\":".getBytes(StandardCharsets.UTF_8));
+        out.writeBytes(tools.json());
+        if (toolChoice) {
+            out.writeBytes(",\"tool_choice\":\"auto\"".getBytes(StandardCharsets.UTF_8));
+        }
+        out.write('}');
+        return out.toByteArray();
+    }
+
+    /** Tools for a request; a null message means a plain completion without tools. */
+    private static ToolSchemaCache.ToolSet toolsFor(String userMessage) {
+        return userMessage == null ? ToolSchemaCache.assemble(List.of()) : ToolRegistry.selectToolSet(userMessage);
+    }
+
+    /**
+     * One plain completion without tools or streaming, for background work such as
+     * conversation digests. Uses the same backend order and failover as the agent loop.
+     */
+    static String completeWithoutTools(JsonArray messages) throws IOException {
+        return completeStructured(messages, null);
+    }
+
+    /**
+     * Like {@link #completeWithoutTools}, but the reply is constrained to the given JSON
+     * schema ("format" for Ollama, "response_format" for OpenAI-compatible providers).
+     */
+    static String completeStructured(JsonArray messages, JsonObject schema) throws IOException {
+        JsonObject response = callWithFailover(messages, null, AiConfig.isCloudEnabled(), null, schema);
+
+        JsonObject message = response.has("choices")
+                ? response.getAsJsonArray("choices").get(0).getAsJsonObject().getAsJsonObject("message")
+                : response.getAsJsonObject("message");
+        JsonElement content = message == null ? null : message.get("content");
+        return content == null || content.isJsonNull() ? "" : content.getAsString().trim();
+    }
+
+    /**
+     * HTTP status behind a failed call, looking through wrapping exceptions; -1 if there was none.
+     */
+    private static int httpStatus(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof AiHttpClient.HttpStatusException http) return http.status();
+        }
+        return -1;
+    }
+
+    /**
+     * Send one request down the backend order (primary cloud → fallback cloud → Ollama).
+     * Backends whose circuit breaker is open are skipped without sending anything. A backend
+     * that is rate limited or down hands over to the next one; other errors (e.g. a rejected
+     * request) are thrown as-is. When everything fails, the first backend's error is thrown.
+     */
+    private static JsonObject callWithFailover(JsonArray messages, String userMessage, boolean useCloud,
+                                               StreamingResponseParser.Listener listener) throws IOException {
+        return callWithFailover(messages, userMessage, useCloud, listener, null);
+    }
+
+    /** @param schema JSON schema the reply must follow, or null for free text / tool calls */
+    private static JsonObject callWithFailover(JsonArray messages, String userMessage, boolean useCloud,
+                                               StreamingResponseParser.Listener listener,
+                                               JsonObject schema) throws IOException {
+        List<AiBackend> order = useCloud
+                ? List.of(AiBackend.PRIMARY_CLOUD, AiBackend.FALLBACK_CLOUD, AiBackend.OLLAMA)
+                : List.of(AiBackend.OLLAMA);
+        IOException firstError = null;
+        AiBackend failed = null;
+        for (AiBackend backend : order) {
+            if (!backend.isConfigured()) continue;
+            if (!CircuitBreaker.allowRequest(backend)) {
+                MCAi.LOGGER.debug("Skipping {} — circuit open", backend.displayName());
+                continue;
+            }
+            if (failed != null) {
+                MCAi.LOGGER.info("{} failed, trying {}", failed.displayName(), backend.displayName());
+                AiLogger.log(AiLogger.Category.AI_REQUEST, "WARN",
+                        failed.displayName() + " failed — falling back to " + backend.displayName());
+            }
+            try {
+                return HedgedCall.call(backend, messages, listener,
+                        (b, msgs, l) -> callBackend(b, msgs, userMessage, l, schema));
+            } catch (IOException e) {
+                if (!CircuitBreaker.isOutage(e)) throw e;
+                MCAi.LOGGER.warn("{} failed: {}", backend.displayName(), e.getMessage());
+                if (firstError == null) firstError = e;
+                failed = backend;
+            }
+        }
+        if (firstError != null) throw firstError;
+        throw new IOException("No AI backend available right now (" + CircuitBreaker.describeOpen() + ")");
+    }
+
+    /**
+     * One request to the given backend, streamed when a listener is given.
+     * The outcome feeds the backend's circuit breaker.
+     */
+    private static JsonObject callBackend(AiBackend backend, JsonArray messages, String userMessage,
+                                          StreamingResponseParser.Listener listener,
+                                          JsonObject schema) throws IOException {
+        try {
+            JsonObject response = backend == AiBackend.OLLAMA ? callOllama(messages, userMessage, listener, schema)
+                    : callCloudAI(messages, userMessage, backend, listener, schema);
+            CircuitBreaker.recordSuccess(backend);
+            return response;
+        } catch (IOException e) {
+            CircuitBreaker.recordFailure(backend, e);
+            throw e;
+        } catch (RuntimeException e) {
+            CircuitBreaker.releaseTrial(backend);
+            throw e;
+        }
+    }
+
     /**
      * Call Ollama's chat API with tool support.
      * Uses dynamic tool selection based on the user message to keep tool count ≤16.
-     * Returns the full response JSON object.
+     * When a listener is given the response is streamed (NDJSON)
+     * and text/tool-call events are delivered as they arrive; the assembled response
+     * has the same shape as a non-streaming one.
      */
-    private static JsonObject callOllama(JsonArray messages, String userMessage) throws IOException {
+    private static JsonObject callOllama(JsonArray messages, String userMessage,
+                                         StreamingResponseParser.Listener listener,
+                                         JsonObject schema) throws IOException {
         // Build request
         JsonObject request = new JsonObject();
         request.addProperty("model", AiConfig.OLLAMA_MODEL.get());
+        request.add("keep_alive", OllamaManager.keepAlive());
 
         // Ollama expects tool_calls.arguments as JSON objects (not strings) and doesn't use
         // tool_call_id. When messages come from the agent loop after cloud AI calls, arguments
         // are normalized to strings (OpenAI format). Sanitize them for Ollama compatibility.
-        request.add("messages", sanitizeMessagesForOllama(messages));
-        request.addProperty("stream", false);
-
         // Attach only relevant tools — dynamic selection keeps count manageable for small models
-        JsonArray tools = ToolRegistry.toOllamaToolsArray(userMessage);
-        if (tools.size() > 0) {
-            request.add("tools", tools);
+        ToolSchemaCache.ToolSet tools = toolsFor(userMessage);
+        // Structured mode: the whole turn is constrained to {reply, calls}, so it can't be streamed as text
+        boolean constrainedTurn = schema == null && !tools.isEmpty() && StructuredOutput.isEnabled();
+        request.add("messages", sanitizeMessagesForOllama(
+                constrainedTurn ? StructuredOutput.withTurnInstructions(messages) : messages));
+        request.addProperty("stream", listener != null && !constrainedTurn);
+        if (schema != null) {
+            request.add("format", schema);
+        } else if (constrainedTurn) {
+            request.add("format", StructuredOutput.turnSchema(tools.names()));
         }
 
         // Options for response quality
@@ -753,37 +1051,44 @@ public class AIService {
         options.addProperty("num_predict", AiConfig.AI_MAX_TOKENS.get());
         request.add("options", options);
 
-        AiLogger.aiRequest(messages.size(), tools.size(), AiConfig.OLLAMA_MODEL.get());
+        AiLogger.aiRequest(messages.size(), PromptBudget.estimateTokens(messages), tools, AiConfig.OLLAMA_MODEL.get());
 
         // Send HTTP request
         int timeoutMs = AiConfig.AI_TIMEOUT_MS.get();
-        // Force IPv4: Java may resolve "localhost" to IPv6 [::1] while Ollama binds IPv4 only
-        String url = AiConfig.OLLAMA_URL.get().replace("localhost", "127.0.0.1");
-        HttpURLConnection conn = (HttpURLConnection) URI.create(url).toURL().openConnection();
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Content-Type", "application/json");
-        conn.setDoOutput(true);
-        conn.setConnectTimeout(timeoutMs);
-        conn.setReadTimeout(timeoutMs);
-
-        String requestBody = GSON.toJson(request);
-        MCAi.LOGGER.debug("Ollama request: {} chars", requestBody.length());
-
-        try (OutputStream os = conn.getOutputStream()) {
-            os.write(requestBody.getBytes(StandardCharsets.UTF_8));
-        }
+        String url = AiBackend.OLLAMA.url();
 
-        int responseCode = conn.getResponseCode();
-        if (responseCode != 200) {
-            String error = readStream(conn.getErrorStream());
-            conn.disconnect();
-            throw new IOException("Ollama returned HTTP " + responseCode + ": " + error);
-        }
+        byte[] requestBody = serializeRequest(request, tools, false);
+        MCAi.LOGGER.debug("Ollama request: {} bytes ({} in tool definitions)", requestBody.length, tools.bytes());
+
+        HttpRequest httpRequest = AiHttpClient.request(url, timeoutMs)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(requestBody))
+                .build();
+        AiExecutor.acquireBackend(AiBackend.OLLAMA);
+        try {
+            HttpResponse<InputStream> response = AiHttpClient.send(httpRequest, HttpResponse.BodyHandlers.ofInputStream());
+
+            int responseCode = response.statusCode();
+            if (responseCode != 200) {
+                String error = readStream(response.body());
+                throw new AiHttpClient.HttpStatusException(responseCode, "Ollama returned HTTP " + responseCode + ": " + error);
+            }
 
-        String responseBody = readStream(conn.getInputStream());
-        conn.disconnect();
+            int promptTokens = PromptBudget.estimateTokens(messages) + tools.estimatedTokens();
+            if (listener != null && !constrainedTurn) {
+                JsonObject streamed = StreamingResponseParser.readOllamaStream(response.body(), listener);
+                PromptCacheStats.recordOllama(promptTokens, streamed);
+                return streamed;
+            }
 
-        return JsonParser.parseString(responseBody).getAsJsonObject();
+            String responseBody = readStream(response.body());
+            JsonObject result = JsonParser.parseString(responseBody).getAsJsonObject();
+            PromptCacheStats.recordOllama(promptTokens, result);
+            if (constrainedTurn) StructuredOutput.toNativeToolCalls(result);
+            return result;
+        } finally {
+            AiExecutor.releaseBackend(AiBackend.OLLAMA);
+        }
     }
 
     /**
@@ -856,17 +1161,6 @@ public class AIService {
         return sanitized;
     }
 
-    /**
-     * Call cloud AI API (OpenAI-compatible) with tool support.
-     * Uses the primary cloud provider from config.
-     */
-    private static JsonObject callCloudAI(JsonArray messages, String userMessage) throws IOException {
-        return callCloudAI(messages, userMessage,
-                AiConfig.CLOUD_URL.get(),
-                AiConfig.CLOUD_API_KEY.get(),
-                AiConfig.CLOUD_MODEL.get());
-    }
-
     /**
      * Call cloud AI API (OpenAI-compatible) with tool support.
      * Works with any OpenAI-compatible provider: Groq, OpenRouter, Together, Cerebras, etc.
@@ -874,129 +1168,273 @@ public class AIService {
      * Retries automatically on 429 rate-limit errors with backoff.
      * Returns the full response JSON object (OpenAI format with choices[]).
      */
-    private static JsonObject callCloudAI(JsonArray messages, String userMessage,
-                                          String url, String apiKey, String model) throws IOException {
+    private static JsonObject callCloudAI(JsonArray messages, String userMessage, AiBackend backend,
+                                          StreamingResponseParser.Listener listener,
+                                          JsonObject schema) throws IOException {
+        String url = backend.url();
+        String apiKey = backend.apiKey();
+        String model = backend.model();
+
         // Build request — OpenAI chat completions format
         JsonObject request = new JsonObject();
         request.addProperty("model", model);
         request.add("messages", messages);
         request.addProperty("temperature", AiConfig.AI_TEMPERATURE.get());
         request.addProperty("max_tokens", AiConfig.AI_MAX_TOKENS.get());
-        request.addProperty("stream", false);
+        request.addProperty("stream", listener != null);
+        if (listener != null) {
+            // Streams only report usage (in a final chunk with no choices) when asked to
+            JsonObject streamOptions = new JsonObject();
+            streamOptions.addProperty("include_usage", true);
+            request.add("stream_options", streamOptions);
+        }
+        if (schema != null) {
+            JsonObject jsonSchema = new JsonObject();
+            jsonSchema.addProperty("name", "response");
+            jsonSchema.add("schema", schema);
+            JsonObject format = new JsonObject();
+            format.addProperty("type", "json_schema");
+            format.add("json_schema", jsonSchema);
+            request.add("response_format", format);
+        }
 
         // Use dynamic tool selection — keeps token usage low for free-tier limits
-        JsonArray tools = ToolRegistry.toOllamaToolsArray(userMessage);
-        if (tools.size() > 0) {
-            request.add("tools", tools);
-            request.addProperty("tool_choice", "auto");
+        ToolSchemaCache.ToolSet tools = toolsFor(userMessage);
+        if (schema == null && StructuredOutput.isEnabled()) {
+            // Strict function definitions: the provider only emits arguments that match the schema
+            tools = ToolSchemaCache.assemble(tools.names(), true);
         }
 
-        AiLogger.aiRequest(messages.size(), tools.size(), model);
+        int messageTokens = PromptBudget.estimateTokens(messages);
+        AiLogger.aiRequest(messages.size(), messageTokens, tools, model);
 
-        String requestBody = GSON.toJson(request);
-        MCAi.LOGGER.debug("Cloud AI request: {} chars, model: {}", requestBody.length(), model);
+        byte[] requestBody = serializeRequest(request, tools, true);
+        MCAi.LOGGER.debug("Cloud AI request: {} bytes ({} in tool definitions), model: {}",
+                requestBody.length, tools.bytes(), model);
+
+        // Proactive pacing: reserve the estimated prompt + completion tokens before sending
+        RateLimiter limiter = isRateLimiterEnabled() ? RateLimiter.forBackend(backend) : null;
+        int estimatedTokens = messageTokens + tools.estimatedTokens() + AiConfig.AI_MAX_TOKENS.get();
 
         // Retry loop for rate limits (429)
         int maxRetries = 3;
+        long retryWaitMs = 0;
         for (int attempt = 0; attempt <= maxRetries; attempt++) {
-            int timeoutMs = AiConfig.AI_TIMEOUT_MS.get();
-            HttpURLConnection conn = (HttpURLConnection) URI.create(url).toURL().openConnection();
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("Content-Type", "application/json");
-            conn.setRequestProperty("Authorization", "Bearer " + apiKey);
-            // OpenRouter requires HTTP-Referer and X-Title for free model access
-            if (url.contains("openrouter.ai")) {
-                conn.setRequestProperty("HTTP-Referer", "https://github.com/Apocscode/MCAi");
-                conn.setRequestProperty("X-Title", "MCAi Minecraft Companion");
+            if (limiter != null) {
+                awaitRateLimit(limiter, backend, estimatedTokens);
+            } else if (retryWaitMs > 0) {
+                // Back off without holding a backend slot, so other players' requests can proceed
+                try { Thread.sleep(retryWaitMs); } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for rate limit retry");
+                }
             }
-            conn.setDoOutput(true);
-            conn.setConnectTimeout(timeoutMs);
-            conn.setReadTimeout(timeoutMs);
 
-            try (OutputStream os = conn.getOutputStream()) {
-                os.write(requestBody.getBytes(StandardCharsets.UTF_8));
+            // The reservation stands once usage is known (or the provider reported its budget);
+            // any other way out of this attempt gives it back
+            boolean settled = limiter == null;
+            boolean sent = false;
+            try {
+                AiExecutor.acquireBackend(backend);
+            } catch (InterruptedIOException e) {
+                if (!settled) limiter.release(estimatedTokens, false);
+                throw e;
             }
+            try {
+                int timeoutMs = AiConfig.AI_TIMEOUT_MS.get();
+                HttpRequest.Builder httpRequest = AiHttpClient.request(url, timeoutMs)
+                        .header("Content-Type", "application/json")
+                        .header("Authorization", "Bearer " + apiKey)
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(requestBody));
+                if (listener != null) httpRequest.header("Accept", "text/event-stream");
+                // OpenRouter requires HTTP-Referer and X-Title for free model access
+                if (url.contains("openrouter.ai")) {
+                    httpRequest.header("HTTP-Referer", "https://github.com/Apocscode/MCAi");
+                    httpRequest.header("X-Title", "MCAi Minecraft Companion");
+                }
+                HttpResponse<InputStream> response = AiHttpClient.send(httpRequest.build(),
+                        HttpResponse.BodyHandlers.ofInputStream());
+                sent = true;
+                if (limiter != null) {
+                    try {
+                        settled = limiter.updateFromHeaders(response.headers());
+                    } catch (Exception e) {
+                        MCAi.LOGGER.debug("Ignoring unparseable rate limit headers: {}", e.getMessage());
+                    }
+                }
+
+                int responseCode = response.statusCode();
+                if (responseCode == 429) {
+                    // Rate limited — parse error and check if it's a daily limit
+                    String error = readStream(response.body());
+                    long waitMs = parseRetryAfterMs(response, error);
+                    if (limiter != null) limiter.onRateLimited(waitMs);
+
+                    // Detect daily TPD (tokens per day) limit — retrying is pointless
+                    boolean isDailyLimit = error.contains("tokens per day") || error.contains("per day")
+                            || error.contains("daily") || error.contains("rate_limit_exceeded");
+                    // OpenRouter free tier rate limits are effectively per-IP/per-model and don't clear quickly
+                    boolean isOpenRouterRateLimit = url.contains("openrouter.ai");
+                    if (isDailyLimit || isOpenRouterRateLimit) {
+                        MCAi.LOGGER.warn("Cloud AI rate limit (fast-fail) for {}: {}",
+                                model, error.length() > 200 ? error.substring(0, 200) : error);
+                        AiLogger.log(AiLogger.Category.AI_REQUEST, "WARN",
+                                "Cloud AI rate limit hit — skipping retries, falling back immediately");
+                        throw new AiHttpClient.QuotaExhaustedException("429 rate limit for " + model + " (fast-fail)");
+                    }
+
+                    if (attempt < maxRetries) {
+                        // Per-minute/per-request rate limit — worth retrying.
+                        // With the limiter, the next attempt waits for the reset or reroutes to the fallback.
+                        // Cap at 30s — don't wait minutes for rate limits
+                        retryWaitMs = Math.min(waitMs, 30_000);
 
-            int responseCode = conn.getResponseCode();
-            if (responseCode == 429) {
-                // Rate limited — parse error and check if it's a daily limit
-                String error = readStream(conn.getErrorStream());
-                conn.disconnect();
-
-                // Detect daily TPD (tokens per day) limit — retrying is pointless
-                boolean isDailyLimit = error.contains("tokens per day") || error.contains("per day")
-                        || error.contains("daily") || error.contains("rate_limit_exceeded");
-                // OpenRouter free tier rate limits are effectively per-IP/per-model and don't clear quickly
-                boolean isOpenRouterRateLimit = url.contains("openrouter.ai");
-                if (isDailyLimit || isOpenRouterRateLimit) {
-                    MCAi.LOGGER.warn("Cloud AI rate limit (fast-fail) for {}: {}",
-                            model, error.length() > 200 ? error.substring(0, 200) : error);
-                    AiLogger.log(AiLogger.Category.AI_REQUEST, "WARN",
-                            "Cloud AI rate limit hit — skipping retries, falling back immediately");
-                    throw new IOException("429 rate limit for " + model + " (fast-fail)");
+                        MCAi.LOGGER.info("Cloud AI rate limited (429), retrying in {}ms (attempt {}/{})",
+                                retryWaitMs, attempt + 1, maxRetries);
+                        AiLogger.log(AiLogger.Category.AI_REQUEST, "WARN",
+                                "Cloud AI rate limited, waiting " + retryWaitMs + "ms before retry " + (attempt + 1));
+                        continue;
+                    }
+                    // All retries exhausted
+                    throw new AiHttpClient.HttpStatusException(429,
+                            "429 rate limit exceeded after " + maxRetries + " retries for " + model);
                 }
 
-                if (attempt < maxRetries) {
-                    // Per-minute/per-request rate limit — worth retrying
-                    long waitMs = 15_000;
-                    try {
-                        // Parse "try again in Xm Y.Zs" or "try again in Y.Zs"
-                        java.util.regex.Matcher retryMatcher = Pattern.compile(
-                                "try again in (?:(\\d+)m)?([\\d.]+)s").matcher(error);
-                        if (retryMatcher.find()) {
-                            long minutes = retryMatcher.group(1) != null
-                                    ? Long.parseLong(retryMatcher.group(1)) : 0;
-                            double seconds = Double.parseDouble(retryMatcher.group(2));
-                            waitMs = (minutes * 60_000) + (long) (seconds * 1000) + 1000;
-                            // Cap at 30s — don't wait minutes for rate limits
-                            waitMs = Math.min(waitMs, 30_000);
-                        }
-                    } catch (Exception ignored) {}
+                if (responseCode == 400) {
+                    // Some providers return 400 tool_use_failed when the model generates
+                    // tool calls in XML format instead of structured format.
+                    // Parse the failed_generation and build a synthetic tool_calls response.
+                    String error = readStream(response.body());
+
+                    JsonObject syntheticResponse = tryParseGroqFailedGeneration(error);
+                    if (syntheticResponse != null) {
+                        settled = true; // The model did generate — its tokens were spent
+                        MCAi.LOGGER.info("Recovered tool_use_failed via failed_generation parsing");
+                        StructuredOutput.countRecovery(schema == null && StructuredOutput.isEnabled());
+                        AiLogger.log(AiLogger.Category.AI_REQUEST, "WARN",
+                                "Cloud 400 tool_use_failed — recovered via failed_generation parsing");
+                        return syntheticResponse;
+                    }
+                    throw new AiHttpClient.HttpStatusException(400, "Cloud AI returned HTTP 400: " + error);
+                }
 
-                    MCAi.LOGGER.info("Cloud AI rate limited (429), retrying in {}ms (attempt {}/{})",
-                            waitMs, attempt + 1, maxRetries);
-                    AiLogger.log(AiLogger.Category.AI_REQUEST, "WARN",
-                            "Cloud AI rate limited, waiting " + waitMs + "ms before retry " + (attempt + 1));
+                if (responseCode != 200) {
+                    String error = readStream(response.body());
+                    throw new AiHttpClient.HttpStatusException(responseCode,
+                            "Cloud AI returned HTTP " + responseCode + ": " + error);
+                }
 
-                    try { Thread.sleep(waitMs); } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        throw new IOException("Interrupted while waiting for rate limit retry");
+                settled = true; // 200: the provider spent the tokens even if the body fails to parse
+                if (listener != null) {
+                    try {
+                        JsonObject streamed = StreamingResponseParser.readOpenAiStream(response.body(), listener);
+                        recordUsage(limiter, estimatedTokens, streamed);
+                        return streamed;
+                    } catch (StreamingResponseParser.StreamErrorException streamErr) {
+                        // tool_use_failed can also arrive mid-stream — same recovery as the 400 path
+                        JsonObject syntheticResponse = tryParseGroqFailedGeneration(streamErr.getErrorBody());
+                        if (syntheticResponse != null) {
+                            MCAi.LOGGER.info("Recovered streamed tool_use_failed via failed_generation parsing");
+                            return syntheticResponse;
+                        }
+                        throw streamErr;
                     }
-                    continue;
                 }
-                // All retries exhausted
-                throw new IOException("429 rate limit exceeded after " + maxRetries + " retries for " + model);
+
+                String responseBody = readStream(response.body());
+                JsonObject parsed = JsonParser.parseString(responseBody).getAsJsonObject();
+                recordUsage(limiter, estimatedTokens, parsed);
+                return parsed;
+            } finally {
+                AiExecutor.releaseBackend(backend);
+                if (!settled) limiter.release(estimatedTokens, sent);
             }
+        }
+
+        throw new AiHttpClient.HttpStatusException(429, "429 Cloud AI rate limit exceeded after " + maxRetries + " retries");
+    }
 
-            if (responseCode == 400) {
-                // Some providers return 400 tool_use_failed when the model generates
-                // tool calls in XML format instead of structured format.
-                // Parse the failed_generation and build a synthetic tool_calls response.
-                String error = readStream(conn.getErrorStream());
-                conn.disconnect();
-
-                JsonObject syntheticResponse = tryParseGroqFailedGeneration(error);
-                if (syntheticResponse != null) {
-                    MCAi.LOGGER.info("Recovered tool_use_failed via failed_generation parsing");
-                    AiLogger.log(AiLogger.Category.AI_REQUEST, "WARN",
-                            "Cloud 400 tool_use_failed — recovered via failed_generation parsing");
-                    return syntheticResponse;
+    /**
+     * Wait until the limiter has capacity for this request. The wait parks the virtual
+     * thread, so no worker is held. If capacity is further away than the configured
+     * maximum, fail with a 429-style error so the agent loop moves to the next backend
+     * without spending a request on a guaranteed rejection.
+     */
+    private static void awaitRateLimit(RateLimiter limiter, AiBackend backend, int estimatedTokens) throws IOException {
+        long maxWaitMs = getMaxRateLimitWaitMs();
+        long waitedMs = 0;
+        while (true) {
+            long waitMs = limiter.tryReserve(estimatedTokens);
+            if (waitMs == 0) {
+                if (waitedMs > 0) {
+                    AiLogger.performance("Rate limiter delay (" + backend.displayName() + ")", waitedMs);
                 }
-                throw new IOException("Cloud AI returned HTTP 400: " + error);
+                return;
+            }
+            if (waitedMs + waitMs > maxWaitMs) {
+                RateLimiter.countRerouted();
+                AiLogger.log(AiLogger.Category.AI_REQUEST, "WARN",
+                        "Rate limiter: " + backend.displayName() + " has no capacity for ~" + estimatedTokens
+                                + " tokens for " + waitMs + "ms — skipping to next backend");
+                throw new RateLimiter.ReroutedException("429 rate limit predicted for " + backend.model() + " (rerouted)");
             }
+            if (waitedMs == 0) RateLimiter.countDelayed();
+            try {
+                Thread.sleep(waitMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for rate limit capacity");
+            }
+            waitedMs += waitMs;
+        }
+    }
 
-            if (responseCode != 200) {
-                String error = readStream(conn.getErrorStream());
-                conn.disconnect();
-                throw new IOException("Cloud AI returned HTTP " + responseCode + ": " + error);
+    /** Correct the limiter's token reservation with the provider-reported usage, and note prompt-cache hits. */
+    private static void recordUsage(RateLimiter limiter, int estimatedTokens, JsonObject response) {
+        if (!response.has("usage") || !response.get("usage").isJsonObject()) return;
+        JsonObject usage = response.getAsJsonObject("usage");
+        PromptCacheStats.recordCloud(usage);
+        if (limiter != null && usage.has("total_tokens")) {
+            limiter.recordUsage(estimatedTokens, usage.get("total_tokens").getAsInt());
+        }
+    }
+
+    /**
+     * How long the provider wants us to wait after a 429: the Retry-After header,
+     * or "try again in Xm Y.Zs" in the error body. Defaults to 15 seconds.
+     */
+    private static long parseRetryAfterMs(HttpResponse<?> response, String error) {
+        long headerMs = response.headers().firstValue("retry-after")
+                .map(RateLimiter::parseDuration).orElse(0L);
+        if (headerMs > 0) return headerMs;
+        try {
+            // Parse "try again in Xm Y.Zs" or "try again in Y.Zs"
+            Matcher retryMatcher = Pattern.compile(
+                    "try again in (?:(\\d+)m)?([\\d.]+)s").matcher(error);
+            if (retryMatcher.find()) {
+                long minutes = retryMatcher.group(1) != null
+                        ? Long.parseLong(retryMatcher.group(1)) : 0;
+                double seconds = Double.parseDouble(retryMatcher.group(2));
+                return (minutes * 60_000) + (long) (seconds * 1000) + 1000;
             }
+        } catch (Exception ignored) {}
+        return 15_000;
+    }
 
-            String responseBody = readStream(conn.getInputStream());
-            conn.disconnect();
-            return JsonParser.parseString(responseBody).getAsJsonObject();
+    private static boolean isRateLimiterEnabled() {
+        try {
+            return AiConfig.RATE_LIMITER_ENABLED.get();
+        } catch (Exception e) {
+            return false;
         }
+    }
 
-        throw new IOException("429 Cloud AI rate limit exceeded after " + maxRetries + " retries");
+    private static long getMaxRateLimitWaitMs() {
+        try {
+            return AiConfig.MAX_RATE_LIMIT_WAIT_MS.get();
+        } catch (Exception e) {
+            return 15_000;
+        }
     }
 
     /**
@@ -1096,7 +1534,7 @@ public class AIService {
     }
 
     /** Coerce string values that look like numbers to actual numbers (Scout bug workaround). */
-    private static JsonObject coerceStringNumbers(JsonObject obj) {
+    static JsonObject coerceStringNumbers(JsonObject obj) {
         JsonObject fixed = new JsonObject();
         for (var entry : obj.entrySet()) {
             JsonElement val = entry.getValue();
@@ -1121,12 +1559,55 @@ public class AIService {
         return fixed;
     }
 
-    private static String buildSystemPrompt(String playerContext, String companionName) {
+    /** Summary of the turns that no longer appear verbatim in the history ("" if none). */
+    static String conversationDigest(ToolContext toolCtx) {
+        if (toolCtx.player() == null) return "";
+        CompanionEntity companion = CompanionEntity.getLivingCompanion(toolCtx.player().getUUID());
+        return companion != null ? companion.getMemory().getConversationDigest() : "";
+    }
+
+    /**
+     * The static system prompt: persona and rules, nothing that changes between turns.
+     * Built once per companion name and config load, so every request starts with the
+     * byte-identical prefix that Ollama's KV cache and provider prompt caching can reuse.
+     * Per-turn state goes in {@link #contextMessage}, right before the player's message.
+     */
+    static String staticSystemPrompt(String companionName) {
+        return STATIC_PROMPTS.computeIfAbsent(companionName, AIService::buildStaticSystemPrompt);
+    }
+
+    /**
+     * First history message to send. The window is cut in blocks: it grows to
+     * {@link #HISTORY_MAX} messages, then drops back to the newest {@link #HISTORY_KEEP}+1,
+     * so between cuts the history is append-only and stays a cached prefix, instead of
+     * sliding (and invalidating the cache) on every turn.
+     */
+    static int historyStart(int size) {
+        if (size <= HISTORY_MAX) return 0;
+        int step = HISTORY_MAX - HISTORY_KEEP;
+        return (size - HISTORY_KEEP - 1) / step * step;
+    }
+
+    /** The volatile part of the prompt — game state and the conversation digest. */
+    static JsonObject contextMessage(String playerContext, String digest) {
+        JsonObject msg = new JsonObject();
+        msg.addProperty("role", "system");
+        msg.addProperty("content", "Current state:\n" + playerContext
+                + (digest.isEmpty() ? "" : "\n\nEarlier in this conversation (summary):\n" + digest));
+        return msg;
+    }
+
+    /** Config reloaded — rebuild the static prompts. */
+    public static void invalidatePromptCache() {
+        STATIC_PROMPTS.clear();
+    }
+
+    private static String buildStaticSystemPrompt(String companionName) {
         return """
                 You are %s, a Minecraft AI companion. Helpful, concise, friendly. Under 3 sentences.
                 
                 RULES:
-                - You have your OWN inventory (27 slots) separate from the player's inventory. Items you gather, craft, or pick up go into YOUR inventory. You also have equipment slots (mainhand, offhand, armor) — check "Companion equipped" in the context below to see what you currently have equipped BEFORE crafting tools or armor.
+                - You have your OWN inventory (27 slots) separate from the player's inventory. Items you gather, craft, or pick up go into YOUR inventory. You also have equipment slots (mainhand, offhand, armor) — check "Companion equipped" in the current state message to see what you currently have equipped BEFORE crafting tools or armor.
                 - When asked to DO something, CALL the tool immediately. Never explain syntax.
                 - "how to make X" / "recipe for X" → get_recipe (info only)
                 - "make X" / "craft X" / "I need X" → craft_item (action)
@@ -1248,9 +1729,7 @@ public class AIService {
                 
                 Dimensions:
                   Overworld — normal. Nether — fire/lava, needs obsidian portal (4x5 frame + flint&steel). End — endermen+dragon, needs ender_eyes in stronghold portal.
-                
-                Current state:
-                """.formatted(companionName) + playerContext;
+                """.formatted(companionName);
     }
 
     private static String readStream(InputStream stream) throws IOException {
@@ -1266,9 +1745,11 @@ public class AIService {
     }
 
     public static void shutdown() {
-        if (executor != null) {
-            executor.shutdown();
-        }
+        PlanExecutor.reset();
+        ChatPrefetch.clear();
+        MacroCache.flush();
+        WebCache.flush();
+        AiExecutor.shutdown();
         AiLogger.shutdown();
     }
 
@@ -1294,7 +1775,7 @@ public class AIService {
 
     private static void continueAfterTask(TaskContinuation continuation, String taskResult,
                                            ServerPlayer player, String companionName, int attempt) {
-        if (executor == null || executor.isShutdown()) return;
+        if (!AiExecutor.isRunning()) return;
 
         boolean isFailed = taskResult.startsWith("FAILED:");
         String syntheticMessage;
@@ -1311,12 +1792,14 @@ public class AIService {
                 player.getName().getString(), attempt + 1, syntheticMessage);
 
         // Add system note only on first attempt to avoid duplicates
+        ConversationStore.History history = ConversationStore.forPlayer(player.getUUID());
         if (attempt == 0) {
             String statusLabel = isFailed ? "Task failed" : "Task completed";
-            ConversationManager.addSystemMessage("[" + statusLabel + ": " + taskResult + "]");
+            history.addSystemMessage("[" + statusLabel + ": " + taskResult + "]");
         }
 
-        chat(syntheticMessage, player, ConversationManager.getHistoryForAI(), companionName)
+        chat(syntheticMessage, player, history.forAI(), companionName,
+                ChatResponseChunkPacket.sinkFor(player))
                 .thenAccept(response -> {
                     // Check if response indicates all backends failed — retry if so
                     if (response != null && attempt < 3 &&
@@ -1336,6 +1819,10 @@ public class AIService {
                     });
                 })
                 .exceptionally(ex -> {
+                    if (CancellationToken.isCancellation(ex)) {
+                        MCAi.LOGGER.info("Task continuation superseded by a new player message");
+                        return null;
+                    }
                     MCAi.LOGGER.error("Task continuation failed (attempt {})", attempt + 1, ex);
                     if (attempt < 3) {
                         MCAi.LOGGER.info("Scheduling continuation retry in 30s (attempt {})", attempt + 2);
@@ -1384,17 +1871,33 @@ public class AIService {
      */
     public static void executeToolDeterministic(String toolName, JsonObject args,
                                                  ServerPlayer player, String companionName) {
-        if (executor == null || executor.isShutdown()) {
+        executeToolDeterministic(toolName, args, player, companionName, 0);
+    }
+
+    /**
+     * Same as above, as the next link of a task chain a plan may be waiting on: tasks the
+     * tool queues join the chain, and a synchronous result ends it.
+     * @param chainId the chain being continued, or 0 for none
+     */
+    public static void executeToolDeterministic(String toolName, JsonObject args,
+                                                 ServerPlayer player, String companionName, long chainId) {
+        if (!AiExecutor.isRunning()) {
             MCAi.LOGGER.warn("Cannot execute deterministic tool — executor not running");
             return;
         }
 
-        executor.submit(() -> {
+        AiExecutor.submitForPlayer(player.getUUID(), () -> {
             try {
                 ToolContext toolCtx = new ToolContext(player, player.getServer());
                 MCAi.LOGGER.info("Deterministic tool execution: {} with args {}", toolName, args);
 
+                long mark = chainId != 0 ? PlanExecutor.taskMark(toolCtx) : -1;
                 String result = executeTool(toolName, args, toolCtx);
+                if (mark >= 0 && result != null && result.contains("[ASYNC_TASK]")
+                        && PlanExecutor.adoptTasks(toolCtx, mark, chainId) == 0) {
+                    // Nothing was queued after all — the chain ends here
+                    PlanExecutor.onStepSettled(player, chainId, toolName, null, null);
+                }
 
                 MCAi.LOGGER.info("Deterministic tool result: {}", result);
 
@@ -1406,7 +1909,7 @@ public class AIService {
                         net.neoforged.neoforge.network.PacketDistributor.sendToPlayer(
                                 player, new ChatResponsePacket(result.replaceAll("\\[ASYNC_TASK]", "").trim()));
                     });
-                    return;
+                    return null;
                 }
 
                 // For synchronous tools (like craft_item), send result and check
@@ -1415,6 +1918,11 @@ public class AIService {
                     net.neoforged.neoforge.network.PacketDistributor.sendToPlayer(
                             player, new ChatResponsePacket(result != null ? result : "Done."));
                 });
+                // End of a continuation chain — a suspended plan may be waiting on it
+                if (chainId != 0) {
+                    boolean failed = result == null || result.startsWith("Error");
+                    PlanExecutor.onStepSettled(player, chainId, toolName, failed ? String.valueOf(result) : null, null);
+                }
 
             } catch (Exception e) {
                 MCAi.LOGGER.error("Deterministic tool execution failed: {}", e.getMessage(), e);
@@ -1422,7 +1930,9 @@ public class AIService {
                     net.neoforged.neoforge.network.PacketDistributor.sendToPlayer(
                             player, new ChatResponsePacket("Tool execution failed: " + e.getMessage()));
                 });
+                if (chainId != 0) PlanExecutor.onStepSettled(player, chainId, toolName, String.valueOf(e.getMessage()), null);
             }
+            return null;
         });
     }
 }
@@ -0,0 +1,61 @@
+package com.apocscode.mcai.ai;
+
+import com.apocscode.mcai.config.AiConfig;
+
+/**
+ * The LLM backends the agent loop can talk to, in fallback order.
+ * Connection details are read from config on every call so a reload takes effect immediately.
+ */
+public enum AiBackend {
+    PRIMARY_CLOUD("cloud"),
+    FALLBACK_CLOUD("cloud-fallback"),
+    OLLAMA("ollama");
+
+    private final String displayName;
+
+    AiBackend(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String displayName() {
+        return displayName;
+    }
+
+    public boolean isCloud() {
+        return this != OLLAMA;
+    }
+
+    /** Whether this backend has the settings it needs (an API key for cloud backends). */
+    public boolean isConfigured() {
+        return switch (this) {
+            case PRIMARY_CLOUD -> AiConfig.isCloudEnabled();
+            case FALLBACK_CLOUD -> AiConfig.isCloudFallbackEnabled();
+            case OLLAMA -> true;
+        };
+    }
+
+    public String url() {
+        return switch (this) {
+            case PRIMARY_CLOUD -> AiConfig.CLOUD_URL.get();
+            case FALLBACK_CLOUD -> AiConfig.CLOUD_FALLBACK_URL.get();
+            // Force IPv4: Java may resolve "localhost" to IPv6 [::1] while Ollama binds IPv4 only
+            case OLLAMA -> AiConfig.OLLAMA_URL.get().replace("localhost", "127.0.0.1");
+        };
+    }
+
+    public String apiKey() {
+        return switch (this) {
+            case PRIMARY_CLOUD -> AiConfig.CLOUD_API_KEY.get();
+            case FALLBACK_CLOUD -> AiConfig.CLOUD_FALLBACK_API_KEY.get();
+            case OLLAMA -> "";
+        };
+    }
+
+    public String model() {
+        return switch (this) {
+            case PRIMARY_CLOUD -> AiConfig.CLOUD_MODEL.get();
+            case FALLBACK_CLOUD -> AiConfig.CLOUD_FALLBACK_MODEL.get();
+            case OLLAMA -> AiConfig.OLLAMA_MODEL.get();
+        };
+    }
+}
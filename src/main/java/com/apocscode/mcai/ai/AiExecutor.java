@@ -0,0 +1,182 @@
+package com.apocscode.mcai.ai;
+
+import com.apocscode.mcai.config.AiConfig;
+
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs AI work (agent loops, deterministic tool calls) on virtual threads.
+ *
+ * Every task gets its own virtual thread, so a conversation that is waiting on a
+ * slow provider, a rate-limit backoff or the server thread only parks that thread
+ * instead of occupying one of a few pool workers. Fairness comes from semaphores:
+ *   - per player:  how many AI tasks one player can have running at once
+ *   - per backend: how many HTTP exchanges may be in flight to each LLM backend
+ *
+ * Tasks waiting for a player slot are counted in the queue-depth gauge.
+ */
+public class AiExecutor {
+
+    private static ExecutorService executor;
+
+    private static final Map<UUID, Permits> playerPermits = new ConcurrentHashMap<>();
+    private static final Map<AiBackend, Permits> backendPermits = new ConcurrentHashMap<>();
+
+    private static final AtomicInteger queued = new AtomicInteger(0);
+    private static final AtomicInteger running = new AtomicInteger(0);
+    private static final AtomicInteger peakQueued = new AtomicInteger(0);
+    private static final AtomicInteger backendWaiting = new AtomicInteger(0);
+
+    public static void init() {
+        executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("MCAi-AI-", 0).factory());
+        // Limits are read lazily on first use — config is not loaded yet during mod construction
+        backendPermits.clear();
+        playerPermits.clear();
+    }
+
+    public static void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public static boolean isRunning() {
+        return executor != null && !executor.isShutdown();
+    }
+
+    /** Executor for helper work that is not tied to a player slot (e.g. early tool calls). */
+    public static Executor executor() {
+        return executor;
+    }
+
+    /**
+     * Run a task for a player on its own virtual thread, once that player has a free slot.
+     */
+    public static <T> CompletableFuture<T> submitForPlayer(UUID playerId, Supplier<T> task) {
+        Semaphore permits = playerPermits.computeIfAbsent(playerId, id -> new Permits(getPlayerLimit()));
+        return CompletableFuture.supplyAsync(() -> {
+            long waitStart = System.currentTimeMillis();
+            peakQueued.accumulateAndGet(queued.incrementAndGet(), Math::max);
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted waiting for AI slot", e);
+            } finally {
+                queued.decrementAndGet();
+            }
+
+            long waited = System.currentTimeMillis() - waitStart;
+            if (waited > 50) {
+                AiLogger.performance("Queued for player AI slot", waited);
+            }
+
+            running.incrementAndGet();
+            try {
+                return task.get();
+            } finally {
+                running.decrementAndGet();
+                permits.release();
+            }
+        }, executor);
+    }
+
+    /**
+     * Take an in-flight slot for a backend before sending a request to it.
+     * Parks the calling (virtual) thread while the backend is at its limit.
+     */
+    public static void acquireBackend(AiBackend backend) throws InterruptedIOException {
+        Semaphore permits = backendPermits.computeIfAbsent(backend, b -> new Permits(getBackendLimit(b)));
+        if (permits.tryAcquire()) return;
+
+        long waitStart = System.currentTimeMillis();
+        backendWaiting.incrementAndGet();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + backend.displayName() + " slot");
+        } finally {
+            backendWaiting.decrementAndGet();
+        }
+        AiLogger.performance("Waited for " + backend.displayName() + " slot", System.currentTimeMillis() - waitStart);
+    }
+
+    public static void releaseBackend(AiBackend backend) {
+        Semaphore permits = backendPermits.get(backend);
+        if (permits != null) permits.release();
+    }
+
+    /**
+     * Apply edited concurrency limits to the existing semaphores. They are resized in place
+     * rather than replaced, so slots held by running tasks are still returned to the right one;
+     * after a decrease, new tasks wait until enough of those are released.
+     */
+    public static void applyLimits() {
+        playerPermits.values().forEach(permits -> permits.resize(getPlayerLimit()));
+        backendPermits.forEach((backend, permits) -> permits.resize(getBackendLimit(backend)));
+    }
+
+    /** Tasks waiting for a player slot right now. */
+    public static int getQueueDepth() {
+        return queued.get();
+    }
+
+    /** Tasks currently running (holding a player slot). */
+    public static int getRunningCount() {
+        return running.get();
+    }
+
+    public static String getStats() {
+        return String.format("aiQueue: waiting=%d, running=%d, peakWaiting=%d, backendWaiting=%d",
+                queued.get(), running.get(), peakQueued.get(), backendWaiting.get());
+    }
+
+    // ---- Config (may not be loaded yet) ----
+
+    private static int getPlayerLimit() {
+        try {
+            return AiConfig.MAX_CONCURRENT_PER_PLAYER.get();
+        } catch (Exception e) {
+            return 1;
+        }
+    }
+
+    private static int getBackendLimit(AiBackend backend) {
+        try {
+            return backend.isCloud() ? AiConfig.MAX_CONCURRENT_CLOUD_REQUESTS.get()
+                    : AiConfig.MAX_CONCURRENT_OLLAMA_REQUESTS.get();
+        } catch (Exception e) {
+            return backend.isCloud() ? 4 : 2;
+        }
+    }
+
+    /** A fair semaphore whose number of permits can be changed while some are held. */
+    private static final class Permits extends Semaphore {
+        private int limit;
+
+        Permits(int limit) {
+            super(limit, true);
+            this.limit = limit;
+        }
+
+        synchronized void resize(int newLimit) {
+            if (newLimit > limit) {
+                release(newLimit - limit);
+            } else if (newLimit < limit) {
+                reducePermits(limit - newLimit);
+            }
+            limit = newLimit;
+        }
+    }
+}
@@ -0,0 +1,367 @@
+package com.apocscode.mcai.ai;
+
+import com.apocscode.mcai.MCAi;
+import com.apocscode.mcai.config.AiConfig;
+
+import javax.net.ssl.SSLSession;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared HTTP client for every outgoing MCAi request — LLM calls, web tools and Whisper uploads.
+ *
+ * One {@link HttpClient} keeps a pool of keep-alive connections, so the agent loop
+ * pays TCP + TLS setup to the cloud provider once instead of on every iteration.
+ * HTTPS endpoints negotiate HTTP/2 (several requests multiplexed on one connection);
+ * plain-http endpoints (local Ollama / Whisper) are pinned to HTTP/1.1 to avoid h2c
+ * upgrade headers, which some local servers reject.
+ *
+ * The request timeout only covers the wait for response headers, so bodies get their
+ * own deadline: a streamed body (InputStream) is closed when no data arrives for the
+ * request's timeout, like the old connection read timeout; any other body must be
+ * complete within a second timeout period after that. Callers that read a whole body
+ * (web pages) can also cap its total read time with {@link #limitBody}, so a server
+ * trickling a byte at a time can't keep the stream open forever.
+ *
+ * Pooling shows in the stats as HTTPS responses against the distinct TLS sessions they
+ * arrived on: a pooled connection keeps its session, a new connection negotiates a new
+ * one. The JDK client has no hook for plain-http connections, so local Ollama / Whisper
+ * traffic counts toward requests only.
+ */
+public class AiHttpClient {
+
+    private static volatile HttpClient client;
+
+    /** Streamed bodies currently being read, checked by the watchdog */
+    private static final Set<DeadlineInputStream> openBodies = ConcurrentHashMap.newKeySet();
+    private static final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "MCAi-HttpWatchdog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        watchdog.scheduleWithFixedDelay(AiHttpClient::closeStalledBodies, 500, 500, TimeUnit.MILLISECONDS);
+    }
+
+    private static final AtomicInteger requests = new AtomicInteger(0);
+    private static final AtomicInteger bodyTimeouts = new AtomicInteger(0);
+    private static final AtomicInteger httpsResponses = new AtomicInteger(0);
+    private static final AtomicInteger tlsSessions = new AtomicInteger(0);
+    /** TLS sessions seen so far (id + creation time), forgotten in bulk when full */
+    private static final Set<String> seenSessions = ConcurrentHashMap.newKeySet();
+    private static final int MAX_SEEN_SESSIONS = 256;
+
+    /**
+     * Get the shared client, building it on first use from the current config.
+     */
+    public static HttpClient get() {
+        HttpClient c = client;
+        if (c == null) {
+            synchronized (AiHttpClient.class) {
+                c = client;
+                if (c == null) {
+                    c = build();
+                    client = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    private static HttpClient build() {
+        // Read by the JDK connection pool when the first client is created
+        if (System.getProperty("jdk.httpclient.keepalive.timeout") == null) {
+            System.setProperty("jdk.httpclient.keepalive.timeout", String.valueOf(getKeepAliveSeconds()));
+        }
+        boolean http2 = isHttp2Enabled();
+        MCAi.LOGGER.info("MCAi HTTP client ready (http2={}, connectTimeout={}ms, keepAlive={}s)",
+                http2, getConnectTimeoutMs(), getKeepAliveSeconds());
+        return HttpClient.newBuilder()
+                .version(http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(getConnectTimeoutMs()))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    /**
+     * Start a request with the endpoint's own timeout.
+     * The timeout covers waiting for the response headers; {@link #send} then gives the
+     * body its own deadline (idle timeout for streams, see class doc).
+     */
+    public static HttpRequest.Builder request(String url, int timeoutMs) {
+        URI uri = URI.create(url);
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofMillis(timeoutMs));
+        if ("http".equalsIgnoreCase(uri.getScheme())) {
+            builder.version(HttpClient.Version.HTTP_1_1);
+        }
+        return builder;
+    }
+
+    /**
+     * Send a request asynchronously on the shared client.
+     * Cancelling the returned future aborts the exchange.
+     */
+    public static <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request,
+                                                                   HttpResponse.BodyHandler<T> handler) {
+        requests.incrementAndGet();
+        CompletableFuture<HttpResponse<T>> future = get().sendAsync(request, handler);
+        // Not chained into the returned future, so cancelling that still aborts the exchange
+        future.thenAccept(AiHttpClient::countSession);
+        return future;
+    }
+
+    private static void countSession(HttpResponse<?> response) {
+        response.sslSession().ifPresent(session -> {
+            httpsResponses.incrementAndGet();
+            if (seenSessions.size() >= MAX_SEEN_SESSIONS) seenSessions.clear();
+            String key = HexFormat.of().formatHex(session.getId()) + "@" + session.getCreationTime();
+            if (seenSessions.add(key)) tlsSessions.incrementAndGet();
+        });
+    }
+
+    /**
+     * Send a request and wait for the response. Interrupting the calling thread
+     * cancels the exchange and closes its stream.
+     *
+     * An InputStream body is returned wrapped with the idle deadline (see class doc);
+     * other bodies must arrive within twice the request timeout.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> HttpResponse<T> send(HttpRequest request,
+                                           HttpResponse.BodyHandler<T> handler) throws IOException {
+        CompletableFuture<HttpResponse<T>> future = sendAsync(request, handler);
+        long timeoutMs = request.timeout().map(Duration::toMillis).orElse(0L);
+        try {
+            HttpResponse<T> response = timeoutMs > 0 ? future.get(timeoutMs * 2, TimeUnit.MILLISECONDS) : future.get();
+            if (timeoutMs > 0 && response.body() instanceof InputStream body) {
+                return (HttpResponse<T>) new WrappedResponse((HttpResponse<InputStream>) response,
+                        new DeadlineInputStream(body, timeoutMs, request.uri().getHost()));
+            }
+            return response;
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            bodyTimeouts.incrementAndGet();
+            throw new HttpTimeoutException("HTTP response from " + request.uri().getHost()
+                    + " not complete after " + timeoutMs * 2 + "ms");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("HTTP request to " + request.uri().getHost() + " interrupted");
+        } catch (CancellationException e) {
+            throw new InterruptedIOException("HTTP request to " + request.uri().getHost() + " cancelled");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) throw io;
+            throw new IOException(cause != null ? cause.getMessage() : e.getMessage(), cause);
+        }
+    }
+
+    /**
+     * A backend answered with an error status. The message keeps the status text
+     * ("... HTTP 503: ...", "429 rate limit ..."), but callers classify by {@link #status()}.
+     */
+    public static class HttpStatusException extends IOException {
+        private final int status;
+
+        public HttpStatusException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+
+        public int status() {
+            return status;
+        }
+    }
+
+    /**
+     * A 429 that will not clear by retrying (daily token quota, OpenRouter free-tier limit).
+     * The circuit breaker opens on the first one instead of counting towards its threshold.
+     */
+    public static class QuotaExhaustedException extends HttpStatusException {
+        public QuotaExhaustedException(String message) {
+            super(429, message);
+        }
+    }
+
+    /**
+     * Close a streamed body from {@link #send} once it has been read for totalMs, however
+     * steadily data is arriving. Later reads fail with an HttpTimeoutException.
+     */
+    public static InputStream limitBody(InputStream body, long totalMs) {
+        if (body instanceof DeadlineInputStream deadline) {
+            deadline.expiresAtMs = System.currentTimeMillis() + totalMs;
+        }
+        return body;
+    }
+
+    /**
+     * Drop the pooled client so the next request picks up new config.
+     * In-flight requests finish on the old client.
+     */
+    public static void reset() {
+        HttpClient old;
+        synchronized (AiHttpClient.class) {
+            old = client;
+            client = null;
+        }
+        // Stops accepting requests; in-flight ones finish, then its connections close
+        if (old != null) old.shutdown();
+    }
+
+    /** Request counts, connection reuse (HTTPS responses per TLS session) and body timeouts. */
+    public static String getStats() {
+        int https = httpsResponses.get();
+        int sessions = tlsSessions.get();
+        return String.format("http: requests=%d, https=%d on %d TLS sessions (%d reused), bodyTimeouts=%d",
+                requests.get(), https, sessions, Math.max(0, https - sessions), bodyTimeouts.get());
+    }
+
+    /** Reset counters (for testing) */
+    public static void resetStats() {
+        requests.set(0);
+        bodyTimeouts.set(0);
+        httpsResponses.set(0);
+        tlsSessions.set(0);
+        seenSessions.clear();
+    }
+
+    // ================================================================
+    // Body deadline
+    // ================================================================
+
+    private static void closeStalledBodies() {
+        long now = System.currentTimeMillis();
+        for (DeadlineInputStream body : openBodies) {
+            if (now - body.lastDataMs > body.idleTimeoutMs || now > body.expiresAtMs) body.expire();
+        }
+    }
+
+    /**
+     * Streamed response body that the watchdog closes after idleTimeoutMs without data
+     * (or past its total deadline), which makes a blocked read fail instead of hanging
+     * its thread.
+     */
+    private static final class DeadlineInputStream extends FilterInputStream {
+        private final long idleTimeoutMs;
+        private final String host;
+        private volatile long lastDataMs = System.currentTimeMillis();
+        /** Set by {@link #limitBody} */
+        private volatile long expiresAtMs = Long.MAX_VALUE;
+        private volatile boolean expired = false;
+
+        DeadlineInputStream(InputStream in, long idleTimeoutMs, String host) {
+            super(in);
+            this.idleTimeoutMs = idleTimeoutMs;
+            this.host = host;
+            openBodies.add(this);
+        }
+
+        void expire() {
+            expired = true;
+            bodyTimeouts.incrementAndGet();
+            openBodies.remove(this);
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        private int track(int result) throws IOException {
+            if (expired) throw timeout();
+            if (result < 0) openBodies.remove(this);
+            else lastDataMs = System.currentTimeMillis();
+            return result;
+        }
+
+        private IOException timeout() {
+            return System.currentTimeMillis() > expiresAtMs
+                    ? new HttpTimeoutException("Body from " + host + " still incomplete at its deadline")
+                    : new HttpTimeoutException("No data from " + host + " for " + idleTimeoutMs + "ms");
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return track(in.read());
+            } catch (IOException e) {
+                throw expired ? timeout() : e;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return track(in.read(b, off, len));
+            } catch (IOException e) {
+                throw expired ? timeout() : e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            openBodies.remove(this);
+            in.close();
+        }
+    }
+
+    /** The same response with its body replaced by the deadline-wrapped stream. */
+    private record WrappedResponse(HttpResponse<InputStream> delegate, InputStream body)
+            implements HttpResponse<InputStream> {
+        @Override public int statusCode() { return delegate.statusCode(); }
+        @Override public HttpRequest request() { return delegate.request(); }
+        @Override public Optional<HttpResponse<InputStream>> previousResponse() { return delegate.previousResponse(); }
+        @Override public HttpHeaders headers() { return delegate.headers(); }
+        @Override public Optional<SSLSession> sslSession() { return delegate.sslSession(); }
+        @Override public URI uri() { return delegate.uri(); }
+        @Override public HttpClient.Version version() { return delegate.version(); }
+    }
+
+    // ---- Config (may not be loaded yet) ----
+
+    private static int getConnectTimeoutMs() {
+        try {
+            return AiConfig.HTTP_CONNECT_TIMEOUT_MS.get();
+        } catch (Exception e) {
+            return 10000;
+        }
+    }
+
+    private static int getKeepAliveSeconds() {
+        try {
+            return AiConfig.HTTP_KEEP_ALIVE_SECONDS.get();
+        } catch (Exception e) {
+            return 120;
+        }
+    }
+
+    private static boolean isHttp2Enabled() {
+        try {
+            return AiConfig.HTTP2_ENABLED.get();
+        } catch (Exception e) {
+            return true;
+        }
+    }
+}
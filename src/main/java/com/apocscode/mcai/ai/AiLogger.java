@@ -1,6 +1,11 @@
 package com.apocscode.mcai.ai;
 
 import com.apocscode.mcai.MCAi;
+import com.apocscode.mcai.ai.tool.KeywordMatcher;
+import com.apocscode.mcai.ai.tool.SemanticToolRouter;
+import com.apocscode.mcai.ai.tool.ToolResultCache;
+import com.apocscode.mcai.ai.tool.ToolSchemaCache;
+import com.apocscode.mcai.ai.tool.WebCache;
 import com.apocscode.mcai.config.AiConfig;
 
 import java.io.*;
@@ -9,6 +14,7 @@ import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Comprehensive diagnostic logging system for MCAi.
@@ -32,7 +38,7 @@ import java.util.concurrent.atomic.AtomicLong;
  * File rotates at 10MB (keeps one .old backup).
  */
 public class AiLogger {
-    private static final String LOG_FILE = "logs/mcai_debug.log";
+    static final String LOG_FILE = "logs/mcai_debug.log";
     private static final long MAX_FILE_SIZE = 10 * 1024 * 1024; // 10MB
     private static final DateTimeFormatter TIMESTAMP_FMT =
             DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
@@ -53,6 +59,7 @@ public class AiLogger {
     private static final AtomicInteger commandCount = new AtomicInteger(0);
     private static final AtomicInteger blockedCommandCount = new AtomicInteger(0);
 
+    private static final ReentrantLock WRITE_LOCK = new ReentrantLock();
     private static PrintWriter writer;
     private static boolean initialized = false;
     private static long sessionStartMs;
@@ -97,11 +104,14 @@ public class AiLogger {
                     "=== MCAi Debug Logger Shutdown ===");
             log(Category.SYSTEM, "INFO",
                     "============================================");
-            synchronized (AiLogger.class) {
+            WRITE_LOCK.lock();
+            try {
                 if (writer != null) {
                     writer.close();
                     writer = null;
                 }
+            } finally {
+                WRITE_LOCK.unlock();
             }
             initialized = false;
         }
@@ -118,10 +128,15 @@ public class AiLogger {
         String entry = String.format("[%s] [%-5s] [%-12s] %s",
                 timestamp, level, category, message);
 
-        synchronized (AiLogger.class) {
+        // A lock rather than synchronized: callers run on virtual threads, which
+        // would otherwise pin their carrier thread during the file write
+        WRITE_LOCK.lock();
+        try {
             if (writer != null) {
                 writer.println(entry);
             }
+        } finally {
+            WRITE_LOCK.unlock();
         }
 
         // Mirror to standard logger at appropriate level
@@ -147,14 +162,19 @@ public class AiLogger {
 
     /** Log an outgoing AI response */
     public static void aiResponse(String response, long durationMs) {
+        aiResponse(null, response, durationMs);
+    }
+
+    /** Log an outgoing AI response to a player (named so the log can be read per player) */
+    public static void aiResponse(String playerName, String response, long durationMs) {
         if (!isEnabled()) return;
         aiResponseCount.incrementAndGet();
         totalAiResponseTimeMs.addAndGet(durationMs);
         if (isLogAiRequests()) {
             log(Category.AI_RESPONSE, "INFO",
-                    String.format("[%dms] Response (%d chars): %.200s%s",
-                            durationMs, response.length(), response,
-                            response.length() > 200 ? "..." : ""));
+                    String.format("[%dms] Response%s (%d chars): %.200s%s",
+                            durationMs, playerName == null ? "" : " to '" + playerName + "'",
+                            response.length(), response, response.length() > 200 ? "..." : ""));
         }
     }
 
@@ -164,11 +184,17 @@ public class AiLogger {
 
     /** Log a tool invocation (before execution) */
     public static void toolCall(String toolName, String argsSummary) {
+        toolCall(null, toolName, argsSummary);
+    }
+
+    /** Log a tool invocation for a player (before execution) */
+    public static void toolCall(String playerName, String toolName, String argsSummary) {
         if (!isEnabled()) return;
         toolCallCount.incrementAndGet();
         if (isLogToolCalls()) {
             log(Category.TOOL_CALL, "INFO",
-                    String.format(">>> CALL tool '%s' args: %s", toolName, truncate(argsSummary, 500)));
+                    String.format(">>> CALL tool '%s'%s args: %s", toolName,
+                            playerName == null ? "" : " for '" + playerName + "'", truncate(argsSummary, 500)));
         }
     }
 
@@ -188,6 +214,19 @@ public class AiLogger {
         }
     }
 
+    /** Log a tool call answered from the result cache */
+    public static void toolCacheHit(String toolName, String result) {
+        if (!isEnabled()) return;
+        if (isLogToolCalls()) {
+            log(Category.TOOL_RESULT, "INFO",
+                    String.format("<<< CACHED tool '%s' (%d chars)", toolName, result.length()));
+        }
+        if (isLogPerformance()) {
+            log(Category.PERFORMANCE, "INFO",
+                    String.format("Tool '%s': cache hit (%s)", toolName, ToolResultCache.getStats()));
+        }
+    }
+
     /** Log a tool execution error */
     public static void toolError(String toolName, String error, Throwable exception) {
         errorCount.incrementAndGet();
@@ -208,12 +247,13 @@ public class AiLogger {
     // Convenience methods — AI requests
     // ================================================================
 
-    /** Log an outgoing Ollama request */
-    public static void aiRequest(int messageCount, int toolCount, String model) {
+    /** Log an outgoing AI request with its estimated prompt tokens and tool definition weight */
+    public static void aiRequest(int messageCount, int messageTokens, ToolSchemaCache.ToolSet tools, String model) {
         if (!isEnabled() || !isLogAiRequests()) return;
         log(Category.AI_REQUEST, "INFO",
-                String.format("Sending to Ollama (model=%s, messages=%d, tools=%d)",
-                        model, messageCount, toolCount));
+                String.format("Sending request (model=%s, ~%d prompt tokens: messages=%d [~%d tokens], tools=%d [%d bytes, ~%d tokens])",
+                        model, messageTokens + tools.estimatedTokens(), messageCount, messageTokens,
+                        tools.size(), tools.bytes(), tools.estimatedTokens()));
     }
 
     /** Log agent loop iteration */
@@ -306,10 +346,15 @@ public class AiLogger {
 
         return String.format(
                 "SESSION STATS: uptime=%ds, messages=%d, aiResponses=%d (avg %dms), " +
-                "toolCalls=%d (avg %dms), commands=%d, blocked=%d, errors=%d",
+                "toolCalls=%d (avg %dms), commands=%d, blocked=%d, errors=%d, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s",
                 uptime, messageCount.get(), aiResponseCount.get(), avgAiMs,
                 toolCallCount.get(), avgToolMs, commandCount.get(),
-                blockedCommandCount.get(), errorCount.get());
+                blockedCommandCount.get(), errorCount.get(), AiHttpClient.getStats(), AiExecutor.getStats(),
+                CancellationToken.getStats(), RateLimiter.getStats(),
+                HedgedCall.getStats(), CircuitBreaker.getStats(), SemanticToolRouter.getStats(), KeywordMatcher.getStats(), ToolResultCache.getStats(),
+                IntentClassifier.getStats(), PlanExecutor.getStats(), MacroCache.getStats(),
+                StructuredOutput.getStats(), PromptCacheStats.getStats(), OllamaManager.getStats(),
+                ChatPrefetch.getStats(), WebCache.getStats());
     }
 
     /** Reset session statistics (for testing) */
@@ -322,6 +367,7 @@ public class AiLogger {
         totalToolTimeMs.set(0);
         commandCount.set(0);
         blockedCommandCount.set(0);
+        AiHttpClient.resetStats();
         sessionStartMs = System.currentTimeMillis();
     }
 
@@ -0,0 +1,109 @@
+package com.apocscode.mcai.ai;
+
+import com.apocscode.mcai.MCAi;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cancellation handle for one agent loop.
+ *
+ * Every {@link AIService#chat} registers a token for its player. When the player sends a
+ * new message, {@link #cancelAll(UUID)} cancels everything still in flight for them:
+ * the loop stops at its next check (between iterations and before each tool call), and
+ * the thread running it is interrupted, which aborts the HTTP exchange and its socket.
+ * A cancelled loop never posts its response or records it in the history.
+ */
+public final class CancellationToken {
+
+    private static final Map<UUID, Set<CancellationToken>> active = new ConcurrentHashMap<>();
+    private static final AtomicInteger cancelledCount = new AtomicInteger(0);
+
+    private final UUID playerId;
+    private volatile boolean cancelled = false;
+    /** Thread running the loop right now, interrupted on cancel */
+    private Thread worker;
+
+    private CancellationToken(UUID playerId) {
+        this.playerId = playerId;
+    }
+
+    /** Track a new request for the player until {@link #release()}. */
+    public static CancellationToken register(UUID playerId) {
+        CancellationToken token = new CancellationToken(playerId);
+        active.compute(playerId, (id, tokens) -> {
+            if (tokens == null) tokens = ConcurrentHashMap.newKeySet();
+            tokens.add(token);
+            return tokens;
+        });
+        return token;
+    }
+
+    /**
+     * Cancel every AI request in flight for the player.
+     * @return how many were cancelled
+     */
+    public static int cancelAll(UUID playerId) {
+        Set<CancellationToken> tokens = active.get(playerId);
+        if (tokens == null) return 0;
+        int count = 0;
+        for (CancellationToken token : tokens) {
+            if (token.cancel()) count++;
+        }
+        if (count > 0) {
+            cancelledCount.addAndGet(count);
+            MCAi.LOGGER.info("Cancelled {} superseded AI request(s) for {}", count, playerId);
+        }
+        return count;
+    }
+
+    /** Attach the current thread; cancelling from now on interrupts it. */
+    public synchronized void bind() {
+        worker = Thread.currentThread();
+        if (cancelled) worker.interrupt();
+    }
+
+    /** The request is done — detach the thread and stop tracking it. */
+    public void release() {
+        synchronized (this) {
+            // Don't leak a cancel interrupt into whatever the thread runs next
+            if (worker == Thread.currentThread() && cancelled) Thread.interrupted();
+            worker = null;
+        }
+        active.computeIfPresent(playerId, (id, tokens) -> {
+            tokens.remove(this);
+            return tokens.isEmpty() ? null : tokens;
+        });
+    }
+
+    private synchronized boolean cancel() {
+        if (cancelled) return false;
+        cancelled = true;
+        if (worker != null) worker.interrupt();
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void throwIfCancelled() {
+        if (cancelled) throw new CancellationException("AI request superseded by a newer message");
+    }
+
+    /** Whether a future failed because its request was cancelled. */
+    public static boolean isCancellation(Throwable t) {
+        for (Throwable c = t; c != null; c = c.getCause()) {
+            if (c instanceof CancellationException) return true;
+        }
+        return false;
+    }
+
+    public static String getStats() {
+        return "cancelledRequests=" + cancelledCount.get();
+    }
+}
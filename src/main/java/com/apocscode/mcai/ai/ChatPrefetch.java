@@ -0,0 +1,220 @@
+package com.apocscode.mcai.ai;
+
+import com.apocscode.mcai.MCAi;
+import com.apocscode.mcai.ai.tool.SemanticToolRouter;
+import com.apocscode.mcai.ai.tool.ToolResultCache;
+import com.apocscode.mcai.config.AiConfig;
+import com.apocscode.mcai.entity.CompanionEntity;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.Container;
+import net.minecraft.world.item.ItemStack;
+
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Speculative request preparation while the player types.
+ *
+ * When the chat screen opens (ChatOpenedPacket), the player/companion context is
+ * captured on the server thread, and the AI worker builds the static prompt, starts the
+ * tool router's index and optionally sends a warm-up request that opens the cloud
+ * connection (or loads the Ollama model). When the message arrives, {@link #contextFor}
+ * uses the captured context if it is still fresh — younger than prefetchMaxAgeSeconds,
+ * no world/inventory change since (ToolResultCache change tracking) and the player,
+ * companion and held item unchanged — and otherwise builds it as before.
+ *
+ * Tool selection needs the message text, so it can't be prefetched; only the router's
+ * index is. The saved time reported is the context and prompt building skipped on the
+ * request path; model residency shows in the Ollama stats.
+ */
+public class ChatPrefetch {
+
+    /** Don't repeat the warm-up request for every screen open */
+    private static final long WARMUP_INTERVAL_MS = 30_000;
+
+    private static final Map<UUID, Snapshot> snapshots = new ConcurrentHashMap<>();
+    private static volatile long lastWarmupMs = 0;
+
+    private static final AtomicInteger prefetched = new AtomicInteger(0);
+    private static final AtomicInteger chats = new AtomicInteger(0);
+    private static final AtomicInteger used = new AtomicInteger(0);
+    private static final AtomicInteger stale = new AtomicInteger(0);
+    private static final AtomicLong savedNanos = new AtomicLong(0);
+
+    private static final class Snapshot {
+        final String context;
+        final String fingerprint;
+        final long changeStamp;
+        final long capturedAtMs;
+        final long buildNanos;
+        /** Prompt building done on the worker, saved only if the snapshot is used */
+        volatile long warmNanos;
+
+        Snapshot(String context, String fingerprint, long changeStamp, long buildNanos) {
+            this.context = context;
+            this.fingerprint = fingerprint;
+            this.changeStamp = changeStamp;
+            this.capturedAtMs = System.currentTimeMillis();
+            this.buildNanos = buildNanos;
+        }
+    }
+
+    /**
+     * Chat screen opened. Runs on the server thread, so the context is read from a
+     * consistent game state.
+     */
+    public static void onChatOpened(ServerPlayer player, String companionName) {
+        if (!isEnabled() || !AiExecutor.isRunning()) return;
+        long start = System.nanoTime();
+        String context = AIService.buildPlayerContext(player);
+        Snapshot snapshot = new Snapshot(context, fingerprint(player), ToolResultCache.now(),
+                System.nanoTime() - start);
+        snapshots.put(player.getUUID(), snapshot);
+        prefetched.incrementAndGet();
+
+        AiExecutor.executor().execute(() -> {
+            try {
+                long warmStart = System.nanoTime();
+                AIService.staticSystemPrompt(companionName);
+                snapshot.warmNanos = System.nanoTime() - warmStart;
+                SemanticToolRouter.warmUp();
+                if (isWarmupRequestEnabled()) warmBackend();
+            } catch (Exception e) {
+                MCAi.LOGGER.debug("Chat prefetch warm-up failed: {}", e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * The game-state context for a chat request: the prefetched one when still fresh,
+     * otherwise built now. A snapshot is used at most once.
+     */
+    static String contextFor(ServerPlayer player) {
+        chats.incrementAndGet();
+        Snapshot snapshot = snapshots.remove(player.getUUID());
+        if (snapshot != null) {
+            if (isFresh(snapshot, player)) {
+                used.incrementAndGet();
+                savedNanos.addAndGet(snapshot.buildNanos + snapshot.warmNanos);
+                AiLogger.log(AiLogger.Category.AI_REQUEST, "INFO", String.format(
+                        "Prefetched context used (%dms old)", System.currentTimeMillis() - snapshot.capturedAtMs));
+                return snapshot.context;
+            }
+            stale.incrementAndGet();
+        }
+        return AIService.buildPlayerContext(player);
+    }
+
+    private static boolean isFresh(Snapshot snapshot, ServerPlayer player) {
+        return System.currentTimeMillis() - snapshot.capturedAtMs <= getMaxAgeSeconds() * 1000L
+                && !ToolResultCache.changedSince(player, snapshot.changeStamp)
+                && snapshot.fingerprint.equals(fingerprint(player));
+    }
+
+    /**
+     * The parts of the context that change without a world-version bump. Companion
+     * pickups, mining and crafting fire no player events, so the companion's inventory,
+     * equipment and memory are hashed in rather than trusted to bump the version.
+     */
+    private static String fingerprint(ServerPlayer player) {
+        StringBuilder sb = new StringBuilder()
+                .append(player.blockPosition().asLong()).append('/')
+                .append((int) player.getHealth()).append('/')
+                .append(player.getFoodData().getFoodLevel()).append('/')
+                .append(player.getInventory().selected).append('/')
+                .append(player.experienceLevel).append('/')
+                .append(player.level().getDayTime() % 24000 / 6000).append('/')
+                .append(player.level().isRaining()).append('/')
+                .append(player.level().isThundering());
+        CompanionEntity companion = CompanionEntity.getLivingCompanion(player.getUUID());
+        if (companion != null) {
+            int equipment = 0;
+            for (ItemStack stack : companion.getAllSlots()) equipment = 31 * equipment + stackHash(stack);
+            sb.append('/').append((int) companion.getHealth())
+                    .append('/').append(companion.getBehaviorMode().name())
+                    .append('/').append(companion.getLevelSystem().getDisplayString())
+                    .append('/').append(equipment)
+                    .append('/').append(containerHash(companion.getCompanionInventory()))
+                    .append('/').append(companion.getMemory().buildContextString().hashCode());
+        }
+        return sb.toString();
+    }
+
+    private static int containerHash(Container container) {
+        int hash = 0;
+        for (int i = 0; i < container.getContainerSize(); i++) hash = 31 * hash + stackHash(container.getItem(i));
+        return hash;
+    }
+
+    private static int stackHash(ItemStack stack) {
+        return stack.isEmpty() ? 0 : 31 * stack.getItem().hashCode() + stack.getCount();
+    }
+
+    /**
+     * Get the backend the next request will use ready: a models-list call reuses the
+     * pooled cloud connection (or opens it), Ollama gets its model loaded.
+     */
+    private static void warmBackend() {
+        long now = System.currentTimeMillis();
+        if (now - lastWarmupMs < WARMUP_INTERVAL_MS) return;
+        lastWarmupMs = now;
+
+        AiBackend backend = AiBackend.PRIMARY_CLOUD;
+        if (!backend.isConfigured() || CircuitBreaker.isOpen(backend)) {
+            OllamaManager.warmUp("chat opened");
+            return;
+        }
+        String url = backend.url();
+        if (!url.endsWith("/chat/completions")) return;
+        try {
+            HttpRequest request = AiHttpClient.request(url.replace("/chat/completions", "/models"), 5000)
+                    .header("Authorization", "Bearer " + backend.apiKey())
+                    .GET().build();
+            AiHttpClient.send(request, HttpResponse.BodyHandlers.discarding());
+        } catch (Exception e) {
+            MCAi.LOGGER.debug("Cloud warm-up request failed: {}", e.getMessage());
+        }
+    }
+
+    public static String getStats() {
+        int total = chats.get();
+        return String.format("chatPrefetch: prefetched=%d, used=%d, stale=%d, savedPerChat=%.1fms",
+                prefetched.get(), used.get(), stale.get(),
+                total > 0 ? savedNanos.get() / 1_000_000.0 / total : 0.0);
+    }
+
+    public static void clear() {
+        snapshots.clear();
+    }
+
+    // ---- Config (may not be loaded yet) ----
+
+    private static boolean isEnabled() {
+        try {
+            return AiConfig.CHAT_PREFETCH.get();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static int getMaxAgeSeconds() {
+        try {
+            return AiConfig.PREFETCH_MAX_AGE_SECONDS.get();
+        } catch (Exception e) {
+            return 20;
+        }
+    }
+
+    private static boolean isWarmupRequestEnabled() {
+        try {
+            return AiConfig.PREFETCH_WARMUP_REQUEST.get();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
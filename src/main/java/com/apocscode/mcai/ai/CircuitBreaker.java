@@ -0,0 +1,295 @@
+package com.apocscode.mcai.ai;
+
+import com.apocscode.mcai.MCAi;
+import com.apocscode.mcai.config.AiConfig;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-backend circuit breaker, so a dead backend is skipped instead of costing every
+ * chat a full timeout.
+ *
+ *   CLOSED    — requests flow; consecutive outage-type failures are counted
+ *   OPEN      — requests skip this backend; a background probe checks it periodically
+ *   HALF_OPEN — the probe succeeded; one trial request decides CLOSED or OPEN again
+ *
+ * Only failures that say something about the backend trip the breaker: connection
+ * errors, timeouts, 5xx, auth errors and exhausted rate limits, judged by the HTTP
+ * status the backend returned. Bad requests (400), cancelled requests and the rate
+ * limiter's own reroutes (no request was sent) do not. A daily-limit 429 opens the
+ * breaker immediately.
+ *
+ * Probes are cheap GETs: Ollama's /api/tags (via {@link OllamaManager}), or the
+ * provider's /models listing for cloud backends.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /** Longest wait between probes of an open backend */
+    private static final long MAX_PROBE_INTERVAL_MS = 300_000;
+    private static final int PROBE_TIMEOUT_MS = 3000;
+
+    private static final Map<AiBackend, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    private static final AtomicInteger trips = new AtomicInteger(0);
+    private static final AtomicInteger skipped = new AtomicInteger(0);
+
+    private final AiBackend backend;
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAtMs = 0;
+    private String lastError = "";
+    private final AtomicBoolean trialInFlight = new AtomicBoolean(false);
+    private final AtomicBoolean probing = new AtomicBoolean(false);
+
+    private CircuitBreaker(AiBackend backend) {
+        this.backend = backend;
+    }
+
+    public static CircuitBreaker forBackend(AiBackend backend) {
+        return breakers.computeIfAbsent(backend, CircuitBreaker::new);
+    }
+
+    /**
+     * Whether a request may be sent to this backend now. In HALF_OPEN only one trial
+     * request is let through; callers that get false should move on to the next backend.
+     */
+    public static boolean allowRequest(AiBackend backend) {
+        if (!isEnabled()) return true;
+        CircuitBreaker breaker = forBackend(backend);
+        synchronized (breaker) {
+            boolean allowed = switch (breaker.state) {
+                case CLOSED -> true;
+                case OPEN -> false;
+                case HALF_OPEN -> breaker.trialInFlight.compareAndSet(false, true);
+            };
+            if (!allowed) skipped.incrementAndGet();
+            return allowed;
+        }
+    }
+
+    /** Whether the breaker is currently refusing requests (no side effects). */
+    public static boolean isOpen(AiBackend backend) {
+        if (!isEnabled()) return false;
+        CircuitBreaker breaker = breakers.get(backend);
+        if (breaker == null) return false;
+        synchronized (breaker) {
+            return breaker.state == State.OPEN;
+        }
+    }
+
+    /**
+     * Whether the breaker is fully closed (no side effects). Unlike {@code !isOpen}, a
+     * HALF_OPEN backend counts as not closed, since only its one trial request may go there.
+     */
+    public static boolean isClosed(AiBackend backend) {
+        if (!isEnabled()) return true;
+        CircuitBreaker breaker = breakers.get(backend);
+        if (breaker == null) return true;
+        synchronized (breaker) {
+            return breaker.state == State.CLOSED;
+        }
+    }
+
+    public static void recordSuccess(AiBackend backend) {
+        CircuitBreaker breaker = breakers.get(backend);
+        if (breaker == null) return;
+        synchronized (breaker) {
+            if (breaker.state != State.CLOSED) {
+                MCAi.LOGGER.info("AI backend {} recovered — circuit closed", backend.displayName());
+                AiLogger.log(AiLogger.Category.AI_REQUEST, "INFO",
+                        "Circuit breaker: " + backend.displayName() + " closed (recovered)");
+            }
+            breaker.state = State.CLOSED;
+            breaker.consecutiveFailures = 0;
+            breaker.trialInFlight.set(false);
+        }
+    }
+
+    /**
+     * A request that was let through ended without a verdict (cancelled, lost a hedge race,
+     * rejected as malformed) — let the next request be the half-open trial instead.
+     */
+    public static void releaseTrial(AiBackend backend) {
+        CircuitBreaker breaker = breakers.get(backend);
+        if (breaker != null) breaker.trialInFlight.set(false);
+    }
+
+    public static void recordFailure(AiBackend backend, IOException error) {
+        if (!isEnabled()) return;
+        if (!isOutage(error)) {
+            releaseTrial(backend);
+            return;
+        }
+        CircuitBreaker breaker = forBackend(backend);
+        boolean opened = false;
+        synchronized (breaker) {
+            breaker.consecutiveFailures++;
+            breaker.lastError = error.getMessage() == null ? error.getClass().getSimpleName() : error.getMessage();
+            boolean exhausted = error instanceof AiHttpClient.QuotaExhaustedException;
+            if (breaker.state == State.HALF_OPEN || exhausted
+                    || (breaker.state == State.CLOSED && breaker.consecutiveFailures >= getFailureThreshold())) {
+                opened = breaker.state != State.OPEN;
+                breaker.state = State.OPEN;
+                breaker.openedAtMs = System.currentTimeMillis();
+                breaker.trialInFlight.set(false);
+            }
+        }
+        if (opened) {
+            trips.incrementAndGet();
+            String reason = breaker.lastError.length() > 120 ? breaker.lastError.substring(0, 120) : breaker.lastError;
+            MCAi.LOGGER.warn("AI backend {} unavailable — circuit open ({})", backend.displayName(), reason);
+            AiLogger.log(AiLogger.Category.AI_REQUEST, "WARN",
+                    "Circuit breaker: " + backend.displayName() + " opened after "
+                            + breaker.consecutiveFailures + " failure(s): " + reason);
+            breaker.startProbe();
+            // Ollama takes this backend's traffic now — make sure the model isn't cold
+            if (backend.isCloud()) OllamaManager.warmUp(backend.displayName() + " circuit open");
+        }
+    }
+
+    /**
+     * Whether a failure says the backend is unhealthy, rather than that this one request was bad.
+     */
+    static boolean isOutage(IOException error) {
+        if (error instanceof InterruptedIOException) return false; // Cancelled, e.g. a hedge that lost
+        if (error instanceof RateLimiter.ReroutedException) return false; // Our own pacing, nothing was sent
+        if (error instanceof AiHttpClient.HttpStatusException http) {
+            int status = http.status();
+            return status >= 500 || status == 401 || status == 403 || status == 429;
+        }
+        return true; // Connection refused, timeout, reset, stream error...
+    }
+
+    // ================================================================
+    // Probing
+    // ================================================================
+
+    private void startProbe() {
+        if (!AiExecutor.isRunning() || !probing.compareAndSet(false, true)) return;
+        AiExecutor.executor().execute(() -> {
+            long interval = getProbeIntervalMs();
+            try {
+                while (breakers.get(backend) == this) {
+                    Thread.sleep(interval);
+                    synchronized (this) {
+                        if (state != State.OPEN) return;
+                    }
+                    if (probe(backend)) {
+                        synchronized (this) {
+                            if (state == State.OPEN) {
+                                state = State.HALF_OPEN;
+                                trialInFlight.set(false);
+                            }
+                        }
+                        AiLogger.log(AiLogger.Category.AI_REQUEST, "INFO",
+                                "Circuit breaker: " + backend.displayName() + " probe succeeded — half-open");
+                        return;
+                    }
+                    interval = Math.min(interval * 2, MAX_PROBE_INTERVAL_MS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                probing.set(false);
+            }
+        });
+    }
+
+    /** Cheap health check that doesn't spend tokens. */
+    static boolean probe(AiBackend backend) {
+        if (backend == AiBackend.OLLAMA) {
+            return OllamaManager.isHealthy();
+        }
+        try {
+            HttpRequest request = AiHttpClient.request(modelsUrl(backend.url()), PROBE_TIMEOUT_MS)
+                    .header("Authorization", "Bearer " + backend.apiKey())
+                    .GET()
+                    .build();
+            int status = AiHttpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+            // Providers without a /models listing still prove they are up and accept the key
+            return status < 500 && status != 401 && status != 403 && status != 429;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** ".../v1/chat/completions" → ".../v1/models" */
+    static String modelsUrl(String chatUrl) {
+        int idx = chatUrl.indexOf("/chat/completions");
+        if (idx >= 0) return chatUrl.substring(0, idx) + "/models";
+        URI uri = URI.create(chatUrl);
+        return uri.getScheme() + "://" + uri.getAuthority() + "/v1/models";
+    }
+
+    // ================================================================
+    // Stats / lifecycle
+    // ================================================================
+
+    public static String getStats() {
+        StringBuilder sb = new StringBuilder(String.format("breakers: trips=%d, skipped=%d",
+                trips.get(), skipped.get()));
+        for (CircuitBreaker breaker : breakers.values()) {
+            synchronized (breaker) {
+                if (breaker.state != State.CLOSED) {
+                    sb.append(", ").append(breaker.backend.displayName()).append('=').append(breaker.state)
+                            .append(" for ").append((System.currentTimeMillis() - breaker.openedAtMs) / 1000).append('s');
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Backends currently refused, for error messages ("" if none). */
+    public static String describeOpen() {
+        StringBuilder sb = new StringBuilder();
+        for (CircuitBreaker breaker : breakers.values()) {
+            synchronized (breaker) {
+                if (breaker.state == State.CLOSED) continue;
+                if (!sb.isEmpty()) sb.append("; ");
+                sb.append(breaker.backend.displayName()).append(": ").append(breaker.lastError);
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Config reload — a new key or URL may have fixed things, so start closed. */
+    public static void resetAll() {
+        breakers.clear();
+    }
+
+    // ---- Config (may not be loaded yet) ----
+
+    private static boolean isEnabled() {
+        try {
+            return AiConfig.CIRCUIT_BREAKER_ENABLED.get();
+        } catch (Exception e) {
+            return true;
+        }
+    }
+
+    private static int getFailureThreshold() {
+        try {
+            return AiConfig.BREAKER_FAILURE_THRESHOLD.get();
+        } catch (Exception e) {
+            return 3;
+        }
+    }
+
+    private static long getProbeIntervalMs() {
+        try {
+            return AiConfig.BREAKER_PROBE_SECONDS.get() * 1000L;
+        } catch (Exception e) {
+            return 15_000;
+        }
+    }
+}
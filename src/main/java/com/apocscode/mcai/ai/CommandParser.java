@@ -871,6 +871,168 @@ public class CommandParser {
             "info about|information about|learn about)\\s+.+",
             Pattern.CASE_INSENSITIVE);
 
+    // ==================== Intent dispatch ====================
+    // One pass over the message finds which patterns could match; tryParse() only runs
+    // the regexes for those. Triggers must be CONSERVATIVE: every text a pattern can
+    // match has to contain at least one of its triggers (substrings, lowercase). When
+    // adding an alternative to a pattern above, add its required word here too.
+
+    private static final IntentDispatcher DISPATCHER = IntentDispatcher.builder()
+            .on(STRIP_MINE_PATTERN, "strip")
+            .on(TUNNEL_PATTERN, "tunnel", "shaft")
+            .on(MINE_PATTERN, "mine", "dig", "find", "collect", "grab", "fetch", "excavate",
+                    "gather", "obtain", "acquire", "harvest")
+            .on(NEED_ORE_PATTERN, "need", "want", "use", "require", "gotta")
+            .on(GET_ORE_PATTERN, "get")
+            .on(CRAFT_PATTERN, "craft", "make", "build", "create", "construct", "assemble", "forge",
+                    "together", "whip", "produce", "fabricate", "prepare", "fashion")
+            .on(NEED_ITEM_PATTERN, "need", "want", "use", "require", "gotta")
+            .on(WANT_TO_MAKE_PATTERN, "make", "craft", "build", "create")
+            .on(CHOP_PATTERN, "tree", "log", "wood", "timber", "lumber")
+            .on(GET_WOOD_PATTERN, "wood", "log", "timber", "lumber")
+            .on(NEED_WOOD_PATTERN, "wood", "log", "timber")
+            .on(SMELT_PATTERN, "smelt", "cook", "burn", "melt", "process", "refine", "heat", "bake", "roast")
+            .on(INVENTORY_PATTERN, "inventory", "items", "stuff", "bag", "belongings", "things", "what",
+                    "do you have")
+            .on(COME_PATTERN, "come", "teleport", "tp", "warp", "here", "to me")
+            .on(FOLLOW_PATTERN, "follow", "with me", "along", "stay", "keep up", "let's go", "lets go")
+            .on(STAY_PATTERN, "stay", "wait", "move", "hold", "remain", "park", "sit", "stand", "hang",
+                    "freeze", "chill", "follow")
+            .on(CANCEL_PATTERN, "cancel", "abort", "never", "nvm", "forget", "scratch", "knock", "cut",
+                    "enough", "quit", "drop", "leave", "disregard", "scrap", "stop")
+            .on(MUTE_PATTERN, "talk", "chat", "speak", "blabber", "shut", "quiet", "hush", "silen", "mute",
+                    "zip", "shh")
+            .on(UNMUTE_PATTERN, "talk", "chat", "speak", "mute", "listening", "ahead")
+            .on(FISH_PATTERN, "fish", "line")
+            .on(FARM_PATTERN, "farm", "plant", "harvest", "tend", "till", "hoe", "cultivate", "grow", "sow",
+                    "work the")
+            .on(STATUS_PATTERN, "status", "doing", "up to", "working", "going", "progress", "report",
+                    "sitrep", "update", "how", "are you", "busy", "done", "idle", "free")
+            .on(SCAN_PATTERN, "around", "surrounding", "area", "vicinity", "environment", "near", "here",
+                    "there", "see", "land", "scan")
+            .on(DEPOSIT_PATTERN, "deposit", "store", "stash", "dump", "unload", "offload", "away",
+                    "drop off", "empty", "clean", "storage", "chest")
+            .on(GUARD_PATTERN, "guard", "protect", "defend", "watch", "patrol", "sentry", "safe", "lookout")
+            .on(KILL_PATTERN, "kill", "attack", "fight", "slay", "destroy", "murder", "eliminate", "smash",
+                    "take", "deal", "handle", "dispose", "hunt", "rid", "punch", "hit", "whack", "smack")
+            .on(FETCH_PATTERN, "find", "fetch", "bring", "retrieve", "locate", "search", "look", "hunt")
+            .on(EQUIP_PATTERN, "equip", "gear", "suit", "arm", "put on", "wear", "tool")
+            .on(RECIPE_PATTERN, "craft", "make", "build", "create", "recipe", "ingredient", "material",
+                    "need", "made", "built")
+            .on(SCAN_CONTAINERS_PATTERN, "chest", "container", "storage", "barrel", "box")
+            .on(BOOKMARK_PATTERN, "mark", "save", "remember", "waypoint", "pin")
+            .on(RENAME_PATTERN, "rename", "name", "call", "you are now", "go by")
+            .on(TRADE_PATTERN, "trade", "barter", "exchange", "deal", "haggle", "negotiate", "villager",
+                    "merchant")
+            .on(BUILD_PATTERN, "build", "construct", "erect", "raise", "set up", "put up")
+            .on(DIG_DOWN_PATTERN, "down", "deeper", "under", "hole", "burrow", "below")
+            .on(CREATE_MINE_PATTERN, "mine", "mining", "quarry")
+            .on(EMOTE_PATTERN, "dance", "wave", "jump", "celebrate", "spin", "flip", "cheer", "bow", "salute",
+                    "clap", "nod", "shake", "dab", "thumbs", "fist", "high", "emote")
+            .on(DELIVER_PATTERN, "give", "hand", "deliver", "bring", "pass", "toss", "throw")
+            .on(TRANSFER_PATTERN, "put", "place", "transfer", "move", "drop")
+            .on(GATHER_PATTERN, "gather", "collect", "pick", "get", "grab", "break", "clear")
+            .on(GREETING_PATTERN, "hi", "hey", "hello", "yo", "sup", "howdy", "greetings", "what", "day",
+                    "morning", "good", "oi", "ahoy", "salutations", "whaddup")
+            .on(THANKS_PATTERN, "thank", "thx", "ty", "cheers", "good", "well", "nice", "great", "awesome",
+                    "perfect", "brilliant", "excellent", "best", "rock", "preciate", "wonderful", "fantastic")
+            .on(HELP_PATTERN, "help", "what", "command", "abilities", "skills", "options", "menu", "how")
+            .on(HEALTH_PATTERN, "health", "are you", "hp", "heart", "ok", "hurt", "injured", "dying", "good",
+                    "alive")
+            .on(MODS_PATTERN, "mod", "installed")
+            .on(MULTI_PART_SIGNAL, "and", "then", "after", "once", "when", "also", "plus", "place", "put",
+                    "set", "drop", "stick", "first", "second", "1st", "2nd", "step", "before")
+            .on(QUESTION_PREFIXES, "what", "who", "where", "when", "why", "how", "which", "there", "tell",
+                    "explain", "describe", "teach", "search", "look", "google", "find", "info", "learn")
+            .build();
+
+    /** Normalization applied once per message before matching */
+    private static final Pattern WHITESPACE_RUN = Pattern.compile("\\s+");
+    private static final Pattern TRAILING_PUNCTUATION = Pattern.compile("[.!?]+$");
+
+    // ==================== Classifier seed phrases ====================
+    // Typical phrasings per tool, taken from the patterns above. IntentClassifier trains
+    // on these plus the tool calls the LLM made for past messages (mcai_debug.log), so
+    // paraphrases the patterns miss can still skip the LLM.
+
+    private static final Map<String, List<String>> INTENT_EXAMPLES = new LinkedHashMap<>();
+    static {
+        INTENT_EXAMPLES.put("mine_ores", List.of(
+                "mine iron", "dig some gold", "go mine 10 diamonds", "get me some iron ore",
+                "grab some copper", "collect emeralds", "i need iron", "we need diamonds",
+                "go find some coal", "could you mine redstone for me", "bring back some lapis"));
+        INTENT_EXAMPLES.put("strip_mine", List.of(
+                "strip mine for iron", "go strip mining", "strip mine diamonds", "dig a tunnel",
+                "tunnel for iron", "start strip mining for gold", "branch mine for diamonds"));
+        INTENT_EXAMPLES.put("craft_item", List.of(
+                "craft a bucket", "make me an iron pickaxe", "create 4 torches", "forge an iron sword",
+                "put together a chest", "whip up a bucket", "i want to make a pickaxe",
+                "i need a crafting table", "can you make a sword", "make some sticks"));
+        INTENT_EXAMPLES.put("chop_trees", List.of(
+                "chop trees", "cut wood", "fell some trees", "get 20 logs", "chop down trees",
+                "harvest timber", "gather wood", "get some lumber", "i need wood", "go cut down some trees"));
+        INTENT_EXAMPLES.put("smelt_items", List.of(
+                "smelt iron", "cook 3 raw iron", "smelt the iron ore", "melt some gold",
+                "burn some raw copper", "process raw iron", "cook the raw beef"));
+        INTENT_EXAMPLES.put("get_inventory", List.of(
+                "check inventory", "what do you have", "show inventory", "whats in your bag",
+                "show me your items", "what are you carrying", "do you have anything"));
+        INTENT_EXAMPLES.put("scan_surroundings", List.of(
+                "scan area", "look around", "what's around", "check the area", "what's nearby",
+                "what can you see", "describe the surroundings"));
+        INTENT_EXAMPLES.put("go_fishing", List.of(
+                "go fishing", "fish", "catch some fish", "let's fish", "do some fishing", "cast a line"));
+        INTENT_EXAMPLES.put("farm_area", List.of(
+                "farm", "plant crops", "harvest crops", "tend the farm", "work the fields",
+                "do some farming", "plant seeds", "till the soil"));
+        INTENT_EXAMPLES.put("task_status", List.of(
+                "status", "what are you doing", "what's going on", "task status", "how's it going",
+                "progress", "report", "are you done"));
+        INTENT_EXAMPLES.put("scan_containers", List.of(
+                "scan chests", "check containers", "what's in the chests", "look through the barrels"));
+        INTENT_EXAMPLES.put("list_installed_mods", List.of(
+                "list mods", "installed mods", "what mods do we have", "mod list", "which mods"));
+        INTENT_EXAMPLES.put("dig_down", List.of(
+                "dig down", "dig straight down", "go underground", "dig a hole", "go deeper"));
+        INTENT_EXAMPLES.put("create_mine", List.of(
+                "create a mine", "set up a mine", "establish a mine", "build a quarry"));
+        INTENT_EXAMPLES.put("villager_trade", List.of(
+                "trade with villager", "villager trade", "go trade", "barter", "talk to the merchant"));
+        INTENT_EXAMPLES.put("guard_area", List.of(
+                "guard", "guard here", "protect this area", "defend", "watch over me", "keep watch",
+                "keep us safe"));
+        INTENT_EXAMPLES.put("deliver_items", List.of(
+                "give me the items", "hand over", "deliver items", "bring me the stuff",
+                "give it to me", "toss me everything"));
+        INTENT_EXAMPLES.put("kill_mob", List.of(
+                "kill the zombie", "attack that skeleton", "fight the creeper", "kill mobs",
+                "slay that monster", "go kill monsters"));
+        INTENT_EXAMPLES.put("find_and_fetch_item", List.of(
+                "find me a diamond", "fetch a bucket", "bring me some cobblestone",
+                "get the torches from the chest"));
+        INTENT_EXAMPLES.put("get_recipe", List.of(
+                "how do i craft a bucket", "recipe for iron pickaxe", "what's the recipe for a furnace",
+                "what do i need to make a piston"));
+        INTENT_EXAMPLES.put("build_structure", List.of(
+                "build a house", "build a wall", "build a shelter", "put up a tower"));
+        INTENT_EXAMPLES.put("bookmark_location", List.of(
+                "bookmark this", "remember this location", "save this spot", "set a waypoint here"));
+        INTENT_EXAMPLES.put("gather_blocks", List.of(
+                "gather cobblestone", "collect sand", "get dirt", "pick up some gravel"));
+        INTENT_EXAMPLES.put("web_search", List.of(
+                "what mods are good for animals", "tell me about create mod", "how does redstone work",
+                "who made minecraft", "explain how villagers breed"));
+        INTENT_EXAMPLES.put(IntentClassifier.CHAT_LABEL, List.of(
+                "hello there", "thanks a lot", "how are you feeling today", "tell me a joke",
+                "that was fun", "what do you think about this base", "good night", "i'm back",
+                "you are a good helper", "nice weather today", "lol", "ok sounds good"));
+    }
+
+    /** Seed phrasings per tool (plus {@link IntentClassifier#CHAT_LABEL} for small talk). */
+    static Map<String, List<String>> intentExamples() {
+        return Collections.unmodifiableMap(INTENT_EXAMPLES);
+    }
+
     // ==================== Main entry point ====================
 
     /**
@@ -884,27 +1046,25 @@ public class CommandParser {
         if (message == null || message.isBlank()) return false;
 
         // Normalize: trim, collapse whitespace, strip trailing punctuation
-        String msg = message.trim()
-                .replaceAll("\\s+", " ")
-                .replaceAll("[.!?]+$", "")
-                .trim();
+        String msg = WHITESPACE_RUN.matcher(message.trim()).replaceAll(" ");
+        msg = TRAILING_PUNCTUATION.matcher(msg).replaceAll("").trim();
 
         if (msg.isEmpty()) return false;
 
-        // Strip common filler prefixes for matching (but keep original for display)
-        String cleaned = stripFillerPrefixes(msg);
+        // One pass to find which patterns can possibly match; the rest are skipped
+        IntentDispatcher.Scan scan = DISPATCHER.scan(msg);
 
         // ---- Multi-part command detection ----
         // If the message contains signals of multiple instructions ("craft X and place it"),
         // route to AI for decomposition. AI can chain tool calls properly.
         // Simple commands ("come here", "stay", "cancel") are excluded — they're single-action.
-        if (isMultiPartCommand(msg)) {
+        if (isMultiPartCommand(msg, scan)) {
             MCAi.LOGGER.info("CommandParser: multi-part command detected, routing to AI: {}", msg);
             return false; // Let AI handle decomposition into multiple tool calls
         }
 
         // ---- Greetings / chitchat (respond immediately, no tool) ----
-        if (GREETING_PATTERN.matcher(msg).matches()) {
+        if (scan.matcher(GREETING_PATTERN, msg).matches()) {
             respondRandom(player, new String[]{
                     "Hey there! What can I do for you?",
                     "Hello! Need me to mine, craft, or build something?",
@@ -917,7 +1077,7 @@ public class CommandParser {
             return true;
         }
 
-        if (THANKS_PATTERN.matcher(msg).matches()) {
+        if (scan.matcher(THANKS_PATTERN, msg).matches()) {
             respondRandom(player, new String[]{
                     "No problem! Happy to help.",
                     "You're welcome! Need anything else?",
@@ -930,7 +1090,7 @@ public class CommandParser {
             return true;
         }
 
-        if (HELP_PATTERN.matcher(msg).matches()) {
+        if (scan.matcher(HELP_PATTERN, msg).matches()) {
             respond(player, "Here's what I can do:\n" +
                     "§e⛏ Mining:§r mine [ore], strip mine [ore], dig down, create mine\n" +
                     "§e🔨 Crafting:§r craft/make [item], smelt [item], recipe for [item]\n" +
@@ -951,7 +1111,7 @@ public class CommandParser {
 
         // ---- Behavioral commands (no tool call needed, execute on server thread) ----
         if (companion != null) {
-            if (FOLLOW_PATTERN.matcher(msg).matches()) {
+            if (scan.matcher(FOLLOW_PATTERN, msg).matches()) {
                 companion.setBehaviorMode(CompanionEntity.BehaviorMode.FOLLOW);
                 respondRandom(player, new String[]{
                         "Following you! Lead the way.",
@@ -962,7 +1122,7 @@ public class CommandParser {
                 });
                 return true;
             }
-            if (STAY_PATTERN.matcher(msg).matches()) {
+            if (scan.matcher(STAY_PATTERN, msg).matches()) {
                 companion.setBehaviorMode(CompanionEntity.BehaviorMode.STAY);
                 respondRandom(player, new String[]{
                         "Staying right here.",
@@ -974,7 +1134,7 @@ public class CommandParser {
                 return true;
             }
             // --- Mute / unmute proactive chat (check BEFORE cancel so "stop talking" doesn't cancel tasks) ---
-            if (MUTE_PATTERN.matcher(msg).matches()) {
+            if (scan.matcher(MUTE_PATTERN, msg).matches()) {
                 companion.getChat().setMuted(true);
                 respondRandom(player, new String[]{
                         "Okay, I'll be quiet.",
@@ -984,7 +1144,7 @@ public class CommandParser {
                 });
                 return true;
             }
-            if (UNMUTE_PATTERN.matcher(msg).matches()) {
+            if (scan.matcher(UNMUTE_PATTERN, msg).matches()) {
                 companion.getChat().setMuted(false);
                 respondRandom(player, new String[]{
                         "I'm back! What'd I miss?",
@@ -994,9 +1154,11 @@ public class CommandParser {
                 });
                 return true;
             }
-            if (CANCEL_PATTERN.matcher(msg).matches()) {
+            if (scan.matcher(CANCEL_PATTERN, msg).matches()) {
                 boolean hadTasks = companion.getTaskManager().hasTasks();
                 companion.getTaskManager().cancelAll();
+                // An agent loop still working on an earlier message would run more tools and reply late
+                CancellationToken.cancelAll(player.getUUID());
                 companion.getNavigation().stop();
                 if (hadTasks) {
                     respondRandom(player, new String[]{
@@ -1015,7 +1177,7 @@ public class CommandParser {
                 }
                 return true;
             }
-            Matcher comeMatcher = COME_PATTERN.matcher(msg);
+            Matcher comeMatcher = scan.matcher(COME_PATTERN, msg);
             if (comeMatcher.find()) {
                 double dist = companion.distanceTo(player);
                 if (dist > 64.0) {
@@ -1046,7 +1208,7 @@ public class CommandParser {
             }
 
             // Health check
-            if (HEALTH_PATTERN.matcher(msg).find()) {
+            if (scan.matcher(HEALTH_PATTERN, msg).find()) {
                 float hp = companion.getHealth();
                 float maxHp = companion.getMaxHealth();
                 float pct = (hp / maxHp) * 100f;
@@ -1060,7 +1222,7 @@ public class CommandParser {
             }
 
             // Equip
-            if (EQUIP_PATTERN.matcher(msg).matches()) {
+            if (scan.matcher(EQUIP_PATTERN, msg).matches()) {
                 companion.autoEquipBestGear();
                 respondRandom(player, new String[]{
                         "Equipped my best gear! Ready for action.",
@@ -1077,13 +1239,13 @@ public class CommandParser {
         // Order matters: more specific patterns first, then generic ones.
 
         // Strip mine (check BEFORE generic mine)
-        Matcher stripMatcher = STRIP_MINE_PATTERN.matcher(msg);
+        Matcher stripMatcher = scan.matcher(STRIP_MINE_PATTERN, msg);
         if (stripMatcher.matches()) {
             return handleStripMine(stripMatcher, player, companion);
         }
 
         // Tunnel (alias for strip mine)
-        Matcher tunnelMatcher = TUNNEL_PATTERN.matcher(msg);
+        Matcher tunnelMatcher = scan.matcher(TUNNEL_PATTERN, msg);
         if (tunnelMatcher.matches()) {
             String oreStr = tunnelMatcher.group(1);
             JsonObject args = new JsonObject();
@@ -1096,19 +1258,19 @@ public class CommandParser {
         }
 
         // Create mine
-        if (CREATE_MINE_PATTERN.matcher(msg).matches()) {
+        if (scan.matcher(CREATE_MINE_PATTERN, msg).matches()) {
             executeToolAsync("create_mine", new JsonObject(), player, companion, "Setting up a mine...");
             return true;
         }
 
         // Dig down
-        if (DIG_DOWN_PATTERN.matcher(msg).find()) {
+        if (scan.matcher(DIG_DOWN_PATTERN, msg).find()) {
             executeToolAsync("dig_down", new JsonObject(), player, companion, "Digging down...");
             return true;
         }
 
         // Recipe lookup (check before craft so "how do i make a pickaxe" doesn't trigger craft)
-        Matcher recipeMatcher = RECIPE_PATTERN.matcher(msg);
+        Matcher recipeMatcher = scan.matcher(RECIPE_PATTERN, msg);
         if (recipeMatcher.find()) {
             String itemStr = null;
             for (int g = 1; g <= recipeMatcher.groupCount(); g++) {
@@ -1127,7 +1289,7 @@ public class CommandParser {
         }
 
         // "i want to make/craft ..."
-        Matcher wantToMakeMatcher = WANT_TO_MAKE_PATTERN.matcher(msg);
+        Matcher wantToMakeMatcher = scan.matcher(WANT_TO_MAKE_PATTERN, msg);
         if (wantToMakeMatcher.matches()) {
             String itemStr = wantToMakeMatcher.group(2).trim();
             String item = resolveItem(itemStr);
@@ -1136,13 +1298,13 @@ public class CommandParser {
         }
 
         // Mine ores (check against ore list to avoid false positives)
-        Matcher mineMatcher = MINE_PATTERN.matcher(msg);
+        Matcher mineMatcher = scan.matcher(MINE_PATTERN, msg);
         if (mineMatcher.matches()) {
             if (handleMineOre(mineMatcher, player, companion)) return true;
         }
 
         // "i need [ore]"
-        Matcher needOreMatcher = NEED_ORE_PATTERN.matcher(msg);
+        Matcher needOreMatcher = scan.matcher(NEED_ORE_PATTERN, msg);
         if (needOreMatcher.matches()) {
             String oreStr = needOreMatcher.group(2).trim();
             String ore = resolveOre(oreStr);
@@ -1157,7 +1319,7 @@ public class CommandParser {
         }
 
         // "get me some [ore]"
-        Matcher getOreMatcher = GET_ORE_PATTERN.matcher(msg);
+        Matcher getOreMatcher = scan.matcher(GET_ORE_PATTERN, msg);
         if (getOreMatcher.matches()) {
             String oreStr = getOreMatcher.group(2).trim();
             String ore = resolveOre(oreStr);
@@ -1167,7 +1329,7 @@ public class CommandParser {
         }
 
         // Craft
-        Matcher craftMatcher = CRAFT_PATTERN.matcher(msg);
+        Matcher craftMatcher = scan.matcher(CRAFT_PATTERN, msg);
         if (craftMatcher.matches()) {
             String itemStr = craftMatcher.group(2).trim();
             // Safety: strip trailing instruction phrases that bled into the item name
@@ -1180,7 +1342,7 @@ public class CommandParser {
         }
 
         // "i need [item]" — if not an ore, try crafting
-        Matcher needItemMatcher = NEED_ITEM_PATTERN.matcher(msg);
+        Matcher needItemMatcher = scan.matcher(NEED_ITEM_PATTERN, msg);
         if (needItemMatcher.matches()) {
             String itemStr = needItemMatcher.group(2).trim();
             String ore = resolveOre(itemStr);
@@ -1193,25 +1355,25 @@ public class CommandParser {
         }
 
         // Chop trees
-        Matcher chopMatcher = CHOP_PATTERN.matcher(msg);
+        Matcher chopMatcher = scan.matcher(CHOP_PATTERN, msg);
         if (chopMatcher.matches()) {
             return handleChop(chopMatcher.group(1), player, companion);
         }
 
         // Get wood (alias)
-        Matcher getWoodMatcher = GET_WOOD_PATTERN.matcher(msg);
+        Matcher getWoodMatcher = scan.matcher(GET_WOOD_PATTERN, msg);
         if (getWoodMatcher.matches()) {
             return handleChop(getWoodMatcher.group(1), player, companion);
         }
 
         // Need wood
-        Matcher needWoodMatcher = NEED_WOOD_PATTERN.matcher(msg);
+        Matcher needWoodMatcher = scan.matcher(NEED_WOOD_PATTERN, msg);
         if (needWoodMatcher.matches()) {
             return handleChop(needWoodMatcher.group(1), player, companion);
         }
 
         // Smelt
-        Matcher smeltMatcher = SMELT_PATTERN.matcher(msg);
+        Matcher smeltMatcher = scan.matcher(SMELT_PATTERN, msg);
         if (smeltMatcher.matches()) {
             String countStr = smeltMatcher.group(1);
             String itemStr = smeltMatcher.group(2).trim();
@@ -1224,7 +1386,7 @@ public class CommandParser {
         }
 
         // Kill / Attack
-        Matcher killMatcher = KILL_PATTERN.matcher(msg);
+        Matcher killMatcher = scan.matcher(KILL_PATTERN, msg);
         if (killMatcher.matches()) {
             String mobStr = killMatcher.group(1).trim();
             String mob = resolveMob(mobStr);
@@ -1238,14 +1400,14 @@ public class CommandParser {
         }
 
         // Scan containers
-        if (SCAN_CONTAINERS_PATTERN.matcher(msg).find()) {
+        if (scan.matcher(SCAN_CONTAINERS_PATTERN, msg).find()) {
             executeToolAsync("scan_containers", new JsonObject(), player, companion,
                     "Checking nearby containers...");
             return true;
         }
 
         // Bookmark location
-        if (BOOKMARK_PATTERN.matcher(msg).find()) {
+        if (scan.matcher(BOOKMARK_PATTERN, msg).find()) {
             JsonObject args = new JsonObject();
             args.addProperty("name", "Bookmark");
             executeToolAsync("bookmark_location", args, player, companion,
@@ -1254,7 +1416,7 @@ public class CommandParser {
         }
 
         // Rename
-        Matcher renameMatcher = RENAME_PATTERN.matcher(msg);
+        Matcher renameMatcher = scan.matcher(RENAME_PATTERN, msg);
         if (renameMatcher.matches()) {
             String newName = renameMatcher.group(1).trim();
             if (!newName.isEmpty() && newName.length() <= 32) {
@@ -1267,40 +1429,40 @@ public class CommandParser {
         }
 
         // Inventory check
-        if (INVENTORY_PATTERN.matcher(msg).find()) {
+        if (scan.matcher(INVENTORY_PATTERN, msg).find()) {
             executeToolAsync("get_inventory", new JsonObject(), player, companion, null);
             return true;
         }
 
         // Scan surroundings
-        if (SCAN_PATTERN.matcher(msg).find()) {
+        if (scan.matcher(SCAN_PATTERN, msg).find()) {
             executeToolAsync("scan_surroundings", new JsonObject(), player, companion,
                     "Looking around...");
             return true;
         }
 
         // Fishing
-        if (FISH_PATTERN.matcher(msg).find()) {
+        if (scan.matcher(FISH_PATTERN, msg).find()) {
             executeToolAsync("go_fishing", new JsonObject(), player, companion,
                     "Heading to the water!");
             return true;
         }
 
         // Farm
-        if (FARM_PATTERN.matcher(msg).find()) {
+        if (scan.matcher(FARM_PATTERN, msg).find()) {
             executeToolAsync("farm_area", new JsonObject(), player, companion,
                     "Working the fields...");
             return true;
         }
 
         // Status
-        if (STATUS_PATTERN.matcher(msg).find()) {
+        if (scan.matcher(STATUS_PATTERN, msg).find()) {
             executeToolAsync("task_status", new JsonObject(), player, companion, null);
             return true;
         }
 
         // Deposit items
-        if (DEPOSIT_PATTERN.matcher(msg).find()) {
+        if (scan.matcher(DEPOSIT_PATTERN, msg).find()) {
             if (companion != null) {
                 int deposited = com.apocscode.mcai.logistics.ItemRoutingHelper.routeAllCompanionItems(companion);
                 if (deposited > 0) {
@@ -1315,7 +1477,7 @@ public class CommandParser {
         }
 
         // Transfer to container
-        if (TRANSFER_PATTERN.matcher(msg).find()) {
+        if (scan.matcher(TRANSFER_PATTERN, msg).find()) {
             if (companion != null) {
                 int deposited = com.apocscode.mcai.logistics.ItemRoutingHelper.routeAllCompanionItems(companion);
                 if (deposited > 0) {
@@ -1328,7 +1490,7 @@ public class CommandParser {
         }
 
         // Deliver items (give to player)
-        if (DELIVER_PATTERN.matcher(msg).find()) {
+        if (scan.matcher(DELIVER_PATTERN, msg).find()) {
             JsonObject args = new JsonObject();
             args.addProperty("target", "player");
             executeToolAsync("deliver_items", args, player, companion,
@@ -1337,7 +1499,7 @@ public class CommandParser {
         }
 
         // Guard
-        if (GUARD_PATTERN.matcher(msg).find()) {
+        if (scan.matcher(GUARD_PATTERN, msg).find()) {
             JsonObject args = new JsonObject();
             args.addProperty("radius", 16);
             executeToolAsync("guard_area", args, player, companion,
@@ -1346,7 +1508,7 @@ public class CommandParser {
         }
 
         // Emote
-        Matcher emoteMatcher = EMOTE_PATTERN.matcher(msg);
+        Matcher emoteMatcher = scan.matcher(EMOTE_PATTERN, msg);
         if (emoteMatcher.matches()) {
             JsonObject args = new JsonObject();
             String emoteStr = msg.replaceAll("(?i)(?:can|could|would) you\\s+", "")
@@ -1358,7 +1520,7 @@ public class CommandParser {
         }
 
         // Build structure
-        Matcher buildMatcher = BUILD_PATTERN.matcher(msg);
+        Matcher buildMatcher = scan.matcher(BUILD_PATTERN, msg);
         if (buildMatcher.matches()) {
             String structure = buildMatcher.group(1).trim();
             JsonObject args = new JsonObject();
@@ -1369,7 +1531,7 @@ public class CommandParser {
         }
 
         // Trade with villager
-        if (TRADE_PATTERN.matcher(msg).find()) {
+        if (scan.matcher(TRADE_PATTERN, msg).find()) {
             executeToolAsync("villager_trade", new JsonObject(), player, companion,
                     "Looking for a villager to trade with...");
             return true;
@@ -1379,7 +1541,7 @@ public class CommandParser {
         // Only reached if NO action pattern matched above.
         // Catches informational questions like "what mods are good for animals?"
         // or "tell me about Create mod" and searches the web for answers.
-        if (isConversationalQuestion(msg)) {
+        if (isConversationalQuestion(msg, scan)) {
             String query = extractSearchQuery(msg);
             JsonObject args = new JsonObject();
             args.addProperty("query", query);
@@ -1388,7 +1550,7 @@ public class CommandParser {
         }
 
         // Gather blocks (catch-all for "gather cobblestone", "collect sand", etc.)
-        Matcher gatherMatcher = GATHER_PATTERN.matcher(msg);
+        Matcher gatherMatcher = scan.matcher(GATHER_PATTERN, msg);
         if (gatherMatcher.matches()) {
             String countStr = gatherMatcher.group(1);
             String blockStr = gatherMatcher.group(2).trim();
@@ -1406,7 +1568,7 @@ public class CommandParser {
         }
 
         // Fetch item (find and bring an item from containers) — generic, check last
-        Matcher fetchMatcher = FETCH_PATTERN.matcher(msg);
+        Matcher fetchMatcher = scan.matcher(FETCH_PATTERN, msg);
         if (fetchMatcher.matches()) {
             String itemStr = fetchMatcher.group(2).trim();
             // Don't match if it's clearly a behavioral thing
@@ -1423,7 +1585,7 @@ public class CommandParser {
         }
 
         // Mods list
-        if (MODS_PATTERN.matcher(msg).find()) {
+        if (scan.matcher(MODS_PATTERN, msg).find()) {
             executeToolAsync("list_installed_mods", new JsonObject(), player, companion, null);
             return true;
         }
@@ -1446,18 +1608,18 @@ public class CommandParser {
      * These should be routed to AI for decomposition rather than handled locally.
      * Excludes simple commands like greetings, stay, follow, cancel, mute.
      */
-    private static boolean isMultiPartCommand(String msg) {
+    private static boolean isMultiPartCommand(String msg, IntentDispatcher.Scan scan) {
         // Don't flag simple single-action commands even if they contain trigger words
-        if (GREETING_PATTERN.matcher(msg).matches()) return false;
-        if (THANKS_PATTERN.matcher(msg).matches()) return false;
-        if (CANCEL_PATTERN.matcher(msg).find()) return false;
-        if (STAY_PATTERN.matcher(msg).find()) return false;
-        if (FOLLOW_PATTERN.matcher(msg).find()) return false;
-        if (MUTE_PATTERN.matcher(msg).find()) return false;
-        if (UNMUTE_PATTERN.matcher(msg).find()) return false;
-        if (HELP_PATTERN.matcher(msg).matches()) return false;
-
-        return MULTI_PART_SIGNAL.matcher(msg).find();
+        if (scan.matcher(GREETING_PATTERN, msg).matches()) return false;
+        if (scan.matcher(THANKS_PATTERN, msg).matches()) return false;
+        if (scan.matcher(CANCEL_PATTERN, msg).find()) return false;
+        if (scan.matcher(STAY_PATTERN, msg).find()) return false;
+        if (scan.matcher(FOLLOW_PATTERN, msg).find()) return false;
+        if (scan.matcher(MUTE_PATTERN, msg).find()) return false;
+        if (scan.matcher(UNMUTE_PATTERN, msg).find()) return false;
+        if (scan.matcher(HELP_PATTERN, msg).matches()) return false;
+
+        return scan.matcher(MULTI_PART_SIGNAL, msg).find();
     }
 
     /**
@@ -1752,19 +1914,41 @@ public class CommandParser {
         return dp[lenA][lenB];
     }
 
-    // ==================== Text cleaning helpers ====================
+    // ==================== Slot extraction (for IntentClassifier) ====================
 
-    /**
-     * Strip common filler/prefix words that don't affect command meaning.
-     * "can you please go and mine some iron" → "mine some iron"
-     * "i want you to craft me a pickaxe" → "craft me a pickaxe"
-     */
-    private static String stripFillerPrefixes(String msg) {
-        return msg.replaceAll("(?i)^(?:(?:can|could|would|will) you\\s+)?", "")
-                  .replaceAll("(?i)^(?:please\\s+)?", "")
-                  .replaceAll("(?i)^(?:i (?:want|need|would like) (?:you )?to\\s+)?", "")
-                  .replaceAll("(?i)^(?:go (?:and )?)?", "")
-                  .trim();
+    /** Longest ore name anywhere in the message, e.g. "could you go grab diamonds" → "diamond". */
+    @Nullable
+    static String findOre(String msg) {
+        return findAlias(msg, ORE_ALIASES, 2);
+    }
+
+    /** Longest item alias anywhere in the message, e.g. "whip me up an iron pick" → "iron_pickaxe". */
+    @Nullable
+    static String findItem(String msg) {
+        return findAlias(msg, ITEM_ALIASES, 3);
+    }
+
+    /** First whole number in the message, or null. */
+    @Nullable
+    static Integer findCount(String msg) {
+        for (String word : msg.split("\\s+")) {
+            if (!word.isEmpty() && word.length() <= 4 && word.chars().allMatch(Character::isDigit)) {
+                return Integer.parseInt(word);
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    private static String findAlias(String msg, Map<String, String> aliases, int maxWords) {
+        String[] words = msg.toLowerCase().replaceAll("[^a-z0-9' ]", " ").trim().split("\\s+");
+        for (int n = Math.min(maxWords, words.length); n >= 1; n--) {
+            for (int i = 0; i + n <= words.length; i++) {
+                String value = aliases.get(String.join(" ", Arrays.copyOfRange(words, i, i + n)));
+                if (value != null) return value;
+            }
+        }
+        return null;
     }
 
     // ==================== Name resolution helpers ====================
@@ -1837,13 +2021,13 @@ public class CommandParser {
      * that should trigger a web search (rather than being an action command).
      * Only called AFTER all specific action patterns have been checked.
      */
-    private static boolean isConversationalQuestion(String msg) {
+    private static boolean isConversationalQuestion(String msg, IntentDispatcher.Scan scan) {
         // Too short to be a meaningful question
         if (msg.length() < 12) return false;
         // Ends with question mark — very likely a question
         if (msg.endsWith("?")) return true;
         // Starts with known question/info-request prefixes
-        return QUESTION_PREFIXES.matcher(msg).matches();
+        return scan.matcher(QUESTION_PREFIXES, msg).matches();
     }
 
     /**
@@ -1883,10 +2067,12 @@ public class CommandParser {
             return;
         }
 
-        // Cancel existing tasks if this is a new action command
+        // Cancel existing tasks if this is a new action command, and any agent loop still
+        // working on an earlier message — this command replaces it
         if (companion != null && companion.getTaskManager().hasTasks()) {
             companion.getTaskManager().cancelAll();
         }
+        CancellationToken.cancelAll(player.getUUID());
 
         // Send immediate feedback
         if (workingMessage != null && companion != null) {
@@ -1894,12 +2080,13 @@ public class CommandParser {
         }
 
         // Add to conversation history so AI has context of what happened
-        ConversationManager.addPlayerMessage(player.getName().getString() + ": " +
+        ConversationStore.History history = ConversationStore.forPlayer(player.getUUID());
+        history.addPlayerMessage(player.getName().getString() + ": " +
                 args.toString());
-        ConversationManager.addSystemMessage("[Command parsed locally → " + toolName + "(" + args + ")]");
+        history.addSystemMessage("[Command parsed locally → " + toolName + "(" + args + ")]");
 
         MCAi.LOGGER.info("CommandParser: executing {} with args {} (bypassing AI)", toolName, args);
-        AiLogger.toolCall(toolName, args.toString());
+        AiLogger.toolCall(player.getName().getString(), toolName, args.toString());
 
         // Run on background thread
         executor.submit(() -> {
@@ -1913,7 +2100,7 @@ public class CommandParser {
                 MCAi.LOGGER.info("CommandParser: {} completed in {}ms", toolName, elapsed);
 
                 // Add result to conversation history
-                ConversationManager.addSystemMessage("[Tool result: " + (result != null ? result : "done") + "]");
+                history.addSystemMessage("[Tool result: " + (result != null ? result : "done") + "]");
 
                 // Send result to player
                 if (result != null && !result.contains("[ASYNC_TASK]")) {
@@ -25,6 +25,9 @@ public class CompanionMemory {
     /** Max number of facts */
     private static final int MAX_FACTS = 100;
 
+    /** Rolling summary of older conversation turns (written by ConversationDigest off-thread) */
+    private volatile String conversationDigest = "";
+
     // ================================================================
     // Facts API
     // ================================================================
@@ -84,6 +87,19 @@ public class CompanionMemory {
         return events.subList(start, events.size());
     }
 
+    // ================================================================
+    // Conversation digest API
+    // ================================================================
+
+    /** Summary of conversation turns that no longer fit in the history, or "" if none. */
+    public String getConversationDigest() {
+        return conversationDigest;
+    }
+
+    public void setConversationDigest(String digest) {
+        this.conversationDigest = digest == null ? "" : digest;
+    }
+
     // ================================================================
     // Build context string for AI system prompt
     // ================================================================
@@ -137,12 +153,18 @@ public class CompanionMemory {
         }
         tag.put("Events", eventList);
 
+        // Conversation digest
+        if (!conversationDigest.isEmpty()) {
+            tag.putString("Digest", conversationDigest);
+        }
+
         return tag;
     }
 
     public void load(CompoundTag tag) {
         facts.clear();
         events.clear();
+        conversationDigest = tag.getString("Digest");
 
         if (tag.contains("Facts")) {
             CompoundTag factsTag = tag.getCompound("Facts");
@@ -163,5 +185,6 @@ public class CompanionMemory {
     public void clear() {
         facts.clear();
         events.clear();
+        conversationDigest = "";
     }
 }
@@ -0,0 +1,197 @@
+package com.apocscode.mcai.ai;
+
+import com.apocscode.mcai.MCAi;
+import com.apocscode.mcai.config.AiConfig;
+import com.apocscode.mcai.entity.CompanionEntity;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import net.minecraft.server.level.ServerPlayer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Rolling summary of older conversation turns.
+ *
+ * Once a player's history grows past a threshold, the oldest turns are folded into a
+ * short "conversation digest" stored in the companion's {@link CompanionMemory} and
+ * injected into the system prompt, instead of being dropped. The newest turns always
+ * stay verbatim.
+ *
+ * Compaction is background work: it waits until no AI task is running or queued, so it
+ * never competes with a live chat, then asks the LLM for a merged summary. When no
+ * backend answers, a local extractive summary (first sentence of each turn) is used.
+ */
+public class ConversationDigest {
+
+    /** Newest AI-relevant messages that always stay verbatim */
+    private static final int KEEP_RECENT = 8;
+    private static final int MAX_DIGEST_CHARS = 1500;
+    private static final int MAX_LINE_CHARS = 120;
+    private static final long IDLE_POLL_MS = 5000;
+    /** Give up waiting for an idle moment after this many polls (next chat tries again) */
+    private static final int MAX_IDLE_POLLS = 60;
+
+    private static final Set<UUID> pending = ConcurrentHashMap.newKeySet();
+
+    private static final String SUMMARY_PROMPT = """
+            You keep a running summary of a Minecraft player's conversation with their AI companion.
+            Merge the existing summary with the new turns into at most 8 short bullet points ("- ...").
+            Keep: the player's goals and requests, preferences, locations mentioned, promises made, task outcomes.
+            Drop greetings and small talk. Reply with the bullet points only.""";
+
+    /**
+     * Schedule compaction for a player if their history has grown past the threshold.
+     * Returns immediately; the work runs later on a virtual thread.
+     */
+    public static void maybeCompact(ServerPlayer player) {
+        if (!isEnabled() || !AiExecutor.isRunning()) return;
+        UUID playerId = player.getUUID();
+        ConversationStore.History history = ConversationStore.forPlayer(playerId);
+        if (history.unsummarizedCount() < getThreshold()) return;
+
+        CompanionEntity companion = CompanionEntity.getLivingCompanion(playerId);
+        if (companion == null || !pending.add(playerId)) return;
+
+        CompletableFuture.runAsync(() -> {
+            try {
+                if (awaitIdle()) compact(history, companion.getMemory(), player.getName().getString());
+            } catch (Exception e) {
+                MCAi.LOGGER.warn("Conversation digest failed: {}", e.getMessage());
+            } finally {
+                pending.remove(playerId);
+            }
+        }, AiExecutor.executor());
+    }
+
+    /** Wait until no AI task is running or waiting. False if that never happened. */
+    private static boolean awaitIdle() {
+        for (int i = 0; i < MAX_IDLE_POLLS; i++) {
+            if (AiExecutor.getRunningCount() == 0 && AiExecutor.getQueueDepth() == 0) return true;
+            try {
+                Thread.sleep(IDLE_POLL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static void compact(ConversationStore.History history, CompanionMemory memory, String playerName) {
+        List<ConversationManager.ChatMessage> turns = history.oldestUnsummarized(KEEP_RECENT);
+        if (turns.isEmpty()) return;
+        int count = turns.size();
+        String transcript = formatTurns(turns);
+        String existing = memory.getConversationDigest();
+
+        long start = System.currentTimeMillis();
+        String digest = summarizeWithLlm(existing, transcript);
+        String method = "llm";
+        if (digest.isBlank()) {
+            digest = summarizeExtractive(existing, turns);
+            method = "extractive";
+        }
+        digest = capLength(digest);
+
+        memory.setConversationDigest(digest);
+        history.markSummarized(count);
+        AiLogger.log(AiLogger.Category.AI_REQUEST, "INFO",
+                String.format("Conversation digest for %s: folded %d message(s) into %d chars (%s, %dms)",
+                        playerName, count, digest.length(), method, System.currentTimeMillis() - start));
+    }
+
+    private static String summarizeWithLlm(String existing, String transcript) {
+        JsonArray messages = new JsonArray();
+        JsonObject system = new JsonObject();
+        system.addProperty("role", "system");
+        system.addProperty("content", SUMMARY_PROMPT);
+        messages.add(system);
+
+        JsonObject user = new JsonObject();
+        user.addProperty("role", "user");
+        user.addProperty("content", "Existing summary:\n" + (existing.isEmpty() ? "(none)" : existing)
+                + "\n\nNew turns:\n" + transcript);
+        messages.add(user);
+
+        try {
+            return AIService.completeWithoutTools(messages);
+        } catch (Exception e) {
+            MCAi.LOGGER.debug("Digest LLM call failed, using extractive summary: {}", e.getMessage());
+            return "";
+        }
+    }
+
+    /**
+     * Offline fallback: one line per turn with its first sentence, appended to the existing digest.
+     */
+    static String summarizeExtractive(String existing, List<ConversationManager.ChatMessage> turns) {
+        List<String> lines = new ArrayList<>();
+        if (!existing.isBlank()) lines.addAll(Arrays.asList(existing.split("\n")));
+        for (ConversationManager.ChatMessage msg : turns) {
+            if (msg.content().isBlank()) continue;
+            String who = msg.isPlayer() ? "Player: " : msg.isAi() ? "You: " : "";
+            lines.add("- " + who + truncate(firstSentence(msg.content()), MAX_LINE_CHARS));
+        }
+        return String.join("\n", lines);
+    }
+
+    private static String formatTurns(List<ConversationManager.ChatMessage> turns) {
+        StringBuilder sb = new StringBuilder();
+        for (ConversationManager.ChatMessage msg : turns) {
+            if (msg.content().isBlank()) continue; // Evicted slot
+            String who = msg.isPlayer() ? "Player" : msg.isAi() ? "Companion" : "Note";
+            sb.append(who).append(": ").append(truncate(msg.content(), 400)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /** Keep the newest lines within the size cap. */
+    private static String capLength(String digest) {
+        String result = digest.trim();
+        while (result.length() > MAX_DIGEST_CHARS) {
+            int nl = result.indexOf('\n');
+            if (nl < 0) return result.substring(result.length() - MAX_DIGEST_CHARS);
+            result = result.substring(nl + 1);
+        }
+        return result;
+    }
+
+    private static String firstSentence(String text) {
+        String flat = text.replace('\n', ' ').trim();
+        for (int i = 0; i < flat.length() - 1; i++) {
+            char c = flat.charAt(i);
+            if ((c == '.' || c == '!' || c == '?') && flat.charAt(i + 1) == ' ') {
+                return flat.substring(0, i + 1);
+            }
+        }
+        return flat;
+    }
+
+    private static String truncate(String text, int max) {
+        return text.length() <= max ? text : text.substring(0, max - 3) + "...";
+    }
+
+    // ---- Config (may not be loaded yet) ----
+
+    private static boolean isEnabled() {
+        try {
+            return AiConfig.CONVERSATION_DIGEST.get();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static int getThreshold() {
+        try {
+            return AiConfig.DIGEST_AFTER_MESSAGES.get();
+        } catch (Exception e) {
+            return 16;
+        }
+    }
+}
@@ -7,10 +7,13 @@ import java.util.List;
 /**
  * Client-side conversation history manager.
  * Stores chat messages for display in the CompanionChatScreen.
+ * The server keeps its own per-player history in {@link ConversationStore}.
  */
 public class ConversationManager {
     private static final List<ChatMessage> messages = new ArrayList<>();
     private static final int MAX_HISTORY = 100;
+    /** The AI message currently being streamed in, or null if none */
+    private static ChatMessage streamingMessage = null;
 
     public record ChatMessage(String content, MessageType type, long timestamp) {
         public boolean isPlayer() { return type == MessageType.PLAYER; }
@@ -29,9 +32,42 @@ public class ConversationManager {
     public static void addAiMessage(String content) {
         // Remove "Thinking..." message if present
         messages.removeIf(m -> m.isSystem() && m.content().equals("Thinking..."));
+        // The final response replaces any partial text streamed in so far
+        if (streamingMessage != null && replaceStreaming(content)) {
+            streamingMessage = null;
+            return;
+        }
+        streamingMessage = null;
         add(new ChatMessage(content, MessageType.AI, System.currentTimeMillis()));
     }
 
+    /**
+     * Append streamed text to the in-progress AI message, creating it on the first chunk.
+     * @param reset true to discard the partial text shown so far (a new LLM call started)
+     */
+    public static void appendAiChunk(String delta, boolean reset) {
+        messages.removeIf(m -> m.isSystem() && m.content().equals("Thinking..."));
+        if (streamingMessage == null) {
+            streamingMessage = new ChatMessage(delta, MessageType.AI, System.currentTimeMillis());
+            add(streamingMessage);
+            return;
+        }
+        String content = reset ? delta : streamingMessage.content() + delta;
+        if (!replaceStreaming(content)) {
+            streamingMessage = new ChatMessage(content, MessageType.AI, System.currentTimeMillis());
+            add(streamingMessage);
+        }
+    }
+
+    /** Swap the streaming message for one with new content. False if it was trimmed away. */
+    private static boolean replaceStreaming(String content) {
+        int idx = messages.lastIndexOf(streamingMessage);
+        if (idx < 0) return false;
+        streamingMessage = new ChatMessage(content, MessageType.AI, streamingMessage.timestamp());
+        messages.set(idx, streamingMessage);
+        return true;
+    }
+
     public static void addSystemMessage(String content) {
         add(new ChatMessage(content, MessageType.SYSTEM, System.currentTimeMillis()));
     }
@@ -48,17 +84,8 @@ public class ConversationManager {
         return Collections.unmodifiableList(messages);
     }
 
-    /**
-     * Get messages suitable for sending to the AI (player + AI + task system messages).
-     * Includes system messages about task completions for continuation context.
-     */
-    public static List<ChatMessage> getHistoryForAI() {
-        return messages.stream()
-                .filter(m -> !m.isSystem() || m.content().startsWith("[Task"))
-                .toList();
-    }
-
     public static void clear() {
         messages.clear();
+        streamingMessage = null;
     }
 }
@@ -0,0 +1,194 @@
+package com.apocscode.mcai.ai;
+
+import com.apocscode.mcai.ai.ConversationManager.ChatMessage;
+import com.apocscode.mcai.ai.ConversationManager.MessageType;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Server-side conversation history, one per player.
+ *
+ * {@link ConversationManager} is the client's display list; on a dedicated server it is
+ * empty and in singleplayer it is shared by everyone in the JVM. This store keeps each
+ * owner's exchanges separately so the AI never sees another player's conversation.
+ *
+ * Each history is a fixed-capacity ring buffer. Appends are lock-free (one atomic
+ * increment claims a slot) and readers never block writers: AI worker threads read
+ * while the server thread appends. AI-relevant messages (player, AI and "[Task ...]"
+ * notes) go into their own ring, so the last N of them is an O(1) view, not a copy.
+ */
+public class ConversationStore {
+
+    /** Messages kept per player (all types) */
+    private static final int CAPACITY = 128;
+    /** AI-relevant messages kept per player — twice the largest view handed out */
+    private static final int AI_CAPACITY = 64;
+    /** Largest view {@link History#forAI(int)} returns */
+    public static final int MAX_AI_VIEW = AI_CAPACITY / 2;
+
+    private static final Map<UUID, History> histories = new ConcurrentHashMap<>();
+
+    /** Stand-in for a slot that was overwritten while a view was being read (skipped by the AI) */
+    private static final ChatMessage EVICTED = new ChatMessage("", MessageType.SYSTEM, 0);
+
+    public static History forPlayer(UUID playerId) {
+        return histories.computeIfAbsent(playerId, id -> new History());
+    }
+
+    /** Server stopping — drop everyone's history. */
+    public static void clearAll() {
+        histories.clear();
+    }
+
+    /**
+     * Whether a message belongs in the AI's history: chat lines and task outcome notes.
+     */
+    static boolean isAiRelevant(ChatMessage msg) {
+        return !msg.isSystem() || msg.content().startsWith("[Task");
+    }
+
+    /**
+     * One player's conversation.
+     */
+    public static final class History {
+        private final Ring all = new Ring(CAPACITY);
+        private final Ring ai = new Ring(AI_CAPACITY);
+        /** AI-relevant messages before this sequence number live in the conversation digest */
+        private volatile long summarizedThrough = 0;
+
+        public void addPlayerMessage(String content) {
+            add(new ChatMessage(content, MessageType.PLAYER, System.currentTimeMillis()));
+        }
+
+        public void addAiMessage(String content) {
+            add(new ChatMessage(content, MessageType.AI, System.currentTimeMillis()));
+        }
+
+        public void addSystemMessage(String content) {
+            add(new ChatMessage(content, MessageType.SYSTEM, System.currentTimeMillis()));
+        }
+
+        private void add(ChatMessage msg) {
+            all.append(msg);
+            if (isAiRelevant(msg)) ai.append(msg);
+        }
+
+        /** The last {@link #MAX_AI_VIEW} AI-relevant messages, oldest first. */
+        public List<ChatMessage> forAI() {
+            return forAI(MAX_AI_VIEW);
+        }
+
+        /**
+         * The last {@code n} AI-relevant messages not yet folded into the digest, oldest
+         * first. The view is fixed at the moment of the call: messages appended afterwards
+         * do not appear in it.
+         */
+        public List<ChatMessage> forAI(int n) {
+            return ai.lastView(Math.min(n, MAX_AI_VIEW), summarizedThrough);
+        }
+
+        /** AI-relevant messages not yet folded into the digest. */
+        public int unsummarizedCount() {
+            return (int) Math.max(0, ai.end() - summarizedThrough);
+        }
+
+        /**
+         * The oldest unsummarized messages, leaving the newest {@code keep} out.
+         * Pass the returned view's size to {@link #markSummarized(int)} once it is in the digest.
+         */
+        public List<ChatMessage> oldestUnsummarized(int keep) {
+            long from = summarizedThrough;
+            long to = Math.max(from, ai.end() - keep);
+            return ai.view(from, to);
+        }
+
+        /** The first {@code count} unsummarized messages are now covered by the digest. */
+        public void markSummarized(int count) {
+            summarizedThrough += count;
+        }
+
+        /** The last {@code n} messages of any type, oldest first. */
+        public List<ChatMessage> recent(int n) {
+            return all.lastView(Math.min(n, CAPACITY / 2), 0);
+        }
+    }
+
+    /**
+     * Lock-free ring of messages. Each slot remembers which sequence number it holds,
+     * so readers can tell a slot that was claimed but not yet written, or already
+     * overwritten, from a valid one.
+     */
+    private static final class Ring {
+        private record Slot(long seq, ChatMessage msg) {}
+
+        private final AtomicReferenceArray<Slot> slots;
+        private final int capacity;
+        /** Next sequence number to claim */
+        private final AtomicLong head = new AtomicLong(0);
+
+        Ring(int capacity) {
+            this.capacity = capacity;
+            this.slots = new AtomicReferenceArray<>(capacity);
+        }
+
+        void append(ChatMessage msg) {
+            long seq = head.getAndIncrement();
+            slots.set((int) (seq % capacity), new Slot(seq, msg));
+        }
+
+        /** End of the written sequence (exclusive) */
+        long end() {
+            long end = head.get();
+            // Drop a trailing slot that has been claimed but not written yet
+            while (end > 0 && !isWritten(end - 1)) end--;
+            return end;
+        }
+
+        List<ChatMessage> lastView(int n, long notBefore) {
+            long end = end();
+            return view(Math.max(notBefore, end - n), end);
+        }
+
+        List<ChatMessage> view(long start, long end) {
+            start = Math.max(start, end - capacity);
+            return new View(start, (int) Math.max(0, end - start));
+        }
+
+        private boolean isWritten(long seq) {
+            Slot slot = slots.get((int) (seq % capacity));
+            return slot != null && slot.seq >= seq;
+        }
+
+        ChatMessage read(long seq) {
+            Slot slot = slots.get((int) (seq % capacity));
+            return slot != null && slot.seq == seq ? slot.msg : EVICTED;
+        }
+
+        private final class View extends AbstractList<ChatMessage> {
+            private final long start;
+            private final int size;
+
+            View(long start, int size) {
+                this.start = start;
+                this.size = size;
+            }
+
+            @Override
+            public ChatMessage get(int index) {
+                if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+                return read(start + index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        }
+    }
+}
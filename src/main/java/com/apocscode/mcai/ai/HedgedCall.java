@@ -0,0 +1,339 @@
+package com.apocscode.mcai.ai;
+
+import com.apocscode.mcai.MCAi;
+import com.apocscode.mcai.config.AiConfig;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends one agent-loop request to its backend, hedging it onto the next backend when
+ * the first one is unusually slow (opt-in).
+ *
+ * Every backend's time-to-first-response is tracked as an EWMA of mean and variance.
+ * With hedging on, if the primary has neither answered nor started streaming within
+ * the configured latency percentile, the same request also goes to the next backend in
+ * the fallback order. The first structurally valid response wins; the loser's thread is
+ * interrupted, which aborts its HTTP exchange.
+ *
+ * Streaming: the first attempt to stream anything owns the listener. The other attempt
+ * aborts as soon as it produces its own first event, so the player never sees two
+ * answers interleaved.
+ */
+public class HedgedCall {
+
+    /** One request to one backend (the listener may be null for a non-streaming call). */
+    @FunctionalInterface
+    public interface BackendCall {
+        JsonObject call(AiBackend backend, JsonArray messages,
+                        StreamingResponseParser.Listener listener) throws IOException;
+    }
+
+    private static final double EWMA_ALPHA = 0.2;
+    /** Samples a backend needs before its percentile is trusted */
+    private static final int MIN_SAMPLES = 5;
+    /** Never hedge sooner than this, however fast the backend usually is */
+    private static final long MIN_HEDGE_DELAY_MS = 250;
+
+    private static final Map<AiBackend, Latency> latencies = new ConcurrentHashMap<>();
+
+    private static final AtomicInteger hedgesFired = new AtomicInteger(0);
+    private static final AtomicInteger hedgesWon = new AtomicInteger(0);
+
+    /**
+     * Send the request to {@code primary}, hedging onto the next backend when enabled and slow.
+     * When every attempt fails, the primary's error is thrown so the caller's own fallback
+     * handling (e.g. for 429s) still sees it.
+     */
+    public static JsonObject call(AiBackend primary, JsonArray messages,
+                                  StreamingResponseParser.Listener listener, BackendCall call) throws IOException {
+        AiBackend hedge = isEnabled() ? hedgeFor(primary) : null;
+        long delayMs = hedge == null ? -1 : latency(primary).hedgeDelayMs(getPercentile());
+        if (delayMs < 0) {
+            return timed(primary, messages, listener, call);
+        }
+        return race(primary, hedge, delayMs, messages, listener, call);
+    }
+
+    /**
+     * The backend a slow request is hedged onto, or null if there is none. Only CLOSED
+     * backends qualify: a HALF_OPEN one is waiting on its single trial request, and a hedge
+     * sent there without the permit would bypass that gate.
+     */
+    static AiBackend hedgeFor(AiBackend primary) {
+        return switch (primary) {
+            case PRIMARY_CLOUD -> AiBackend.FALLBACK_CLOUD.isConfigured() && CircuitBreaker.isClosed(AiBackend.FALLBACK_CLOUD)
+                    ? AiBackend.FALLBACK_CLOUD : usable(AiBackend.OLLAMA);
+            case FALLBACK_CLOUD -> usable(AiBackend.OLLAMA);
+            case OLLAMA -> null;
+        };
+    }
+
+    private static AiBackend usable(AiBackend backend) {
+        return CircuitBreaker.isClosed(backend) ? backend : null;
+    }
+
+    /** Plain call that still feeds the latency tracker. */
+    private static JsonObject timed(AiBackend backend, JsonArray messages,
+                                    StreamingResponseParser.Listener listener, BackendCall call) throws IOException {
+        long start = System.currentTimeMillis();
+        long[] firstEventMs = {0};
+        StreamingResponseParser.Listener timing = listener == null ? null : new StreamingResponseParser.Listener() {
+            @Override
+            public void onTextDelta(String delta) {
+                if (firstEventMs[0] == 0) firstEventMs[0] = System.currentTimeMillis();
+                listener.onTextDelta(delta);
+            }
+
+            @Override
+            public void onToolCall(int index, JsonObject toolCall) {
+                if (firstEventMs[0] == 0) firstEventMs[0] = System.currentTimeMillis();
+                listener.onToolCall(index, toolCall);
+            }
+        };
+        JsonObject response = call.call(backend, messages, timing);
+        long end = firstEventMs[0] != 0 ? firstEventMs[0] : System.currentTimeMillis();
+        latency(backend).record(end - start);
+        return response;
+    }
+
+    // ================================================================
+    // Race
+    // ================================================================
+
+    private record Outcome(int index, JsonObject response, Exception error) {}
+
+    /** Thrown inside the losing attempt's stream parser to abort it. */
+    private static final class LostRaceException extends RuntimeException {
+        LostRaceException() {
+            super("hedged request lost the race", null, false, false);
+        }
+    }
+
+    private static JsonObject race(AiBackend primary, AiBackend hedge, long delayMs, JsonArray messages,
+                                   StreamingResponseParser.Listener listener, BackendCall call) throws IOException {
+        BlockingQueue<Outcome> outcomes = new LinkedBlockingQueue<>();
+        AtomicInteger streamOwner = new AtomicInteger(-1);
+        Attempt[] attempts = new Attempt[2];
+        attempts[0] = new Attempt(0, primary, messages, listener, streamOwner, outcomes, call);
+
+        try {
+            Outcome outcome = outcomes.poll(delayMs, TimeUnit.MILLISECONDS);
+            int pending = 1;
+            if (outcome == null && streamOwner.get() < 0) {
+                hedgesFired.incrementAndGet();
+                MCAi.LOGGER.debug("{} silent after {}ms, hedging onto {}", primary.displayName(), delayMs, hedge.displayName());
+                AiLogger.log(AiLogger.Category.AI_REQUEST, "INFO", String.format(
+                        "Hedging: %s has not answered in %dms, also sending to %s",
+                        primary.displayName(), delayMs, hedge.displayName()));
+                // The caller edits the messages as soon as this returns, so the hedge gets its own copy
+                attempts[1] = new Attempt(1, hedge, messages.deepCopy(), listener, streamOwner, outcomes, call);
+                pending = 2;
+            }
+
+            Exception primaryError = null;
+            Exception lastError = null;
+            while (true) {
+                if (outcome == null) outcome = outcomes.take();
+                if (outcome.response != null) {
+                    Attempt loser = attempts[1 - outcome.index];
+                    if (loser != null) loser.cancel();
+                    if (outcome.index == 1) {
+                        hedgesWon.incrementAndGet();
+                        AiLogger.log(AiLogger.Category.AI_REQUEST, "INFO",
+                                "Hedging: " + hedge.displayName() + " answered first");
+                    }
+                    return outcome.response;
+                }
+                if (outcome.index == 0 && !(outcome.error instanceof LostRaceException)) primaryError = outcome.error;
+                if (!(outcome.error instanceof LostRaceException)) lastError = outcome.error;
+                if (--pending == 0) {
+                    Exception error = primaryError != null ? primaryError
+                            : lastError != null ? lastError : outcome.error;
+                    if (error instanceof IOException io) throw io;
+                    throw new IOException(error.getMessage(), error);
+                }
+                outcome = null;
+            }
+        } catch (InterruptedException e) {
+            for (Attempt attempt : attempts) {
+                if (attempt != null) attempt.cancel();
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + primary.displayName());
+        }
+    }
+
+    /**
+     * One racing request on its own virtual thread.
+     */
+    private static final class Attempt {
+        private final int index;
+        private final AiBackend backend;
+        private final long startMs = System.currentTimeMillis();
+        private final Thread thread;
+        private volatile boolean firstEventSeen = false;
+        private volatile boolean finished = false;
+
+        Attempt(int index, AiBackend backend, JsonArray messages, StreamingResponseParser.Listener listener,
+                AtomicInteger streamOwner, BlockingQueue<Outcome> outcomes, BackendCall call) {
+            this.index = index;
+            this.backend = backend;
+            StreamingResponseParser.Listener gated = listener == null ? null : new StreamingResponseParser.Listener() {
+                @Override
+                public void onTextDelta(String delta) {
+                    claim(streamOwner);
+                    listener.onTextDelta(delta);
+                }
+
+                @Override
+                public void onToolCall(int toolIndex, JsonObject toolCall) {
+                    claim(streamOwner);
+                    listener.onToolCall(toolIndex, toolCall);
+                }
+            };
+            this.thread = Thread.ofVirtual().name("MCAi-hedge-" + backend.displayName()).start(() -> {
+                try {
+                    JsonObject response = call.call(backend, messages, gated);
+                    if (!isValid(response)) {
+                        throw new IOException(backend.displayName() + " returned no assistant message");
+                    }
+                    int owner = streamOwner.get();
+                    if (owner >= 0 && owner != index) throw new LostRaceException();
+                    if (!firstEventSeen) latency(backend).record(System.currentTimeMillis() - startMs);
+                    outcomes.add(new Outcome(index, response, null));
+                } catch (Exception e) {
+                    outcomes.add(new Outcome(index, null, e));
+                } finally {
+                    finished = true;
+                }
+            });
+        }
+
+        /** The first event decides who owns the stream; the other attempt gives up. */
+        private void claim(AtomicInteger streamOwner) {
+            if (!firstEventSeen) {
+                firstEventSeen = true;
+                latency(backend).record(System.currentTimeMillis() - startMs);
+            }
+            if (!streamOwner.compareAndSet(-1, index) && streamOwner.get() != index) {
+                throw new LostRaceException();
+            }
+        }
+
+        void cancel() {
+            if (finished) return;
+            // Censored sample: the loser took at least this long, which keeps a backend that
+            // keeps losing from looking faster than it is
+            if (!firstEventSeen) latency(backend).record(System.currentTimeMillis() - startMs);
+            thread.interrupt();
+        }
+    }
+
+    /** Same shape check the agent loop relies on: an assistant message is present. */
+    private static boolean isValid(JsonObject response) {
+        if (response == null) return false;
+        if (response.has("choices")) {
+            JsonElement choices = response.get("choices");
+            return choices.isJsonArray() && !choices.getAsJsonArray().isEmpty()
+                    && choices.getAsJsonArray().get(0).getAsJsonObject().get("message") instanceof JsonObject;
+        }
+        return response.get("message") instanceof JsonObject;
+    }
+
+    // ================================================================
+    // Latency tracking
+    // ================================================================
+
+    private static Latency latency(AiBackend backend) {
+        return latencies.computeIfAbsent(backend, b -> new Latency());
+    }
+
+    /**
+     * EWMA of a backend's time-to-first-response and its variance.
+     */
+    private static final class Latency {
+        private double mean = 0;
+        private double variance = 0;
+        private int samples = 0;
+
+        synchronized void record(long ms) {
+            if (samples++ == 0) {
+                mean = ms;
+                return;
+            }
+            double diff = ms - mean;
+            mean += EWMA_ALPHA * diff;
+            variance = (1 - EWMA_ALPHA) * (variance + EWMA_ALPHA * diff * diff);
+        }
+
+        /** How long to wait before hedging, or -1 while there are too few samples. */
+        synchronized long hedgeDelayMs(int percentile) {
+            if (samples < MIN_SAMPLES) return -1;
+            long estimate = Math.round(mean + zScore(percentile) * Math.sqrt(variance));
+            return Math.max(MIN_HEDGE_DELAY_MS, estimate);
+        }
+
+        synchronized String describe() {
+            return samples == 0 ? "-" : String.format("%.0f±%.0fms", mean, Math.sqrt(variance));
+        }
+    }
+
+    /** Standard normal quantile for a percentile, interpolated from a small table. */
+    static double zScore(int percentile) {
+        int[] p = {50, 75, 90, 95, 99};
+        double[] z = {0.0, 0.674, 1.282, 1.645, 2.326};
+        if (percentile <= p[0]) return z[0];
+        for (int i = 1; i < p.length; i++) {
+            if (percentile <= p[i]) {
+                double t = (percentile - p[i - 1]) / (double) (p[i] - p[i - 1]);
+                return z[i - 1] + t * (z[i] - z[i - 1]);
+            }
+        }
+        return z[z.length - 1];
+    }
+
+    public static String getStats() {
+        int fired = hedgesFired.get();
+        int won = hedgesWon.get();
+        StringBuilder sb = new StringBuilder(String.format("hedging: fired=%d, won=%d (%d%%)",
+                fired, won, fired > 0 ? won * 100 / fired : 0));
+        for (AiBackend backend : AiBackend.values()) {
+            Latency l = latencies.get(backend);
+            if (l != null) sb.append(", ").append(backend.displayName()).append('=').append(l.describe());
+        }
+        return sb.toString();
+    }
+
+    /** Config reload — endpoints or models may have changed, so start measuring afresh. */
+    public static void reset() {
+        latencies.clear();
+    }
+
+    // ---- Config (may not be loaded yet) ----
+
+    private static boolean isEnabled() {
+        try {
+            return AiConfig.HEDGED_REQUESTS.get();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static int getPercentile() {
+        try {
+            return AiConfig.HEDGE_PERCENTILE.get();
+        } catch (Exception e) {
+            return 90;
+        }
+    }
+}
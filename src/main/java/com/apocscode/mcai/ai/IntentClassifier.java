@@ -0,0 +1,348 @@
+package com.apocscode.mcai.ai;
+
+import com.apocscode.mcai.MCAi;
+import com.apocscode.mcai.ai.tool.ToolEffect;
+import com.apocscode.mcai.ai.tool.ToolRegistry;
+import com.apocscode.mcai.config.AiConfig;
+import com.apocscode.mcai.entity.CompanionEntity;
+import com.google.gson.JsonObject;
+import net.minecraft.server.level.ServerPlayer;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Offline intent classifier for messages {@link CommandParser} didn't recognize.
+ *
+ * A multinomial naive Bayes model over word unigrams and bigrams, trained from
+ * CommandParser's seed phrasings plus mcai_debug.log: every logged chat message paired
+ * with the tool the LLM used for it (or "small talk" when it just answered). Log lines
+ * are paired per player, task continuations are skipped, and when the LLM looked
+ * something up before acting, the action is the label, not the lookup.
+ *
+ * Only read-only tools are ever dispatched locally — a misclassified lookup costs a
+ * wrong answer, a misclassified dig or craft would change the world. When such a
+ * message is predicted with high confidence and the arguments can be pulled from the
+ * text, the tool is run directly via {@link AIService#executeToolDeterministic} and
+ * the LLM is never called. Negated messages ("don't ...") and questions about whether
+ * or how to do something always go to the LLM, as does anything below the confidence
+ * threshold. The model is built in the background the first time it is needed.
+ */
+public class IntentClassifier {
+
+    /** Label for messages the LLM answered without calling a tool */
+    static final String CHAT_LABEL = "_chat";
+
+    private static final Path[] LOG_FILES = {
+            Path.of(AiLogger.LOG_FILE + ".old"), Path.of(AiLogger.LOG_FILE)};
+    private static final Pattern CHAT_LINE = Pattern.compile("\\[CHAT\\s*] Player '([^']*)' >>> (.+)$");
+    /** Older logs have no "for 'player'" part */
+    private static final Pattern TOOL_CALL_LINE = Pattern.compile("\\[TOOL_CALL\\s*] >>> CALL tool '([\\w-]+)'(?: for '([^']*)')?");
+    private static final Pattern RESPONSE_LINE = Pattern.compile("\\[AI_RESPONSE\\s*](?:.*?Response to '([^']*)')?");
+    /** Negation anywhere, or a question about whether/how to do something */
+    private static final Pattern NOT_A_COMMAND = Pattern.compile(
+            "\\b(don'?t|do not|never|not|no|stop|cancel|without|instead)\\b"
+                    + "|^\\s*(how|why|should|would|is it|what if|when|(can|could) (i|we))\\b",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern NON_WORD = Pattern.compile("[^a-z0-9]+");
+    /** Messages longer than this are rarely a single command */
+    private static final int MAX_WORDS = 12;
+
+    private static volatile Model model;
+    private static final AtomicBoolean building = new AtomicBoolean(false);
+
+    private static final AtomicInteger consulted = new AtomicInteger(0);
+    private static final AtomicInteger dispatched = new AtomicInteger(0);
+    private static final AtomicLong classifyNanos = new AtomicLong(0);
+
+    record Prediction(String label, double confidence) {}
+
+    /**
+     * Per-label feature counts.
+     * @param vocabulary distinct features across all labels (Laplace smoothing denominator)
+     */
+    private record Model(Map<String, Map<String, Integer>> counts, Map<String, Integer> totals,
+                         Map<String, Integer> documents, int vocabulary, int examples, int fromLog) {}
+
+    /**
+     * Classify the message and, if confident, run the predicted tool without the LLM.
+     * @return true if the message was handled (caller should NOT send it to the AI)
+     */
+    public static boolean tryDispatch(String message, ServerPlayer player, String companionName) {
+        if (!isEnabled() || message == null || message.isBlank()) return false;
+        if (NOT_A_COMMAND.matcher(message).find()) return false;
+        Model m = model;
+        if (m == null) {
+            buildInBackground();
+            return false;
+        }
+
+        long start = System.nanoTime();
+        Prediction prediction = predict(m, message);
+        JsonObject args = prediction != null && prediction.confidence() >= getThreshold()
+                ? extractArgs(prediction.label(), message) : null;
+        classifyNanos.addAndGet(System.nanoTime() - start);
+        consulted.incrementAndGet();
+
+        if (args == null || ToolRegistry.effectOf(prediction.label()) != ToolEffect.READ_ONLY
+                || !AiConfig.isToolEnabled(prediction.label()) || !AiExecutor.isRunning()) return false;
+        String tool = prediction.label();
+        dispatched.incrementAndGet();
+
+        AiLogger.log(AiLogger.Category.COMMAND, "INFO", String.format(
+                "Intent classifier: '%s' → %s %s (p=%.2f, LLM skipped)", message, tool, args, prediction.confidence()));
+        MCAi.LOGGER.info("Classified locally (no AI needed): {} → {}", message, tool);
+
+        // Same bookkeeping as an LLM turn: newer input replaces older work
+        CompanionEntity companion = CompanionEntity.getLivingCompanion(player.getUUID());
+        if (companion != null && companion.getTaskManager().hasTasks()) {
+            companion.getTaskManager().cancelAll();
+        }
+        CancellationToken.cancelAll(player.getUUID());
+        ConversationStore.History history = ConversationStore.forPlayer(player.getUUID());
+        history.addPlayerMessage(message);
+        history.addSystemMessage("[Command classified locally → " + tool + "(" + args + ")]");
+
+        AIService.executeToolDeterministic(tool, args, player, companionName);
+        return true;
+    }
+
+    /**
+     * Arguments for a dispatchable (read-only) tool, or null when the tool needs the LLM
+     * (mutating, complex arguments, or a required slot isn't in the message).
+     */
+    @Nullable
+    static JsonObject extractArgs(String tool, String message) {
+        JsonObject args = new JsonObject();
+        switch (tool) {
+            case "get_inventory", "scan_surroundings", "task_status", "scan_containers", "list_installed_mods" -> {
+                return args;
+            }
+            case "get_recipe" -> {
+                String item = CommandParser.findItem(message);
+                if (item == null) return null;
+                args.addProperty("item", item);
+            }
+            default -> {
+                return null;
+            }
+        }
+        return args;
+    }
+
+    // ================================================================
+    // Model
+    // ================================================================
+
+    @Nullable
+    private static Prediction predict(Model m, String message) {
+        if (message.trim().split("\\s+").length > MAX_WORDS) return null;
+        List<String> features = features(message);
+        if (features.isEmpty()) return null;
+
+        Map<String, Double> scores = new HashMap<>();
+        boolean anyKnown = false;
+        for (Map.Entry<String, Map<String, Integer>> label : m.counts().entrySet()) {
+            String name = label.getKey();
+            double denominator = m.totals().get(name) + m.vocabulary();
+            double score = Math.log(m.documents().get(name) / (double) m.examples());
+            for (String f : features) {
+                Integer count = label.getValue().get(f);
+                if (count != null) anyKnown = true;
+                score += Math.log(((count == null ? 0 : count) + 1) / denominator);
+            }
+            scores.put(name, score);
+        }
+        if (!anyKnown) return null;
+
+        // Softmax over the log scores
+        String best = null;
+        double max = Double.NEGATIVE_INFINITY;
+        for (Map.Entry<String, Double> e : scores.entrySet()) {
+            if (e.getValue() > max) {
+                max = e.getValue();
+                best = e.getKey();
+            }
+        }
+        double sum = 0;
+        for (double s : scores.values()) sum += Math.exp(s - max);
+        return new Prediction(best, 1.0 / sum);
+    }
+
+    /** Lowercased words plus adjacent-word bigrams; numbers collapse to one token. */
+    static List<String> features(String message) {
+        String[] words = NON_WORD.matcher(message.toLowerCase().replace("'", "")).replaceAll(" ").trim().split(" ");
+        List<String> features = new ArrayList<>();
+        String prev = null;
+        for (String w : words) {
+            if (w.isEmpty()) continue;
+            if (Character.isDigit(w.charAt(0))) w = "#";
+            features.add(w);
+            if (prev != null) features.add(prev + "_" + w);
+            prev = w;
+        }
+        return features;
+    }
+
+    private static Model train(List<String[]> examples, int fromLog) {
+        Map<String, Map<String, Integer>> counts = new HashMap<>();
+        Map<String, Integer> totals = new HashMap<>();
+        Map<String, Integer> documents = new HashMap<>();
+        Set<String> vocabulary = new HashSet<>();
+        for (String[] example : examples) {
+            String label = example[0];
+            Map<String, Integer> labelCounts = counts.computeIfAbsent(label, k -> new HashMap<>());
+            for (String f : features(example[1])) {
+                labelCounts.merge(f, 1, Integer::sum);
+                totals.merge(label, 1, Integer::sum);
+                vocabulary.add(f);
+            }
+            totals.putIfAbsent(label, 0);
+            documents.merge(label, 1, Integer::sum);
+        }
+        return new Model(counts, totals, documents, vocabulary.size(), examples.size(), fromLog);
+    }
+
+    private static void buildInBackground() {
+        if (!AiExecutor.isRunning() || !building.compareAndSet(false, true)) return;
+        CompletableFuture.runAsync(() -> {
+            try {
+                long start = System.currentTimeMillis();
+                List<String[]> examples = new ArrayList<>();
+                CommandParser.intentExamples().forEach((label, phrases) -> {
+                    for (String phrase : phrases) examples.add(new String[]{label, phrase});
+                });
+                int seeds = examples.size();
+                for (Path file : LOG_FILES) readLog(file, examples);
+                model = train(examples, examples.size() - seeds);
+                AiLogger.log(AiLogger.Category.SYSTEM, "INFO", String.format(
+                        "Intent classifier trained on %d examples (%d from the debug log) in %dms",
+                        examples.size(), examples.size() - seeds, System.currentTimeMillis() - start));
+            } catch (Exception e) {
+                MCAi.LOGGER.warn("Intent classifier training failed: {}", e.getMessage());
+            } finally {
+                building.set(false);
+            }
+        }, AiExecutor.executor());
+    }
+
+    /** A logged chat message waiting for its response, with the tools called so far. */
+    private static final class PendingChat {
+        final String message;
+        String firstTool;
+        String firstOrderedTool;
+
+        PendingChat(String message) {
+            this.message = message;
+        }
+
+        /** The action the player asked for; a lookup only when nothing else was done. */
+        String label() {
+            if (firstOrderedTool != null) return firstOrderedTool;
+            return firstTool != null ? firstTool : CHAT_LABEL;
+        }
+    }
+
+    /**
+     * Pair each logged chat message with the tool the LLM used for it, or with
+     * {@link #CHAT_LABEL} when the response came without a tool call. Lines are matched to
+     * the player they belong to, so concurrent conversations don't mix; lines from logs
+     * written before tool calls named the player are only used while a single player is
+     * waiting. Task continuations ("[TASK_...") aren't player messages and are skipped.
+     */
+    private static void readLog(Path file, List<String[]> examples) {
+        if (!Files.isRegularFile(file)) return;
+        try (Stream<String> lines = Files.lines(file, StandardCharsets.UTF_8)) {
+            Map<String, PendingChat> pending = new HashMap<>();
+            lines.forEach(line -> {
+                Matcher chat = CHAT_LINE.matcher(line);
+                if (chat.find()) {
+                    String player = chat.group(1);
+                    String message = chat.group(2).trim();
+                    PendingChat previous = pending.remove(player);
+                    if (previous != null) examples.add(new String[]{previous.label(), previous.message});
+                    if (!message.startsWith("[TASK_")) pending.put(player, new PendingChat(message));
+                    return;
+                }
+                Matcher tool = TOOL_CALL_LINE.matcher(line);
+                if (tool.find()) {
+                    PendingChat p = pendingFor(pending, tool.group(2));
+                    if (p == null) return;
+                    if (p.firstTool == null) p.firstTool = tool.group(1);
+                    if (p.firstOrderedTool == null && ToolRegistry.effectOf(tool.group(1)).isOrdered()) {
+                        p.firstOrderedTool = tool.group(1);
+                    }
+                    return;
+                }
+                Matcher response = RESPONSE_LINE.matcher(line);
+                if (response.find()) {
+                    String player = response.group(1);
+                    if (player == null && pending.size() == 1) player = pending.keySet().iterator().next();
+                    PendingChat p = player != null ? pending.remove(player) : null;
+                    if (p != null) examples.add(new String[]{p.label(), p.message});
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            MCAi.LOGGER.debug("Could not read {} for intent training: {}", file, e.getMessage());
+        }
+    }
+
+    @Nullable
+    private static PendingChat pendingFor(Map<String, PendingChat> pending, @Nullable String player) {
+        if (player != null) return pending.get(player);
+        return pending.size() == 1 ? pending.values().iterator().next() : null;
+    }
+
+    // ================================================================
+    // Stats / lifecycle
+    // ================================================================
+
+    public static String getStats() {
+        int total = consulted.get();
+        Model m = model;
+        return String.format("intentClassifier: consulted=%d, hitRate=%.0f%%, llmCallsAvoided=%d, avg=%dµs, trained=%s",
+                total, total > 0 ? dispatched.get() * 100.0 / total : 0.0, dispatched.get(),
+                total > 0 ? classifyNanos.get() / total / 1000 : 0,
+                m == null ? "no" : m.examples() + " (" + m.fromLog() + " from log)");
+    }
+
+    /** Retrain from scratch on next use (picks up new log history). */
+    public static void reset() {
+        model = null;
+    }
+
+    // ---- Config (may not be loaded yet) ----
+
+    private static boolean isEnabled() {
+        try {
+            return AiConfig.LOCAL_INTENT_CLASSIFIER.get();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static double getThreshold() {
+        try {
+            return AiConfig.CLASSIFIER_CONFIDENCE.get();
+        } catch (Exception e) {
+            return 0.9;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.apocscode.mcai.ai;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Precompiled prefilter for {@link CommandParser}'s intent patterns.
+ *
+ * Each pattern is registered with trigger strings: literals such that EVERY text the
+ * pattern can match contains at least one of them (e.g. "strip" for the strip-mine
+ * pattern). All triggers are compiled into one Aho-Corasick automaton, so a single pass
+ * over the message finds every pattern that could possibly match. The parser then only
+ * runs the full regex for those candidates — a pattern whose triggers are all absent
+ * cannot match, so skipping it never changes which intent wins.
+ *
+ * Scanning works on characters rather than whole words because several patterns match
+ * inside words ("shhh", "stripmine", "un-mute"). Patterns that were never registered
+ * are always candidates.
+ */
+final class IntentDispatcher {
+
+    /** Trigger alphabet: a-z, 0-9, space, apostrophe, hyphen. Anything else resets the scan. */
+    private static final int ALPHABET = 39;
+    private static final int MAX_PATTERNS = 64;
+    private static final Pattern NEVER = Pattern.compile("(?!)");
+
+    private final Map<Pattern, Long> bits;
+    /** delta[state * ALPHABET + symbol] → next state (failure links folded in) */
+    private final int[] delta;
+    /** Patterns whose trigger ends at each state */
+    private final long[] output;
+
+    private IntentDispatcher(Map<Pattern, Long> bits, int[] delta, long[] output) {
+        this.bits = bits;
+        this.delta = delta;
+        this.output = output;
+    }
+
+    /** Which registered patterns may match one message. */
+    static final class Scan {
+        private final IntentDispatcher dispatcher;
+        private final long candidates;
+
+        private Scan(IntentDispatcher dispatcher, long candidates) {
+            this.dispatcher = dispatcher;
+            this.candidates = candidates;
+        }
+
+        boolean mayMatch(Pattern pattern) {
+            Long bit = dispatcher.bits.get(pattern);
+            return bit == null || (candidates & bit) != 0;
+        }
+
+        /**
+         * Matcher for the pattern over the message, or one that never matches when the
+         * scan already ruled the pattern out.
+         */
+        Matcher matcher(Pattern pattern, String msg) {
+            return mayMatch(pattern) ? pattern.matcher(msg) : NEVER.matcher("");
+        }
+    }
+
+    Scan scan(String msg) {
+        long candidates = 0;
+        int state = 0;
+        for (int i = 0; i < msg.length(); i++) {
+            int symbol = symbol(msg.charAt(i));
+            state = symbol < 0 ? 0 : delta[state * ALPHABET + symbol];
+            candidates |= output[state];
+        }
+        return new Scan(this, candidates);
+    }
+
+    /**
+     * Patterns are CASE_INSENSITIVE without UNICODE_CASE, so only ASCII letters fold —
+     * a non-ASCII character can never be part of a literal match.
+     */
+    private static int symbol(char c) {
+        if (c >= 'a' && c <= 'z') return c - 'a';
+        if (c >= 'A' && c <= 'Z') return c - 'A';
+        if (c >= '0' && c <= '9') return 26 + (c - '0');
+        if (c == ' ') return 36;
+        if (c == '\'') return 37;
+        if (c == '-') return 38;
+        return -1;
+    }
+
+    // ================================================================
+    // Construction
+    // ================================================================
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    static final class Builder {
+        private final Map<Pattern, Long> bits = new IdentityHashMap<>();
+        private final List<int[]> children = new ArrayList<>();
+        private final List<Long> outputs = new ArrayList<>();
+
+        private Builder() {
+            newNode(); // Root
+        }
+
+        /** Register a pattern; every possible match must contain one of the triggers. */
+        Builder on(Pattern pattern, String... triggers) {
+            if (bits.containsKey(pattern)) throw new IllegalArgumentException("Pattern registered twice: " + pattern);
+            if (bits.size() >= MAX_PATTERNS) throw new IllegalStateException("Too many patterns for IntentDispatcher");
+            if (triggers.length == 0) throw new IllegalArgumentException("No triggers for " + pattern);
+            long bit = 1L << bits.size();
+            bits.put(pattern, bit);
+            for (String trigger : triggers) {
+                int node = 0;
+                for (int i = 0; i < trigger.length(); i++) {
+                    char c = trigger.charAt(i);
+                    int symbol = symbol(c);
+                    if (symbol < 0 || (c >= 'A' && c <= 'Z')) {
+                        throw new IllegalArgumentException("Trigger must be lowercase [a-z0-9 '-]: \"" + trigger + "\"");
+                    }
+                    int next = children.get(node)[symbol];
+                    if (next == 0) {
+                        next = newNode();
+                        children.get(node)[symbol] = next;
+                    }
+                    node = next;
+                }
+                outputs.set(node, outputs.get(node) | bit);
+            }
+            return this;
+        }
+
+        /** Add failure links (breadth-first) and fold them into a full transition table. */
+        IntentDispatcher build() {
+            int count = children.size();
+            int[] delta = new int[count * ALPHABET];
+            long[] output = new long[count];
+            int[] fail = new int[count];
+            Queue<Integer> queue = new ArrayDeque<>();
+
+            output[0] = outputs.get(0);
+            for (int s = 0; s < ALPHABET; s++) {
+                int child = children.get(0)[s];
+                delta[s] = child;
+                if (child != 0) queue.add(child);
+            }
+            while (!queue.isEmpty()) {
+                int node = queue.poll();
+                output[node] = outputs.get(node) | output[fail[node]];
+                for (int s = 0; s < ALPHABET; s++) {
+                    int child = children.get(node)[s];
+                    if (child != 0) {
+                        fail[child] = delta[fail[node] * ALPHABET + s];
+                        delta[node * ALPHABET + s] = child;
+                        queue.add(child);
+                    } else {
+                        delta[node * ALPHABET + s] = delta[fail[node] * ALPHABET + s];
+                    }
+                }
+            }
+            return new IntentDispatcher(new IdentityHashMap<>(bits), delta, output);
+        }
+
+        private int newNode() {
+            children.add(new int[ALPHABET]);
+            outputs.add(0L);
+            return children.size() - 1;
+        }
+    }
+}
@@ -0,0 +1,478 @@
+package com.apocscode.mcai.ai;
+
+import com.apocscode.mcai.MCAi;
+import com.apocscode.mcai.ai.tool.ToolContext;
+import com.apocscode.mcai.ai.tool.ToolRegistry;
+import com.apocscode.mcai.config.AiConfig;
+import com.apocscode.mcai.entity.CompanionEntity;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.Container;
+import net.minecraft.world.item.ItemStack;
+import net.neoforged.fml.loading.FMLPaths;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Learned macros: tool sequences from agent loops that finished successfully, replayed
+ * without the LLM the next time the same request comes in.
+ *
+ * A macro belongs to one player and is keyed by the normalized request ("make me a chest"
+ * → "make chest") plus an inventory signature — which coarse material groups the player
+ * and companion carry — because the right tool chain depends on what's already at hand.
+ * Sequences with absolute positions (container or block coordinates, "x,y,z"
+ * destinations) are never recorded: replayed verbatim they would act at the old site,
+ * not where the player is now. A macro is only
+ * replayed once the LLM has produced the same sequence for that key
+ * {@link #getMinSuccesses()} times. Replays go through {@link AIService#executeTool};
+ * when a replayed step fails the macro is evicted and the request goes to the LLM.
+ *
+ * Macros live in a bounded LRU persisted to config/mcai_cache/macros.json, and can be
+ * inspected and evicted with /mcai macros.
+ */
+public class MacroCache {
+
+    private static final Gson GSON = new Gson();
+    private static final Path CACHE_FILE = FMLPaths.CONFIGDIR.get().resolve("mcai_cache").resolve("macros.json");
+    private static final int MAX_RESULT_CHARS = 400;
+    private static final Pattern NON_WORD = Pattern.compile("[^a-z0-9]+");
+    /** Arguments that pin a call to a place in the world */
+    private static final Set<String> POSITION_ARGS = Set.of("x", "y", "z", "pos", "position");
+    /** "12, 64, -30", "12 64 -30" (commands) or a nested {"x": ...} in a plan string */
+    private static final Pattern COORDINATES = Pattern.compile(
+            "-?\\d+(\\s*,\\s*|\\s+)-?\\d+(\\s*,\\s*|\\s+)-?\\d+|\"[xyz]\"\\s*:");
+    /** Words that don't change what the player is asking for */
+    private static final Set<String> FILLER = Set.of(
+            "a", "an", "the", "some", "me", "my", "us", "our", "for", "please", "pls", "plz",
+            "can", "could", "would", "will", "you", "u", "go", "and", "just", "now", "hey");
+
+    /**
+     * Coarse inventory features: group name → item id fragments. Presence only — counts
+     * are left to the tools, which skip steps when enough is already there.
+     */
+    private static final Map<String, String[]> FEATURES = new LinkedHashMap<>();
+    static {
+        FEATURES.put("logs", new String[]{"_log", "_stem"});
+        FEATURES.put("planks", new String[]{"_planks"});
+        FEATURES.put("sticks", new String[]{"stick"});
+        FEATURES.put("stone", new String[]{"cobblestone", "cobbled_deepslate", "blackstone"});
+        FEATURES.put("coal", new String[]{"coal", "charcoal"});
+        FEATURES.put("raw_iron", new String[]{"raw_iron", "iron_ore"});
+        FEATURES.put("iron", new String[]{"iron_ingot"});
+        FEATURES.put("raw_gold", new String[]{"raw_gold", "gold_ore"});
+        FEATURES.put("gold", new String[]{"gold_ingot"});
+        FEATURES.put("raw_copper", new String[]{"raw_copper", "copper_ore"});
+        FEATURES.put("copper", new String[]{"copper_ingot"});
+        FEATURES.put("diamond", new String[]{"diamond"});
+        FEATURES.put("crafting_table", new String[]{"crafting_table"});
+        FEATURES.put("furnace", new String[]{"furnace"});
+    }
+
+    /** One tool call of a macro. */
+    public record Call(String tool, JsonObject args) {}
+
+    /** Tool calls made by one agent loop, and whether the loop ended cleanly. */
+    public static final class Trace {
+        private final List<Call> calls = new ArrayList<>();
+        private boolean failed;
+
+        synchronized void add(String tool, JsonObject args, String result) {
+            calls.add(new Call(tool, args.deepCopy()));
+            if (isFailure(result)) failed = true;
+        }
+
+        synchronized void fail() {
+            failed = true;
+        }
+    }
+
+    /** A learned macro, as listed by /mcai macros. */
+    public record Macro(UUID owner, String ownerName, String intent, String signature, List<Call> calls,
+                        int successes, int replays, long lastUsedMs) {
+        public String key() {
+            return keyOf(owner, intent, signature);
+        }
+
+        public String describe() {
+            List<String> steps = new ArrayList<>();
+            for (Call call : calls) steps.add(call.tool() + call.args());
+            return String.join(" → ", steps);
+        }
+    }
+
+    /** Access-ordered: iteration starts at the least recently used macro */
+    private static final LinkedHashMap<String, Macro> macros = new LinkedHashMap<>(64, 0.75f, true);
+    private static volatile boolean loaded = false;
+    private static final AtomicBoolean saveQueued = new AtomicBoolean(false);
+
+    private static final AtomicInteger lookups = new AtomicInteger(0);
+    private static final AtomicInteger hits = new AtomicInteger(0);
+    private static final AtomicInteger replayFailures = new AtomicInteger(0);
+    private static final AtomicInteger recorded = new AtomicInteger(0);
+    private static final AtomicInteger evictions = new AtomicInteger(0);
+
+    // ================================================================
+    // Replay
+    // ================================================================
+
+    /**
+     * Replay the macro learned for this request, if there is a confident one.
+     * @return the response for the player, or null when the LLM should handle the message
+     *         (no macro, or a replayed step failed — see {@code failedNote})
+     */
+    @Nullable
+    static String tryReplay(String userMessage, String signature, ToolContext toolCtx,
+                            CancellationToken token, StringBuilder failedNote) {
+        if (!isEnabled() || userMessage.startsWith("[")) return null;
+        String intent = normalize(userMessage);
+        if (intent.isEmpty()) return null;
+        ensureLoaded();
+        lookups.incrementAndGet();
+
+        UUID owner = toolCtx.player().getUUID();
+        Macro macro;
+        synchronized (macros) {
+            macro = macros.get(keyOf(owner, intent, signature));
+        }
+        if (macro == null || macro.successes() < getMinSuccesses()) return null;
+        hits.incrementAndGet();
+        AiLogger.log(AiLogger.Category.AI_REQUEST, "INFO", String.format(
+                "Macro hit for '%s' [%s] — replaying %s (LLM skipped)", intent, signature, macro.describe()));
+
+        StringBuilder output = new StringBuilder();
+        List<String> done = new ArrayList<>();
+        for (Call call : macro.calls()) {
+            token.throwIfCancelled();
+            String result = AIService.executeTool(call.tool(), call.args().deepCopy(), toolCtx);
+            if (result == null || isFailure(result)) {
+                replayFailures.incrementAndGet();
+                evict(macro.key());
+                AiLogger.log(AiLogger.Category.AI_REQUEST, "WARN", "Macro step " + call.tool()
+                        + " failed (" + result + ") — evicted, asking the AI");
+                failedNote.append("[Already done: ").append(done.isEmpty() ? "nothing" : String.join(", ", done))
+                        .append(". Then ").append(call.tool()).append(" failed: ").append(result).append("]");
+                return null;
+            }
+            done.add(call.tool());
+            String shown = result.replace("[ASYNC_TASK]", "").trim();
+            if (shown.length() > MAX_RESULT_CHARS) shown = shown.substring(0, MAX_RESULT_CHARS) + "…";
+            if (!shown.isEmpty()) {
+                if (!output.isEmpty()) output.append('\n');
+                output.append(shown);
+            }
+        }
+
+        synchronized (macros) {
+            macros.computeIfPresent(macro.key(), (k, m) -> new Macro(m.owner(), m.ownerName(), m.intent(),
+                    m.signature(), m.calls(), m.successes(), m.replays() + 1, System.currentTimeMillis()));
+        }
+        scheduleSave();
+        return output.isEmpty() ? "Done." : output.toString();
+    }
+
+    // ================================================================
+    // Recording
+    // ================================================================
+
+    /** Inventory signature for the lookup and for recording; taken before any tool changes it. */
+    static String signatureFor(ServerPlayer player) {
+        return isEnabled() ? signature(player) : "";
+    }
+
+    /** Remember the tool sequence of a player's agent loop that finished without errors. */
+    static void record(ServerPlayer player, String userMessage, String signature, Trace trace) {
+        if (!isEnabled() || userMessage.startsWith("[")) return;
+        List<Call> calls;
+        synchronized (trace) {
+            if (trace.failed || trace.calls.isEmpty()) return;
+            calls = List.copyOf(trace.calls);
+        }
+        // Pure lookups need the LLM to read the results; only action sequences are worth replaying
+        if (calls.stream().noneMatch(call -> ToolRegistry.effectOf(call.tool()).isOrdered())) return;
+        if (calls.stream().anyMatch(MacroCache::isPositional)) return;
+        String intent = normalize(userMessage);
+        if (intent.isEmpty()) return;
+        ensureLoaded();
+
+        UUID owner = player.getUUID();
+        String key = keyOf(owner, intent, signature);
+        synchronized (macros) {
+            Macro existing = macros.get(key);
+            // Same sequence again builds confidence; a different one starts over
+            int successes = existing != null && sameCalls(existing.calls(), calls) ? existing.successes() + 1 : 1;
+            int replays = existing != null && successes > 1 ? existing.replays() : 0;
+            macros.put(key, new Macro(owner, player.getName().getString(), intent, signature, calls,
+                    successes, replays, System.currentTimeMillis()));
+            trim();
+        }
+        recorded.incrementAndGet();
+        scheduleSave();
+    }
+
+    private static String keyOf(UUID owner, String intent, String signature) {
+        return owner + " | " + intent + " | " + signature;
+    }
+
+    /** Whether the call names a position: coordinate arguments, or coordinates inside a string argument. */
+    private static boolean isPositional(Call call) {
+        for (Map.Entry<String, JsonElement> arg : call.args().entrySet()) {
+            if (POSITION_ARGS.contains(arg.getKey().toLowerCase())) return true;
+            JsonElement value = arg.getValue();
+            if (value.isJsonPrimitive() && value.getAsJsonPrimitive().isString()
+                    && COORDINATES.matcher(value.getAsString()).find()) return true;
+        }
+        return false;
+    }
+
+    private static boolean sameCalls(List<Call> a, List<Call> b) {
+        if (a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            if (!a.get(i).tool().equals(b.get(i).tool()) || !a.get(i).args().equals(b.get(i).args())) return false;
+        }
+        return true;
+    }
+
+    private static boolean isFailure(String result) {
+        return result.startsWith("Error") || result.contains("[CANNOT_CRAFT]");
+    }
+
+    /** Lowercase words without filler, in order: "Can you make me a chest?" → "make chest". */
+    static String normalize(String message) {
+        StringBuilder out = new StringBuilder();
+        for (String w : NON_WORD.matcher(message.toLowerCase().replace("'", "")).replaceAll(" ").trim().split(" ")) {
+            if (w.isEmpty() || FILLER.contains(w)) continue;
+            if (!out.isEmpty()) out.append(' ');
+            out.append(w);
+        }
+        return out.toString();
+    }
+
+    /** Material groups present in the player's and companion's inventories, e.g. "logs,planks". */
+    private static String signature(ServerPlayer player) {
+        Set<String> present = new TreeSet<>();
+        collectFeatures(player.getInventory(), present);
+        CompanionEntity companion = CompanionEntity.getLivingCompanion(player.getUUID());
+        if (companion != null) collectFeatures(companion.getCompanionInventory(), present);
+        return present.isEmpty() ? "empty" : String.join(",", present);
+    }
+
+    private static void collectFeatures(Container container, Set<String> present) {
+        for (int i = 0; i < container.getContainerSize(); i++) {
+            ItemStack stack = container.getItem(i);
+            if (stack.isEmpty()) continue;
+            String id = BuiltInRegistries.ITEM.getKey(stack.getItem()).getPath();
+            for (Map.Entry<String, String[]> feature : FEATURES.entrySet()) {
+                if (present.contains(feature.getKey())) continue;
+                for (String fragment : feature.getValue()) {
+                    if (id.contains(fragment)) {
+                        present.add(feature.getKey());
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    // ================================================================
+    // Admin (/mcai macros)
+    // ================================================================
+
+    /** Macros, most recently used first. */
+    public static List<Macro> list() {
+        ensureLoaded();
+        List<Macro> result;
+        synchronized (macros) {
+            result = new ArrayList<>(macros.values());
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * Evict macros whose key (owner UUID, request, signature) or owner name contains the
+     * filter ("*" evicts everything).
+     * @return how many were evicted
+     */
+    public static int evictMatching(String filter) {
+        ensureLoaded();
+        int removed;
+        synchronized (macros) {
+            int before = macros.size();
+            String needle = filter.toLowerCase();
+            macros.values().removeIf(m -> filter.equals("*") || m.key().contains(needle)
+                    || m.ownerName().toLowerCase().contains(needle));
+            removed = before - macros.size();
+        }
+        if (removed > 0) {
+            evictions.addAndGet(removed);
+            scheduleSave();
+        }
+        return removed;
+    }
+
+    private static void evict(String key) {
+        synchronized (macros) {
+            if (macros.remove(key) == null) return;
+        }
+        evictions.incrementAndGet();
+        scheduleSave();
+    }
+
+    /** Caller holds the lock. */
+    private static void trim() {
+        int limit = getMaxMacros();
+        var it = macros.entrySet().iterator();
+        while (macros.size() > limit && it.hasNext()) {
+            it.next();
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    // ================================================================
+    // Persistence
+    // ================================================================
+
+    private static void ensureLoaded() {
+        if (loaded) return;
+        synchronized (macros) {
+            if (loaded) return;
+            loaded = true;
+            if (!Files.exists(CACHE_FILE)) return;
+            try (Reader reader = Files.newBufferedReader(CACHE_FILE, StandardCharsets.UTF_8)) {
+                // Stored least recently used first, so re-inserting keeps the LRU order
+                for (JsonElement element : JsonParser.parseReader(reader).getAsJsonArray()) {
+                    JsonObject o = element.getAsJsonObject();
+                    // Macros saved before they were scoped per player are dropped
+                    if (!o.has("owner")) continue;
+                    List<Call> calls = new ArrayList<>();
+                    for (JsonElement c : o.getAsJsonArray("calls")) {
+                        JsonObject call = c.getAsJsonObject();
+                        calls.add(new Call(call.get("tool").getAsString(), call.getAsJsonObject("args")));
+                    }
+                    Macro m = new Macro(UUID.fromString(o.get("owner").getAsString()),
+                            o.get("ownerName").getAsString(), o.get("intent").getAsString(),
+                            o.get("signature").getAsString(), List.copyOf(calls), o.get("successes").getAsInt(),
+                            o.get("replays").getAsInt(), o.get("lastUsed").getAsLong());
+                    macros.put(m.key(), m);
+                }
+                trim();
+                MCAi.LOGGER.info("Loaded {} learned macro(s)", macros.size());
+            } catch (Exception e) {
+                MCAi.LOGGER.warn("Ignoring unreadable macro cache: {}", e.getMessage());
+            }
+        }
+    }
+
+    /** Save in the background; changes made while a save is queued go out with it. */
+    private static void scheduleSave() {
+        if (!AiExecutor.isRunning() || !saveQueued.compareAndSet(false, true)) return;
+        CompletableFuture.runAsync(MacroCache::save, AiExecutor.executor());
+    }
+
+    /** Write pending changes now (server stopping). */
+    static void flush() {
+        if (loaded) save();
+    }
+
+    private static void save() {
+        saveQueued.set(false);
+        JsonArray out = new JsonArray();
+        synchronized (macros) {
+            for (Macro m : macros.values()) {
+                JsonObject o = new JsonObject();
+                o.addProperty("owner", m.owner().toString());
+                o.addProperty("ownerName", m.ownerName());
+                o.addProperty("intent", m.intent());
+                o.addProperty("signature", m.signature());
+                JsonArray calls = new JsonArray();
+                for (Call call : m.calls()) {
+                    JsonObject c = new JsonObject();
+                    c.addProperty("tool", call.tool());
+                    c.add("args", call.args());
+                    calls.add(c);
+                }
+                o.add("calls", calls);
+                o.addProperty("successes", m.successes());
+                o.addProperty("replays", m.replays());
+                o.addProperty("lastUsed", m.lastUsedMs());
+                out.add(o);
+            }
+        }
+        try {
+            Files.createDirectories(CACHE_FILE.getParent());
+            Path tmp = CACHE_FILE.resolveSibling(CACHE_FILE.getFileName() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                GSON.toJson(out, writer);
+            }
+            Files.move(tmp, CACHE_FILE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            MCAi.LOGGER.warn("Could not save macro cache: {}", e.getMessage());
+        }
+    }
+
+    // ================================================================
+    // Stats
+    // ================================================================
+
+    public static String getStats() {
+        int total = lookups.get();
+        int size;
+        synchronized (macros) {
+            size = macros.size();
+        }
+        return String.format("macros: size=%d, lookups=%d, hitRate=%.0f%%, replayFailures=%d, recorded=%d, evicted=%d",
+                size, total, total > 0 ? hits.get() * 100.0 / total : 0.0, replayFailures.get(),
+                recorded.get(), evictions.get());
+    }
+
+    // ---- Config (may not be loaded yet) ----
+
+    private static boolean isEnabled() {
+        try {
+            return AiConfig.MACRO_CACHE.get();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static int getMaxMacros() {
+        try {
+            return AiConfig.MACRO_CACHE_SIZE.get();
+        } catch (Exception e) {
+            return 200;
+        }
+    }
+
+    private static int getMinSuccesses() {
+        try {
+            return AiConfig.MACRO_MIN_SUCCESSES.get();
+        } catch (Exception e) {
+            return 2;
+        }
+    }
+}
@@ -1,14 +1,26 @@
 package com.apocscode.mcai.ai;
 
 import com.apocscode.mcai.MCAi;
+import com.apocscode.mcai.config.AiConfig;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
 
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
 import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Manages the local Ollama instance:
@@ -16,6 +28,9 @@ import java.util.List;
  * - Checks the installed version
  * - Starts Ollama serve if not already running
  * - Health-checks the API endpoint
+ * - Keeps the configured model loaded: warms it at server start and whenever a cloud
+ *   backend's circuit breaker opens, sends keep_alive with every request, and polls
+ *   /api/ps so we know whether the next fallback request will pay a model load
  *
  * Called during mod initialization so Ollama is ready as a fallback
  * when Groq rate-limits or is unavailable.
@@ -29,6 +44,14 @@ public class OllamaManager {
     private static boolean weStartedIt = false;  // true if WE launched the process
     private static Process ollamaProcess = null;  // reference to the process we started
 
+    /** How often /api/ps is polled for the model's load state */
+    private static final long LOAD_POLL_SECONDS = 30;
+    private static volatile boolean modelLoaded = false;
+    private static volatile long lastLoadMs = -1;
+    private static final AtomicBoolean warming = new AtomicBoolean(false);
+    private static final AtomicInteger warmups = new AtomicInteger(0);
+    private static ScheduledExecutorService monitor;
+
     // Common install locations on Windows
     private static final List<String> SEARCH_PATHS = List.of(
             System.getProperty("user.home") + "\\AppData\\Local\\Programs\\Ollama\\ollama.exe",
@@ -93,18 +116,27 @@ public class OllamaManager {
      */
     public static boolean isRunning() {
         try {
-            HttpURLConnection conn = (HttpURLConnection) URI.create(OLLAMA_API).toURL().openConnection();
-            conn.setConnectTimeout(2000);
-            conn.setReadTimeout(2000);
-            conn.setRequestMethod("GET");
-            int code = conn.getResponseCode();
-            conn.disconnect();
-            return code == 200;
+            HttpRequest request = AiHttpClient.request(OLLAMA_API, 2000).GET().build();
+            return AiHttpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
         } catch (Exception e) {
             return false;
         }
     }
 
+    /**
+     * Health probe for the circuit breaker: the configured Ollama endpoint (which may be
+     * remote) answers /api/tags. Also refreshes {@link #isAvailable()}.
+     */
+    public static boolean isHealthy() {
+        try {
+            HttpRequest request = AiHttpClient.request(apiUrl("/api/tags"), 2000).GET().build();
+            running = AiHttpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+        } catch (Exception e) {
+            running = false;
+        }
+        return running;
+    }
+
     /**
      * Find the Ollama executable on the system.
      */
@@ -156,18 +188,13 @@ public class OllamaManager {
      */
     private static void fetchVersion() {
         try {
-            HttpURLConnection conn = (HttpURLConnection) URI.create(OLLAMA_API + "/api/version").toURL().openConnection();
-            conn.setConnectTimeout(2000);
-            conn.setReadTimeout(2000);
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream()))) {
-                String body = reader.readLine();
-                if (body != null) {
-                    // Response is {"version":"0.15.6"}
-                    ollamaVersion = body.replaceAll(".*\"version\"\\s*:\\s*\"([^\"]+)\".*", "$1");
-                    MCAi.LOGGER.info("Ollama version (from API): {}", ollamaVersion);
-                }
+            HttpRequest request = AiHttpClient.request(OLLAMA_API + "/api/version", 2000).GET().build();
+            String body = AiHttpClient.send(request, HttpResponse.BodyHandlers.ofString()).body();
+            if (body != null && !body.isBlank()) {
+                // Response is {"version":"0.15.6"}
+                ollamaVersion = body.trim().replaceAll(".*\"version\"\\s*:\\s*\"([^\"]+)\".*", "$1");
+                MCAi.LOGGER.info("Ollama version (from API): {}", ollamaVersion);
             }
-            conn.disconnect();
         } catch (Exception ignored) {}
     }
 
@@ -206,8 +233,144 @@ public class OllamaManager {
         return false;
     }
 
+    // ================================================================
+    // Model residency
+    // ================================================================
+
+    /**
+     * Server started: load the model now rather than on the first fallback request, and
+     * start tracking whether it stays loaded.
+     */
+    public static synchronized void onServerStarted() {
+        if (monitor == null) {
+            monitor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "MCAi-OllamaMonitor");
+                t.setDaemon(true);
+                return t;
+            });
+            monitor.scheduleWithFixedDelay(OllamaManager::pollLoadState,
+                    LOAD_POLL_SECONDS, LOAD_POLL_SECONDS, TimeUnit.SECONDS);
+        }
+        warmUp("server start");
+    }
+
+    /**
+     * Load the configured model in the background with an empty generate call (no tokens
+     * generated). Skipped when it is already loaded or a warm-up is in flight.
+     */
+    public static void warmUp(String reason) {
+        if (!isWarmupEnabled() || !warming.compareAndSet(false, true)) return;
+        Thread thread = new Thread(() -> {
+            try {
+                if (pollLoadState()) return;
+                String model = AiConfig.OLLAMA_MODEL.get();
+                JsonObject body = new JsonObject();
+                body.addProperty("model", model);
+                body.add("keep_alive", keepAlive());
+                long start = System.currentTimeMillis();
+                HttpRequest request = AiHttpClient.request(apiUrl("/api/generate"), AiConfig.AI_TIMEOUT_MS.get())
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(body.toString(), StandardCharsets.UTF_8))
+                        .build();
+                int status = AiHttpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                if (status != 200) {
+                    MCAi.LOGGER.warn("Ollama warm-up of '{}' failed: HTTP {}", model, status);
+                    return;
+                }
+                lastLoadMs = System.currentTimeMillis() - start;
+                modelLoaded = true;
+                warmups.incrementAndGet();
+                AiLogger.log(AiLogger.Category.SYSTEM, "INFO", String.format(
+                        "Ollama model '%s' warmed up in %dms (%s)", model, lastLoadMs, reason));
+            } catch (Exception e) {
+                MCAi.LOGGER.debug("Ollama warm-up skipped ({}): {}", reason, e.getMessage());
+            } finally {
+                warming.set(false);
+            }
+        }, "MCAi-OllamaWarmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Refresh {@link #isModelLoaded()} from /api/ps. If the model was evicted while Ollama
+     * is the backend in use (cloud off or its breaker open), load it again.
+     * @return whether the model is loaded
+     */
+    private static boolean pollLoadState() {
+        boolean wasLoaded = modelLoaded;
+        try {
+            HttpRequest request = AiHttpClient.request(apiUrl("/api/ps"), 2000).GET().build();
+            HttpResponse<String> response = AiHttpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            modelLoaded = response.statusCode() == 200 && listsModel(response.body(), AiConfig.OLLAMA_MODEL.get());
+        } catch (Exception e) {
+            modelLoaded = false;
+            return false;
+        }
+        if (wasLoaded != modelLoaded) {
+            AiLogger.log(AiLogger.Category.SYSTEM, "INFO",
+                    "Ollama model " + (modelLoaded ? "loaded" : "unloaded (next local request pays a model load)"));
+        }
+        if (!modelLoaded && !warming.get() && isFallbackActive()) {
+            warmUp("model was unloaded while in use");
+        }
+        return modelLoaded;
+    }
+
+    /** /api/ps names models with a tag ("llama3.1:latest"); the config may leave it off. */
+    private static boolean listsModel(String body, String model) {
+        JsonElement models = JsonParser.parseString(body).getAsJsonObject().get("models");
+        if (models == null || !models.isJsonArray()) return false;
+        String wanted = model.contains(":") ? model : model + ":latest";
+        for (JsonElement m : models.getAsJsonArray()) {
+            JsonObject entry = m.getAsJsonObject();
+            String name = entry.has("model") ? entry.get("model").getAsString() : entry.get("name").getAsString();
+            if (name.equals(model) || name.equals(wanted)) return true;
+        }
+        return false;
+    }
+
+    /** Ollama answers requests now: cloud is off, or every cloud backend is tripped. */
+    private static boolean isFallbackActive() {
+        try {
+            if (!AiConfig.isCloudEnabled()) return true;
+        } catch (Exception e) {
+            return false;
+        }
+        return CircuitBreaker.isOpen(AiBackend.PRIMARY_CLOUD);
+    }
+
+    /**
+     * The keep_alive value for every Ollama request: how long the model stays loaded after
+     * it. Plain numbers are seconds (-1 = forever), otherwise a duration like "30m".
+     */
+    public static JsonElement keepAlive() {
+        String value;
+        try {
+            value = AiConfig.OLLAMA_KEEP_ALIVE.get().trim();
+        } catch (Exception e) {
+            value = "30m";
+        }
+        return value.matches("-?\\d+") ? new JsonPrimitive(Long.parseLong(value)) : new JsonPrimitive(value);
+    }
+
+    /** Path on the configured Ollama server (which may be remote). */
+    private static String apiUrl(String path) {
+        URI chat = URI.create(AiBackend.OLLAMA.url());
+        return chat.getScheme() + "://" + chat.getAuthority() + path;
+    }
+
+    public static String getStats() {
+        return String.format("ollamaModel: loaded=%s, warmups=%d, lastLoad=%s",
+                modelLoaded, warmups.get(), lastLoadMs < 0 ? "n/a" : lastLoadMs + "ms");
+    }
+
     // --- Accessors ---
 
+    public static boolean isModelLoaded() {
+        return modelLoaded;
+    }
+
     public static boolean isAvailable() {
         return running;
     }
@@ -225,6 +388,12 @@ public class OllamaManager {
      * Called when the game/server is stopping.
      */
     public static void shutdown() {
+        synchronized (OllamaManager.class) {
+            if (monitor != null) {
+                monitor.shutdownNow();
+                monitor = null;
+            }
+        }
         if (!weStartedIt) {
             MCAi.LOGGER.info("Ollama was not started by MCAi — leaving it running");
             return;
@@ -254,4 +423,14 @@ public class OllamaManager {
         weStartedIt = false;
         ollamaProcess = null;
     }
+
+    // ---- Config (may not be loaded yet) ----
+
+    private static boolean isWarmupEnabled() {
+        try {
+            return AiConfig.OLLAMA_WARMUP.get();
+        } catch (Exception e) {
+            return false;
+        }
+    }
 }
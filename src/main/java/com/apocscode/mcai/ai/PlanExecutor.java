@@ -0,0 +1,574 @@
+package com.apocscode.mcai.ai;
+
+import com.apocscode.mcai.MCAi;
+import com.apocscode.mcai.ai.tool.AiTool;
+import com.apocscode.mcai.ai.tool.ToolContext;
+import com.apocscode.mcai.ai.tool.ToolRegistry;
+import com.apocscode.mcai.config.AiConfig;
+import com.apocscode.mcai.entity.CompanionEntity;
+import com.apocscode.mcai.network.ChatResponsePacket;
+import com.apocscode.mcai.task.TaskContinuation;
+import com.apocscode.mcai.task.TaskManager;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import net.minecraft.server.level.ServerPlayer;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Plan-then-execute agent mode.
+ *
+ * Instead of one LLM round trip per tool call, the model is asked ONCE for the whole
+ * program: a short list of tool calls with symbolic dependencies, constrained to a JSON
+ * schema. The program is then run locally:
+ * - steps run in program order; consecutive read-only steps run in parallel
+ * - a string argument "$id" is replaced by the result of step "id"
+ * - a step that starts a companion task ([ASYNC_TASK]) suspends the program until
+ *   {@link com.apocscode.mcai.task.TaskManager} reports that task's chain (the task and
+ *   the tasks its deterministic continuations queue) settled, then the remaining steps
+ *   continue without the LLM. Only that chain can resume the program; if the chain is
+ *   handed to the LLM, the remaining steps go with it, and stopping the companion's
+ *   tasks drops the program
+ *
+ * The LLM is only called again when a step fails: the remaining steps are handed to
+ * {@link AIService#continueAfterTask} as a {@link TaskContinuation}, in the same
+ * "Call tool({json})" form {@code TaskManager.tryDeterministicContinuation} reads.
+ * Any problem getting a valid program (provider rejects JSON schema, invalid steps)
+ * returns null and the normal agent loop handles the message.
+ */
+public class PlanExecutor {
+
+    private static final int MAX_STEPS = 8;
+    /** Drop a suspended program if its task hasn't settled by then */
+    private static final long MAX_WAIT_MS = 15 * 60_000L;
+    private static final int MAX_RESULT_CHARS = 400;
+    private static final String ASYNC_MARKER = "[ASYNC_TASK]";
+
+    /** Programs waiting on a companion task, by task chain id */
+    private static final Map<Long, Run> waiting = new ConcurrentHashMap<>();
+
+    private static final AtomicInteger programs = new AtomicInteger(0);
+    private static final AtomicInteger stepsRun = new AtomicInteger(0);
+    private static final AtomicInteger suspensions = new AtomicInteger(0);
+    private static final AtomicInteger replans = new AtomicInteger(0);
+    private static final AtomicInteger fallbacks = new AtomicInteger(0);
+
+    private static final String INSTRUCTIONS = """
+
+            === PLAN MODE ===
+            Answer with ONE JSON object describing the complete plan for the player's message:
+            {"reply": "<short message to the player>", "steps": [{"id": "s1", "tool": "<tool>", "args": {...}, "after": []}]}
+            - steps run in order; "after" lists ids of earlier steps this step needs
+            - to pass an earlier step's result as an argument, use the string "$<id>" (e.g. "$s1")
+            - tasks that take time (mining, gathering, crafting chains) finish before the next step starts
+            - at most 8 steps; use an empty "steps" list when no tool is needed
+            Available tools:
+            """;
+
+    record Step(String id, String tool, JsonObject args, List<String> after) {}
+
+    /** One program being executed for a player. */
+    private static final class Run {
+        final String request;
+        final List<Step> steps;
+        final ServerPlayer player;
+        final String companionName;
+        final Map<String, String> results = new HashMap<>();
+        final StringBuilder output = new StringBuilder();
+        /** Index of the first step that hasn't run yet */
+        int next;
+        CancellationToken token;
+        /** Whether {@link #token} was registered by the plan itself (not the chat request) */
+        boolean ownsToken;
+        long suspendedAtMs;
+        /** Task chain the program is waiting on */
+        long chainId;
+
+        Run(String request, List<Step> steps, ServerPlayer player, String companionName) {
+            this.request = request;
+            this.steps = steps;
+            this.player = player;
+            this.companionName = companionName;
+        }
+    }
+
+    /**
+     * Ask for the program and run it.
+     * @return the response for the player, or null to fall back to the agent loop
+     */
+    @Nullable
+    static String run(String userMessage, String playerContext, List<ConversationManager.ChatMessage> history,
+                      ToolContext toolCtx, String companionName, CancellationToken token) {
+        ServerPlayer player = toolCtx.player();
+        List<String> toolNames = ToolRegistry.selectToolSet(userMessage).names().stream()
+                .filter(name -> ToolRegistry.get(name) != null && AiConfig.isToolEnabled(name))
+                .toList();
+
+        JsonObject program;
+        try {
+            String text = AIService.completeStructured(
+                    buildMessages(userMessage, playerContext, history, toolCtx, companionName, toolNames),
+                    schema(toolNames));
+            program = parseObject(text);
+        } catch (Exception e) {
+            token.throwIfCancelled();
+            fallbacks.incrementAndGet();
+            AiLogger.log(AiLogger.Category.AI_REQUEST, "WARN",
+                    "Plan request failed (" + e.getMessage() + ") — using the agent loop");
+            return null;
+        }
+        token.throwIfCancelled();
+
+        List<Step> steps = program == null ? null : validate(program, toolNames);
+        if (steps == null) {
+            fallbacks.incrementAndGet();
+            AiLogger.log(AiLogger.Category.AI_REQUEST, "WARN", "Invalid plan " + program + " — using the agent loop");
+            return null;
+        }
+        programs.incrementAndGet();
+        String reply = program.has("reply") && program.get("reply").isJsonPrimitive()
+                ? program.get("reply").getAsString().trim() : "";
+        AiLogger.log(AiLogger.Category.AI_RESPONSE, "INFO", String.format("Plan with %d step(s): %s",
+                steps.size(), steps.stream().map(s -> s.id() + "=" + s.tool()).collect(Collectors.joining(", "))));
+
+        // A newer plan replaces one still waiting on a task
+        cancel(player.getUUID());
+
+        Run run = new Run(userMessage, steps, player, companionName);
+        run.token = token;
+        run.output.append(reply);
+        execute(run);
+        String text = run.output.toString().trim();
+        return text.isEmpty() ? "Done." : text;
+    }
+
+    /**
+     * A task chain settled: a task in it failed, or its last task or deterministic
+     * continuation finished. Resumes the program waiting on that chain, or replans
+     * through the LLM when the chain failed.
+     * @param pendingSteps the failed task's own unfinished continuation steps, if any
+     * @return true if a program was waiting on it (the caller should not fire its own follow-up)
+     */
+    public static boolean onStepSettled(ServerPlayer player, long chainId, String description,
+                                        @Nullable String failReason, @Nullable String pendingSteps) {
+        Run run = waiting.get(chainId);
+        if (run == null || !run.player.getUUID().equals(player.getUUID())) return false;
+        if (run.token.isCancelled() || System.currentTimeMillis() - run.suspendedAtMs > MAX_WAIT_MS) {
+            if (waiting.remove(chainId, run)) run.token.release();
+            return false;
+        }
+        if (!waiting.remove(chainId, run)) return false;
+        Step step = run.steps.get(run.next - 1);
+
+        if (failReason != null) {
+            run.token.release();
+            replan(run, run.next, description, failReason, pendingSteps);
+            return true;
+        }
+
+        run.results.put(step.id(), "Completed: " + description);
+        ConversationStore.forPlayer(player.getUUID()).addSystemMessage(
+                "[Task completed: " + description + " → continuing plan]");
+        AiExecutor.submitForPlayer(player.getUUID(), () -> {
+            run.token.bind();
+            try {
+                run.output.setLength(0);
+                execute(run);
+                String text = run.output.toString().trim();
+                if (!text.isEmpty() && !run.token.isCancelled()) {
+                    ConversationStore.forPlayer(player.getUUID()).addAiMessage(text);
+                    player.getServer().execute(() -> net.neoforged.neoforge.network.PacketDistributor.sendToPlayer(
+                            player, new ChatResponsePacket(text)));
+                }
+            } catch (Exception e) {
+                if (!run.token.isCancelled()) MCAi.LOGGER.error("Plan resume failed: {}", e.getMessage(), e);
+            } finally {
+                if (waiting.get(run.chainId) != run) run.token.release();
+            }
+            return null;
+        });
+        return true;
+    }
+
+    // ================================================================
+    // Interpreter
+    // ================================================================
+
+    /**
+     * A chain a program waits on continues through the LLM instead of a deterministic call,
+     * so its end can't be tracked. The program stops waiting and its remaining steps are
+     * appended to the continuation the LLM receives.
+     */
+    public static TaskContinuation handOff(long chainId, TaskContinuation continuation) {
+        Run run = waiting.remove(chainId);
+        if (run == null) return continuation;
+        run.token.release();
+        List<String> calls = new ArrayList<>();
+        for (int i = run.next; i < run.steps.size(); i++) {
+            Step step = run.steps.get(i);
+            calls.add("Call " + step.tool() + "(" + resolve(step.args(), run.results) + ")");
+        }
+        if (calls.isEmpty()) return continuation;
+        AiLogger.log(AiLogger.Category.SYSTEM, "INFO", "Plan handed to the AI with its task chain ("
+                + calls.size() + " step(s) left)");
+        String nextSteps = continuation.nextSteps() != null && !continuation.nextSteps().isBlank()
+                ? continuation.nextSteps().trim() + ", then " + String.join(", then ", calls)
+                : String.join(", then ", calls);
+        return new TaskContinuation(continuation.ownerUUID(), continuation.planContext(), nextSteps);
+    }
+
+    /** Drop the player's waiting programs — their tasks were stopped or a newer plan replaces them. */
+    public static void cancel(UUID playerId) {
+        waiting.values().removeIf(run -> {
+            if (!run.player.getUUID().equals(playerId)) return false;
+            run.token.release();
+            AiLogger.log(AiLogger.Category.SYSTEM, "INFO", "Plan waiting on '"
+                    + run.steps.get(run.next - 1).tool() + "' dropped");
+            return true;
+        });
+    }
+
+    /** Run steps from {@code run.next} until the program ends, fails or waits on a task. */
+    private static void execute(Run run) {
+        ToolContext toolCtx = new ToolContext(run.player, run.player.getServer());
+        while (run.next < run.steps.size()) {
+            run.token.throwIfCancelled();
+
+            // Consecutive read-only steps that don't depend on each other run together
+            List<Step> batch = new ArrayList<>();
+            batch.add(run.steps.get(run.next));
+            if (!ToolRegistry.effectOf(batch.get(0).tool()).isOrdered()) {
+                Set<String> batchIds = new HashSet<>(Set.of(batch.get(0).id()));
+                for (int i = run.next + 1; i < run.steps.size(); i++) {
+                    Step candidate = run.steps.get(i);
+                    if (ToolRegistry.effectOf(candidate.tool()).isOrdered()
+                            || candidate.after().stream().anyMatch(batchIds::contains)
+                            || referencesAny(candidate.args(), batchIds)) break;
+                    batch.add(candidate);
+                    batchIds.add(candidate.id());
+                }
+            }
+
+            List<String> results;
+            long mark = -1;
+            if (batch.size() == 1) {
+                mark = taskMark(toolCtx);
+                results = List.of(runStep(batch.get(0), run, toolCtx));
+            } else {
+                List<CompletableFuture<String>> futures = batch.stream()
+                        .map(step -> CompletableFuture.supplyAsync(() -> runStep(step, run, toolCtx), AiExecutor.executor()))
+                        .toList();
+                results = futures.stream().map(CompletableFuture::join).toList();
+            }
+
+            for (int i = 0; i < batch.size(); i++) {
+                Step step = batch.get(i);
+                String result = results.get(i) != null ? results.get(i) : "";
+                run.next++;
+                stepsRun.incrementAndGet();
+                if (result.startsWith("Error")) {
+                    replan(run, run.next, step.tool(), result, null);
+                    return;
+                }
+                boolean async = result.contains(ASYNC_MARKER);
+                String shown = result.replace(ASYNC_MARKER, "").trim();
+                run.results.put(step.id(), shown);
+                appendResult(run, step, shown);
+                if (async && mark >= 0) {
+                    // Wait on exactly the tasks this step queued
+                    long chainId = adoptTasks(toolCtx, mark, 0);
+                    if (chainId != 0) {
+                        suspend(run, chainId);
+                        return;
+                    }
+                }
+            }
+        }
+        finish(run);
+    }
+
+    private static String runStep(Step step, Run run, ToolContext toolCtx) {
+        run.token.throwIfCancelled();
+        return AIService.executeTool(step.tool(), resolve(step.args(), run.results), toolCtx);
+    }
+
+    /** Tasks queued so far for the player's companion, or -1 when there is none. */
+    static long taskMark(ToolContext toolCtx) {
+        return toolCtx.runOnServer(() -> {
+            CompanionEntity companion = CompanionEntity.getLivingCompanion(toolCtx.player().getUUID());
+            return companion != null ? companion.getTaskManager().queueMark() : -1L;
+        });
+    }
+
+    /** {@link TaskManager#adoptChain} from a worker thread. */
+    static long adoptTasks(ToolContext toolCtx, long mark, long chainId) {
+        return toolCtx.runOnServer(() -> {
+            CompanionEntity companion = CompanionEntity.getLivingCompanion(toolCtx.player().getUUID());
+            return companion != null ? companion.getTaskManager().adoptChain(mark, chainId) : 0L;
+        });
+    }
+
+    private static void suspend(Run run, long chainId) {
+        suspensions.incrementAndGet();
+        run.suspendedAtMs = System.currentTimeMillis();
+        run.chainId = chainId;
+        if (run.token.isCancelled()) return;
+        // The request's token is released when it returns; a newer message must still cancel the wait
+        CancellationToken previous = run.ownsToken ? run.token : null;
+        run.token = CancellationToken.register(run.player.getUUID());
+        run.ownsToken = true;
+        if (previous != null) previous.release();
+        waiting.put(chainId, run);
+        AiLogger.log(AiLogger.Category.SYSTEM, "INFO", String.format("Plan waiting on '%s' (%d of %d steps done)",
+                run.steps.get(run.next - 1).tool(), run.next, run.steps.size()));
+    }
+
+    private static void finish(Run run) {
+        AiLogger.log(AiLogger.Category.SYSTEM, "INFO", "Plan finished: " + run.steps.size() + " step(s), no further LLM calls");
+    }
+
+    /**
+     * Hand the rest of the program to the LLM so it can adapt to a failed step, the same
+     * way a failed task with a continuation does.
+     */
+    private static void replan(Run run, int remainingFrom, String description, String failReason,
+                               @Nullable String pendingSteps) {
+        replans.incrementAndGet();
+        List<String> calls = new ArrayList<>();
+        if (pendingSteps != null && !pendingSteps.isBlank()) calls.add(pendingSteps.trim());
+        for (int i = remainingFrom; i < run.steps.size(); i++) {
+            Step step = run.steps.get(i);
+            calls.add("Call " + step.tool() + "(" + resolve(step.args(), run.results) + ")");
+        }
+        String nextSteps = calls.isEmpty() ? "nothing — that was the last step" : String.join(", then ", calls);
+        AiLogger.log(AiLogger.Category.SYSTEM, "WARN", "Plan step failed (" + description + ": " + failReason
+                + ") — asking the AI to adapt. Remaining: " + nextSteps);
+        run.output.append(run.output.isEmpty() ? "" : "\n").append("Step failed: ").append(failReason);
+        AIService.continueAfterTask(new TaskContinuation(run.player.getUUID(), run.request, nextSteps),
+                "FAILED: " + description + " — " + failReason, run.player, run.companionName);
+    }
+
+    private static void appendResult(Run run, Step step, String result) {
+        if (result.isEmpty()) return;
+        if (result.length() > MAX_RESULT_CHARS) result = result.substring(0, MAX_RESULT_CHARS) + "…";
+        if (!run.output.isEmpty()) run.output.append('\n');
+        run.output.append("• ").append(step.tool().replace('_', ' ')).append(": ").append(result);
+    }
+
+    /** Copy of the arguments with every "$id" string replaced by that step's result. */
+    private static JsonObject resolve(JsonObject args, Map<String, String> results) {
+        JsonObject resolved = new JsonObject();
+        for (Map.Entry<String, JsonElement> e : args.entrySet()) {
+            String ref = refOf(e.getValue());
+            if (ref != null && results.containsKey(ref)) {
+                resolved.addProperty(e.getKey(), results.get(ref));
+            } else {
+                resolved.add(e.getKey(), e.getValue());
+            }
+        }
+        return resolved;
+    }
+
+    private static boolean referencesAny(JsonObject args, Set<String> ids) {
+        for (Map.Entry<String, JsonElement> e : args.entrySet()) {
+            String ref = refOf(e.getValue());
+            if (ref != null && ids.contains(ref)) return true;
+        }
+        return false;
+    }
+
+    @Nullable
+    private static String refOf(JsonElement value) {
+        if (!value.isJsonPrimitive() || !value.getAsJsonPrimitive().isString()) return null;
+        String s = value.getAsString();
+        return s.length() > 1 && s.charAt(0) == '$' ? s.substring(1) : null;
+    }
+
+    // ================================================================
+    // Program request
+    // ================================================================
+
+    private static JsonArray buildMessages(String userMessage, String playerContext,
+                                           List<ConversationManager.ChatMessage> history,
+                                           ToolContext toolCtx, String companionName, List<String> toolNames) {
+        StringBuilder system = new StringBuilder(AIService.staticSystemPrompt(companionName));
+        system.append(INSTRUCTIONS);
+        for (String name : toolNames) system.append(describe(ToolRegistry.get(name))).append('\n');
+
+        JsonArray messages = new JsonArray();
+        messages.add(message("system", system.toString()));
+        for (int i = AIService.historyStart(history.size()); i < history.size(); i++) {
+            ConversationManager.ChatMessage msg = history.get(i);
+            if (msg.isSystem()) continue;
+            messages.add(message(msg.isPlayer() ? "user" : "assistant", msg.content()));
+        }
+        int turnStart = messages.size();
+        messages.add(AIService.contextMessage(playerContext, AIService.conversationDigest(toolCtx)));
+        messages.add(message("user", userMessage));
+        PromptBudget.fit(messages, turnStart, PromptBudget.getBudget(AiConfig.isCloudEnabled()));
+        return messages;
+    }
+
+    /** "name(required, optional?): first sentence of the description" */
+    private static String describe(AiTool tool) {
+        List<String> params = new ArrayList<>();
+        JsonObject schema = tool.parameterSchema();
+        Set<String> required = new HashSet<>();
+        if (schema.has("required")) schema.getAsJsonArray("required").forEach(r -> required.add(r.getAsString()));
+        if (schema.has("properties")) {
+            for (String p : schema.getAsJsonObject("properties").keySet()) {
+                params.add(required.contains(p) ? p : p + "?");
+            }
+        }
+        String description = tool.description();
+        int dot = description.indexOf(". ");
+        if (dot > 0) description = description.substring(0, dot + 1);
+        return "- " + tool.name() + "(" + String.join(", ", params) + "): " + description;
+    }
+
+    private static JsonObject schema(List<String> toolNames) {
+        JsonObject step = object();
+        JsonObject stepProps = step.getAsJsonObject("properties");
+        stepProps.add("id", type("string"));
+        JsonObject tool = type("string");
+        JsonArray names = new JsonArray();
+        toolNames.forEach(names::add);
+        tool.add("enum", names);
+        stepProps.add("tool", tool);
+        stepProps.add("args", type("object"));
+        JsonObject after = type("array");
+        after.add("items", type("string"));
+        stepProps.add("after", after);
+        step.add("required", strings("id", "tool", "args", "after"));
+
+        JsonObject steps = type("array");
+        steps.add("items", step);
+        steps.addProperty("maxItems", MAX_STEPS);
+
+        JsonObject root = object();
+        root.getAsJsonObject("properties").add("reply", type("string"));
+        root.getAsJsonObject("properties").add("steps", steps);
+        root.add("required", strings("reply", "steps"));
+        return root;
+    }
+
+    private static JsonObject type(String type) {
+        JsonObject o = new JsonObject();
+        o.addProperty("type", type);
+        return o;
+    }
+
+    private static JsonObject object() {
+        JsonObject o = type("object");
+        o.add("properties", new JsonObject());
+        return o;
+    }
+
+    private static JsonArray strings(String... values) {
+        JsonArray a = new JsonArray();
+        for (String v : values) a.add(v);
+        return a;
+    }
+
+    private static JsonObject message(String role, String content) {
+        JsonObject m = new JsonObject();
+        m.addProperty("role", role);
+        m.addProperty("content", content);
+        return m;
+    }
+
+    /** The JSON object in the reply (some models still wrap it in a code fence). */
+    @Nullable
+    private static JsonObject parseObject(String text) {
+        int start = text.indexOf('{');
+        int end = text.lastIndexOf('}');
+        if (start < 0 || end <= start) return null;
+        JsonElement parsed = JsonParser.parseString(text.substring(start, end + 1));
+        return parsed.isJsonObject() ? parsed.getAsJsonObject() : null;
+    }
+
+    /**
+     * Steps of a well-formed program, or null: every tool must be offered and enabled, ids
+     * unique, and dependencies (including "$id" arguments) must point at earlier steps.
+     */
+    @Nullable
+    private static List<Step> validate(JsonObject program, List<String> toolNames) {
+        if (!program.has("steps") || !program.get("steps").isJsonArray()) return null;
+        JsonArray raw = program.getAsJsonArray("steps");
+        if (raw.size() > MAX_STEPS) return null;
+
+        List<Step> steps = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (JsonElement element : raw) {
+            if (!element.isJsonObject()) return null;
+            JsonObject s = element.getAsJsonObject();
+            String id = stringOf(s.get("id"));
+            String tool = stringOf(s.get("tool"));
+            if (id == null || tool == null) return null;
+            if (id.isBlank() || seen.contains(id) || !toolNames.contains(tool)) return null;
+            JsonObject args = s.has("args") && s.get("args").isJsonObject() ? s.getAsJsonObject("args") : new JsonObject();
+
+            List<String> after = new ArrayList<>();
+            if (s.has("after") && s.get("after").isJsonArray()) {
+                for (JsonElement dep : s.getAsJsonArray("after")) {
+                    String ref = stringOf(dep);
+                    if (ref == null) return null;
+                    after.add(ref);
+                }
+            }
+            for (Map.Entry<String, JsonElement> e : args.entrySet()) {
+                String ref = refOf(e.getValue());
+                if (ref != null) after.add(ref);
+            }
+            if (!seen.containsAll(after)) return null;
+
+            seen.add(id);
+            steps.add(new Step(id, tool, AIService.coerceStringNumbers(args), List.copyOf(after)));
+        }
+        return steps;
+    }
+
+    /** The value as a string if the model sent a plain value there, else null. */
+    @Nullable
+    private static String stringOf(@Nullable JsonElement value) {
+        return value != null && value.isJsonPrimitive() ? value.getAsString() : null;
+    }
+
+    // ================================================================
+    // Stats / lifecycle
+    // ================================================================
+
+    public static String getStats() {
+        return String.format("planMode: programs=%d, steps=%d, taskWaits=%d, replans=%d, fallbacks=%d",
+                programs.get(), stepsRun.get(), suspensions.get(), replans.get(), fallbacks.get());
+    }
+
+    /** Drop every suspended program. */
+    public static void reset() {
+        waiting.values().forEach(run -> run.token.release());
+        waiting.clear();
+    }
+
+    // ---- Config (may not be loaded yet) ----
+
+    static boolean isEnabled() {
+        try {
+            return AiConfig.PLAN_MODE.get();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
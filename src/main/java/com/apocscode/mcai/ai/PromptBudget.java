@@ -0,0 +1,138 @@
+package com.apocscode.mcai.ai;
+
+import com.apocscode.mcai.config.AiConfig;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Keeps the agent loop's message list inside a token budget.
+ *
+ * Tokens are estimated per message with a cheap approximation of BPE tokenizers
+ * (letter runs ~4 chars per token, digit runs ~3, every symbol its own token), which
+ * tracks real counts far better than length / 4 for the JSON-heavy tool results.
+ *
+ * When the messages go over budget they are compacted in this order, stopping as
+ * soon as they fit:
+ *   1. shorten tool results, oldest first (the newest result is shortened last)
+ *   2. drop the oldest conversation history (never the current turn)
+ * The system prompt, the current user message and tool-call/result pairing are never touched.
+ */
+public class PromptBudget {
+
+    /** Fixed cost per message for role and framing tokens */
+    private static final int MESSAGE_OVERHEAD = 4;
+    /** A shortened tool result keeps this many characters from its head */
+    private static final int TRUNCATED_RESULT_CHARS = 600;
+    private static final String TRUNCATION_MARKER = "\n...[truncated %d chars — call the tool again if you need the rest]";
+
+    /**
+     * Approximate token count of a text.
+     */
+    public static int estimateTokens(String text) {
+        if (text == null || text.isEmpty()) return 0;
+        int tokens = 0;
+        int i = 0;
+        int n = text.length();
+        while (i < n) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (Character.isLetter(c)) {
+                int start = i;
+                while (i < n && Character.isLetter(text.charAt(i))) i++;
+                tokens += (i - start + 3) / 4;
+            } else if (Character.isDigit(c)) {
+                int start = i;
+                while (i < n && Character.isDigit(text.charAt(i))) i++;
+                tokens += (i - start + 2) / 3;
+            } else {
+                tokens++;
+                i++;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Approximate token count of one chat message, including tool-call arguments.
+     */
+    public static int estimateTokens(JsonObject message) {
+        int tokens = MESSAGE_OVERHEAD;
+        JsonElement content = message.get("content");
+        if (content != null && content.isJsonPrimitive()) {
+            tokens += estimateTokens(content.getAsString());
+        }
+        JsonElement toolCalls = message.get("tool_calls");
+        if (toolCalls != null && toolCalls.isJsonArray()) {
+            tokens += estimateTokens(toolCalls.toString());
+        }
+        return tokens;
+    }
+
+    public static int estimateTokens(JsonArray messages) {
+        int total = 0;
+        for (JsonElement e : messages) total += estimateTokens(e.getAsJsonObject());
+        return total;
+    }
+
+    /**
+     * Compact the messages in place until they fit the budget (or nothing more can go).
+     *
+     * @param messages  system prompt, history, the current turn (state message and user message),
+     *                  then this turn's tool exchanges
+     * @param turnStart index where the current turn starts — history lies between 1 and turnStart
+     * @param budget    token budget for all messages
+     * @return the index where the current turn starts after compaction (history may have been dropped)
+     */
+    public static int fit(JsonArray messages, int turnStart, int budget) {
+        int before = estimateTokens(messages);
+        if (before <= budget) return turnStart;
+
+        int total = before;
+        int truncated = 0;
+        int dropped = 0;
+
+        // 1. Shorten tool results, oldest first
+        for (int i = 0; i < messages.size() && total > budget; i++) {
+            JsonObject msg = messages.get(i).getAsJsonObject();
+            if (!isRole(msg, "tool")) continue;
+            String content = msg.get("content").getAsString();
+            if (content.length() <= TRUNCATED_RESULT_CHARS) continue;
+
+            int oldTokens = estimateTokens(msg);
+            String shortened = content.substring(0, TRUNCATED_RESULT_CHARS)
+                    + String.format(TRUNCATION_MARKER, content.length() - TRUNCATED_RESULT_CHARS);
+            msg.addProperty("content", shortened);
+            total += estimateTokens(msg) - oldTokens;
+            truncated++;
+        }
+
+        // 2. Drop the oldest history, keeping the system prompt at index 0
+        while (total > budget && turnStart > 1) {
+            total -= estimateTokens(messages.remove(1).getAsJsonObject());
+            turnStart--;
+            dropped++;
+        }
+
+        AiLogger.log(AiLogger.Category.AI_REQUEST, total > budget ? "WARN" : "INFO",
+                String.format("Prompt compacted to fit %d-token budget: ~%d -> ~%d tokens " +
+                                "(%d tool result(s) shortened, %d history message(s) dropped)",
+                        budget, before, total, truncated, dropped));
+        return turnStart;
+    }
+
+    /** Token budget for the messages of one request to the given backend type. */
+    public static int getBudget(boolean cloud) {
+        try {
+            return cloud ? AiConfig.CLOUD_PROMPT_TOKEN_BUDGET.get() : AiConfig.OLLAMA_PROMPT_TOKEN_BUDGET.get();
+        } catch (Exception e) {
+            return cloud ? 6000 : 12000;
+        }
+    }
+
+    private static boolean isRole(JsonObject msg, String role) {
+        return msg.has("role") && role.equals(msg.get("role").getAsString())
+                && msg.has("content") && msg.get("content").isJsonPrimitive();
+    }
+}
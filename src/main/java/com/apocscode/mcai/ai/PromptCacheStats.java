@@ -0,0 +1,76 @@
+package com.apocscode.mcai.ai;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How much of each prompt the backend could reuse from its prompt cache.
+ *
+ * - Ollama reports prompt_eval_count, the prompt tokens it actually had to evaluate; the
+ *   rest came from the KV cache of the previous request. The full prompt size isn't
+ *   reported, so it is estimated ({@link PromptBudget#estimateTokens}) — treat the
+ *   percentage as approximate.
+ * - OpenAI-compatible providers report cached prompt tokens in
+ *   usage.prompt_tokens_details.cached_tokens (OpenAI, OpenRouter, Groq) or
+ *   usage.prompt_cache_hit_tokens (DeepSeek). Providers that report neither count as 0.
+ */
+public class PromptCacheStats {
+
+    private static final AtomicLong ollamaRequests = new AtomicLong(0);
+    private static final AtomicLong ollamaPromptTokens = new AtomicLong(0);
+    private static final AtomicLong ollamaEvaluatedTokens = new AtomicLong(0);
+
+    private static final AtomicLong cloudRequests = new AtomicLong(0);
+    private static final AtomicLong cloudPromptTokens = new AtomicLong(0);
+    private static final AtomicLong cloudCachedTokens = new AtomicLong(0);
+
+    /** @param estimatedPromptTokens estimated size of the whole prompt, tool definitions included */
+    static void recordOllama(int estimatedPromptTokens, JsonObject response) {
+        JsonElement evaluated = response.get("prompt_eval_count");
+        if (evaluated == null || !evaluated.isJsonPrimitive()) return;
+        int evaluatedTokens = evaluated.getAsInt();
+        int promptTokens = Math.max(estimatedPromptTokens, evaluatedTokens);
+        ollamaRequests.incrementAndGet();
+        ollamaPromptTokens.addAndGet(promptTokens);
+        ollamaEvaluatedTokens.addAndGet(evaluatedTokens);
+        AiLogger.log(AiLogger.Category.PERFORMANCE, "INFO", String.format(
+                "Ollama prompt: %d of ~%d tokens evaluated (~%.0f%% reused from KV cache)",
+                evaluatedTokens, promptTokens, percent(promptTokens - evaluatedTokens, promptTokens)));
+    }
+
+    static void recordCloud(JsonObject usage) {
+        if (!usage.has("prompt_tokens")) return;
+        int promptTokens = usage.get("prompt_tokens").getAsInt();
+        int cached = 0;
+        if (usage.has("prompt_tokens_details") && usage.get("prompt_tokens_details").isJsonObject()) {
+            JsonObject details = usage.getAsJsonObject("prompt_tokens_details");
+            if (details.has("cached_tokens") && !details.get("cached_tokens").isJsonNull()) {
+                cached = details.get("cached_tokens").getAsInt();
+            }
+        } else if (usage.has("prompt_cache_hit_tokens")) {
+            cached = usage.get("prompt_cache_hit_tokens").getAsInt();
+        }
+        cloudRequests.incrementAndGet();
+        cloudPromptTokens.addAndGet(promptTokens);
+        cloudCachedTokens.addAndGet(cached);
+        if (cached > 0) {
+            AiLogger.log(AiLogger.Category.PERFORMANCE, "INFO", String.format(
+                    "Cloud prompt: %d of %d tokens served from the provider's prompt cache (%.0f%%)",
+                    cached, promptTokens, percent(cached, promptTokens)));
+        }
+    }
+
+    private static double percent(long part, long whole) {
+        return whole > 0 ? part * 100.0 / whole : 0.0;
+    }
+
+    public static String getStats() {
+        long ollamaPrompt = ollamaPromptTokens.get();
+        long cloudPrompt = cloudPromptTokens.get();
+        return String.format("promptCache: ollama=%d req, ~%.0f%% reused; cloud=%d req, %.0f%% cached",
+                ollamaRequests.get(), percent(ollamaPrompt - ollamaEvaluatedTokens.get(), ollamaPrompt),
+                cloudRequests.get(), percent(cloudCachedTokens.get(), cloudPrompt));
+    }
+}
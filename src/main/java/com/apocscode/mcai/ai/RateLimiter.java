@@ -0,0 +1,265 @@
+package com.apocscode.mcai.ai;
+
+import com.apocscode.mcai.MCAi;
+import com.apocscode.mcai.config.AiConfig;
+import net.neoforged.neoforge.common.ModConfigSpec;
+
+import java.io.IOException;
+import java.net.http.HttpHeaders;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Proactive client-side rate limiter for a cloud provider, one per (url, model).
+ *
+ * Three token buckets model the provider's limits: requests per minute, tokens per
+ * minute and tokens per day. Buckets are seeded from config and then corrected from
+ * the x-ratelimit-* headers on every response, so the limiter converges on what the
+ * provider actually allows. Before a request is sent its token cost is estimated and
+ * reserved; after the response the estimate is replaced with the real usage, and a
+ * request that fails before any usage is known gives its reservation back.
+ *
+ * A limit of 0 means "unknown" — that bucket stays unlimited until a header reports it.
+ */
+public class RateLimiter {
+
+    private static final Map<String, RateLimiter> limiters = new ConcurrentHashMap<>();
+
+    private static final AtomicInteger delayedRequests = new AtomicInteger(0);
+    private static final AtomicInteger rerouted = new AtomicInteger(0);
+    private static final AtomicInteger observed429s = new AtomicInteger(0);
+
+    // "1m30.5s", "7.66s", "250ms" (Groq / OpenAI reset format)
+    private static final Pattern DURATION = Pattern.compile(
+            "(?:(\\d+)h)?(?:(\\d+)m(?!s))?(?:([\\d.]+)s)?(?:([\\d.]+)ms)?");
+
+    private static final long MINUTE_MS = 60_000;
+    private static final long DAY_MS = 86_400_000;
+
+    private final String name;
+    private final Bucket requestsPerMinute;
+    private final Bucket tokensPerMinute;
+    private final Bucket tokensPerDay;
+    /** Set after a 429 — nothing is sent to this provider before then */
+    private long blockedUntilMs = 0;
+
+    private RateLimiter(String name, int rpm, int tpm, int tpd) {
+        this.name = name;
+        this.requestsPerMinute = new Bucket(rpm, MINUTE_MS);
+        this.tokensPerMinute = new Bucket(tpm, MINUTE_MS);
+        this.tokensPerDay = new Bucket(tpd, DAY_MS);
+    }
+
+    /**
+     * Get the limiter for a cloud backend's current url + model.
+     */
+    public static RateLimiter forBackend(AiBackend backend) {
+        String key = backend.url() + "|" + backend.model();
+        return limiters.computeIfAbsent(key, k -> {
+            boolean primary = backend == AiBackend.PRIMARY_CLOUD;
+            return new RateLimiter(backend.model(),
+                    seed(primary ? AiConfig.CLOUD_RPM : AiConfig.CLOUD_FALLBACK_RPM),
+                    seed(primary ? AiConfig.CLOUD_TPM : AiConfig.CLOUD_FALLBACK_TPM),
+                    seed(primary ? AiConfig.CLOUD_TPD : AiConfig.CLOUD_FALLBACK_TPD));
+        });
+    }
+
+    /** Forget learned state (config reload may point at a different provider). */
+    public static void resetAll() {
+        limiters.clear();
+    }
+
+    /**
+     * Try to reserve capacity for a request.
+     *
+     * @param tokens Estimated total tokens (prompt + completion)
+     * @return 0 if the request may go now (capacity is reserved), otherwise how many
+     *         milliseconds to wait before trying again (nothing is reserved)
+     */
+    public synchronized long tryReserve(int tokens) {
+        long now = System.currentTimeMillis();
+        long wait = Math.max(0, blockedUntilMs - now);
+        wait = Math.max(wait, requestsPerMinute.waitFor(1, now));
+        wait = Math.max(wait, tokensPerMinute.waitFor(tokens, now));
+        wait = Math.max(wait, tokensPerDay.waitFor(tokens, now));
+        if (wait > 0) return wait;
+
+        requestsPerMinute.take(1);
+        tokensPerMinute.take(tokens);
+        tokensPerDay.take(tokens);
+        return 0;
+    }
+
+    /**
+     * Replace the reserved estimate with the tokens the provider actually counted.
+     */
+    public synchronized void recordUsage(int estimatedTokens, int actualTokens) {
+        if (actualTokens <= 0) return;
+        int refund = estimatedTokens - actualTokens;
+        tokensPerMinute.give(refund);
+        tokensPerDay.give(refund);
+    }
+
+    /**
+     * Give back a reservation whose request failed before usage was known: the tokens
+     * always, the request slot too when the request never reached the provider.
+     */
+    public synchronized void release(int estimatedTokens, boolean requestSent) {
+        if (!requestSent) requestsPerMinute.give(1);
+        tokensPerMinute.give(estimatedTokens);
+        tokensPerDay.give(estimatedTokens);
+    }
+
+    /**
+     * Sync buckets with the provider's view from the response headers.
+     * Groq/OpenAI: x-ratelimit-{limit,remaining,reset}-{requests,tokens}.
+     * OpenRouter: x-ratelimit-{limit,remaining,reset} (requests, reset as epoch ms).
+     *
+     * @return true if the provider reported its token budget, which then already
+     *         accounts for this request's reservation
+     */
+    public synchronized boolean updateFromHeaders(HttpHeaders headers) {
+        long now = System.currentTimeMillis();
+
+        OptionalLong remainingTokens = headers.firstValueAsLong("x-ratelimit-remaining-tokens");
+        if (remainingTokens.isPresent()) {
+            long limit = headers.firstValueAsLong("x-ratelimit-limit-tokens").orElse(0);
+            tokensPerMinute.sync(limit, remainingTokens.getAsLong());
+        }
+
+        OptionalLong remainingRequests = headers.firstValueAsLong("x-ratelimit-remaining-requests");
+        if (remainingRequests.isPresent()) {
+            long limit = headers.firstValueAsLong("x-ratelimit-limit-requests").orElse(0);
+            long resetMs = headers.firstValue("x-ratelimit-reset-requests").map(RateLimiter::parseDuration).orElse(0L);
+            // Groq reports requests per day here, OpenAI requests per minute — the reset time tells them apart
+            if (resetMs <= MINUTE_MS) {
+                requestsPerMinute.sync(limit, remainingRequests.getAsLong());
+            } else if (remainingRequests.getAsLong() == 0) {
+                blockedUntilMs = Math.max(blockedUntilMs, now + resetMs);
+            }
+        }
+
+        OptionalLong remaining = headers.firstValueAsLong("x-ratelimit-remaining");
+        if (remaining.isPresent()) {
+            long limit = headers.firstValueAsLong("x-ratelimit-limit").orElse(0);
+            requestsPerMinute.sync(limit, remaining.getAsLong());
+            if (remaining.getAsLong() == 0) {
+                long resetAt = headers.firstValueAsLong("x-ratelimit-reset").orElse(0);
+                if (resetAt > now) blockedUntilMs = Math.max(blockedUntilMs, resetAt);
+            }
+        }
+        return remainingTokens.isPresent();
+    }
+
+    /**
+     * The provider answered 429 anyway — hold all requests until it says we may retry.
+     */
+    public synchronized void onRateLimited(long retryAfterMs) {
+        observed429s.incrementAndGet();
+        blockedUntilMs = Math.max(blockedUntilMs, System.currentTimeMillis() + retryAfterMs);
+        MCAi.LOGGER.info("Rate limiter for {}: provider returned 429, holding requests for {}ms", name, retryAfterMs);
+    }
+
+    static void countDelayed() {
+        delayedRequests.incrementAndGet();
+    }
+
+    /**
+     * Thrown when the limiter itself predicts a 429 and sends the request to the next
+     * backend. Local pacing, so it says nothing about the backend's health.
+     */
+    public static class ReroutedException extends IOException {
+        public ReroutedException(String message) {
+            super(message);
+        }
+    }
+
+    static void countRerouted() {
+        rerouted.incrementAndGet();
+    }
+
+    public static String getStats() {
+        return String.format("rateLimiter: delayed=%d, rerouted=%d, 429s=%d",
+                delayedRequests.get(), rerouted.get(), observed429s.get());
+    }
+
+    /**
+     * Parse a reset duration like "2m59.56s", "7.66s" or "120ms" into milliseconds.
+     * Returns 0 if the value is not a duration.
+     */
+    static long parseDuration(String value) {
+        if (value == null || value.isBlank()) return 0;
+        String v = value.trim();
+        if (v.matches("\\d+")) return Long.parseLong(v) * 1000; // Plain seconds (Retry-After)
+        Matcher m = DURATION.matcher(v);
+        if (!m.matches()) return 0;
+        double ms = 0;
+        if (m.group(1) != null) ms += Long.parseLong(m.group(1)) * 3_600_000.0;
+        if (m.group(2) != null) ms += Long.parseLong(m.group(2)) * 60_000.0;
+        if (m.group(3) != null) ms += Double.parseDouble(m.group(3)) * 1000;
+        if (m.group(4) != null) ms += Double.parseDouble(m.group(4));
+        return (long) Math.ceil(ms);
+    }
+
+    private static int seed(ModConfigSpec.IntValue value) {
+        try {
+            return value.get();
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Token bucket refilling continuously at capacity / window.
+     * Capacity 0 = unlimited.
+     */
+    private static final class Bucket {
+        private final long windowMs;
+        private double capacity;
+        private double level;
+        private long lastRefillMs;
+
+        Bucket(long capacity, long windowMs) {
+            this.windowMs = windowMs;
+            this.capacity = capacity;
+            this.level = capacity;
+            this.lastRefillMs = System.currentTimeMillis();
+        }
+
+        private void refill(long now) {
+            if (capacity <= 0) return;
+            level = Math.min(capacity, level + (now - lastRefillMs) * capacity / windowMs);
+            lastRefillMs = now;
+        }
+
+        /** Milliseconds until {@code amount} is available (0 = now). */
+        long waitFor(long amount, long now) {
+            refill(now);
+            if (capacity <= 0) return 0;
+            // A single request bigger than the whole bucket can only wait for a full bucket
+            double needed = Math.min(amount, capacity);
+            if (level >= needed) return 0;
+            return (long) Math.ceil((needed - level) * windowMs / capacity);
+        }
+
+        void take(long amount) {
+            if (capacity > 0) level -= amount;
+        }
+
+        void give(long amount) {
+            if (capacity > 0) level = Math.min(capacity, level + amount);
+        }
+
+        /** Adopt the provider's reported limit and remaining budget. */
+        void sync(long limit, long remaining) {
+            if (limit > 0) capacity = limit;
+            if (capacity <= 0) return; // Still unknown
+            level = Math.min(capacity, remaining);
+            lastRefillMs = System.currentTimeMillis();
+        }
+    }
+}
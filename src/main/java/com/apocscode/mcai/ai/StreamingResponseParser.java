@@ -0,0 +1,268 @@
+package com.apocscode.mcai.ai;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Incremental readers for streamed LLM responses.
+ *
+ * Ollama streams NDJSON (one JSON object per line), OpenAI-compatible providers
+ * stream Server-Sent Events ("data: {...}" lines ending with "data: [DONE]").
+ * Both readers forward text deltas as they arrive and assemble the chunks back into
+ * the same JSON shape the non-streaming endpoints return, so the agent loop can
+ * handle streamed and buffered responses identically:
+ *   Ollama: {message: {role, content, tool_calls}, done, ...stats}
+ *   Cloud:  {choices: [{index, message: {role, content, tool_calls}, finish_reason}], usage}
+ */
+public class StreamingResponseParser {
+
+    /**
+     * Receives events while a streamed response is being read.
+     * Both callbacks run on the thread reading the stream.
+     */
+    public interface Listener {
+        /** A piece of assistant text arrived. */
+        void onTextDelta(String delta);
+
+        /**
+         * A tool call has been fully received (its arguments will not change any more).
+         * The tool call is in OpenAI format: {id?, type, function: {name, arguments}}.
+         */
+        default void onToolCall(int index, JsonObject toolCall) {}
+    }
+
+    /**
+     * Thrown when a provider reports an error inside an SSE stream (after HTTP 200).
+     * Carries the raw error JSON so callers can attempt recovery (e.g. Groq tool_use_failed).
+     */
+    public static class StreamErrorException extends IOException {
+        private final String errorBody;
+
+        public StreamErrorException(String errorBody) {
+            super("Cloud AI stream error: " + errorBody);
+            this.errorBody = errorBody;
+        }
+
+        public String getErrorBody() {
+            return errorBody;
+        }
+    }
+
+    /**
+     * Read an Ollama /api/chat NDJSON stream.
+     * Ollama sends tool calls whole (never split across chunks), so each one is
+     * reported to the listener as soon as its chunk arrives.
+     */
+    public static JsonObject readOllamaStream(InputStream stream, Listener listener) throws IOException {
+        StringBuilder content = new StringBuilder();
+        JsonArray toolCalls = new JsonArray();
+        JsonObject last = null;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                JsonObject chunk = JsonParser.parseString(line).getAsJsonObject();
+                if (chunk.has("error")) {
+                    throw new IOException("Ollama stream error: " + chunk.get("error"));
+                }
+                last = chunk;
+
+                JsonObject msg = chunk.has("message") && chunk.get("message").isJsonObject()
+                        ? chunk.getAsJsonObject("message") : null;
+                if (msg != null) {
+                    if (msg.has("content") && !msg.get("content").isJsonNull()) {
+                        String delta = msg.get("content").getAsString();
+                        if (!delta.isEmpty()) {
+                            content.append(delta);
+                            if (listener != null) listener.onTextDelta(delta);
+                        }
+                    }
+                    if (msg.has("tool_calls") && msg.get("tool_calls").isJsonArray()) {
+                        for (JsonElement tc : msg.getAsJsonArray("tool_calls")) {
+                            int index = toolCalls.size();
+                            toolCalls.add(tc);
+                            if (listener != null && tc.isJsonObject()) {
+                                listener.onToolCall(index, tc.getAsJsonObject());
+                            }
+                        }
+                    }
+                }
+
+                if (chunk.has("done") && chunk.get("done").getAsBoolean()) break;
+            }
+            drain(reader);
+        }
+
+        if (last == null) throw new IOException("Ollama returned an empty stream");
+
+        // Rebuild the non-streaming shape: final chunk carries the stats, message is the concatenation
+        JsonObject assembled = last.deepCopy();
+        JsonObject message = new JsonObject();
+        message.addProperty("role", "assistant");
+        message.addProperty("content", content.toString());
+        if (!toolCalls.isEmpty()) message.add("tool_calls", toolCalls);
+        assembled.add("message", message);
+        return assembled;
+    }
+
+    /**
+     * Read an OpenAI-compatible chat completions SSE stream.
+     * Tool calls arrive as fragments keyed by index — a call is complete once a
+     * fragment for a later index arrives, or the stream finishes.
+     */
+    public static JsonObject readOpenAiStream(InputStream stream, Listener listener) throws IOException {
+        StringBuilder content = new StringBuilder();
+        Map<Integer, PartialToolCall> partials = new TreeMap<>();
+        int highestIndex = -1;
+        String finishReason = null;
+        JsonElement usage = null;
+        boolean sawContent = false;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // Blank lines separate events; ':' lines are keep-alive comments (OpenRouter sends these)
+                if (line.isBlank() || line.startsWith(":")) continue;
+                if (!line.startsWith("data:")) continue;
+
+                String data = line.substring(5).trim();
+                if (data.equals("[DONE]")) break;
+
+                JsonObject chunk = JsonParser.parseString(data).getAsJsonObject();
+                if (chunk.has("error")) {
+                    throw new StreamErrorException(chunk.toString());
+                }
+                // With stream_options.include_usage the usage arrives in a last chunk whose choices are empty
+                if (chunk.has("usage") && !chunk.get("usage").isJsonNull()) {
+                    usage = chunk.get("usage");
+                } else if (chunk.has("x_groq") && chunk.getAsJsonObject("x_groq").has("usage")) {
+                    usage = chunk.getAsJsonObject("x_groq").get("usage");
+                }
+
+                if (!chunk.has("choices") || chunk.getAsJsonArray("choices").isEmpty()) continue;
+                JsonObject choice = chunk.getAsJsonArray("choices").get(0).getAsJsonObject();
+
+                if (choice.has("delta") && choice.get("delta").isJsonObject()) {
+                    JsonObject delta = choice.getAsJsonObject("delta");
+                    if (delta.has("content") && !delta.get("content").isJsonNull()) {
+                        String text = delta.get("content").getAsString();
+                        if (!text.isEmpty()) {
+                            sawContent = true;
+                            content.append(text);
+                            if (listener != null) listener.onTextDelta(text);
+                        }
+                    }
+                    if (delta.has("tool_calls") && delta.get("tool_calls").isJsonArray()) {
+                        for (JsonElement el : delta.getAsJsonArray("tool_calls")) {
+                            JsonObject frag = el.getAsJsonObject();
+                            int index = frag.has("index") ? frag.get("index").getAsInt() : highestIndex < 0 ? 0 : highestIndex;
+                            // A fragment for a new index means every earlier call is complete
+                            if (index > highestIndex) {
+                                for (int i = Math.max(0, highestIndex); i < index; i++) {
+                                    completeToolCall(partials.get(i), i, listener);
+                                }
+                                highestIndex = index;
+                            }
+                            partials.computeIfAbsent(index, k -> new PartialToolCall()).merge(frag);
+                        }
+                    }
+                }
+
+                if (choice.has("finish_reason") && !choice.get("finish_reason").isJsonNull()) {
+                    finishReason = choice.get("finish_reason").getAsString();
+                }
+            }
+            drain(reader);
+        }
+
+        // Flush any tool calls still open when the stream ended
+        JsonArray toolCalls = new JsonArray();
+        for (Map.Entry<Integer, PartialToolCall> entry : partials.entrySet()) {
+            completeToolCall(entry.getValue(), entry.getKey(), listener);
+            toolCalls.add(entry.getValue().toJson());
+        }
+
+        JsonObject message = new JsonObject();
+        message.addProperty("role", "assistant");
+        if (sawContent || toolCalls.isEmpty()) {
+            message.addProperty("content", content.toString());
+        } else {
+            message.add("content", com.google.gson.JsonNull.INSTANCE);
+        }
+        if (!toolCalls.isEmpty()) message.add("tool_calls", toolCalls);
+
+        JsonObject choice = new JsonObject();
+        choice.addProperty("index", 0);
+        choice.add("message", message);
+        choice.addProperty("finish_reason", finishReason != null ? finishReason
+                : toolCalls.isEmpty() ? "stop" : "tool_calls");
+
+        JsonArray choices = new JsonArray();
+        choices.add(choice);
+
+        JsonObject assembled = new JsonObject();
+        assembled.add("choices", choices);
+        if (usage != null) assembled.add("usage", usage);
+        return assembled;
+    }
+
+    /**
+     * Read to the end of the body after the final event, so the pooled
+     * connection is released cleanly instead of being closed mid-response.
+     */
+    private static void drain(BufferedReader reader) throws IOException {
+        while (reader.readLine() != null) {
+            // Nothing should follow the final event
+        }
+    }
+
+    private static void completeToolCall(PartialToolCall partial, int index, Listener listener) {
+        if (partial == null || partial.reported) return;
+        partial.reported = true;
+        if (listener != null && partial.name.length() > 0) {
+            listener.onToolCall(index, partial.toJson());
+        }
+    }
+
+    /** Accumulates the id/name/argument fragments of one streamed tool call. */
+    private static final class PartialToolCall {
+        private String id;
+        private final StringBuilder name = new StringBuilder();
+        private final StringBuilder arguments = new StringBuilder();
+        private boolean reported = false;
+
+        void merge(JsonObject frag) {
+            if (frag.has("id") && !frag.get("id").isJsonNull()) id = frag.get("id").getAsString();
+            if (frag.has("function") && frag.get("function").isJsonObject()) {
+                JsonObject func = frag.getAsJsonObject("function");
+                if (func.has("name") && !func.get("name").isJsonNull()) name.append(func.get("name").getAsString());
+                if (func.has("arguments") && !func.get("arguments").isJsonNull()) {
+                    JsonElement args = func.get("arguments");
+                    arguments.append(args.isJsonPrimitive() ? args.getAsString() : args.toString());
+                }
+            }
+        }
+
+        JsonObject toJson() {
+            JsonObject func = new JsonObject();
+            func.addProperty("name", name.toString());
+            func.addProperty("arguments", arguments.length() > 0 ? arguments.toString() : "{}");
+            JsonObject tc = new JsonObject();
+            if (id != null) tc.addProperty("id", id);
+            tc.addProperty("type", "function");
+            tc.add("function", func);
+            return tc;
+        }
+    }
+}
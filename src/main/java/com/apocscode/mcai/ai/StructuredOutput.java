@@ -0,0 +1,282 @@
+package com.apocscode.mcai.ai;
+
+import com.apocscode.mcai.ai.tool.AiTool;
+import com.apocscode.mcai.ai.tool.ToolRegistry;
+import com.apocscode.mcai.config.AiConfig;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Grammar-constrained agent turns, so small models can't answer with tool calls written
+ * as prose (which otherwise go through the text-recovery parsers and often cost another
+ * iteration).
+ *
+ * - Ollama: the request carries a "format" JSON schema built from the selected tools'
+ *   parameterSchema(): {"reply": text, "calls": [{"tool": name, "args": {...}}]}. The
+ *   constrained reply is turned back into native tool_calls, so the agent loop is unchanged.
+ * - OpenAI-compatible providers: tools are sent as strict function definitions
+ *   (see {@link com.apocscode.mcai.ai.tool.ToolSchemaCache#fragment(AiTool, boolean)}).
+ * - Either way, arguments are validated against the tool's schema before it runs; a bad
+ *   call returns an error to the model instead of reaching the tool.
+ *
+ * Iterations per chat and text recoveries are counted separately for chats with and
+ * without this mode, so the two can be compared from the session stats.
+ */
+public class StructuredOutput {
+
+    /** Tells the model the shape of the reply; Ollama only constrains sampling, it doesn't show the schema */
+    private static final String TURN_INSTRUCTIONS =
+            "Respond with ONE JSON object: {\"reply\": \"<text for the player>\", \"calls\": [{\"tool\": \"<tool name>\", \"args\": {...}}]}. " +
+            "Put every tool you want to use in \"calls\" with its arguments; use an empty \"calls\" list to just answer.";
+
+    /** Distinct tool selections whose turn schema is kept (least recently used dropped first) */
+    private static final int MAX_TURN_SCHEMAS = 32;
+
+    private static final Map<String, JsonObject> turnSchemas = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, JsonObject> eldest) {
+                    return size() > MAX_TURN_SCHEMAS;
+                }
+            });
+
+    private static final AtomicInteger structuredChats = new AtomicInteger(0);
+    private static final AtomicInteger structuredIterations = new AtomicInteger(0);
+    private static final AtomicInteger structuredRecoveries = new AtomicInteger(0);
+    private static final AtomicInteger plainChats = new AtomicInteger(0);
+    private static final AtomicInteger plainIterations = new AtomicInteger(0);
+    private static final AtomicInteger plainRecoveries = new AtomicInteger(0);
+    private static final AtomicInteger rejectedArgs = new AtomicInteger(0);
+
+    // ================================================================
+    // Ollama turn schema
+    // ================================================================
+
+    /** Schema for one agent turn with the given tools (cached per tool selection). */
+    static JsonObject turnSchema(List<String> toolNames) {
+        return turnSchemas.computeIfAbsent(String.join(",", toolNames), key -> {
+            JsonArray variants = new JsonArray();
+            for (String name : toolNames) {
+                AiTool tool = ToolRegistry.get(name);
+                if (tool == null) continue;
+                JsonObject toolName = type("string");
+                JsonArray only = new JsonArray();
+                only.add(name);
+                toolName.add("enum", only);
+                JsonObject props = new JsonObject();
+                props.add("tool", toolName);
+                props.add("args", tool.parameterSchema());
+                JsonObject call = type("object");
+                call.add("properties", props);
+                call.add("required", strings("tool", "args"));
+                variants.add(call);
+            }
+            JsonObject calls = type("array");
+            JsonObject items = new JsonObject();
+            items.add("anyOf", variants);
+            calls.add("items", items);
+
+            JsonObject props = new JsonObject();
+            props.add("reply", type("string"));
+            props.add("calls", calls);
+            JsonObject root = type("object");
+            root.add("properties", props);
+            root.add("required", strings("reply", "calls"));
+            return root;
+        });
+    }
+
+    /** Messages for a constrained Ollama turn: the originals plus the reply-format note. */
+    static JsonArray withTurnInstructions(JsonArray messages) {
+        JsonArray copy = messages.deepCopy();
+        JsonObject note = new JsonObject();
+        note.addProperty("role", "system");
+        note.addProperty("content", TURN_INSTRUCTIONS);
+        copy.add(note);
+        return copy;
+    }
+
+    /**
+     * Turn a constrained reply into a normal assistant message: "calls" become native
+     * tool_calls (Ollama style, arguments as objects) and "reply" the content. Messages
+     * that already have tool_calls, or aren't a turn object, are left alone.
+     */
+    static void toNativeToolCalls(JsonObject response) {
+        JsonObject message = response.getAsJsonObject("message");
+        if (message == null || message.has("tool_calls") || !message.has("content")
+                || message.get("content").isJsonNull()) return;
+        JsonObject turn;
+        try {
+            JsonElement parsed = JsonParser.parseString(message.get("content").getAsString());
+            if (!parsed.isJsonObject()) return;
+            turn = parsed.getAsJsonObject();
+        } catch (Exception e) {
+            return;
+        }
+
+        JsonArray toolCalls = new JsonArray();
+        if (turn.has("calls") && turn.get("calls").isJsonArray()) {
+            for (JsonElement c : turn.getAsJsonArray("calls")) {
+                if (!c.isJsonObject() || !c.getAsJsonObject().has("tool")) continue;
+                JsonObject call = c.getAsJsonObject();
+                JsonObject function = new JsonObject();
+                function.addProperty("name", call.get("tool").getAsString());
+                function.add("arguments", call.has("args") && call.get("args").isJsonObject()
+                        ? call.getAsJsonObject("args") : new JsonObject());
+                JsonObject toolCall = new JsonObject();
+                toolCall.add("function", function);
+                toolCalls.add(toolCall);
+            }
+        }
+        String reply = turn.has("reply") && turn.get("reply").isJsonPrimitive() ? turn.get("reply").getAsString() : "";
+        message.addProperty("content", reply);
+        if (!toolCalls.isEmpty()) message.add("tool_calls", toolCalls);
+    }
+
+    // ================================================================
+    // Local argument validation
+    // ================================================================
+
+    /**
+     * Check the arguments against the tool's parameter schema, fixing what is unambiguous
+     * in place: nulls (strict mode's "not given") are dropped, numeric and boolean strings
+     * converted.
+     * @return a description of the problem, or null when the arguments are fine
+     */
+    @Nullable
+    static String validateArgs(AiTool tool, JsonObject args) {
+        args.entrySet().removeIf(e -> e.getValue().isJsonNull());
+        JsonObject schema = tool.parameterSchema();
+        JsonObject props = schema.has("properties") ? schema.getAsJsonObject("properties") : new JsonObject();
+
+        if (schema.has("required")) {
+            for (JsonElement r : schema.getAsJsonArray("required")) {
+                if (!args.has(r.getAsString())) {
+                    return problem("missing required argument '" + r.getAsString() + "'");
+                }
+            }
+        }
+        for (Map.Entry<String, JsonElement> e : props.entrySet()) {
+            String name = e.getKey();
+            if (!args.has(name) || !e.getValue().isJsonObject()) continue;
+            JsonObject prop = e.getValue().getAsJsonObject();
+            JsonElement value = coerce(args.get(name), prop);
+            if (value == null) {
+                return problem("'" + name + "' must be " + (prop.has("type") ? prop.get("type").getAsString() : "valid")
+                        + ", got " + args.get(name));
+            }
+            if (prop.has("enum") && !prop.getAsJsonArray("enum").contains(value)) {
+                return problem("'" + name + "' must be one of " + prop.get("enum") + ", got " + value);
+            }
+            args.add(name, value);
+        }
+        return null;
+    }
+
+    private static String problem(String message) {
+        rejectedArgs.incrementAndGet();
+        return message;
+    }
+
+    /** The value as the schema's type, or null if it can't be read as one. */
+    @Nullable
+    private static JsonElement coerce(JsonElement value, JsonObject prop) {
+        if (!prop.has("type") || !prop.get("type").isJsonPrimitive()) return value;
+        boolean isString = value.isJsonPrimitive() && value.getAsJsonPrimitive().isString();
+        switch (prop.get("type").getAsString()) {
+            case "string" -> {
+                return value.isJsonPrimitive() ? new JsonPrimitive(value.getAsString()) : null;
+            }
+            case "integer", "number" -> {
+                if (value.isJsonPrimitive() && value.getAsJsonPrimitive().isNumber()) return value;
+                if (!isString) return null;
+                try {
+                    String s = value.getAsString().trim();
+                    return s.matches("-?\\d+") ? new JsonPrimitive(Long.parseLong(s)) : new JsonPrimitive(Double.parseDouble(s));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+            case "boolean" -> {
+                if (value.isJsonPrimitive() && value.getAsJsonPrimitive().isBoolean()) return value;
+                if (isString && (value.getAsString().equalsIgnoreCase("true") || value.getAsString().equalsIgnoreCase("false"))) {
+                    return new JsonPrimitive(Boolean.parseBoolean(value.getAsString()));
+                }
+                return null;
+            }
+            case "array" -> {
+                return value.isJsonArray() ? value : null;
+            }
+            case "object" -> {
+                return value.isJsonObject() ? value : null;
+            }
+            default -> {
+                return value;
+            }
+        }
+    }
+
+    // ================================================================
+    // Stats
+    // ================================================================
+
+    static void countChat(boolean structured) {
+        (structured ? structuredChats : plainChats).incrementAndGet();
+    }
+
+    static void countIteration(boolean structured) {
+        (structured ? structuredIterations : plainIterations).incrementAndGet();
+    }
+
+    /** A tool call had to be recovered from prose or a provider's failed generation. */
+    static void countRecovery(boolean structured) {
+        (structured ? structuredRecoveries : plainRecoveries).incrementAndGet();
+    }
+
+    public static String getStats() {
+        return String.format("iterationsPerChat: structured=%.2f (%d chats, %d recoveries) vs unconstrained=%.2f (%d chats, %d recoveries), rejectedArgs=%d",
+                perChat(structuredIterations, structuredChats), structuredChats.get(), structuredRecoveries.get(),
+                perChat(plainIterations, plainChats), plainChats.get(), plainRecoveries.get(), rejectedArgs.get());
+    }
+
+    private static double perChat(AtomicInteger iterations, AtomicInteger chats) {
+        return chats.get() > 0 ? iterations.get() / (double) chats.get() : 0.0;
+    }
+
+    /** Tool definitions changed — rebuild the turn schemas. */
+    public static void reset() {
+        turnSchemas.clear();
+    }
+
+    private static JsonObject type(String type) {
+        JsonObject o = new JsonObject();
+        o.addProperty("type", type);
+        return o;
+    }
+
+    private static JsonArray strings(String... values) {
+        JsonArray a = new JsonArray();
+        for (String v : values) a.add(v);
+        return a;
+    }
+
+    // ---- Config (may not be loaded yet) ----
+
+    static boolean isEnabled() {
+        try {
+            return AiConfig.STRUCTURED_TOOL_CALLS.get();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
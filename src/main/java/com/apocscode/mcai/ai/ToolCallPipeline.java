@@ -0,0 +1,187 @@
+package com.apocscode.mcai.ai;
+
+import com.apocscode.mcai.MCAi;
+import com.apocscode.mcai.ai.tool.ToolEffect;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Runs the tool calls of one agent-loop iteration.
+ *
+ * While a response is still streaming, complete read-only tool calls can be submitted
+ * early so the tool starts executing before the model has finished writing the rest of
+ * its message. Once the whole message is in, the remaining calls are submitted as a
+ * batch. Ordered calls never start early: if the stream fails and failover repeats the
+ * request on another backend, the same calls come back, and a mutation must not run twice.
+ *
+ * Scheduling follows each tool's {@link ToolEffect}: read-only calls only wait for the
+ * ordered call before them, so consecutive reads run in parallel; ordered calls
+ * (world-mutating, async tasks) wait for everything submitted before them. A mutating
+ * tool therefore sees exactly the same sequence of changes as in a serial run.
+ *
+ * The agent loop then asks for each result in the original order. Whichever side
+ * claims a call first runs it (the background executor or the loop thread itself),
+ * so a busy executor can never stall the loop.
+ */
+class ToolCallPipeline {
+
+    private final Executor executor;
+    private final BiFunction<String, JsonObject, String> runner;
+    private final Function<String, ToolEffect> effects;
+    private final Map<Integer, Call> calls = new HashMap<>();
+    /** Completes when the last ordered call (and everything before it) is done */
+    private CompletableFuture<?> lastOrdered = CompletableFuture.completedFuture(null);
+    /** Read-only calls submitted since the last ordered call */
+    private final List<CompletableFuture<String>> readsSinceOrdered = new ArrayList<>();
+    /** Next index that may start early — a gap means an earlier call must run inline first */
+    private int nextEarlyIndex = 0;
+
+    ToolCallPipeline(Executor executor, BiFunction<String, JsonObject, String> runner,
+                     Function<String, ToolEffect> effects) {
+        this.executor = executor;
+        this.runner = runner;
+        this.effects = effects;
+    }
+
+    /**
+     * Start a read-only tool call in the background as soon as its dependencies allow.
+     * Called from the stream reader as soon as a tool call is fully received.
+     */
+    synchronized void submitEarly(int index, String toolName, JsonObject args) {
+        if (effects.apply(toolName).isOrdered()) {
+            // Runs once the response is complete; later calls must not overtake it
+            nextEarlyIndex = Integer.MAX_VALUE;
+            return;
+        }
+        if (index != nextEarlyIndex) {
+            // An earlier call was not started early; starting this one could reorder them
+            nextEarlyIndex = Integer.MAX_VALUE;
+            return;
+        }
+        nextEarlyIndex++;
+        submit(index, toolName, args);
+        MCAi.LOGGER.debug("Early-started tool call #{} '{}' while response is streaming", index, toolName);
+    }
+
+    /**
+     * Submit every call of the finished response that was not started early.
+     * Early calls always form a prefix, so submitting the rest in order keeps dependencies intact.
+     *
+     * @return how many read-only calls can overlap with another call
+     */
+    synchronized int submitAll(List<String> toolNames, List<JsonObject> args) {
+        nextEarlyIndex = Integer.MAX_VALUE;
+        int parallelReads = 0;
+        for (int i = 0; i < toolNames.size(); i++) {
+            if (calls.containsKey(i)) continue;
+            boolean overlaps = !readsSinceOrdered.isEmpty();
+            submit(i, toolNames.get(i), args.get(i));
+            if (overlaps && !readsSinceOrdered.isEmpty()) parallelReads++;
+        }
+        return parallelReads;
+    }
+
+    private void submit(int index, String toolName, JsonObject args) {
+        Call call = new Call(toolName, args);
+        calls.put(index, call);
+
+        CompletableFuture<?> dependencies;
+        if (effects.apply(toolName).isOrdered()) {
+            List<CompletableFuture<?>> before = new ArrayList<>(readsSinceOrdered);
+            before.add(lastOrdered);
+            dependencies = CompletableFuture.allOf(before.toArray(CompletableFuture[]::new));
+            lastOrdered = call.result;
+            readsSinceOrdered.clear();
+        } else {
+            dependencies = lastOrdered;
+            readsSinceOrdered.add(call.result);
+        }
+
+        dependencies.whenComplete((r, ex) -> {
+            try {
+                executor.execute(() -> call.runIfUnclaimed(runner));
+            } catch (Exception e) {
+                // Executor rejected (shutting down) — the loop will run it inline
+            }
+        });
+    }
+
+    /**
+     * Get the result for a tool call. Reuses the early-started execution when it was
+     * submitted with the same tool and arguments, otherwise runs the tool now.
+     */
+    String resultFor(int index, String toolName, JsonObject args) {
+        Call call;
+        synchronized (this) {
+            call = calls.remove(index);
+        }
+        if (call == null) {
+            return runner.apply(toolName, args);
+        }
+        if (call.toolName.equals(toolName) && call.args.equals(args)) {
+            if (call.claim()) {
+                call.run(runner);
+            }
+            return call.result.join();
+        }
+
+        // Arguments changed after the early start (e.g. recovered from content text).
+        // Let a running early copy finish first so later calls keep their order.
+        boolean claimed = call.claim();
+        if (!claimed) {
+            call.result.exceptionally(t -> null).join();
+        }
+        try {
+            return runner.apply(toolName, args);
+        } finally {
+            if (claimed) call.result.complete(null);
+        }
+    }
+
+    /** Cancel any early calls that never started (e.g. the loop stopped early). */
+    synchronized void close() {
+        for (Call call : calls.values()) call.cancel();
+        calls.clear();
+    }
+
+    private static final class Call {
+        final String toolName;
+        final JsonObject args;
+        final AtomicBoolean claimed = new AtomicBoolean(false);
+        final CompletableFuture<String> result = new CompletableFuture<>();
+
+        Call(String toolName, JsonObject args) {
+            this.toolName = toolName;
+            this.args = args;
+        }
+
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        void runIfUnclaimed(BiFunction<String, JsonObject, String> runner) {
+            if (claim()) run(runner);
+        }
+
+        void run(BiFunction<String, JsonObject, String> runner) {
+            try {
+                result.complete(runner.apply(toolName, args));
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        }
+
+        void cancel() {
+            if (claim()) result.complete(null);
+        }
+    }
+}
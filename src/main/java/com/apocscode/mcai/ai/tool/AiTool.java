@@ -19,6 +19,24 @@ public interface AiTool {
      */
     JsonObject parameterSchema();
 
+    /**
+     * What this tool does to the game. Read-only tools called in the same response
+     * run in parallel; everything else runs in the order the model asked for it.
+     * Defaults to {@link ToolEffect#WORLD_MUTATING}, the safe choice.
+     */
+    default ToolEffect effect() {
+        return ToolEffect.WORLD_MUTATING;
+    }
+
+    /**
+     * Whether results may be reused for a few seconds (see {@link ToolResultCache}).
+     * Only for read-only tools whose result depends on nothing but the arguments,
+     * the player, their rough position and world state.
+     */
+    default boolean cacheable() {
+        return false;
+    }
+
     /**
      * Execute the tool with the given arguments.
      * Runs on a background thread — never on the server tick thread.
@@ -53,6 +53,11 @@ public class ChopTreesTool implements AiTool {
         return schema;
     }
 
+    @Override
+    public ToolEffect effect() {
+        return ToolEffect.ASYNC_TASK;
+    }
+
     @Override
     public String execute(JsonObject args, ToolContext context) {
         return context.runOnServer(() -> {
@@ -100,6 +100,11 @@ public class CreateMineTool implements AiTool {
         return schema;
     }
 
+    @Override
+    public ToolEffect effect() {
+        return ToolEffect.ASYNC_TASK;
+    }
+
     @Override
     public String execute(JsonObject args, ToolContext context) {
         return context.runOnServer(() -> {
@@ -52,6 +52,11 @@ public class DigDownTool implements AiTool {
         return schema;
     }
 
+    @Override
+    public ToolEffect effect() {
+        return ToolEffect.ASYNC_TASK;
+    }
+
     @Override
     public String execute(JsonObject args, ToolContext context) {
         return context.runOnServer(() -> {
@@ -61,6 +61,11 @@ public class FarmAreaTool implements AiTool {
         return schema;
     }
 
+    @Override
+    public ToolEffect effect() {
+        return ToolEffect.ASYNC_TASK;
+    }
+
     @Override
     public String execute(JsonObject args, ToolContext context) {
         return context.runOnServer(() -> {
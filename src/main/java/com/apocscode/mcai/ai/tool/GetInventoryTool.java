@@ -38,6 +38,16 @@ public class GetInventoryTool implements AiTool {
         return schema;
     }
 
+    @Override
+    public ToolEffect effect() {
+        return ToolEffect.READ_ONLY;
+    }
+
+    @Override
+    public boolean cacheable() {
+        return true;
+    }
+
     @Override
     public String execute(JsonObject args, ToolContext context) {
         if (context.player() == null) return "Error: no player context";
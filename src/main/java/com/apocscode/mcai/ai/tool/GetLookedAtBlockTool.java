@@ -45,6 +45,11 @@ public class GetLookedAtBlockTool implements AiTool {
         return schema;
     }
 
+    @Override
+    public ToolEffect effect() {
+        return ToolEffect.READ_ONLY;
+    }
+
     @Override
     public String execute(JsonObject args, ToolContext context) {
         if (context.player() == null) return "Error: no player context";
@@ -51,6 +51,16 @@ public class GetRecipeTool implements AiTool {
         return schema;
     }
 
+    @Override
+    public ToolEffect effect() {
+        return ToolEffect.READ_ONLY;
+    }
+
+    @Override
+    public boolean cacheable() {
+        return true;
+    }
+
     @Override
     public String execute(JsonObject args, ToolContext context) {
         if (context.player() == null || context.server() == null) {
@@ -0,0 +1,191 @@
+package com.apocscode.mcai.ai.tool;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aho–Corasick automaton over the tool-selection keywords.
+ *
+ * Compiled once from the keyword → tools table, then finds every keyword in a message
+ * in a single pass regardless of how many keywords there are. Matches must start on a
+ * word boundary and end on one, optionally after a common English inflection, so
+ * "tree" matches "trees", "dig" matches "digging" and "wood" matches "wooden", but "this"
+ * no longer matches "thistle" and "log" not "login".
+ *
+ * Each matched keyword adds its weight to every tool it maps to. Multi-word phrases
+ * ("create mine", "dig down") are more specific than single words and weigh more.
+ */
+public final class KeywordMatcher {
+
+    /** Suffixes allowed between a keyword and the following word boundary */
+    private static final Set<String> INFLECTIONS = Set.of("s", "es", "ed", "ing", "er", "ers", "en");
+    /** Longest inflection, counting a doubled final consonant ("dig" + "ging") */
+    private static final int MAX_INFLECTION = 4;
+
+    private static final AtomicLong scans = new AtomicLong(0);
+    private static final AtomicLong scanNanos = new AtomicLong(0);
+
+    private final List<Map<Character, Integer>> children = new ArrayList<>();
+    private final List<Integer> fail = new ArrayList<>();
+    /** Keyword indices ending at each node, including those reached via fail links */
+    private final List<int[]> output = new ArrayList<>();
+
+    private final String[] keywords;
+    private final int[] weights;
+    private final List<List<String>> keywordTools;
+
+    private KeywordMatcher(Map<String, List<String>> keywordToTools) {
+        int n = keywordToTools.size();
+        keywords = new String[n];
+        weights = new int[n];
+        keywordTools = new ArrayList<>(n);
+
+        newNode();
+        List<List<Integer>> ends = new ArrayList<>();
+        ends.add(new ArrayList<>());
+
+        int k = 0;
+        for (Map.Entry<String, List<String>> entry : keywordToTools.entrySet()) {
+            String keyword = entry.getKey();
+            keywords[k] = keyword;
+            weights[k] = keyword.split("\\s+").length;
+            keywordTools.add(List.copyOf(entry.getValue()));
+
+            int node = 0;
+            for (int i = 0; i < keyword.length(); i++) {
+                char c = keyword.charAt(i);
+                Integer next = children.get(node).get(c);
+                if (next == null) {
+                    next = newNode();
+                    ends.add(new ArrayList<>());
+                    children.get(node).put(c, next);
+                }
+                node = next;
+            }
+            ends.get(node).add(k);
+            k++;
+        }
+
+        // Breadth-first: fail links point at the longest proper suffix that is also a trie path
+        for (int i = 0; i < children.size(); i++) output.add(null);
+        output.set(0, new int[0]);
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int child : children.get(0).values()) {
+            fail.set(child, 0);
+            output.set(child, toArray(ends.get(child)));
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (Map.Entry<Character, Integer> edge : children.get(node).entrySet()) {
+                char c = edge.getKey();
+                int child = edge.getValue();
+                int f = fail.get(node);
+                while (f != 0 && !children.get(f).containsKey(c)) f = fail.get(f);
+                Integer target = children.get(f).get(c);
+                int link = target != null && target != child ? target : 0;
+                fail.set(child, link);
+
+                List<Integer> merged = new ArrayList<>(ends.get(child));
+                for (int idx : output.get(link)) merged.add(idx);
+                output.set(child, toArray(merged));
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Compile the automaton. Keywords are expected to be lowercase.
+     */
+    public static KeywordMatcher compile(Map<String, List<String>> keywordToTools) {
+        return new KeywordMatcher(keywordToTools);
+    }
+
+    public int keywordCount() {
+        return keywords.length;
+    }
+
+    public static String getStats() {
+        long n = scans.get();
+        return String.format("keywordMatcher: scans=%d, avg=%.1fus", n, n > 0 ? scanNanos.get() / 1000.0 / n : 0.0);
+    }
+
+    /**
+     * Score every tool whose keywords appear in the message.
+     * Each keyword counts once however often it occurs.
+     *
+     * @return tool → score, in the order the tools were first matched in the message
+     */
+    public Map<String, Integer> score(String message) {
+        Map<String, Integer> scores = new LinkedHashMap<>();
+        if (message == null || message.isEmpty()) return scores;
+
+        long startNs = System.nanoTime();
+        String msg = message.toLowerCase();
+        boolean[] seen = new boolean[keywords.length];
+        int node = 0;
+        for (int i = 0; i < msg.length(); i++) {
+            char c = msg.charAt(i);
+            while (node != 0 && !children.get(node).containsKey(c)) node = fail.get(node);
+            node = children.get(node).getOrDefault(c, 0);
+
+            for (int k : output.get(node)) {
+                if (seen[k]) continue;
+                int start = i - keywords[k].length() + 1;
+                if (!isWordMatch(msg, start, i + 1)) continue;
+                seen[k] = true;
+                for (String tool : keywordTools.get(k)) {
+                    scores.merge(tool, weights[k], Integer::sum);
+                }
+            }
+        }
+        scans.incrementAndGet();
+        scanNanos.addAndGet(System.nanoTime() - startNs);
+        return scores;
+    }
+
+    /** Keyword at [start, end) begins a word and ends one (allowing an inflection). */
+    private static boolean isWordMatch(String msg, int start, int end) {
+        if (start > 0 && isWordChar(msg.charAt(start - 1))) return false;
+        int wordEnd = end;
+        while (wordEnd < msg.length() && isWordChar(msg.charAt(wordEnd))) {
+            if (wordEnd - end >= MAX_INFLECTION) return false;
+            wordEnd++;
+        }
+        return wordEnd == end || isInflection(msg.charAt(end - 1), msg.substring(end, wordEnd));
+    }
+
+    /**
+     * Whether {@code suffix} inflects a word ending in {@code last}: a plain suffix ("trees"),
+     * one after a doubled final consonant ("digging", "chopped"), or one whose leading e the
+     * word already ends with ("mined", "miner").
+     */
+    private static boolean isInflection(char last, String suffix) {
+        if (INFLECTIONS.contains(suffix)) return true;
+        if (last == 'e') return INFLECTIONS.contains("e" + suffix);
+        return suffix.length() > 2 && suffix.charAt(0) == last && "aiou".indexOf(last) < 0
+                && INFLECTIONS.contains(suffix.substring(1));
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    private int newNode() {
+        children.add(new HashMap<>());
+        fail.add(0);
+        return children.size() - 1;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] arr = new int[list.size()];
+        for (int i = 0; i < arr.length; i++) arr[i] = list.get(i);
+        return arr;
+    }
+}
@@ -46,6 +46,16 @@ public class ListInstalledModsTool implements AiTool {
         return schema;
     }
 
+    @Override
+    public ToolEffect effect() {
+        return ToolEffect.READ_ONLY;
+    }
+
+    @Override
+    public boolean cacheable() {
+        return true;
+    }
+
     @Override
     public String execute(JsonObject args, ToolContext context) {
         String filter = args.has("filter") ? args.get("filter").getAsString().toLowerCase() : "";
@@ -39,6 +39,16 @@ public class ListMinesTool implements AiTool {
         return schema;
     }
 
+    @Override
+    public ToolEffect effect() {
+        return ToolEffect.READ_ONLY;
+    }
+
+    @Override
+    public boolean cacheable() {
+        return true;
+    }
+
     @Override
     public String execute(JsonObject args, ToolContext context) {
         return context.runOnServer(() -> {
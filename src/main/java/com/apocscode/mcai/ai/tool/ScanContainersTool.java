@@ -53,6 +53,16 @@ public class ScanContainersTool implements AiTool {
         return schema;
     }
 
+    @Override
+    public ToolEffect effect() {
+        return ToolEffect.READ_ONLY;
+    }
+
+    @Override
+    public boolean cacheable() {
+        return true;
+    }
+
     @Override
     public String execute(JsonObject args, ToolContext context) {
         if (context.player() == null) return "Error: no player context";
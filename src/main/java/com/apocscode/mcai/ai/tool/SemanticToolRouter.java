@@ -0,0 +1,343 @@
+package com.apocscode.mcai.ai.tool;
+
+import com.apocscode.mcai.MCAi;
+import com.apocscode.mcai.ai.AiBackend;
+import com.apocscode.mcai.ai.AiExecutor;
+import com.apocscode.mcai.ai.AiHttpClient;
+import com.apocscode.mcai.ai.AiLogger;
+import com.apocscode.mcai.config.AiConfig;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import net.neoforged.fml.loading.FMLPaths;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Optional semantic tool router backed by a local Ollama embedding model.
+ *
+ * Each tool's description is embedded once and kept in an in-memory index; the vectors
+ * are also cached on disk keyed by a hash of the description, so only new or edited
+ * tools are embedded on the next start. A user message is embedded and the top-k tools
+ * by cosine similarity fill the slots the keyword matches leave free, which catches
+ * paraphrases keywords miss ("grab me some timber" → chop_trees).
+ *
+ * The index is built in the background the first time it is needed. Until it is ready,
+ * or whenever Ollama can't be reached, {@link #route} returns nothing and selection
+ * falls back to keywords only.
+ */
+public class SemanticToolRouter {
+    private static final Gson GSON = new Gson();
+    private static final Path CACHE_FILE = FMLPaths.CONFIGDIR.get().resolve("mcai_cache").resolve("tool_embeddings.json");
+
+    private static final int EMBED_TIMEOUT_MS = 3000;
+    /** After a failed embedding call, stay on keywords this long before trying again */
+    private static final long RETRY_AFTER_MS = 60_000;
+    private static final int MESSAGE_CACHE_SIZE = 32;
+
+    /** tool name → unit-length description vector; null until built */
+    private static volatile Map<String, float[]> index;
+    private static final AtomicBoolean building = new AtomicBoolean(false);
+    private static volatile long unavailableUntilMs = 0;
+
+    /** Recent message vectors — the agent loop selects tools for the same message every iteration */
+    private static final Map<String, float[]> messageVectors = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+                    return size() > MESSAGE_CACHE_SIZE;
+                }
+            });
+
+    // ---- Selection accuracy (per tool call the model actually made) ----
+    private static final AtomicInteger calls = new AtomicInteger(0);
+    private static final AtomicInteger routedHits = new AtomicInteger(0);
+    private static final AtomicInteger keywordHits = new AtomicInteger(0);
+
+    public static boolean isEnabled() {
+        try {
+            return AiConfig.SEMANTIC_TOOL_ROUTING.get();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /** Whether semantic results are being used right now (enabled, indexed, Ollama reachable). */
+    public static boolean isActive() {
+        return isEnabled() && index != null && System.currentTimeMillis() >= unavailableUntilMs;
+    }
+
+    /**
+     * The top-k tools closest in meaning to the message, best first.
+     * Empty when routing is disabled, the index is still building, or embedding fails.
+     */
+    public static List<String> route(String userMessage) {
+        if (!isEnabled() || userMessage == null || userMessage.isBlank()) return List.of();
+        Map<String, float[]> idx = index;
+        if (idx == null) {
+            buildIndexAsync();
+            return List.of();
+        }
+        if (System.currentTimeMillis() < unavailableUntilMs) return List.of();
+
+        float[] query = messageVectors.get(userMessage);
+        if (query == null) {
+            try {
+                query = embed(List.of(userMessage)).get(0);
+            } catch (Exception e) {
+                markUnavailable("message embedding failed: " + e.getMessage());
+                return List.of();
+            }
+            messageVectors.put(userMessage, query);
+        }
+
+        List<Map.Entry<String, Float>> scored = new ArrayList<>(idx.size());
+        for (Map.Entry<String, float[]> entry : idx.entrySet()) {
+            scored.add(Map.entry(entry.getKey(), dot(query, entry.getValue())));
+        }
+        scored.sort(Map.Entry.<String, Float>comparingByValue().reversed());
+
+        int k = Math.min(getTopK(), scored.size());
+        List<String> result = new ArrayList<>(k);
+        for (int i = 0; i < k; i++) result.add(scored.get(i).getKey());
+        return result;
+    }
+
+    /**
+     * Record one tool call the model made, and whether the routed selection and the
+     * keyword-only selection for that message contained it.
+     */
+    static void recordCall(String toolName, boolean inRouted, boolean inKeywords) {
+        int total = calls.incrementAndGet();
+        if (inRouted) routedHits.incrementAndGet();
+        if (inKeywords) keywordHits.incrementAndGet();
+        if (!inRouted) {
+            AiLogger.log(AiLogger.Category.AI_REQUEST, "INFO",
+                    "Tool router miss: model called '" + toolName + "' which was not in the routed selection");
+        }
+        if (total % 20 == 0) {
+            AiLogger.log(AiLogger.Category.AI_REQUEST, "INFO", getStats());
+        }
+    }
+
+    public static String getStats() {
+        int total = calls.get();
+        return String.format("toolRouter: calls=%d, routedRecall=%.0f%%, keywordRecall=%.0f%%, active=%s",
+                total, percent(routedHits.get(), total), percent(keywordHits.get(), total), isActive());
+    }
+
+    /** Start building the index ahead of the first routed message (no-op once built). */
+    public static void warmUp() {
+        if (isEnabled() && index == null) buildIndexAsync();
+    }
+
+    /** Config reloaded — the model or endpoint may have changed. */
+    public static void reset() {
+        index = null;
+        unavailableUntilMs = 0;
+        messageVectors.clear();
+    }
+
+    // ================================================================
+    // Index
+    // ================================================================
+
+    private static void buildIndexAsync() {
+        if (System.currentTimeMillis() < unavailableUntilMs) return;
+        if (!AiExecutor.isRunning() || !building.compareAndSet(false, true)) return;
+        CompletableFuture.runAsync(() -> {
+            try {
+                index = buildIndex();
+            } catch (Exception e) {
+                markUnavailable("index build failed: " + e.getMessage());
+            } finally {
+                building.set(false);
+            }
+        }, AiExecutor.executor());
+    }
+
+    private static Map<String, float[]> buildIndex() throws IOException {
+        long start = System.currentTimeMillis();
+        String model = AiConfig.EMBEDDING_MODEL.get();
+        Map<String, float[]> cached = loadCache(model);
+
+        Map<String, String> hashes = new LinkedHashMap<>();
+        List<String> missingNames = new ArrayList<>();
+        List<String> missingTexts = new ArrayList<>();
+        for (AiTool tool : ToolRegistry.getAll().values()) {
+            String text = tool.name() + ": " + tool.description();
+            String hash = sha256(text);
+            hashes.put(tool.name(), hash);
+            if (!cached.containsKey(hash)) {
+                missingNames.add(tool.name());
+                missingTexts.add(text);
+            }
+        }
+
+        if (!missingTexts.isEmpty()) {
+            List<float[]> vectors = embed(missingTexts);
+            for (int i = 0; i < missingNames.size(); i++) {
+                cached.put(hashes.get(missingNames.get(i)), vectors.get(i));
+            }
+            saveCache(model, cached, hashes);
+        }
+
+        Map<String, float[]> built = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : hashes.entrySet()) {
+            built.put(entry.getKey(), cached.get(entry.getValue()));
+        }
+        MCAi.LOGGER.info("Semantic tool index ready: {} tools ({} embedded, {} from cache) in {}ms",
+                built.size(), missingTexts.size(), built.size() - missingTexts.size(),
+                System.currentTimeMillis() - start);
+        return built;
+    }
+
+    /** Description hash → normalized vector, for the given model only. */
+    private static Map<String, float[]> loadCache(String model) {
+        Map<String, float[]> vectors = new LinkedHashMap<>();
+        if (!Files.exists(CACHE_FILE)) return vectors;
+        try (Reader reader = Files.newBufferedReader(CACHE_FILE, StandardCharsets.UTF_8)) {
+            JsonObject root = JsonParser.parseReader(reader).getAsJsonObject();
+            if (!model.equals(root.get("model").getAsString())) return vectors;
+            for (Map.Entry<String, JsonElement> entry : root.getAsJsonObject("vectors").entrySet()) {
+                vectors.put(entry.getKey(), toVector(entry.getValue().getAsJsonArray()));
+            }
+        } catch (Exception e) {
+            MCAi.LOGGER.warn("Ignoring unreadable tool embedding cache: {}", e.getMessage());
+        }
+        return vectors;
+    }
+
+    /** Write only the vectors still in use, so edited descriptions don't pile up. */
+    private static void saveCache(String model, Map<String, float[]> vectors, Map<String, String> hashes) {
+        JsonObject out = new JsonObject();
+        for (String hash : hashes.values()) {
+            float[] v = vectors.get(hash);
+            JsonArray arr = new JsonArray(v.length);
+            for (float f : v) arr.add(f);
+            out.add(hash, arr);
+        }
+        JsonObject root = new JsonObject();
+        root.addProperty("model", model);
+        root.add("vectors", out);
+        try {
+            Files.createDirectories(CACHE_FILE.getParent());
+            try (Writer writer = Files.newBufferedWriter(CACHE_FILE, StandardCharsets.UTF_8)) {
+                GSON.toJson(root, writer);
+            }
+        } catch (IOException e) {
+            MCAi.LOGGER.warn("Could not save tool embedding cache: {}", e.getMessage());
+        }
+    }
+
+    // ================================================================
+    // Ollama embeddings
+    // ================================================================
+
+    /** Embed a batch of texts via Ollama's /api/embed. Vectors are normalized to unit length. */
+    private static List<float[]> embed(List<String> texts) throws IOException {
+        JsonObject request = new JsonObject();
+        request.addProperty("model", AiConfig.EMBEDDING_MODEL.get());
+        JsonArray input = new JsonArray(texts.size());
+        texts.forEach(input::add);
+        request.add("input", input);
+
+        HttpRequest httpRequest = AiHttpClient.request(embedUrl(), EMBED_TIMEOUT_MS * Math.max(1, texts.size() / 8))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(GSON.toJson(request), StandardCharsets.UTF_8))
+                .build();
+        HttpResponse<String> response = AiHttpClient.send(httpRequest, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IOException("Ollama embed returned HTTP " + response.statusCode() + ": " + response.body());
+        }
+
+        JsonArray embeddings = JsonParser.parseString(response.body()).getAsJsonObject().getAsJsonArray("embeddings");
+        if (embeddings == null || embeddings.size() != texts.size()) {
+            throw new IOException("Ollama embed returned " + (embeddings == null ? 0 : embeddings.size())
+                    + " vectors for " + texts.size() + " inputs");
+        }
+        List<float[]> vectors = new ArrayList<>(texts.size());
+        for (JsonElement e : embeddings) vectors.add(toVector(e.getAsJsonArray()));
+        return vectors;
+    }
+
+    /** Same host as the configured chat endpoint, /api/embed path. */
+    private static String embedUrl() {
+        URI chat = URI.create(AiBackend.OLLAMA.url());
+        return chat.getScheme() + "://" + chat.getAuthority() + "/api/embed";
+    }
+
+    private static void markUnavailable(String reason) {
+        unavailableUntilMs = System.currentTimeMillis() + RETRY_AFTER_MS;
+        MCAi.LOGGER.warn("Semantic tool routing unavailable ({}), using keywords for {}s",
+                reason, RETRY_AFTER_MS / 1000);
+    }
+
+    // ================================================================
+    // Vector helpers
+    // ================================================================
+
+    private static float[] toVector(JsonArray arr) {
+        float[] v = new float[arr.size()];
+        double norm = 0;
+        for (int i = 0; i < v.length; i++) {
+            v[i] = arr.get(i).getAsFloat();
+            norm += v[i] * v[i];
+        }
+        norm = Math.sqrt(norm);
+        if (norm > 0) {
+            for (int i = 0; i < v.length; i++) v[i] /= (float) norm;
+        }
+        return v;
+    }
+
+    /** Cosine similarity of two unit vectors. */
+    private static float dot(float[] a, float[] b) {
+        int n = Math.min(a.length, b.length);
+        float sum = 0;
+        for (int i = 0; i < n; i++) sum += a[i] * b[i];
+        return sum;
+    }
+
+    private static String sha256(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static double percent(int part, int total) {
+        return total == 0 ? 0 : 100.0 * part / total;
+    }
+
+    private static int getTopK() {
+        try {
+            return AiConfig.SEMANTIC_TOP_K.get();
+        } catch (Exception e) {
+            return 6;
+        }
+    }
+}
@@ -75,6 +75,11 @@ public class SmeltItemsTool implements AiTool {
         return schema;
     }
 
+    @Override
+    public ToolEffect effect() {
+        return ToolEffect.ASYNC_TASK;
+    }
+
     @Override
     public String execute(JsonObject args, ToolContext context) {
         if (context.player() == null || context.server() == null) {
@@ -0,0 +1,19 @@
+package com.apocscode.mcai.ai.tool;
+
+/**
+ * What running a tool does to the game, which decides how tool calls from one
+ * model response may be scheduled.
+ */
+public enum ToolEffect {
+    /** Only reads state (inventory, surroundings, recipes, the web) — may run in parallel with other reads */
+    READ_ONLY,
+    /** Changes the world, inventories or companion state — runs in order with everything else */
+    WORLD_MUTATING,
+    /** Queues a companion task that changes the world over time — runs in order like a mutation */
+    ASYNC_TASK;
+
+    /** Whether calls with this effect must keep their position relative to other calls. */
+    public boolean isOrdered() {
+        return this != READ_ONLY;
+    }
+}
@@ -2,15 +2,14 @@ package com.apocscode.mcai.ai.tool;
 
 import com.apocscode.mcai.MCAi;
 import com.apocscode.mcai.config.AiConfig;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
 
 import java.util.*;
 
 /**
  * Registry of all available AI tools.
- * Builds the tools array for Ollama's tool-calling API.
- * Uses dynamic tool selection to keep ≤15 tools per request for small models.
+ * Selects the tool set for each request (serialized by ToolSchemaCache).
+ * Sends every enabled tool in a fixed order (cache-friendly), or with fixedToolSet off,
+ * uses dynamic tool selection to keep ≤16 tools per request for small models.
  */
 public class ToolRegistry {
     private static final Map<String, AiTool> tools = new LinkedHashMap<>();
@@ -27,10 +26,16 @@ public class ToolRegistry {
 
     /**
      * Keyword → tool mappings for dynamic selection.
-     * If any keyword appears in the user message, the mapped tools are included.
+     * If any keyword appears as a word in the user message, the mapped tools are scored.
      */
     private static final Map<String, List<String>> KEYWORD_TOOLS = new LinkedHashMap<>();
 
+    /** Compiled from KEYWORD_TOOLS in init() */
+    private static volatile KeywordMatcher keywordMatcher;
+
+    /** Every enabled tool, see {@link #selectToolSet}; rebuilt after a config reload */
+    private static volatile ToolSchemaCache.ToolSet fixedToolSet;
+
     static {
         // Crafting / making (covers both "how to make X" and "make me X")
         // Include gathering tools so AI can autonomously get missing materials
@@ -155,11 +160,15 @@ public class ToolRegistry {
         register(new DigDownTool());
         register(new CreateMineTool());
         register(new ListMinesTool());
+
+        keywordMatcher = KeywordMatcher.compile(KEYWORD_TOOLS);
         MCAi.LOGGER.info("Registered {} AI tools: {}", tools.size(), tools.keySet());
+        MCAi.LOGGER.debug("Tool schema weights: {}", ToolSchemaCache.describeWeights());
     }
 
     public static void register(AiTool tool) {
         tools.put(tool.name(), tool);
+        ToolSchemaCache.invalidate();
     }
 
     public static AiTool get(String name) {
@@ -167,68 +176,97 @@ public class ToolRegistry {
     }
 
     /**
-     * Build the "tools" JSON array for Ollama's /api/chat request.
-     * Only includes tools that are currently enabled in config.
-     * Format: [{type: "function", function: {name, description, parameters}}]
+     * Effect class of a tool; unknown tools are treated as world-mutating.
      */
-    public static JsonArray toOllamaToolsArray() {
-        JsonArray arr = new JsonArray();
-        for (AiTool tool : tools.values()) {
-            if (!AiConfig.isToolEnabled(tool.name())) continue;
-
-            JsonObject func = new JsonObject();
-            func.addProperty("name", tool.name());
-            func.addProperty("description", tool.description());
-            func.add("parameters", tool.parameterSchema());
-
-            JsonObject wrapper = new JsonObject();
-            wrapper.addProperty("type", "function");
-            wrapper.add("function", func);
-            arr.add(wrapper);
-        }
-        return arr;
+    public static ToolEffect effectOf(String name) {
+        AiTool tool = tools.get(name);
+        return tool != null ? tool.effect() : ToolEffect.WORLD_MUTATING;
     }
 
     /**
-     * Build a filtered "tools" JSON array based on the user's message.
-     * Selects core tools + keyword-matched tools, capped at MAX_TOOLS_PER_REQUEST.
-     * This keeps small models (8B) reliable by not overwhelming them with 30+ schemas.
+     * Select the tools for a message and return their pre-serialized definitions,
+     * ready to splice into a request body. Disabled tools are left out.
+     * With the fixedToolSet config every enabled tool is sent, the same bytes for every
+     * message until the config changes, so the tool block stays in the cached prompt prefix.
      */
-    public static JsonArray toOllamaToolsArray(String userMessage) {
-        Set<String> selected = selectToolsForMessage(userMessage);
-        JsonArray arr = new JsonArray();
-        for (String toolName : selected) {
-            AiTool tool = tools.get(toolName);
-            if (tool == null) continue;
-            if (!AiConfig.isToolEnabled(toolName)) continue;
-
-            JsonObject func = new JsonObject();
-            func.addProperty("name", tool.name());
-            func.addProperty("description", tool.description());
-            func.add("parameters", tool.parameterSchema());
+    public static ToolSchemaCache.ToolSet selectToolSet(String userMessage) {
+        if (isFixedToolSet()) {
+            ToolSchemaCache.ToolSet toolSet = fixedToolSet;
+            if (toolSet == null) {
+                toolSet = ordered(tools.keySet());
+                fixedToolSet = toolSet;
+            }
+            return toolSet;
+        }
+        ToolSchemaCache.ToolSet toolSet = ordered(selectToolsForMessage(userMessage));
+        MCAi.LOGGER.debug("Selected {} tools ({} bytes, ~{} tokens) for message: {}",
+                toolSet.size(), toolSet.bytes(), toolSet.estimatedTokens(), toolSet.names());
+        return toolSet;
+    }
 
-            JsonObject wrapper = new JsonObject();
-            wrapper.addProperty("type", "function");
-            wrapper.add("function", func);
-            arr.add(wrapper);
+    private static ToolSchemaCache.ToolSet ordered(Set<String> selected) {
+        // Fixed order — core tools first, then registration order — so a selection always
+        // serializes to the same bytes and the core tools form a stable, cacheable prefix
+        List<String> names = new ArrayList<>();
+        for (String toolName : tools.keySet()) {
+            if (CORE_TOOLS.contains(toolName) && selected.contains(toolName) && ToolSchemaCache.isEnabled(toolName)) {
+                names.add(toolName);
+            }
         }
-        MCAi.LOGGER.debug("Selected {} tools for message: {}", arr.size(), selected);
-        return arr;
+        for (String toolName : tools.keySet()) {
+            if (!CORE_TOOLS.contains(toolName) && selected.contains(toolName) && ToolSchemaCache.isEnabled(toolName)) {
+                names.add(toolName);
+            }
+        }
+        return ToolSchemaCache.assemble(names);
+    }
+
+    /** Config changed — cached schemas and enabled flags must be rebuilt. */
+    public static void invalidateSchemaCache() {
+        ToolSchemaCache.invalidate();
+        fixedToolSet = null;
     }
 
     /**
      * Select which tools are relevant for the given user message.
-     * Always includes CORE_TOOLS, then adds keyword-matched tools up to MAX_TOOLS_PER_REQUEST.
+     * Always includes CORE_TOOLS, then keyword-matched tools (highest score first), then
+     * the semantic router's picks (when enabled), up to MAX_TOOLS_PER_REQUEST. Exact
+     * keyword hits rank ahead of semantic ones so the cap never crowds them out.
      */
     static Set<String> selectToolsForMessage(String userMessage) {
+        return selectTools(userMessage, true);
+    }
+
+    /**
+     * The model called a tool while answering this message — feed the router's accuracy stats.
+     */
+    public static void recordToolCalled(String userMessage, String toolName) {
+        // With the fixed set, routing didn't choose what was sent — nothing to measure
+        if (isFixedToolSet() || !SemanticToolRouter.isActive()) return;
+        SemanticToolRouter.recordCall(toolName,
+                selectTools(userMessage, true).contains(toolName),
+                selectTools(userMessage, false).contains(toolName));
+    }
+
+    private static Set<String> selectTools(String userMessage, boolean semantic) {
         Set<String> selected = new LinkedHashSet<>(CORE_TOOLS);
-        String msg = userMessage.toLowerCase();
 
-        // Add tools matched by keywords in the message
-        for (Map.Entry<String, List<String>> entry : KEYWORD_TOOLS.entrySet()) {
-            if (msg.contains(entry.getKey())) {
-                selected.addAll(entry.getValue());
-            }
+        // Add tools matched by keywords in the message, most relevant first.
+        // The sort is stable, so ties keep the order they were first mentioned in.
+        KeywordMatcher matcher = keywordMatcher;
+        if (matcher == null) {
+            matcher = KeywordMatcher.compile(KEYWORD_TOOLS);
+            keywordMatcher = matcher;
+        }
+        List<Map.Entry<String, Integer>> matched = new ArrayList<>(matcher.score(userMessage).entrySet());
+        matched.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+        for (Map.Entry<String, Integer> entry : matched) {
+            selected.add(entry.getKey());
+        }
+
+        // Then tools closest in meaning — catches paraphrases the keywords miss
+        if (semantic) {
+            selected.addAll(SemanticToolRouter.route(userMessage));
         }
 
         // If very few matches beyond core, add high-value general tools
@@ -256,4 +294,14 @@ public class ToolRegistry {
     public static Map<String, AiTool> getAll() {
         return tools;
     }
+
+    // ---- Config (may not be loaded yet) ----
+
+    private static boolean isFixedToolSet() {
+        try {
+            return AiConfig.FIXED_TOOL_SET.get();
+        } catch (Exception e) {
+            return false;
+        }
+    }
 }
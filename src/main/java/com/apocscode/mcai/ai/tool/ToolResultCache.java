@@ -0,0 +1,253 @@
+package com.apocscode.mcai.ai.tool;
+
+import com.apocscode.mcai.config.AiConfig;
+import com.apocscode.mcai.entity.CompanionEntity;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import net.minecraft.core.BlockPos;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.LevelAccessor;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Short-lived memo of read-only tool results.
+ *
+ * The model often repeats the same lookups within one agent loop and across back-to-back
+ * chats (get_inventory, scan_containers, get_recipe...). Results of tools that opt in via
+ * {@link AiTool#cacheable()} are kept, keyed by (tool, canonical args, player, dimension,
+ * coarse position).
+ *
+ * Changes are stamped from one clock, per player (their inventory, their companion's
+ * inventory and tasks, mutating tools they ran) and per 32-block column region (blocks
+ * broken, placed or containers edited there). An entry stays valid while nothing in its
+ * scope — the player plus the 3x3 regions around them, which covers the largest scan
+ * radius — changed after it was looked up, so a change elsewhere on the server leaves it
+ * alone. A short TTL covers changes no hook reports (e.g. mobs moving), and nothing is
+ * served while the player's companion has a task running.
+ */
+public class ToolResultCache {
+
+    private static final int MAX_ENTRIES = 256;
+    /** Positions are bucketed into cubes of this many blocks (as a shift) */
+    private static final int CELL_SHIFT = 3;
+    /** Change-tracking regions are columns of this many blocks (as a shift) */
+    private static final int REGION_SHIFT = 5;
+    /** Region stamps kept before the oldest are forgotten */
+    private static final int MAX_REGIONS = 4096;
+
+    private static final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private static final AtomicLong clock = new AtomicLong(0);
+    private static final Map<UUID, Long> playerChanges = new ConcurrentHashMap<>();
+    private static final Map<String, Long> regionChanges = new ConcurrentHashMap<>();
+    /** Newest stamp dropped from the maps above — anything older counts as changed */
+    private static volatile long forgottenChange = 0;
+
+    private static final AtomicInteger hits = new AtomicInteger(0);
+    private static final AtomicInteger misses = new AtomicInteger(0);
+    private static final AtomicInteger invalidations = new AtomicInteger(0);
+
+    private record Entry(String result, long stamp, long createdMs) {}
+
+    /**
+     * One cacheable call: its key and the scope its result depends on, read on the server
+     * thread before the tool runs.
+     */
+    public static final class Lookup {
+        private final String key;
+        private final UUID player;
+        private final String[] regions;
+        private final long stamp;
+
+        private Lookup(String key, UUID player, String[] regions) {
+            this.key = key;
+            this.player = player;
+            this.regions = regions;
+            this.stamp = clock.get();
+        }
+
+        /** The cached result, or null if there is no valid one. */
+        public String get() {
+            Entry entry = entries.get(key);
+            if (entry != null && lastChange(player, regions) <= entry.stamp
+                    && System.currentTimeMillis() - entry.createdMs <= getTtlMs()) {
+                hits.incrementAndGet();
+                return entry.result;
+            }
+            if (entry != null) {
+                entries.remove(key, entry);
+                invalidations.incrementAndGet();
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+
+        /**
+         * Remember the result, stamped with the lookup time (before the tool ran), so a
+         * change during execution leaves the entry stale rather than wrong.
+         */
+        public void put(String result) {
+            if (result == null || result.startsWith("Error")) return;
+            if (entries.size() >= MAX_ENTRIES) {
+                long now = System.currentTimeMillis();
+                long ttl = getTtlMs();
+                entries.values().removeIf(e -> now - e.createdMs > ttl);
+                if (entries.size() >= MAX_ENTRIES) entries.clear();
+            }
+            entries.put(key, new Entry(result, stamp, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * The cache slot for this call, or null when it must not be cached. Player state is
+     * read on the server thread.
+     */
+    public static Lookup lookup(AiTool tool, JsonObject args, ToolContext context) {
+        if (!tool.cacheable() || getTtlMs() <= 0) return null;
+        ServerPlayer player = context.player();
+        if (player == null) return null;
+        String argKey = canonical(args);
+        try {
+            return context.runOnServer(() -> {
+                // The companion is changing the world right now — don't trust anything cached
+                CompanionEntity companion = CompanionEntity.getLivingCompanion(player.getUUID());
+                if (companion != null && companion.getTaskManager().hasTasks()) return null;
+
+                BlockPos pos = player.blockPosition();
+                String dimension = player.level().dimension().location().toString();
+                String key = tool.name() + "|" + argKey + "|" + player.getUUID() + "|" + dimension
+                        + "|" + (pos.getX() >> CELL_SHIFT) + "," + (pos.getY() >> CELL_SHIFT) + "," + (pos.getZ() >> CELL_SHIFT);
+                return new Lookup(key, player.getUUID(), regionsAround(dimension, pos));
+            });
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    // ================================================================
+    // Change tracking
+    // ================================================================
+
+    /** The current clock — compare with {@link #changedSince} later. */
+    public static long now() {
+        return clock.get();
+    }
+
+    /** Whether anything in the player's scope (at their current position) changed after {@code stamp}. */
+    public static boolean changedSince(ServerPlayer player, long stamp) {
+        String dimension = player.level().dimension().location().toString();
+        return lastChange(player.getUUID(), regionsAround(dimension, player.blockPosition())) > stamp;
+    }
+
+    /**
+     * The player's inventory, their companion's inventory, or something a tool of theirs
+     * touched changed — their cached results are stale.
+     */
+    public static void playerChanged(UUID player) {
+        if (player == null) return;
+        playerChanges.put(player, clock.incrementAndGet());
+    }
+
+    /** A block or container at this position changed — results around it are stale. */
+    public static void blockChanged(LevelAccessor level, BlockPos pos) {
+        areaChanged(level, pos, 0);
+    }
+
+    /** Something within {@code radius} blocks (horizontally) of this position changed. */
+    public static void areaChanged(LevelAccessor level, BlockPos pos, int radius) {
+        if (!(level instanceof Level world) || world.isClientSide()) return;
+        if (regionChanges.size() >= MAX_REGIONS) {
+            forgottenChange = clock.get();
+            regionChanges.clear();
+        }
+        String dimension = world.dimension().location().toString();
+        long stamp = clock.incrementAndGet();
+        for (int rx = (pos.getX() - radius) >> REGION_SHIFT; rx <= (pos.getX() + radius) >> REGION_SHIFT; rx++) {
+            for (int rz = (pos.getZ() - radius) >> REGION_SHIFT; rz <= (pos.getZ() + radius) >> REGION_SHIFT; rz++) {
+                regionChanges.put(regionKey(dimension, rx, rz), stamp);
+            }
+        }
+    }
+
+    private static long lastChange(UUID player, String[] regions) {
+        long last = Math.max(forgottenChange, playerChanges.getOrDefault(player, 0L));
+        for (String region : regions) {
+            last = Math.max(last, regionChanges.getOrDefault(region, 0L));
+        }
+        return last;
+    }
+
+    private static String[] regionsAround(String dimension, BlockPos pos) {
+        int rx = pos.getX() >> REGION_SHIFT;
+        int rz = pos.getZ() >> REGION_SHIFT;
+        String[] regions = new String[9];
+        int i = 0;
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dz = -1; dz <= 1; dz++) {
+                regions[i++] = regionKey(dimension, rx + dx, rz + dz);
+            }
+        }
+        return regions;
+    }
+
+    private static String regionKey(String dimension, int rx, int rz) {
+        return dimension + "|" + rx + "," + rz;
+    }
+
+    public static String getStats() {
+        int h = hits.get();
+        int total = h + misses.get();
+        return String.format("toolCache: hits=%d, misses=%d (%.0f%% hit), invalidations=%d, regions=%d",
+                h, total - h, total == 0 ? 0.0 : 100.0 * h / total, invalidations.get(), regionChanges.size());
+    }
+
+    // ================================================================
+    // Key
+    // ================================================================
+
+    /** JSON with object keys sorted, so {"a":1,"b":2} and {"b":2,"a":1} share an entry. */
+    static String canonical(JsonElement element) {
+        if (element == null || element.isJsonNull()) return "null";
+        if (element.isJsonObject()) {
+            TreeMap<String, JsonElement> sorted = new TreeMap<>();
+            for (Map.Entry<String, JsonElement> e : element.getAsJsonObject().entrySet()) {
+                sorted.put(e.getKey(), e.getValue());
+            }
+            StringBuilder sb = new StringBuilder("{");
+            for (Map.Entry<String, JsonElement> e : sorted.entrySet()) {
+                if (sb.length() > 1) sb.append(',');
+                sb.append('"').append(e.getKey()).append("\":").append(canonical(e.getValue()));
+            }
+            return sb.append('}').toString();
+        }
+        if (element.isJsonArray()) {
+            JsonArray arr = element.getAsJsonArray();
+            StringBuilder sb = new StringBuilder("[");
+            for (int i = 0; i < arr.size(); i++) {
+                if (i > 0) sb.append(',');
+                sb.append(canonical(arr.get(i)));
+            }
+            return sb.append(']').toString();
+        }
+        // Primitives: normalize string case so "Oak_Log" and "oak_log" match
+        return element.getAsJsonPrimitive().isString()
+                ? '"' + element.getAsString().trim().toLowerCase() + '"'
+                : element.toString();
+    }
+
+    private static long getTtlMs() {
+        try {
+            return AiConfig.TOOL_CACHE_TTL_SECONDS.get() * 1000L;
+        } catch (Exception e) {
+            return 15_000;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.apocscode.mcai.ai.tool;
+
+import com.apocscode.mcai.MCAi;
+import com.apocscode.mcai.config.AiConfig;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pre-serialized tool definitions for LLM requests.
+ *
+ * Each tool's {type: "function", function: {name, description, parameters}} object is
+ * serialized to UTF-8 once and reused for every request, instead of rebuilding the
+ * schema tree and re-serializing it on every agent-loop iteration. Which tools are
+ * enabled is cached alongside. Both are dropped when the config is (re)loaded.
+ */
+public class ToolSchemaCache {
+    private static final Gson GSON = new Gson();
+
+    private static final Map<String, byte[]> fragments = new ConcurrentHashMap<>();
+    private static volatile Set<String> enabledTools;
+
+    /**
+     * A serialized tools array for one request.
+     *
+     * @param names Tool names in the order they appear in the array
+     * @param json  The complete JSON array as UTF-8 bytes, ready to splice into a request body
+     */
+    public record ToolSet(List<String> names, byte[] json) {
+        public int size() {
+            return names.size();
+        }
+
+        public boolean isEmpty() {
+            return names.isEmpty();
+        }
+
+        /** Serialized size of the tool definitions in bytes. */
+        public int bytes() {
+            return json.length;
+        }
+
+        /** Rough prompt-token cost of the tool definitions (~4 bytes per token). */
+        public int estimatedTokens() {
+            return (json.length + 3) / 4;
+        }
+    }
+
+    /**
+     * Serialized definition of one tool (cached).
+     */
+    public static byte[] fragment(AiTool tool) {
+        return fragment(tool, false);
+    }
+
+    /**
+     * Serialized definition of one tool (cached). With {@code strict}, the definition is
+     * marked strict and its parameters rewritten into the subset OpenAI-style strict mode
+     * accepts, so the provider guarantees arguments that match the schema. Tools whose
+     * schema can't be expressed that way (free-form objects) are sent non-strict.
+     */
+    public static byte[] fragment(AiTool tool, boolean strict) {
+        return fragments.computeIfAbsent(strict ? tool.name() + "#strict" : tool.name(), name -> {
+            JsonObject func = new JsonObject();
+            func.addProperty("name", tool.name());
+            func.addProperty("description", tool.description());
+            JsonObject strictParams = strict ? strictSchema(tool.parameterSchema()) : null;
+            if (strictParams != null) {
+                func.addProperty("strict", true);
+                func.add("parameters", strictParams);
+            } else {
+                func.add("parameters", tool.parameterSchema());
+            }
+
+            JsonObject wrapper = new JsonObject();
+            wrapper.addProperty("type", "function");
+            wrapper.add("function", func);
+            return GSON.toJson(wrapper).getBytes(StandardCharsets.UTF_8);
+        });
+    }
+
+    /**
+     * Whether a tool is enabled in config (cached until the next config reload).
+     */
+    public static boolean isEnabled(String toolName) {
+        Set<String> enabled = enabledTools;
+        if (enabled == null) {
+            enabled = new HashSet<>();
+            for (String name : ToolRegistry.getAll().keySet()) {
+                if (AiConfig.isToolEnabled(name)) enabled.add(name);
+            }
+            enabledTools = enabled;
+        }
+        return enabled.contains(toolName);
+    }
+
+    /**
+     * Join the cached fragments of the given tools into a JSON array.
+     * Unknown tools are skipped; callers are expected to have filtered disabled ones.
+     */
+    public static ToolSet assemble(List<String> toolNames) {
+        return assemble(toolNames, false);
+    }
+
+    /** Same as {@link #assemble(List)}, optionally with strict definitions. */
+    public static ToolSet assemble(List<String> toolNames, boolean strict) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(toolNames.size() * 512);
+        out.write('[');
+        List<String> included = new ArrayList<>(toolNames.size());
+        for (String name : toolNames) {
+            AiTool tool = ToolRegistry.get(name);
+            if (tool == null) continue;
+            if (!included.isEmpty()) out.write(',');
+            out.writeBytes(fragment(tool, strict));
+            included.add(name);
+        }
+        out.write(']');
+        return new ToolSet(List.copyOf(included), out.toByteArray());
+    }
+
+    /** Keywords strict mode rejects; they only guide the model anyway. */
+    private static final Set<String> STRICT_UNSUPPORTED = Set.of(
+            "default", "minimum", "maximum", "minLength", "maxLength", "minItems", "maxItems", "pattern", "format");
+
+    /**
+     * Rewrite a parameter schema for strict mode: every object lists all its properties
+     * as required and forbids others; properties that were optional become nullable.
+     * Returns null when the schema has a free-form object, which strict mode can't express.
+     */
+    static JsonObject strictSchema(JsonObject schema) {
+        JsonObject out = new JsonObject();
+        for (Map.Entry<String, JsonElement> e : schema.entrySet()) {
+            if (!STRICT_UNSUPPORTED.contains(e.getKey())) out.add(e.getKey(), e.getValue().deepCopy());
+        }
+        JsonElement type = schema.get("type");
+        String typeName = type != null && type.isJsonPrimitive() ? type.getAsString() : "";
+        if (typeName.equals("object")) {
+            if (!schema.has("properties")) return null;
+            Set<String> required = new HashSet<>();
+            if (schema.has("required")) schema.getAsJsonArray("required").forEach(r -> required.add(r.getAsString()));
+            JsonObject props = new JsonObject();
+            JsonArray allRequired = new JsonArray();
+            for (Map.Entry<String, JsonElement> p : schema.getAsJsonObject("properties").entrySet()) {
+                if (!p.getValue().isJsonObject()) return null;
+                JsonObject prop = strictSchema(p.getValue().getAsJsonObject());
+                if (prop == null) return null;
+                if (!required.contains(p.getKey())) makeNullable(prop);
+                props.add(p.getKey(), prop);
+                allRequired.add(p.getKey());
+            }
+            out.add("properties", props);
+            out.add("required", allRequired);
+            out.addProperty("additionalProperties", false);
+        } else if (typeName.equals("array") && schema.has("items") && schema.get("items").isJsonObject()) {
+            JsonObject items = strictSchema(schema.getAsJsonObject("items"));
+            if (items == null) return null;
+            out.add("items", items);
+        }
+        return out;
+    }
+
+    private static void makeNullable(JsonObject prop) {
+        JsonElement type = prop.get("type");
+        if (type != null && type.isJsonPrimitive()) {
+            JsonArray types = new JsonArray();
+            types.add(type.getAsString());
+            types.add("null");
+            prop.add("type", types);
+        }
+        if (prop.has("enum")) prop.getAsJsonArray("enum").add(JsonNull.INSTANCE);
+    }
+
+    /**
+     * Drop everything derived from config or tool definitions.
+     */
+    public static void invalidate() {
+        fragments.clear();
+        enabledTools = null;
+        MCAi.LOGGER.debug("Tool schema cache invalidated");
+    }
+
+    /**
+     * Per-tool weight of every registered tool, heaviest first — for diagnostics.
+     */
+    public static String describeWeights() {
+        StringBuilder sb = new StringBuilder();
+        ToolRegistry.getAll().values().stream()
+                .sorted((a, b) -> Integer.compare(fragment(b).length, fragment(a).length))
+                .forEach(tool -> {
+                    int bytes = fragment(tool).length;
+                    sb.append(String.format("%s=%dB/~%dtok ", tool.name(), bytes, (bytes + 3) / 4));
+                });
+        return sb.toString().trim();
+    }
+}
@@ -0,0 +1,236 @@
+package com.apocscode.mcai.ai.tool;
+
+import com.apocscode.mcai.MCAi;
+import com.apocscode.mcai.ai.AiExecutor;
+import com.apocscode.mcai.config.AiConfig;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import net.neoforged.fml.loading.FMLPaths;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * On-disk cache for web_search results and fetch_webpage text, kept in
+ * config/mcai_cache/web.json across restarts.
+ *
+ * Entries are keyed by the normalized query or URL and are fresh for webCacheTtlHours.
+ * The total size is bounded by webCacheMaxKb, evicting the least recently used first.
+ * When the network is down, {@link #getStale} still serves expired entries, so the tools
+ * keep answering questions asked before.
+ */
+public class WebCache {
+
+    private static final Gson GSON = new Gson();
+    private static final Path CACHE_FILE = FMLPaths.CONFIGDIR.get().resolve("mcai_cache").resolve("web.json");
+
+    private record Entry(String content, long savedAtMs) {}
+
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private static long totalBytes = 0;
+    private static volatile boolean loaded = false;
+    private static final AtomicBoolean saveQueued = new AtomicBoolean(false);
+
+    private static final AtomicInteger lookups = new AtomicInteger(0);
+    private static final AtomicInteger hits = new AtomicInteger(0);
+    private static final AtomicInteger offlineHits = new AtomicInteger(0);
+    private static final AtomicInteger evictions = new AtomicInteger(0);
+
+    /** Cache key for a search: case and spacing don't make a different query. */
+    static String searchKey(String query) {
+        return "search:" + query.trim().toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+    }
+
+    /** Cache key for a page: scheme and host lowercased, fragment and trailing slash dropped. */
+    static String pageKey(String url) {
+        try {
+            URI uri = URI.create(url.trim());
+            String path = uri.getRawPath() == null ? "" : uri.getRawPath();
+            if (path.endsWith("/")) path = path.substring(0, path.length() - 1);
+            return "page:" + uri.getScheme().toLowerCase(Locale.ROOT) + "://"
+                    + uri.getRawAuthority().toLowerCase(Locale.ROOT) + path
+                    + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery());
+        } catch (Exception e) {
+            return "page:" + url.trim();
+        }
+    }
+
+    /** Cached content younger than the TTL, or null. */
+    @Nullable
+    static String get(String key) {
+        lookups.incrementAndGet();
+        long ttlMs = getTtlHours() * 3_600_000L;
+        if (ttlMs <= 0) return null;
+        ensureLoaded();
+        synchronized (entries) {
+            Entry e = entries.get(key);
+            if (e == null || System.currentTimeMillis() - e.savedAtMs() > ttlMs) return null;
+            hits.incrementAndGet();
+            return e.content();
+        }
+    }
+
+    /**
+     * Cached content of any age, for when the network request failed.
+     * @return the content with a note saying how old it is, or null
+     */
+    @Nullable
+    static String getStale(String key) {
+        ensureLoaded();
+        Entry e;
+        synchronized (entries) {
+            e = entries.get(key);
+        }
+        if (e == null) return null;
+        offlineHits.incrementAndGet();
+        long hours = (System.currentTimeMillis() - e.savedAtMs()) / 3_600_000L;
+        return e.content() + "\n\n[Offline — cached copy from " + (hours < 1 ? "less than an hour" : hours + " hour(s)") + " ago]";
+    }
+
+    static void put(String key, String content) {
+        if (getTtlHours() <= 0) return;
+        ensureLoaded();
+        synchronized (entries) {
+            Entry old = entries.put(key, new Entry(content, System.currentTimeMillis()));
+            if (old != null) totalBytes -= utf8Length(old.content());
+            totalBytes += utf8Length(content);
+            trim();
+        }
+        scheduleSave();
+    }
+
+    /** Evict least recently used entries until under the size limit. Caller holds the lock. */
+    private static void trim() {
+        long maxBytes = getMaxKb() * 1024L;
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            totalBytes -= utf8Length(it.next().getValue().content());
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    // ================================================================
+    // Persistence
+    // ================================================================
+
+    private static void ensureLoaded() {
+        if (loaded) return;
+        synchronized (entries) {
+            if (loaded) return;
+            loaded = true;
+            if (!Files.exists(CACHE_FILE)) return;
+            try (Reader reader = Files.newBufferedReader(CACHE_FILE, StandardCharsets.UTF_8)) {
+                // Stored least recently used first, so re-inserting keeps the LRU order
+                for (JsonElement element : JsonParser.parseReader(reader).getAsJsonArray()) {
+                    JsonObject o = element.getAsJsonObject();
+                    String content = o.get("content").getAsString();
+                    entries.put(o.get("key").getAsString(), new Entry(content, o.get("savedAt").getAsLong()));
+                    totalBytes += utf8Length(content);
+                }
+                trim();
+                MCAi.LOGGER.info("Loaded {} cached web result(s)", entries.size());
+            } catch (Exception e) {
+                MCAi.LOGGER.warn("Ignoring unreadable web cache: {}", e.getMessage());
+            }
+        }
+    }
+
+    /** Save in the background; changes made while a save is queued go out with it. */
+    private static void scheduleSave() {
+        if (!AiExecutor.isRunning() || !saveQueued.compareAndSet(false, true)) return;
+        CompletableFuture.runAsync(WebCache::save, AiExecutor.executor());
+    }
+
+    /** Write pending changes now (server stopping). */
+    public static void flush() {
+        if (loaded) save();
+    }
+
+    private static void save() {
+        saveQueued.set(false);
+        JsonArray out = new JsonArray();
+        synchronized (entries) {
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                JsonObject o = new JsonObject();
+                o.addProperty("key", e.getKey());
+                o.addProperty("savedAt", e.getValue().savedAtMs());
+                o.addProperty("content", e.getValue().content());
+                out.add(o);
+            }
+        }
+        try {
+            Files.createDirectories(CACHE_FILE.getParent());
+            Path tmp = CACHE_FILE.resolveSibling(CACHE_FILE.getFileName() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                GSON.toJson(out, writer);
+            }
+            Files.move(tmp, CACHE_FILE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            MCAi.LOGGER.warn("Could not save web cache: {}", e.getMessage());
+        }
+    }
+
+    /** Size of the text as UTF-8, without encoding it. */
+    private static long utf8Length(String s) {
+        long bytes = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) bytes += 1;
+            else if (c < 0x800) bytes += 2;
+            else if (Character.isHighSurrogate(c)) {
+                bytes += 4;
+                i++;
+            } else bytes += 3;
+        }
+        return bytes;
+    }
+
+    public static String getStats() {
+        int total = lookups.get();
+        int size;
+        long bytes;
+        synchronized (entries) {
+            size = entries.size();
+            bytes = totalBytes;
+        }
+        return String.format("webCache: hitRate=%.0f%% (%d/%d), offlineHits=%d, entries=%d (%dKB), evictions=%d",
+                total > 0 ? hits.get() * 100.0 / total : 0.0, hits.get(), total, offlineHits.get(),
+                size, bytes / 1024, evictions.get());
+    }
+
+    // ---- Config (may not be loaded yet) ----
+
+    private static int getTtlHours() {
+        try {
+            return AiConfig.WEB_CACHE_TTL_HOURS.get();
+        } catch (Exception e) {
+            return 24;
+        }
+    }
+
+    private static int getMaxKb() {
+        try {
+            return AiConfig.WEB_CACHE_MAX_KB.get();
+        } catch (Exception e) {
+            return 4096;
+        }
+    }
+}
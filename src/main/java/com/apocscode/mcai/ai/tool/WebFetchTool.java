@@ -1,22 +1,36 @@
 package com.apocscode.mcai.ai.tool;
 
 import com.apocscode.mcai.MCAi;
+import com.apocscode.mcai.ai.AiHttpClient;
+import com.apocscode.mcai.config.AiConfig;
 import com.google.gson.JsonObject;
 
 import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URI;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.util.Set;
 
 /**
  * Fetches and extracts readable text from a webpage.
  * Strips HTML tags, scripts, styles, and returns clean text.
  * Useful for reading wiki pages, guides, documentation.
+ *
+ * The page is tokenized as it downloads and the download stops once webPageMaxChars of
+ * text have been extracted. Results go through {@link WebCache}, which also answers
+ * when the site can't be reached.
  */
 public class WebFetchTool implements AiTool {
     private static final int TIMEOUT_MS = 15000;
-    private static final int MAX_CONTENT_LENGTH = 8000; // Chars to return to AI
+    /** Tags whose content is never readable text */
+    private static final Set<String> SKIPPED_TAGS = Set.of("nav", "header", "footer", "noscript");
+    /** Skipped too, but their content isn't markup ("a<b" in a script is not a tag) */
+    private static final Set<String> RAW_TEXT_TAGS = Set.of("script", "style");
 
     @Override
     public String name() {
@@ -49,6 +63,11 @@ public class WebFetchTool implements AiTool {
         return schema;
     }
 
+    @Override
+    public ToolEffect effect() {
+        return ToolEffect.READ_ONLY;
+    }
+
     @Override
     public String execute(JsonObject args, ToolContext context) {
         String url = args.has("url") ? args.get("url").getAsString() : "";
@@ -57,92 +76,257 @@ public class WebFetchTool implements AiTool {
             url = "https://" + url;
         }
 
+        String cacheKey = WebCache.pageKey(url);
+        String cached = WebCache.get(cacheKey);
+        if (cached != null) {
+            return "Content from " + url + ":\n\n" + cached;
+        }
+
         try {
-            HttpURLConnection conn = (HttpURLConnection) URI.create(url).toURL().openConnection();
-            conn.setRequestMethod("GET");
-            conn.setRequestProperty("User-Agent", "Mozilla/5.0 (compatible; MCAi/1.0)");
-            conn.setRequestProperty("Accept", "text/html,application/xhtml+xml");
-            conn.setConnectTimeout(TIMEOUT_MS);
-            conn.setReadTimeout(TIMEOUT_MS);
-            conn.setInstanceFollowRedirects(true);
-
-            int code = conn.getResponseCode();
+            HttpRequest request = AiHttpClient.request(url, TIMEOUT_MS)
+                    .header("User-Agent", "Mozilla/5.0 (compatible; MCAi/1.0)")
+                    .header("Accept", "text/html,application/xhtml+xml")
+                    .GET()
+                    .build();
+            HttpResponse<InputStream> response = AiHttpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+
+            int code = response.statusCode();
             if (code != 200) {
+                response.body().close();
+                String stale = code >= 500 ? WebCache.getStale(cacheKey) : null;
+                if (stale != null) return "Content from " + url + ":\n\n" + stale;
                 return "Failed to fetch URL (HTTP " + code + "): " + url;
             }
 
-            StringBuilder html = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
-                char[] buffer = new char[4096];
-                int read;
-                // Limit total read to prevent huge pages from consuming memory
-                int totalRead = 0;
-                while ((read = reader.read(buffer)) != -1 && totalRead < 200_000) {
-                    html.append(buffer, 0, read);
-                    totalRead += read;
-                }
-            }
-            conn.disconnect();
-
-            String text = extractReadableText(html.toString());
-
-            // Truncate if too long
-            if (text.length() > MAX_CONTENT_LENGTH) {
-                text = text.substring(0, MAX_CONTENT_LENGTH) + "\n\n[Content truncated — " +
-                        text.length() + " chars total]";
+            // Closing the stream once the budget is reached abandons the rest of the download.
+            // Reads stop after TIMEOUT_MS without data (AiHttpClient) or TIMEOUT_MS in total.
+            String text;
+            InputStream body = AiHttpClient.limitBody(response.body(), TIMEOUT_MS);
+            try (Reader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+                text = extractReadableText(reader, getMaxChars());
             }
+            WebCache.put(cacheKey, text);
 
             return "Content from " + url + ":\n\n" + text;
 
         } catch (Exception e) {
+            String stale = WebCache.getStale(cacheKey);
+            if (stale != null) {
+                MCAi.LOGGER.warn("Webpage fetch failed for '{}' ({}), using cached copy", url, e.getMessage());
+                return "Content from " + url + ":\n\n" + stale;
+            }
             MCAi.LOGGER.error("Webpage fetch failed for '{}': {}", url, e.getMessage());
             return "Failed to fetch webpage: " + e.getMessage();
         }
     }
 
     /**
-     * Extract readable text from HTML by removing scripts, styles, nav, and tags.
+     * Extract readable text from streamed HTML, skipping scripts, styles, nav and
+     * comments. Reads only until maxChars of text are produced, then stops.
      */
-    private String extractReadableText(String html) {
-        // Remove script and style blocks entirely
-        String text = html.replaceAll("(?is)<script[^>]*>.*?</script>", "");
-        text = text.replaceAll("(?is)<style[^>]*>.*?</style>", "");
-        text = text.replaceAll("(?is)<nav[^>]*>.*?</nav>", "");
-        text = text.replaceAll("(?is)<header[^>]*>.*?</header>", "");
-        text = text.replaceAll("(?is)<footer[^>]*>.*?</footer>", "");
-        text = text.replaceAll("(?is)<noscript[^>]*>.*?</noscript>", "");
-        text = text.replaceAll("(?is)<!--.*?-->", "");
-
-        // Convert some tags to readable formatting
-        text = text.replaceAll("(?i)<br\\s*/?>", "\n");
-        text = text.replaceAll("(?i)</p>", "\n\n");
-        text = text.replaceAll("(?i)</div>", "\n");
-        text = text.replaceAll("(?i)</h[1-6]>", "\n\n");
-        text = text.replaceAll("(?i)<li[^>]*>", "- ");
-        text = text.replaceAll("(?i)</li>", "\n");
-        text = text.replaceAll("(?i)</tr>", "\n");
-        text = text.replaceAll("(?i)</td>", " | ");
-
-        // Strip all remaining HTML tags
-        text = text.replaceAll("<[^>]+>", "");
-
-        // Decode HTML entities
-        text = text.replaceAll("&amp;", "&");
-        text = text.replaceAll("&lt;", "<");
-        text = text.replaceAll("&gt;", ">");
-        text = text.replaceAll("&quot;", "\"");
-        text = text.replaceAll("&#x27;", "'");
-        text = text.replaceAll("&nbsp;", " ");
-        text = text.replaceAll("&#\\d+;", "");
-        text = text.replaceAll("&\\w+;", "");
-
-        // Clean up whitespace
-        text = text.replaceAll("[ \\t]+", " ");
-        text = text.replaceAll("\n[ \\t]+", "\n");
-        text = text.replaceAll("\n{3,}", "\n\n");
-        text = text.trim();
-
+    static String extractReadableText(Reader html, int maxChars) throws IOException {
+        PushbackReader in = new PushbackReader(html, 16);
+        TextOut out = new TextOut(maxChars);
+        String skipping = null; // Tag whose content is being skipped, until its closing tag
+        int c;
+        while (!out.isFull() && (c = in.read()) != -1) {
+            if (c != '<') {
+                if (skipping == null) {
+                    if (c == '&') out.literal(readEntity(in));
+                    else out.text((char) c);
+                }
+                continue;
+            }
+            String tag = readTag(in);
+            if (skipping != null) {
+                if (tag.equals("/" + skipping)) skipping = null;
+                continue;
+            }
+            if (RAW_TEXT_TAGS.contains(tag)) {
+                skipRawText(in, tag);
+                continue;
+            }
+            if (SKIPPED_TAGS.contains(tag)) {
+                skipping = tag;
+                continue;
+            }
+            // Convert some tags to readable formatting
+            switch (tag) {
+                case "br", "/div", "/li", "/tr" -> out.newlines(1);
+                case "/p", "/h1", "/h2", "/h3", "/h4", "/h5", "/h6" -> out.newlines(2);
+                case "li" -> out.literal("- ");
+                case "/td" -> out.literal(" | ");
+                default -> { }
+            }
+        }
+        String text = out.toString();
+        if (out.isFull()) {
+            text = text.substring(0, Math.min(text.length(), maxChars)) + "\n\n[Content truncated at " + maxChars + " chars]";
+        }
         return text;
     }
+
+    /**
+     * Consume a tag after its '<' and return its lowercased name ("/p" for a closing tag).
+     * Comments are consumed whole and return "!--".
+     */
+    private static String readTag(PushbackReader in) throws IOException {
+        StringBuilder name = new StringBuilder();
+        boolean inName = true;
+        char quote = 0;
+        int previous = 0; // Last non-space character, to recognize attr="value"
+        int c;
+        while ((c = in.read()) != -1) {
+            if (quote != 0) {
+                if (c == quote) quote = 0;
+                continue;
+            }
+            if (c == '>') break;
+            if (inName) {
+                if (Character.isLetterOrDigit(c) || (name.isEmpty() && (c == '/' || c == '!')) || c == '-') {
+                    name.append((char) Character.toLowerCase(c));
+                    if (name.toString().equals("!--")) {
+                        skipComment(in);
+                        return "!--";
+                    }
+                    continue;
+                }
+                inName = false;
+            }
+            // Only a quoted attribute value can hide a '>'
+            if ((c == '"' || c == '\'') && previous == '=') quote = (char) c;
+            if (!Character.isWhitespace(c)) previous = c;
+        }
+        return name.toString();
+    }
+
+    /** Skip a script or style body up to and including its closing tag. */
+    private static void skipRawText(PushbackReader in, String tag) throws IOException {
+        String closing = "</" + tag;
+        int matched = 0;
+        int c;
+        while ((c = in.read()) != -1) {
+            if (matched == closing.length()) {
+                if (c == '>') return;
+                continue; // Rest of the closing tag
+            }
+            matched = Character.toLowerCase(c) == closing.charAt(matched) ? matched + 1
+                    : c == '<' ? 1 : 0;
+        }
+    }
+
+    private static void skipComment(PushbackReader in) throws IOException {
+        int dashes = 0;
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '>' && dashes >= 2) return;
+            dashes = c == '-' ? dashes + 1 : 0;
+        }
+    }
+
+    /** Decode an entity after its '&'; text that isn't one is given back unchanged. */
+    private static String readEntity(PushbackReader in) throws IOException {
+        StringBuilder name = new StringBuilder();
+        int c;
+        while (name.length() < 10 && (c = in.read()) != -1) {
+            if (c == ';') return decodeEntity(name.toString());
+            if (!Character.isLetterOrDigit(c) && c != '#') {
+                in.unread(c);
+                break;
+            }
+            name.append((char) c);
+        }
+        return "&" + name;
+    }
+
+    /**
+     * Text of an entity name ("amp", "#8217", "#x2019"). Numeric references decode to
+     * their character; unknown named entities are dropped.
+     */
+    static String decodeEntity(String entity) {
+        switch (entity) {
+            case "amp": return "&";
+            case "lt": return "<";
+            case "gt": return ">";
+            case "quot": return "\"";
+            case "apos": return "'";
+            case "nbsp": return " ";
+            default: break;
+        }
+        if (entity.length() < 2 || entity.charAt(0) != '#') return "";
+        try {
+            boolean hex = entity.charAt(1) == 'x' || entity.charAt(1) == 'X';
+            int codePoint = Integer.parseInt(entity.substring(hex ? 2 : 1), hex ? 16 : 10);
+            if (codePoint == 0xA0) return " ";
+            return Character.isValidCodePoint(codePoint) && codePoint != 0 ? Character.toString(codePoint) : "";
+        } catch (NumberFormatException e) {
+            return "";
+        }
+    }
+
+    /** Text output with whitespace collapsed: runs of spaces become one, at most one blank line. */
+    private static final class TextOut {
+        private final StringBuilder sb = new StringBuilder();
+        private final int maxChars;
+        private int pendingNewlines = 0;
+        private boolean pendingSpace = false;
+
+        TextOut(int maxChars) {
+            this.maxChars = maxChars;
+        }
+
+        boolean isFull() {
+            return sb.length() > maxChars;
+        }
+
+        void text(char c) {
+            if (c == '\n') {
+                newlines(1);
+            } else if (Character.isWhitespace(c)) {
+                pendingSpace = true;
+            } else {
+                flush();
+                sb.append(c);
+            }
+        }
+
+        void literal(String s) {
+            if (s.isEmpty()) return;
+            flush();
+            sb.append(s);
+        }
+
+        void newlines(int count) {
+            pendingNewlines = Math.min(2, pendingNewlines + count);
+        }
+
+        private void flush() {
+            if (!sb.isEmpty()) {
+                if (pendingNewlines > 0) {
+                    // No trailing spaces before a line break
+                    while (!sb.isEmpty() && sb.charAt(sb.length() - 1) == ' ') sb.setLength(sb.length() - 1);
+                    sb.append("\n".repeat(pendingNewlines));
+                } else if (pendingSpace && sb.charAt(sb.length() - 1) != ' ' && sb.charAt(sb.length() - 1) != '\n') {
+                    sb.append(' ');
+                }
+            }
+            pendingNewlines = 0;
+            pendingSpace = false;
+        }
+
+        @Override
+        public String toString() {
+            return sb.toString().trim();
+        }
+    }
+
+    // ---- Config (may not be loaded yet) ----
+
+    private static int getMaxChars() {
+        try {
+            return AiConfig.WEB_PAGE_MAX_CHARS.get();
+        } catch (Exception e) {
+            return 8000;
+        }
+    }
 }
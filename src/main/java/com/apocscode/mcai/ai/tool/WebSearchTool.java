@@ -1,13 +1,16 @@
 package com.apocscode.mcai.ai.tool;
 
 import com.apocscode.mcai.MCAi;
+import com.apocscode.mcai.ai.AiHttpClient;
 import com.google.gson.JsonObject;
 
 import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URI;
 import java.net.URLEncoder;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
@@ -17,11 +20,18 @@ import java.util.regex.Pattern;
 /**
  * Web search tool using DuckDuckGo HTML.
  * No API key required — scrapes the lite/html version.
+ *
+ * Only the page up to the last result used is read. Formatted results are kept in
+ * {@link WebCache}, so a repeated question is answered without a request, and from
+ * an older copy when DuckDuckGo can't be reached.
  */
 public class WebSearchTool implements AiTool {
     private static final String SEARCH_URL = "https://html.duckduckgo.com/html/?q=";
     private static final int MAX_RESULTS = 5;
     private static final int TIMEOUT_MS = 10000;
+    private static final String RESULT_BLOCK = "class=\"result results_links";
+    /** Safety cap on how much of the results page is read */
+    private static final int MAX_HTML_CHARS = 500_000;
 
     // Pattern to extract search result titles and snippets from DDG HTML
     private static final Pattern RESULT_PATTERN = Pattern.compile(
@@ -33,6 +43,8 @@ public class WebSearchTool implements AiTool {
             "<a[^>]*class=\"result__snippet\"[^>]*>(.*?)</a>", Pattern.DOTALL);
     private static final Pattern TITLE_PATTERN = Pattern.compile(
             "<a[^>]*class=\"result__a\"[^>]*>(.*?)</a>", Pattern.DOTALL);
+    private static final Pattern ENTITY_PATTERN = Pattern.compile(
+            "&(amp|lt|gt|quot|apos|nbsp|#\\d{1,7}|#[xX][0-9a-fA-F]{1,6});");
 
     @Override
     public String name() {
@@ -67,49 +79,77 @@ public class WebSearchTool implements AiTool {
         return schema;
     }
 
+    @Override
+    public ToolEffect effect() {
+        return ToolEffect.READ_ONLY;
+    }
+
     @Override
     public String execute(JsonObject args, ToolContext context) {
         String query = args.has("query") ? args.get("query").getAsString() : "";
         if (query.isBlank()) return "Error: empty search query";
 
+        String cacheKey = WebCache.searchKey(query);
+        String cached = WebCache.get(cacheKey);
+        if (cached != null) return cached;
+
         try {
             String encoded = URLEncoder.encode(query, StandardCharsets.UTF_8);
             String url = SEARCH_URL + encoded;
 
-            HttpURLConnection conn = (HttpURLConnection) URI.create(url).toURL().openConnection();
-            conn.setRequestMethod("GET");
-            conn.setRequestProperty("User-Agent", "Mozilla/5.0 (compatible; MCAi/1.0)");
-            conn.setConnectTimeout(TIMEOUT_MS);
-            conn.setReadTimeout(TIMEOUT_MS);
+            HttpRequest request = AiHttpClient.request(url, TIMEOUT_MS)
+                    .header("User-Agent", "Mozilla/5.0 (compatible; MCAi/1.0)")
+                    .GET()
+                    .build();
+            HttpResponse<InputStream> response = AiHttpClient.send(request,
+                    HttpResponse.BodyHandlers.ofInputStream());
 
-            int code = conn.getResponseCode();
+            int code = response.statusCode();
             if (code != 200) {
-                return "Search failed with HTTP " + code;
+                response.body().close();
+                String stale = WebCache.getStale(cacheKey);
+                return stale != null ? stale : "Search failed with HTTP " + code;
             }
 
-            StringBuilder html = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    html.append(line).append("\n");
-                }
-            }
-            conn.disconnect();
+            String html = readResultBlocks(AiHttpClient.limitBody(response.body(), TIMEOUT_MS));
 
-            return parseResults(html.toString(), query);
+            String results = parseResults(html, query);
+            if (results.startsWith("Search results for:")) WebCache.put(cacheKey, results);
+            return results;
 
         } catch (Exception e) {
+            String stale = WebCache.getStale(cacheKey);
+            if (stale != null) {
+                MCAi.LOGGER.warn("Web search failed for '{}' ({}), using cached results", query, e.getMessage());
+                return stale;
+            }
             MCAi.LOGGER.error("Web search failed for '{}': {}", query, e.getMessage());
             return "Search failed: " + e.getMessage();
         }
     }
 
+    /**
+     * Read the results page only until the block after the last result we use starts;
+     * everything below it is more results, ads and the footer.
+     */
+    private String readResultBlocks(InputStream body) throws IOException {
+        StringBuilder html = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            int blocks = 0;
+            String line;
+            while ((line = reader.readLine()) != null && html.length() < MAX_HTML_CHARS) {
+                if (line.contains(RESULT_BLOCK) && ++blocks > MAX_RESULTS) break;
+                html.append(line).append('\n');
+            }
+        }
+        return html.toString();
+    }
+
     private String parseResults(String html, String query) {
         List<SearchResult> results = new ArrayList<>();
 
         // Extract individual result blocks
-        String[] blocks = html.split("class=\"result results_links");
+        String[] blocks = html.split(RESULT_BLOCK);
         for (int i = 1; i < blocks.length && results.size() < MAX_RESULTS; i++) {
             String block = blocks[i];
 
@@ -150,14 +190,9 @@ public class WebSearchTool implements AiTool {
     }
 
     private String stripHtml(String html) {
-        return html.replaceAll("<[^>]+>", "")
-                .replaceAll("&amp;", "&")
-                .replaceAll("&lt;", "<")
-                .replaceAll("&gt;", ">")
-                .replaceAll("&quot;", "\"")
-                .replaceAll("&#x27;", "'")
-                .replaceAll("&nbsp;", " ")
-                .replaceAll("\\s+", " ");
+        String text = html.replaceAll("<[^>]+>", "");
+        text = ENTITY_PATTERN.matcher(text).replaceAll(m -> Matcher.quoteReplacement(WebFetchTool.decodeEntity(m.group(1))));
+        return text.replaceAll("\\s+", " ");
     }
 
     private String cleanUrl(String url) {
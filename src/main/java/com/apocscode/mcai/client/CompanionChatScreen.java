@@ -3,6 +3,7 @@ package com.apocscode.mcai.client;
 import com.apocscode.mcai.MCAi;
 import com.apocscode.mcai.ai.ConversationManager;
 import com.apocscode.mcai.network.ChatMessagePacket;
+import com.apocscode.mcai.network.ChatOpenedPacket;
 import com.apocscode.mcai.network.StopInteractingPacket;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.GuiGraphics;
@@ -40,8 +41,10 @@ public class CompanionChatScreen extends Screen {
     private Button micButton;
     private int scrollOffset = 0;
     private boolean isRecordingVoice = false;
+    private boolean voiceKeyHeld = false; // push-to-talk: the key release ends the recording, not a pause
     private long recordingStartTime = 0;
     private String companionName = "MCAi";
+    private boolean openSent = false;
 
     // URL detection for clickable links in chat
     private static final Pattern URL_DETECT_PATTERN = Pattern.compile("(https?://[^\\s]+)");
@@ -64,6 +67,12 @@ public class CompanionChatScreen extends Screen {
             }
         }
 
+        // Let the server start preparing the request while the player types (init also runs on resize)
+        if (!openSent) {
+            openSent = true;
+            PacketDistributor.sendToServer(new ChatOpenedPacket(entityId));
+        }
+
         // Initialize Whisper on first open
         if (!WhisperService.isAvailable()) {
             WhisperService.init();
@@ -137,8 +146,10 @@ public class CompanionChatScreen extends Screen {
                 }
             });
         } else {
-            // Start recording
-            WhisperService.startRecording();
+            // Start recording; from the mic button, stop by itself when the player stops talking
+            WhisperService.startRecording(() -> Minecraft.getInstance().execute(() -> {
+                if (isRecordingVoice && !voiceKeyHeld) toggleVoiceRecording();
+            }));
             isRecordingVoice = true;
             recordingStartTime = System.currentTimeMillis();
             if (micButton != null) micButton.setMessage(Component.literal("\u23F9")); // Stop icon
@@ -305,6 +316,7 @@ public class CompanionChatScreen extends Screen {
         // V key = push-to-talk (start recording)
         if (keyCode == 86 && !inputBox.isFocused()) { // 86 = V
             if (!isRecordingVoice && WhisperService.isAvailable()) {
+                voiceKeyHeld = true;
                 toggleVoiceRecording();
                 return true;
             }
@@ -332,6 +344,7 @@ public class CompanionChatScreen extends Screen {
     public boolean keyReleased(int keyCode, int scanCode, int modifiers) {
         // V key released = stop recording and transcribe
         if (keyCode == 86 && isRecordingVoice) { // 86 = V
+            voiceKeyHeld = false;
             toggleVoiceRecording(); // Stops and transcribes
             return true;
         }
@@ -1,18 +1,20 @@
 package com.apocscode.mcai.client;
 
 import com.apocscode.mcai.MCAi;
+import com.apocscode.mcai.ai.AiHttpClient;
 import com.apocscode.mcai.config.AiConfig;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
 import javax.sound.sampled.*;
 import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -22,6 +24,16 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * HTTP endpoint (faster-whisper-server, whisper.cpp, etc.), and returns
  * the transcribed text.
  *
+ * Audio is streamed rather than buffered whole: 20ms frames go into a fixed ring
+ * buffer, and a voice-activity detector (frame energy against an adaptive noise
+ * floor, plus zero-crossing rate for quiet consonants) cuts the recording into
+ * segments at pauses. Each segment is uploaded while the player keeps talking, with
+ * the text so far as the prompt, so when the player stops only the last segment is
+ * left to transcribe. Silence between segments is never uploaded, and memory stays
+ * fixed however long the key is held. If the detector found no segment at all (a
+ * quiet mic, a noisy room), the captured audio is uploaded whole, as before VAD. With
+ * the mic button, a long enough pause ends the recording on its own.
+ *
  * Default endpoint: http://localhost:8178/v1/audio/transcriptions
  * (OpenAI-compatible format used by faster-whisper-server)
  *
@@ -54,14 +66,42 @@ public class WhisperService {
             false      // Little-endian
     );
 
+    private static final int BYTES_PER_SECOND = 32000;          // 16000 samples * 2 bytes
+    private static final int FRAME_BYTES = BYTES_PER_SECOND / 50; // 20ms
+    private static final int RING_BYTES = 30 * BYTES_PER_SECOND;
+    /** A segment longer than this is cut even without a pause (well under the ring size) */
+    private static final int MAX_SEGMENT_BYTES = 15 * BYTES_PER_SECOND;
+    /** Audio kept before the first speech frame and after the last, so word edges aren't clipped */
+    private static final int PRE_ROLL_BYTES = BYTES_PER_SECOND / 5;
+    private static final int TAIL_BYTES = BYTES_PER_SECOND / 10;
+    /** Segments with less speech than this (0.1s) are dropped */
+    private static final int MIN_SPEECH_BYTES = 3200;
+    /** VAD: a frame this quiet is never speech, whatever the noise floor */
+    private static final double MIN_SPEECH_RMS = 300;
+    /**
+     * VAD: the noise floor starts at the quietest of the first frames (0.2s), capped, since
+     * with push-to-talk the player is often talking from the first frame
+     */
+    private static final int CALIBRATION_FRAMES = 10;
+    private static final double MAX_INITIAL_FLOOR = 600;
+    /** VAD: the floor may rise at most this much per frame (~1.6x per second) */
+    private static final double MAX_FLOOR_RISE = 1.01;
+    private static final double ZCR_FRICATIVE = 0.25;
+
+    // Capture loop
     private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
         Thread t = new Thread(r, "MCAi-Whisper");
         t.setDaemon(true);
         return t;
     });
+    // Segment uploads, in order, so capture never waits on the network
+    private static final ExecutorService uploadExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "MCAi-WhisperUpload");
+        t.setDaemon(true);
+        return t;
+    });
 
-    private static TargetDataLine micLine;
-    private static ByteArrayOutputStream audioBuffer;
+    private static volatile Session session;
     private static final AtomicBoolean isRecording = new AtomicBoolean(false);
     private static volatile boolean available = false;
 
@@ -103,27 +143,37 @@ public class WhisperService {
      * Call stopRecordingAndTranscribe() to stop and get text.
      */
     public static void startRecording() {
+        startRecording(null);
+    }
+
+    /**
+     * Start recording; onSpeechEnd runs (on the capture thread) once the player has spoken
+     * and then paused for endOfSpeechMs. The caller decides whether that stops the recording.
+     */
+    public static void startRecording(Runnable onSpeechEnd) {
         if (!available || isRecording.get()) return;
 
+        // The previous capture loop closes its line within a frame; let it finish first
+        Session previous = session;
+        if (previous != null) {
+            try {
+                previous.captured.get(200, TimeUnit.MILLISECONDS);
+            } catch (Exception ignored) {
+            }
+        }
+
         try {
             DataLine.Info info = new DataLine.Info(TargetDataLine.class, AUDIO_FORMAT);
-            micLine = (TargetDataLine) AudioSystem.getLine(info);
+            TargetDataLine micLine = (TargetDataLine) AudioSystem.getLine(info);
             micLine.open(AUDIO_FORMAT);
             micLine.start();
 
-            audioBuffer = new ByteArrayOutputStream();
+            Session s = new Session(micLine, onSpeechEnd);
+            session = s;
             isRecording.set(true);
 
             // Background thread reads mic data continuously
-            executor.submit(() -> {
-                byte[] buffer = new byte[4096];
-                while (isRecording.get() && micLine != null && micLine.isOpen()) {
-                    int bytesRead = micLine.read(buffer, 0, buffer.length);
-                    if (bytesRead > 0) {
-                        audioBuffer.write(buffer, 0, bytesRead);
-                    }
-                }
-            });
+            executor.submit(() -> captureLoop(s));
 
             MCAi.LOGGER.info("Whisper: Recording started");
         } catch (LineUnavailableException e) {
@@ -134,56 +184,200 @@ public class WhisperService {
 
     /**
      * Stop recording and send audio to Whisper for transcription.
+     * Earlier segments are usually transcribed already; this waits for the last one.
      *
      * @return Future with the transcribed text, or error message
      */
     public static CompletableFuture<String> stopRecordingAndTranscribe() {
-        if (!isRecording.get()) {
+        Session s = session;
+        if (!isRecording.get() || s == null) {
             return CompletableFuture.completedFuture("");
         }
 
         isRecording.set(false);
+        long stopMs = System.currentTimeMillis();
+
+        return s.captured.thenCompose(v -> s.transcript).thenApply(text -> {
+            MCAi.LOGGER.info("Whisper: Recorded {} seconds in {} segment(s), transcript ready {}ms after stop",
+                    String.format("%.1f", s.written / (double) BYTES_PER_SECOND), s.segments,
+                    System.currentTimeMillis() - stopMs);
+            // A failed segment leaves a hole in the sentence; don't send the rest as if it were complete
+            if (s.error != null) {
+                return "[Voice error: " + s.error + "]";
+            }
+            return text;
+        });
+    }
 
-        // Stop and close mic
-        if (micLine != null) {
-            micLine.stop();
-            micLine.close();
-        }
-
-        byte[] rawAudio = audioBuffer.toByteArray();
-        audioBuffer = null;
+    /**
+     * Cancel recording without transcribing.
+     */
+    public static void cancelRecording() {
+        Session s = session;
+        if (!isRecording.get() || s == null) return;
+        s.cancelled = true;
+        isRecording.set(false);
+        MCAi.LOGGER.info("Whisper: Recording cancelled");
+    }
 
-        if (rawAudio.length < 3200) { // Less than 0.1 seconds of audio
-            MCAi.LOGGER.info("Whisper: Recording too short, ignoring");
-            return CompletableFuture.completedFuture("");
+    // ================================================================
+    // Streaming capture
+    // ================================================================
+
+    /** One recording: the ring buffer, VAD state and the chain of segment transcripts. */
+    private static final class Session {
+        final TargetDataLine line;
+        final Runnable onSpeechEnd;
+        final byte[] ring = new byte[RING_BYTES];
+        final CompletableFuture<Void> captured = new CompletableFuture<>();
+        final int pauseBytes = getSegmentPauseMs() * BYTES_PER_SECOND / 1000;
+        final int endOfSpeechBytes = getEndOfSpeechMs() * BYTES_PER_SECOND / 1000;
+        final boolean vad = isVadEnabled();
+
+        /** Bytes captured so far; offsets below are absolute and map into the ring modulo its size */
+        long written;
+        long segmentStart = -1;
+        long lastSpeechEnd;
+        long lastCutEnd;
+        int speechBytes;
+        boolean heardSpeech;
+        boolean speechEndSignalled;
+        double noiseFloor = -1;
+        int framesSeen;
+        int segments;
+        volatile CompletableFuture<String> transcript = CompletableFuture.completedFuture("");
+        volatile String error;
+        volatile boolean cancelled;
+
+        Session(TargetDataLine line, Runnable onSpeechEnd) {
+            this.line = line;
+            this.onSpeechEnd = onSpeechEnd;
         }
+    }
 
-        MCAi.LOGGER.info("Whisper: Recorded {} bytes ({} seconds), sending to Whisper...",
-                rawAudio.length, String.format("%.1f", rawAudio.length / 32000.0));
+    private static void captureLoop(Session s) {
+        byte[] frame = new byte[FRAME_BYTES];
+        try {
+            while (isRecording.get() && s.line.isOpen()) {
+                int bytesRead = s.line.read(frame, 0, frame.length);
+                if (bytesRead <= 0) break;
+                onFrame(s, frame, bytesRead);
+            }
+            if (!s.cancelled) {
+                cutSegment(s);
+                // VAD heard nothing it trusted — let Whisper judge the whole recording
+                if (s.segments == 0 && s.written >= MIN_SPEECH_BYTES) {
+                    long start = Math.max(0, s.written - RING_BYTES);
+                    upload(s, start, s.written);
+                    MCAi.LOGGER.info("Whisper: no speech segment detected, uploading the whole recording");
+                }
+            }
+        } catch (Exception e) {
+            MCAi.LOGGER.error("Whisper: capture failed: {}", e.getMessage());
+            s.error = e.getMessage();
+        } finally {
+            s.line.stop();
+            s.line.close();
+            s.captured.complete(null);
+        }
+    }
 
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                byte[] wavData = rawPcmToWav(rawAudio);
-                return callWhisperApi(wavData);
-            } catch (Exception e) {
-                MCAi.LOGGER.error("Whisper transcription failed: {}", e.getMessage());
-                return "[Voice error: " + e.getMessage() + "]";
+    private static void onFrame(Session s, byte[] frame, int length) {
+        int offset = (int) (s.written % RING_BYTES);
+        int first = Math.min(length, RING_BYTES - offset);
+        System.arraycopy(frame, 0, s.ring, offset, first);
+        System.arraycopy(frame, first, s.ring, 0, length - first);
+        long frameStart = s.written;
+        s.written += length;
+
+        // Without VAD every frame counts, so segments are only cut at the maximum length
+        if (!s.vad || isSpeech(s, frame, length)) {
+            if (s.segmentStart < 0) {
+                s.segmentStart = Math.max(frameStart - PRE_ROLL_BYTES, s.lastCutEnd);
             }
-        }, executor);
+            s.lastSpeechEnd = s.written;
+            s.speechBytes += length;
+            s.heardSpeech = true;
+        }
+
+        if (s.segmentStart >= 0 && (s.written - s.lastSpeechEnd >= s.pauseBytes
+                || s.written - s.segmentStart >= MAX_SEGMENT_BYTES)) {
+            cutSegment(s);
+        }
+        if (s.onSpeechEnd != null && s.endOfSpeechBytes > 0 && s.heardSpeech && !s.speechEndSignalled
+                && s.written - s.lastSpeechEnd >= s.endOfSpeechBytes) {
+            s.speechEndSignalled = true;
+            s.onSpeechEnd.run();
+        }
     }
 
     /**
-     * Cancel recording without transcribing.
+     * Energy / zero-crossing VAD for one frame. Loud frames are speech; quieter ones
+     * count when they cross zero often (s, f, th), which energy alone would miss. The
+     * noise floor is seeded from the quietest early frame and then follows the non-speech
+     * frames, rising slowly so a misjudged speech frame can't lift it to speech level.
      */
-    public static void cancelRecording() {
-        if (!isRecording.get()) return;
-        isRecording.set(false);
-        if (micLine != null) {
-            micLine.stop();
-            micLine.close();
+    private static boolean isSpeech(Session s, byte[] frame, int length) {
+        int samples = length / 2;
+        if (samples == 0) return false;
+        double sumSquares = 0;
+        int crossings = 0;
+        int prev = 0;
+        for (int i = 0; i < samples; i++) {
+            int sample = (short) ((frame[2 * i] & 0xFF) | (frame[2 * i + 1] << 8));
+            sumSquares += (double) sample * sample;
+            if (i > 0 && (sample >= 0) != (prev >= 0)) crossings++;
+            prev = sample;
         }
-        audioBuffer = null;
-        MCAi.LOGGER.info("Whisper: Recording cancelled");
+        double rms = Math.sqrt(sumSquares / samples);
+        double zcr = crossings / (double) samples;
+
+        if (s.framesSeen++ < CALIBRATION_FRAMES) {
+            s.noiseFloor = Math.min(s.noiseFloor < 0 ? rms : Math.min(s.noiseFloor, rms), MAX_INITIAL_FLOOR);
+        }
+        double threshold = Math.max(MIN_SPEECH_RMS, s.noiseFloor * 3);
+        boolean speech = rms > threshold || (rms > threshold / 2 && zcr > ZCR_FRICATIVE);
+        if (!speech && s.framesSeen > CALIBRATION_FRAMES) {
+            // Below a third of MIN_SPEECH_RMS the floor doesn't affect the threshold, so the cap starts there
+            double maxFloor = Math.max(s.noiseFloor, MIN_SPEECH_RMS / 3) * MAX_FLOOR_RISE;
+            s.noiseFloor = Math.min(s.noiseFloor * 0.95 + rms * 0.05, maxFloor);
+        }
+        return speech;
+    }
+
+    /** Close the current segment and queue its upload behind the earlier ones. */
+    private static void cutSegment(Session s) {
+        if (s.segmentStart < 0) return;
+        long end = Math.min(s.written, s.lastSpeechEnd + TAIL_BYTES);
+        boolean enoughSpeech = s.speechBytes >= MIN_SPEECH_BYTES;
+        long start = s.segmentStart;
+        s.segmentStart = -1;
+        s.speechBytes = 0;
+        s.lastCutEnd = end;
+        if (enoughSpeech) upload(s, start, end);
+    }
+
+    /** Queue the upload of ring bytes [start, end) behind the earlier segments. */
+    private static void upload(Session s, long start, long end) {
+        byte[] pcm = new byte[(int) (end - start)];
+        int offset = (int) (start % RING_BYTES);
+        int first = Math.min(pcm.length, RING_BYTES - offset);
+        System.arraycopy(s.ring, offset, pcm, 0, first);
+        System.arraycopy(s.ring, 0, pcm, first, pcm.length - first);
+        s.segments++;
+
+        s.transcript = s.transcript.thenApplyAsync(previous -> {
+            if (s.cancelled) return previous;
+            try {
+                String text = callWhisperApi(rawPcmToWav(pcm), previous);
+                if (text.isEmpty()) return previous;
+                return previous.isEmpty() ? text : previous + " " + text;
+            } catch (Exception e) {
+                MCAi.LOGGER.error("Whisper transcription failed: {}", e.getMessage());
+                s.error = e.getMessage();
+                return previous;
+            }
+        }, uploadExecutor);
     }
 
     /**
@@ -224,17 +418,11 @@ public class WhisperService {
      * Send WAV audio to the Whisper API endpoint (OpenAI-compatible).
      * Uses multipart/form-data upload.
      */
-    private static String callWhisperApi(byte[] wavData) throws IOException {
+    private static String callWhisperApi(byte[] wavData, String previousText) throws IOException {
         String boundary = "----MCAiWhisper" + System.currentTimeMillis();
 
-        HttpURLConnection conn = (HttpURLConnection) URI.create(getWhisperUrl()).toURL().openConnection();
-        conn.setRequestMethod("POST");
-        conn.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
-        conn.setDoOutput(true);
-        conn.setConnectTimeout(TIMEOUT_MS);
-        conn.setReadTimeout(TIMEOUT_MS);
-
-        try (OutputStream os = conn.getOutputStream()) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(wavData.length + 1024);
+        try (OutputStream os = body) {
             // File field
             writeMultipartField(os, boundary, "file", "recording.wav", "audio/wav", wavData);
 
@@ -247,19 +435,28 @@ public class WhisperService {
             // Response format
             writeMultipartString(os, boundary, "response_format", "json");
 
+            // Earlier segments of the same utterance, so this one continues the sentence
+            if (!previousText.isEmpty()) {
+                writeMultipartString(os, boundary, "prompt", previousText);
+            }
+
             // End boundary
             os.write(("--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
         }
 
-        int responseCode = conn.getResponseCode();
+        HttpRequest request = AiHttpClient.request(getWhisperUrl(), TIMEOUT_MS)
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                .build();
+        HttpResponse<String> response = AiHttpClient.send(request,
+                HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+
+        int responseCode = response.statusCode();
         if (responseCode != 200) {
-            String error = readStream(conn.getErrorStream());
-            conn.disconnect();
-            throw new IOException("Whisper API returned HTTP " + responseCode + ": " + error);
+            throw new IOException("Whisper API returned HTTP " + responseCode + ": " + response.body());
         }
 
-        String responseBody = readStream(conn.getInputStream());
-        conn.disconnect();
+        String responseBody = response.body();
 
         // Parse JSON response — expected: {"text": "transcribed text"}
         try {
@@ -311,20 +508,35 @@ public class WhisperService {
         };
     }
 
-    private static String readStream(InputStream stream) throws IOException {
-        if (stream == null) return "";
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                sb.append(line);
-            }
-            return sb.toString();
-        }
-    }
-
     public static void shutdown() {
         cancelRecording();
         executor.shutdown();
+        uploadExecutor.shutdown();
+    }
+
+    // ---- Config (may not be loaded yet) ----
+
+    private static boolean isVadEnabled() {
+        try {
+            return AiConfig.WHISPER_VAD.get();
+        } catch (Exception e) {
+            return true;
+        }
+    }
+
+    private static int getSegmentPauseMs() {
+        try {
+            return AiConfig.WHISPER_SEGMENT_PAUSE_MS.get();
+        } catch (Exception e) {
+            return 350;
+        }
+    }
+
+    private static int getEndOfSpeechMs() {
+        try {
+            return AiConfig.WHISPER_END_OF_SPEECH_MS.get();
+        } catch (Exception e) {
+            return 800;
+        }
     }
 }
@@ -0,0 +1,70 @@
+package com.apocscode.mcai.command;
+
+import com.apocscode.mcai.ai.MacroCache;
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.context.CommandContext;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.network.chat.Component;
+
+import java.util.List;
+
+/**
+ * Admin command for learned macros (see {@link MacroCache}).
+ *
+ * Usage:
+ *   /mcai macros                 — hit rate and the most recently used macros
+ *   /mcai macros list <filter>   — macros whose player/request/inventory key contains the filter
+ *   /mcai macros evict <filter>  — forget matching macros ("*" forgets all)
+ */
+public class MacroCommand {
+
+    private static final int MAX_LISTED = 15;
+
+    public static void register(CommandDispatcher<CommandSourceStack> dispatcher) {
+        dispatcher.register(
+                Commands.literal("mcai")
+                        .then(Commands.literal("macros")
+                                .requires(source -> source.hasPermission(2))
+                                .executes(ctx -> list(ctx, ""))
+                                .then(Commands.literal("list")
+                                        .then(Commands.argument("filter", StringArgumentType.greedyString())
+                                                .executes(ctx -> list(ctx, StringArgumentType.getString(ctx, "filter")))))
+                                .then(Commands.literal("evict")
+                                        .then(Commands.argument("filter", StringArgumentType.greedyString())
+                                                .executes(MacroCommand::evict))))
+        );
+    }
+
+    private static int list(CommandContext<CommandSourceStack> ctx, String filter) {
+        CommandSourceStack source = ctx.getSource();
+        String needle = filter.toLowerCase();
+        List<MacroCache.Macro> matching = MacroCache.list().stream()
+                .filter(m -> m.key().contains(needle) || m.ownerName().toLowerCase().contains(needle))
+                .toList();
+
+        source.sendSuccess(() -> Component.literal("§e[MCAi] " + MacroCache.getStats()), false);
+        if (matching.isEmpty()) {
+            source.sendSuccess(() -> Component.literal("§7No learned macros" + (filter.isEmpty() ? "" : " matching '" + filter + "'")), false);
+            return 0;
+        }
+        for (MacroCache.Macro m : matching.subList(0, Math.min(matching.size(), MAX_LISTED))) {
+            source.sendSuccess(() -> Component.literal(String.format("§f%s §7(%s) [%s] §8x%d seen, %d replayed",
+                    m.intent(), m.ownerName(), m.signature(), m.successes(), m.replays())), false);
+            source.sendSuccess(() -> Component.literal("§7  " + m.describe()), false);
+        }
+        if (matching.size() > MAX_LISTED) {
+            source.sendSuccess(() -> Component.literal("§7... and " + (matching.size() - MAX_LISTED) + " more"), false);
+        }
+        return matching.size();
+    }
+
+    private static int evict(CommandContext<CommandSourceStack> ctx) {
+        String filter = StringArgumentType.getString(ctx, "filter");
+        int removed = MacroCache.evictMatching(filter);
+        ctx.getSource().sendSuccess(() -> Component.literal(
+                "§e[MCAi] Evicted " + removed + " macro(s)" + (filter.equals("*") ? "" : " matching '" + filter + "'")), true);
+        return removed;
+    }
+}
@@ -12,10 +12,29 @@ public class AiConfig {
     // ---- AI Connection ----
     public static final ModConfigSpec.ConfigValue<String> OLLAMA_URL;
     public static final ModConfigSpec.ConfigValue<String> OLLAMA_MODEL;
+    public static final ModConfigSpec.ConfigValue<String> OLLAMA_KEEP_ALIVE;
+    public static final ModConfigSpec.BooleanValue OLLAMA_WARMUP;
     public static final ModConfigSpec.IntValue AI_TIMEOUT_MS;
     public static final ModConfigSpec.DoubleValue AI_TEMPERATURE;
     public static final ModConfigSpec.IntValue AI_MAX_TOKENS;
     public static final ModConfigSpec.IntValue MAX_TOOL_ITERATIONS;
+    public static final ModConfigSpec.IntValue CLOUD_PROMPT_TOKEN_BUDGET;
+    public static final ModConfigSpec.IntValue OLLAMA_PROMPT_TOKEN_BUDGET;
+    public static final ModConfigSpec.BooleanValue STREAM_RESPONSES;
+    public static final ModConfigSpec.IntValue HTTP_CONNECT_TIMEOUT_MS;
+    public static final ModConfigSpec.IntValue HTTP_KEEP_ALIVE_SECONDS;
+    public static final ModConfigSpec.BooleanValue HTTP2_ENABLED;
+    public static final ModConfigSpec.IntValue MAX_CONCURRENT_PER_PLAYER;
+    public static final ModConfigSpec.IntValue MAX_CONCURRENT_CLOUD_REQUESTS;
+    public static final ModConfigSpec.IntValue MAX_CONCURRENT_OLLAMA_REQUESTS;
+    public static final ModConfigSpec.BooleanValue HEDGED_REQUESTS;
+    public static final ModConfigSpec.IntValue HEDGE_PERCENTILE;
+    public static final ModConfigSpec.BooleanValue CIRCUIT_BREAKER_ENABLED;
+    public static final ModConfigSpec.IntValue BREAKER_FAILURE_THRESHOLD;
+    public static final ModConfigSpec.IntValue BREAKER_PROBE_SECONDS;
+    public static final ModConfigSpec.BooleanValue CHAT_PREFETCH;
+    public static final ModConfigSpec.IntValue PREFETCH_MAX_AGE_SECONDS;
+    public static final ModConfigSpec.BooleanValue PREFETCH_WARMUP_REQUEST;
 
     // ---- Cloud AI (OpenAI-compatible: Groq, OpenRouter, Together, Cerebras, etc.) ----
     public static final ModConfigSpec.ConfigValue<String> CLOUD_API_KEY;
@@ -27,11 +46,40 @@ public class AiConfig {
     public static final ModConfigSpec.ConfigValue<String> CLOUD_FALLBACK_MODEL;
     public static final ModConfigSpec.ConfigValue<String> CLOUD_FALLBACK_URL;
 
+    // ---- Cloud Rate Limits (proactive client-side limiter) ----
+    public static final ModConfigSpec.BooleanValue RATE_LIMITER_ENABLED;
+    public static final ModConfigSpec.IntValue CLOUD_RPM;
+    public static final ModConfigSpec.IntValue CLOUD_TPM;
+    public static final ModConfigSpec.IntValue CLOUD_TPD;
+    public static final ModConfigSpec.IntValue CLOUD_FALLBACK_RPM;
+    public static final ModConfigSpec.IntValue CLOUD_FALLBACK_TPM;
+    public static final ModConfigSpec.IntValue CLOUD_FALLBACK_TPD;
+    public static final ModConfigSpec.IntValue MAX_RATE_LIMIT_WAIT_MS;
+
+    // ---- Tool Routing ----
+    public static final ModConfigSpec.BooleanValue FIXED_TOOL_SET;
+    public static final ModConfigSpec.BooleanValue SEMANTIC_TOOL_ROUTING;
+    public static final ModConfigSpec.ConfigValue<String> EMBEDDING_MODEL;
+    public static final ModConfigSpec.IntValue SEMANTIC_TOP_K;
+    public static final ModConfigSpec.IntValue TOOL_CACHE_TTL_SECONDS;
+    public static final ModConfigSpec.BooleanValue LOCAL_INTENT_CLASSIFIER;
+    public static final ModConfigSpec.DoubleValue CLASSIFIER_CONFIDENCE;
+    public static final ModConfigSpec.BooleanValue PLAN_MODE;
+    public static final ModConfigSpec.BooleanValue STRUCTURED_TOOL_CALLS;
+    public static final ModConfigSpec.BooleanValue MACRO_CACHE;
+    public static final ModConfigSpec.IntValue MACRO_CACHE_SIZE;
+    public static final ModConfigSpec.IntValue MACRO_MIN_SUCCESSES;
+
     // ---- Whisper Voice ----
     public static final ModConfigSpec.ConfigValue<String> WHISPER_URL;
+    public static final ModConfigSpec.BooleanValue WHISPER_VAD;
+    public static final ModConfigSpec.IntValue WHISPER_SEGMENT_PAUSE_MS;
+    public static final ModConfigSpec.IntValue WHISPER_END_OF_SPEECH_MS;
 
     // ---- Companion ----
     public static final ModConfigSpec.ConfigValue<String> DEFAULT_COMPANION_NAME;
+    public static final ModConfigSpec.BooleanValue CONVERSATION_DIGEST;
+    public static final ModConfigSpec.IntValue DIGEST_AFTER_MESSAGES;
 
     // ---- Security ----
     public static final ModConfigSpec.IntValue COMMAND_PERMISSION_LEVEL;
@@ -43,6 +91,9 @@ public class AiConfig {
     public static final ModConfigSpec.BooleanValue ENABLE_CONTAINER_INTERACTION;
     public static final ModConfigSpec.BooleanValue ENABLE_CRAFTING;
     public static final ModConfigSpec.BooleanValue ENABLE_WEB_ACCESS;
+    public static final ModConfigSpec.IntValue WEB_CACHE_TTL_HOURS;
+    public static final ModConfigSpec.IntValue WEB_CACHE_MAX_KB;
+    public static final ModConfigSpec.IntValue WEB_PAGE_MAX_CHARS;
 
     // ---- Ranges ----
     public static final ModConfigSpec.IntValue CONTAINER_SCAN_RADIUS;
@@ -89,6 +140,15 @@ public class AiConfig {
                 .comment("LLM model name (e.g. llama3.1, mistral, codellama)")
                 .define("model", "llama3.1");
 
+        OLLAMA_KEEP_ALIVE = builder
+                .comment("How long Ollama keeps the model loaded after a request: a duration like \"30m\" or \"2h\", seconds as a number, or -1 to keep it loaded until Ollama stops.",
+                        "Ollama's default (5m) means a fallback after a quiet spell pays a full model load.")
+                .define("ollamaKeepAlive", "30m");
+
+        OLLAMA_WARMUP = builder
+                .comment("Load the model at server start and when a cloud backend goes down, so the first local request doesn't pay the load time")
+                .define("ollamaWarmup", true);
+
         AI_TIMEOUT_MS = builder
                 .comment("HTTP request timeout in milliseconds")
                 .defineInRange("timeoutMs", 60000, 5000, 300000);
@@ -105,6 +165,88 @@ public class AiConfig {
                 .comment("Maximum tool-call iterations per message (prevents runaway loops)")
                 .defineInRange("maxToolIterations", 10, 1, 20);
 
+        CLOUD_PROMPT_TOKEN_BUDGET = builder
+                .comment("Approximate token budget for the messages of one cloud request (excluding tool definitions).",
+                        "Over budget, old tool results are shortened first, then the oldest chat history is dropped.",
+                        "Keeps requests under free-tier tokens-per-minute limits.")
+                .defineInRange("cloudPromptTokenBudget", 6000, 500, 200000);
+
+        OLLAMA_PROMPT_TOKEN_BUDGET = builder
+                .comment("Approximate token budget for the messages of one Ollama request (keep below the model's context size)")
+                .defineInRange("ollamaPromptTokenBudget", 12000, 500, 200000);
+
+        STREAM_RESPONSES = builder
+                .comment("Stream AI responses token-by-token into the chat screen as they are generated.",
+                        "Tool calls start executing as soon as each call has fully arrived.",
+                        "Disable if your provider or proxy does not support streaming (stream=true).")
+                .define("streamResponses", true);
+
+        HTTP_CONNECT_TIMEOUT_MS = builder
+                .comment("TCP/TLS connect timeout in milliseconds for all MCAi HTTP requests (AI, web tools, Whisper)")
+                .defineInRange("httpConnectTimeoutMs", 10000, 1000, 60000);
+
+        HTTP_KEEP_ALIVE_SECONDS = builder
+                .comment("How long idle pooled connections are kept open for reuse (seconds).",
+                        "Reusing a connection skips the TCP + TLS handshake on the next request.",
+                        "Applied when the HTTP client is first created (restart to change).")
+                .defineInRange("httpKeepAliveSeconds", 120, 5, 1200);
+
+        HTTP2_ENABLED = builder
+                .comment("Use HTTP/2 for HTTPS endpoints so requests share one multiplexed connection.",
+                        "Plain http:// endpoints (local Ollama, Whisper) always use HTTP/1.1.")
+                .define("http2", true);
+
+        MAX_CONCURRENT_PER_PLAYER = builder
+                .comment("How many AI requests one player can have running at once.",
+                        "Extra messages wait in a queue, so one busy player can't starve the others.")
+                .defineInRange("maxConcurrentPerPlayer", 1, 1, 4);
+
+        MAX_CONCURRENT_CLOUD_REQUESTS = builder
+                .comment("Maximum requests in flight to each cloud provider (primary and fallback separately)")
+                .defineInRange("maxConcurrentCloudRequests", 4, 1, 32);
+
+        MAX_CONCURRENT_OLLAMA_REQUESTS = builder
+                .comment("Maximum requests in flight to local Ollama (match OLLAMA_NUM_PARALLEL)")
+                .defineInRange("maxConcurrentOllamaRequests", 2, 1, 16);
+
+        HEDGED_REQUESTS = builder
+                .comment("Hedge slow requests: if the primary backend has not started answering within its usual",
+                        "latency (see hedgePercentile), send the same request to the next backend too and use",
+                        "whichever answers first. Lowers tail latency at the cost of occasional duplicate requests.")
+                .define("hedgedRequests", false);
+
+        HEDGE_PERCENTILE = builder
+                .comment("Latency percentile of the primary backend after which a hedge request is sent (50-99)")
+                .defineInRange("hedgePercentile", 90, 50, 99);
+
+        CIRCUIT_BREAKER_ENABLED = builder
+                .comment("Stop sending requests to a backend that keeps failing (down, timing out, key exhausted)",
+                        "and fall back immediately instead. A background probe re-enables it once it answers again.")
+                .define("circuitBreaker", true);
+
+        BREAKER_FAILURE_THRESHOLD = builder
+                .comment("Consecutive failures that take a backend out of rotation (a daily rate limit does it at once)")
+                .defineInRange("breakerFailureThreshold", 3, 1, 20);
+
+        BREAKER_PROBE_SECONDS = builder
+                .comment("Seconds between health probes of a backend that is out of rotation (doubles up to 5 minutes)")
+                .defineInRange("breakerProbeSeconds", 15, 5, 300);
+
+        CHAT_PREFETCH = builder
+                .comment("Start preparing a request when the chat screen opens, while the player is still typing:",
+                        "the game-state context is captured and the prompt and tool router are warmed up.",
+                        "The prepared context is only used if the world hasn't changed by the time the message arrives.")
+                .define("chatPrefetch", true);
+
+        PREFETCH_MAX_AGE_SECONDS = builder
+                .comment("How long a prefetched context stays usable after the chat screen opened (seconds)")
+                .defineInRange("prefetchMaxAgeSeconds", 20, 2, 120);
+
+        PREFETCH_WARMUP_REQUEST = builder
+                .comment("When the chat screen opens, also send a tiny request so the backend is ready: a model-list",
+                        "call that opens the connection to a cloud provider, or a model load for Ollama. Costs no tokens.")
+                .define("prefetchWarmupRequest", true);
+
         builder.pop(); // connection
 
         builder.comment("Cloud AI settings — any OpenAI-compatible API works with MCAi.",
@@ -187,12 +329,135 @@ public class AiConfig {
 
         builder.pop(); // cloud_fallback
 
+        builder.comment("Client-side rate limiter for cloud providers.",
+                "Requests are paced to stay under the provider's limits instead of hitting 429 errors.",
+                "Values below are starting points — they are corrected from the provider's",
+                "x-ratelimit-* response headers after the first request. 0 = unknown (learn from headers).").push("rate_limits");
+
+        RATE_LIMITER_ENABLED = builder
+                .comment("Pace cloud requests proactively (disable to only react to 429 errors)")
+                .define("enabled", true);
+
+        CLOUD_RPM = builder
+                .comment("Primary cloud: requests per minute (Groq free tier: 30)")
+                .defineInRange("requestsPerMinute", 30, 0, 100000);
+
+        CLOUD_TPM = builder
+                .comment("Primary cloud: tokens per minute (Groq free tier: 30000 for llama-4-scout)")
+                .defineInRange("tokensPerMinute", 30000, 0, 100000000);
+
+        CLOUD_TPD = builder
+                .comment("Primary cloud: tokens per day (Groq free tier: 500000)")
+                .defineInRange("tokensPerDay", 500000, 0, 1000000000);
+
+        CLOUD_FALLBACK_RPM = builder
+                .comment("Fallback cloud: requests per minute (OpenRouter free models: 20)")
+                .defineInRange("fallbackRequestsPerMinute", 20, 0, 100000);
+
+        CLOUD_FALLBACK_TPM = builder
+                .comment("Fallback cloud: tokens per minute")
+                .defineInRange("fallbackTokensPerMinute", 0, 0, 100000000);
+
+        CLOUD_FALLBACK_TPD = builder
+                .comment("Fallback cloud: tokens per day")
+                .defineInRange("fallbackTokensPerDay", 0, 0, 1000000000);
+
+        MAX_RATE_LIMIT_WAIT_MS = builder
+                .comment("Longest a request will wait for rate-limit capacity (milliseconds).",
+                        "If the wait would be longer, the request goes straight to the next backend",
+                        "(fallback cloud, then Ollama).")
+                .defineInRange("maxWaitMs", 15000, 0, 120000);
+
+        builder.pop(); // rate_limits
+
+        builder.comment("How the tools sent with each request are chosen.",
+                "Keyword matching is always available; semantic routing also catches paraphrases",
+                "(\"grab me some timber\" -> chop_trees) using a local Ollama embedding model.",
+                "Also controls how long read-only tool results are reused.").push("tool_routing");
+
+        FIXED_TOOL_SET = builder
+                .comment("Send every enabled tool with every request, in a fixed order. The tool definitions then stay",
+                        "part of the prompt prefix Ollama and cloud providers cache, instead of changing with each message,",
+                        "at the cost of many more prompt tokens per request. Off by default: small local models (8B) get",
+                        "unreliable with many tools, so each message gets up to 16 tools picked by the routing below.")
+                .define("fixedToolSet", false);
+
+        SEMANTIC_TOOL_ROUTING = builder
+                .comment("Pick tools by meaning using Ollama embeddings (needs the embedding model pulled:",
+                        "  ollama pull nomic-embed-text). Falls back to keywords when Ollama is unavailable.")
+                .define("semanticRouting", false);
+
+        EMBEDDING_MODEL = builder
+                .comment("Ollama embedding model used for semantic tool routing")
+                .define("embeddingModel", "nomic-embed-text");
+
+        SEMANTIC_TOP_K = builder
+                .comment("How many of the closest tools semantic routing adds to each request")
+                .defineInRange("semanticTopK", 6, 1, 16);
+
+        TOOL_CACHE_TTL_SECONDS = builder
+                .comment("Reuse results of read-only lookups (inventory, containers, recipes, surroundings)",
+                        "for this many seconds when the model repeats the same call. Any block, container or",
+                        "inventory change clears them sooner. 0 = always run the tool.")
+                .defineInRange("toolResultCacheSeconds", 15, 0, 300);
+
+        LOCAL_INTENT_CLASSIFIER = builder
+                .comment("Answer simple lookups the local parser missed (inventory, surroundings, recipes...) without the LLM,",
+                        "using a small offline classifier trained on the parser's phrasings and the tools the LLM picked",
+                        "for past messages (mcai_debug.log). Never runs tools that change the world.")
+                .define("localIntentClassifier", false);
+
+        CLASSIFIER_CONFIDENCE = builder
+                .comment("How sure the classifier must be (0-1) before it skips the LLM; lower = more local hits, more misfires")
+                .defineInRange("classifierConfidence", 0.9, 0.5, 0.99);
+
+        PLAN_MODE = builder
+                .comment("Ask the LLM once for the whole tool program (JSON) and run it locally, instead of one",
+                        "LLM round trip per tool call. The LLM is only asked again when a step fails.",
+                        "Needs a model/provider that supports JSON-schema output; falls back to the normal loop otherwise.")
+                .define("planThenExecute", false);
+
+        STRUCTURED_TOOL_CALLS = builder
+                .comment("Constrain the model's output so tool calls can't come back as prose: a JSON-schema 'format' for Ollama,",
+                        "strict function definitions for cloud providers. Tool arguments are also checked against the tool's",
+                        "schema before it runs. Turn off if your provider rejects strict tools.")
+                .define("structuredToolCalls", false);
+
+        MACRO_CACHE = builder
+                .comment("Learn the tool sequences of requests that worked and replay them without the LLM",
+                        "when the same request comes in with a similar inventory. Inspect/evict with /mcai macros.")
+                .define("macroCache", true);
+
+        MACRO_CACHE_SIZE = builder
+                .comment("How many learned macros to keep (least recently used are dropped), saved in config/mcai_cache/macros.json")
+                .defineInRange("macroCacheSize", 200, 10, 5000);
+
+        MACRO_MIN_SUCCESSES = builder
+                .comment("How many times the LLM must pick the same tool sequence for a request before it is replayed")
+                .defineInRange("macroMinSuccesses", 2, 1, 10);
+
+        builder.pop(); // tool_routing
+
         builder.comment("Whisper voice input settings").push("whisper");
 
         WHISPER_URL = builder
                 .comment("Whisper-compatible transcription API endpoint")
                 .define("whisperUrl", "http://localhost:8178/v1/audio/transcriptions");
 
+        WHISPER_VAD = builder
+                .comment("Detect speech while recording: silence is skipped and speech is transcribed in segments",
+                        "while you talk, so the text is ready right after you stop. Off = fixed 15s chunks.")
+                .define("voiceActivityDetection", true);
+
+        WHISPER_SEGMENT_PAUSE_MS = builder
+                .comment("A pause this long (ms) ends a segment, which is then transcribed in the background")
+                .defineInRange("segmentPauseMs", 350, 150, 2000);
+
+        WHISPER_END_OF_SPEECH_MS = builder
+                .comment("With the mic button, a pause this long (ms) after speaking stops the recording (0 = off).",
+                        "Push-to-talk always records until the key is released.")
+                .defineInRange("endOfSpeechMs", 800, 0, 5000);
+
         builder.pop(); // whisper
 
         builder.comment("Companion entity settings").push("companion");
@@ -201,6 +466,15 @@ public class AiConfig {
                 .comment("Default display name for newly spawned companions")
                 .define("defaultName", "MCAi");
 
+        CONVERSATION_DIGEST = builder
+                .comment("Summarize older conversation turns into the companion's memory instead of forgetting them.",
+                        "Runs in the background while the AI is idle; the summary is added to the system prompt.")
+                .define("conversationDigest", true);
+
+        DIGEST_AFTER_MESSAGES = builder
+                .comment("Start summarizing once this many chat messages are waiting (the newest 8 always stay verbatim)")
+                .defineInRange("digestAfterMessages", 16, 12, 30);
+
         builder.pop(); // companion
         builder.pop(); // ai
 
@@ -249,6 +523,19 @@ public class AiConfig {
                 .comment("Allow AI to search the web and fetch web pages")
                 .define("enableWebAccess", true);
 
+        WEB_CACHE_TTL_HOURS = builder
+                .comment("How long web search results and fetched pages are reused from config/mcai_cache/web.json (hours, 0 = no cache).",
+                        "Older copies are still used when the site can't be reached.")
+                .defineInRange("webCacheTtlHours", 24, 0, 720);
+
+        WEB_CACHE_MAX_KB = builder
+                .comment("Maximum size of the web cache (KB of UTF-8 text); least recently used entries are evicted first")
+                .defineInRange("webCacheMaxKb", 4096, 64, 65536);
+
+        WEB_PAGE_MAX_CHARS = builder
+                .comment("Characters of page text fetch_webpage returns; the download stops once this much is extracted")
+                .defineInRange("webPageMaxChars", 8000, 1000, 50000);
+
         builder.pop(); // abilities
 
         // ============================================================
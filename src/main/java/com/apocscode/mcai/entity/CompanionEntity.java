@@ -1,6 +1,7 @@
 package com.apocscode.mcai.entity;
 
 import com.apocscode.mcai.MCAi;
+import com.apocscode.mcai.ai.tool.ToolResultCache;
 import com.apocscode.mcai.config.AiConfig;
 import com.apocscode.mcai.entity.goal.*;
 import com.apocscode.mcai.inventory.CompanionInventoryMenu;
@@ -212,6 +213,10 @@ public class CompanionEntity extends PathfinderMob implements MenuProvider {
         super(type, level);
         this.setPersistenceRequired();
         this.setCanPickUpLoot(true); // Enable item pickup from ground
+        // Pickups, mining drops and crafting fire no player events — mark the owner's cached tool results stale
+        this.inventory.addListener(container -> {
+            if (!level().isClientSide && ownerUUID != null) ToolResultCache.playerChanged(ownerUUID);
+        });
         try {
             this.companionName = AiConfig.DEFAULT_COMPANION_NAME.get();
         } catch (Exception e) {
@@ -1,5 +1,6 @@
 package com.apocscode.mcai.entity.goal;
 
+import com.apocscode.mcai.ai.tool.ToolResultCache;
 import com.apocscode.mcai.entity.CompanionEntity;
 import net.minecraft.core.BlockPos;
 import net.minecraft.server.level.ServerLevel;
@@ -117,6 +118,7 @@ public class CompanionFarmGoal extends Goal {
 
         // Break the crop — drops items that companion picks up
         level.destroyBlock(targetCrop, true, companion);
+        ToolResultCache.blockChanged(level, targetCrop);
         level.playSound(null, targetCrop, SoundEvents.CROP_BREAK, SoundSource.BLOCKS, 1.0F, 1.0F);
 
         // Try to replant from inventory
@@ -3,8 +3,11 @@ package com.apocscode.mcai.network;
 import com.apocscode.mcai.MCAi;
 import com.apocscode.mcai.ai.AIService;
 import com.apocscode.mcai.ai.AiLogger;
+import com.apocscode.mcai.ai.CancellationToken;
 import com.apocscode.mcai.ai.CommandParser;
 import com.apocscode.mcai.ai.ConversationManager;
+import com.apocscode.mcai.ai.ConversationStore;
+import com.apocscode.mcai.ai.IntentClassifier;
 import com.apocscode.mcai.config.AiConfig;
 import com.apocscode.mcai.entity.CompanionEntity;
 import com.apocscode.mcai.entity.CompanionChat;
@@ -14,6 +17,8 @@ import net.minecraft.world.entity.Entity;
 import net.neoforged.neoforge.network.PacketDistributor;
 import net.neoforged.neoforge.network.handling.IPayloadContext;
 
+import java.util.List;
+
 /**
  * Server-side handler for incoming chat messages.
  * Calls the AI service asynchronously and sends the response back to the client.
@@ -61,6 +66,11 @@ public class ChatMessageHandler {
             return;
         }
 
+        // === Offline classifier — simple paraphrases the parser missed ===
+        if (IntentClassifier.tryDispatch(message, serverPlayer, companionName)) {
+            return;
+        }
+
         // Call AI asynchronously — NEVER block the server thread
         sendToAI(message, serverPlayer, companionName, false);
     }
@@ -93,6 +103,10 @@ public class ChatMessageHandler {
             return;
         }
 
+        if (IntentClassifier.tryDispatch(message, player, companion.getCompanionName())) {
+            return;
+        }
+
         // Natural language — send to AI, respond in game chat
         sendToAI(message, player, companion.getCompanionName(), true);
     }
@@ -108,8 +122,17 @@ public class ChatMessageHandler {
             companion.getTaskManager().cancelAll();
             MCAi.LOGGER.info("Cancelled active tasks — new player command: {}", message);
         }
+        // ...and any agent loop still thinking about an earlier message
+        CancellationToken.cancelAll(player.getUUID());
+
+        // History view is taken before this message is recorded — the agent loop adds it itself
+        ConversationStore.History history = ConversationStore.forPlayer(player.getUUID());
+        List<ConversationManager.ChatMessage> previousMessages = history.forAI();
+        history.addPlayerMessage(message);
 
-        AIService.chat(message, player, ConversationManager.getHistoryForAI(), companionName)
+        // Game chat can't update a message in place, so only the chat screen gets streamed tokens
+        AIService.chat(message, player, previousMessages, companionName,
+                        useGameChat ? null : ChatResponseChunkPacket.sinkFor(player))
                 .thenAccept(response -> {
                     player.getServer().execute(() -> {
                         if (useGameChat) {
@@ -121,6 +144,7 @@ public class ChatMessageHandler {
                     });
                 })
                 .exceptionally(ex -> {
+                    if (CancellationToken.isCancellation(ex)) return null; // Superseded — the newer message answers
                     MCAi.LOGGER.error("AI response failed", ex);
                     player.getServer().execute(() -> {
                         String errMsg = "Sorry, I had an error: " + ex.getMessage();
@@ -184,6 +208,7 @@ public class ChatMessageHandler {
             }
             case "cancel", "stop" -> {
                 companion.getTaskManager().cancelAll();
+                CancellationToken.cancelAll(player.getUUID());
                 companion.getNavigation().stop();
                 yield "All tasks cancelled.";
             }
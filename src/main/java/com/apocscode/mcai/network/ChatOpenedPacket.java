@@ -0,0 +1,44 @@
+package com.apocscode.mcai.network;
+
+import com.apocscode.mcai.MCAi;
+import com.apocscode.mcai.ai.ChatPrefetch;
+import com.apocscode.mcai.entity.CompanionEntity;
+import io.netty.buffer.ByteBuf;
+import net.minecraft.network.codec.ByteBufCodecs;
+import net.minecraft.network.codec.StreamCodec;
+import net.minecraft.network.protocol.common.custom.CustomPacketPayload;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.entity.Entity;
+import net.neoforged.neoforge.network.handling.IPayloadContext;
+
+/**
+ * Client → Server: The owner opened the chat screen and is about to type.
+ * The server uses the typing time to prepare the AI request (see {@link ChatPrefetch}).
+ */
+public record ChatOpenedPacket(int entityId) implements CustomPacketPayload {
+    public static final Type<ChatOpenedPacket> TYPE =
+            new Type<>(ResourceLocation.fromNamespaceAndPath(MCAi.MOD_ID, "chat_opened"));
+
+    public static final StreamCodec<ByteBuf, ChatOpenedPacket> STREAM_CODEC =
+            StreamCodec.composite(
+                    ByteBufCodecs.INT, ChatOpenedPacket::entityId,
+                    ChatOpenedPacket::new);
+
+    @Override
+    public Type<? extends CustomPacketPayload> type() {
+        return TYPE;
+    }
+
+    public static void handle(ChatOpenedPacket packet, IPayloadContext context) {
+        context.enqueueWork(() -> {
+            if (context.player() instanceof ServerPlayer serverPlayer) {
+                Entity entity = serverPlayer.level().getEntity(packet.entityId());
+                if (entity instanceof CompanionEntity companion
+                        && serverPlayer.getUUID().equals(companion.getOwnerUUID())) {
+                    ChatPrefetch.onChatOpened(serverPlayer, companion.getCompanionName());
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,97 @@
+package com.apocscode.mcai.network;
+
+import com.apocscode.mcai.MCAi;
+import com.apocscode.mcai.ai.AIService;
+import com.apocscode.mcai.ai.ConversationManager;
+import io.netty.buffer.ByteBuf;
+import net.minecraft.network.codec.ByteBufCodecs;
+import net.minecraft.network.codec.StreamCodec;
+import net.minecraft.network.protocol.common.custom.CustomPacketPayload;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.level.ServerPlayer;
+import net.neoforged.neoforge.network.PacketDistributor;
+import net.neoforged.neoforge.network.handling.IPayloadContext;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server → Client: a piece of an AI response that is still being generated.
+ * Chunks are appended to a live message in the chat screen; the final
+ * ChatResponsePacket replaces it with the complete text.
+ *
+ * @param delta Text to append
+ * @param reset True when a new LLM call started — discard the partial text shown so far
+ */
+public record ChatResponseChunkPacket(String delta, boolean reset) implements CustomPacketPayload {
+    public static final Type<ChatResponseChunkPacket> TYPE =
+            new Type<>(ResourceLocation.fromNamespaceAndPath(MCAi.MOD_ID, "chat_response_chunk"));
+
+    public static final StreamCodec<ByteBuf, ChatResponseChunkPacket> STREAM_CODEC =
+            StreamCodec.composite(
+                    ByteBufCodecs.STRING_UTF8, ChatResponseChunkPacket::delta,
+                    ByteBufCodecs.BOOL, ChatResponseChunkPacket::reset,
+                    ChatResponseChunkPacket::new);
+
+    /** Stream coalescing: send once this much text is pending, or this long after the first of it */
+    private static final int FLUSH_CHARS = 64;
+    private static final long FLUSH_MS = 50;
+
+    @Override
+    public Type<? extends CustomPacketPayload> type() {
+        return TYPE;
+    }
+
+    public static void handle(ChatResponseChunkPacket packet, IPayloadContext context) {
+        context.enqueueWork(() -> {
+            // Client-side: grow the in-progress AI message
+            ConversationManager.appendAiChunk(packet.delta(), packet.reset());
+        });
+    }
+
+    /**
+     * Build a stream sink that forwards text deltas to the given player's chat screen.
+     * Deltas (often a single token) are coalesced: a packet goes out once
+     * {@link #FLUSH_CHARS} are pending or {@link #FLUSH_MS} after the first pending one.
+     * Packets are sent from the server thread.
+     */
+    public static AIService.StreamSink sinkFor(ServerPlayer player) {
+        return new Coalescer(player);
+    }
+
+    private static final class Coalescer implements AIService.StreamSink {
+        private final ServerPlayer player;
+        private final StringBuilder pending = new StringBuilder();
+        private boolean pendingReset = false;
+        private boolean flushScheduled = false;
+
+        Coalescer(ServerPlayer player) {
+            this.player = player;
+        }
+
+        @Override
+        public synchronized void onText(String delta, boolean reset) {
+            if (reset) {
+                // Earlier text is stale anyway — drop what wasn't sent yet
+                pending.setLength(0);
+                pendingReset = true;
+            }
+            pending.append(delta);
+            if (pending.length() >= FLUSH_CHARS) {
+                flush();
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                CompletableFuture.delayedExecutor(FLUSH_MS, TimeUnit.MILLISECONDS).execute(this::flush);
+            }
+        }
+
+        private synchronized void flush() {
+            flushScheduled = false;
+            if (pending.isEmpty() && !pendingReset) return;
+            ChatResponseChunkPacket packet = new ChatResponseChunkPacket(pending.toString(), pendingReset);
+            pending.setLength(0);
+            pendingReset = false;
+            player.getServer().execute(() -> PacketDistributor.sendToPlayer(player, packet));
+        }
+    }
+}
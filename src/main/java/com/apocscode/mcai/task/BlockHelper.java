@@ -1,6 +1,7 @@
 package com.apocscode.mcai.task;
 
 import com.apocscode.mcai.MCAi;
+import com.apocscode.mcai.ai.tool.ToolResultCache;
 import com.apocscode.mcai.entity.CompanionEntity;
 import com.apocscode.mcai.logistics.TaggedBlock;
 import net.minecraft.core.BlockPos;
@@ -65,6 +66,7 @@ public class BlockHelper {
 
             // Break WITHOUT spawning item entities
             level.destroyBlock(pos, false, companion);
+            ToolResultCache.blockChanged(level, pos);
 
             // Insert each drop into companion inventory
             var inv = companion.getCompanionInventory();
@@ -87,6 +89,7 @@ public class BlockHelper {
             }
         } else {
             level.destroyBlock(pos, true, companion);
+            ToolResultCache.blockChanged(level, pos);
         }
         return true;
     }
@@ -371,6 +374,7 @@ public class BlockHelper {
             ItemStack stack = inv.getItem(i);
             if (!stack.isEmpty() && Block.byItem(stack.getItem()) == blockToPlace) {
                 level.setBlock(pos, blockToPlace.defaultBlockState(), 3);
+                ToolResultCache.blockChanged(level, pos);
                 stack.shrink(1);
                 if (stack.isEmpty()) inv.setItem(i, ItemStack.EMPTY);
 
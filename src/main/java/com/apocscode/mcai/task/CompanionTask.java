@@ -33,6 +33,10 @@ public abstract class CompanionTask {
     protected int ticksRunning = 0;
     protected static final int MAX_TICKS = 20 * 60 * 5; // 5 minute timeout
     private TaskContinuation continuation;
+    /** Order in which the TaskManager received this task (0 until queued) */
+    long queueSeq;
+    /** Task chain a plan-mode program is waiting on (0 = none), see {@link TaskManager#adoptChain} */
+    long chainId;
 
     protected CompanionTask(CompanionEntity companion, String description) {
         this.companion = companion;
@@ -101,6 +105,14 @@ public abstract class CompanionTask {
         return continuation;
     }
 
+    /**
+     * The task chain this task belongs to, or 0 when no plan is waiting on it.
+     * Continuations started by the task carry the id on to the tasks they queue.
+     */
+    public long getChainId() {
+        return chainId;
+    }
+
     protected void complete() {
         this.status = Status.COMPLETED;
     }
@@ -3,6 +3,8 @@ package com.apocscode.mcai.task;
 import com.apocscode.mcai.MCAi;
 import com.apocscode.mcai.CompanionChunkLoader;
 import com.apocscode.mcai.ai.AIService;
+import com.apocscode.mcai.ai.PlanExecutor;
+import com.apocscode.mcai.ai.tool.ToolResultCache;
 import com.apocscode.mcai.entity.CompanionChat;
 import com.apocscode.mcai.entity.CompanionEntity;
 import com.apocscode.mcai.logistics.ItemRoutingHelper;
@@ -11,6 +13,7 @@ import net.minecraft.world.entity.player.Player;
 
 import java.util.ArrayDeque;
 import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -21,8 +24,12 @@ import java.util.Deque;
  */
 public class TaskManager {
 
+    private static final AtomicLong nextChainId = new AtomicLong(1);
+
     private final CompanionEntity companion;
     private final Deque<CompanionTask> taskQueue = new ArrayDeque<>();
+    /** Tasks queued so far; see {@link #queueMark()} */
+    private long queuedCount = 0;
     private CompanionTask activeTask;
     private int progressAnnounceTicks = 0;
     private int lastAnnouncedPercent = -1;
@@ -46,6 +53,7 @@ public class TaskManager {
      * Add a task to the end of the queue.
      */
     public void queueTask(CompanionTask task) {
+        task.queueSeq = ++queuedCount;
         taskQueue.addLast(task);
         // Clear interaction freeze — player gave a command, so let the companion move
         companion.setOwnerInteracting(false);
@@ -56,6 +64,7 @@ public class TaskManager {
      * Add a task to the front of the queue (high priority).
      */
     public void queueTaskFirst(CompanionTask task) {
+        task.queueSeq = ++queuedCount;
         taskQueue.addFirst(task);
         // Clear interaction freeze — player gave a command, so let the companion move
         companion.setOwnerInteracting(false);
@@ -69,6 +78,8 @@ public class TaskManager {
         // If active task is done, clean up and announce
         if (activeTask != null && activeTask.isDone()) {
             activeTask.cleanup();
+            // Results cached before the task started may describe a world it has since changed
+            ToolResultCache.playerChanged(companion.getOwnerUUID());
             String taskDescription = activeTask.getDescription();
             CompanionTask.Status taskStatus = activeTask.getStatus();
             TaskContinuation continuation = activeTask.getContinuation();
@@ -111,10 +122,24 @@ public class TaskManager {
                 MCAi.LOGGER.warn("Task FAILED: {} — reason: {}", taskDescription, reason);
             }
 
+            // A plan-mode program may be waiting on this task's chain
+            long chainId = activeTask.getChainId();
+            boolean planHandled = false;
+            if (chainId != 0 && companion.getOwner() instanceof ServerPlayer owner) {
+                if (taskStatus != CompanionTask.Status.COMPLETED) {
+                    String failReason = activeTask.getFailReason() != null
+                            ? activeTask.getFailReason() : "unknown error";
+                    planHandled = PlanExecutor.onStepSettled(owner, chainId, taskDescription, failReason,
+                            continuation != null ? continuation.nextSteps() : null);
+                } else if (continuation == null && !hasChainTasks(chainId)) {
+                    planHandled = PlanExecutor.onStepSettled(owner, chainId, taskDescription, null, null);
+                }
+            }
+
             // Fire continuation if one was registered (for multi-step plans)
-            if (continuation != null) {
+            if (continuation != null && !planHandled) {
                 if (taskStatus == CompanionTask.Status.COMPLETED) {
-                    fireContinuation(continuation, taskDescription);
+                    fireContinuation(continuation, taskDescription, chainId);
                 } else {
                     // Fire failure continuation so the AI can adapt and try alternatives
                     String failReason = activeTask.getFailReason() != null
@@ -244,7 +269,42 @@ public class TaskManager {
     }
 
     /**
-     * Cancel the active task and clear the queue.
+     * Mark for {@link #adoptChain}: tasks queued after this call have a higher sequence.
+     * Server thread only, like every other TaskManager method.
+     */
+    public long queueMark() {
+        return queuedCount;
+    }
+
+    /**
+     * Put every task queued after {@code sinceMark} into a task chain, so whoever waits on
+     * the chain (a suspended plan) is told when it settles and no unrelated task can
+     * resume it.
+     * @param chainId the chain to continue, or 0 to start a new one
+     * @return the chain id, or 0 if no task was queued since the mark
+     */
+    public long adoptChain(long sinceMark, long chainId) {
+        Deque<CompanionTask> tasks = new ArrayDeque<>(taskQueue);
+        if (activeTask != null) tasks.addFirst(activeTask);
+        long id = 0;
+        for (CompanionTask task : tasks) {
+            if (task.queueSeq <= sinceMark) continue;
+            if (id == 0) id = chainId != 0 ? chainId : nextChainId.getAndIncrement();
+            task.chainId = id;
+        }
+        return id;
+    }
+
+    private boolean hasChainTasks(long chainId) {
+        for (CompanionTask task : taskQueue) {
+            if (task.getChainId() == chainId) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Cancel the active task and clear the queue. A plan waiting on any of these tasks
+     * is cancelled with them, so it can't resume the steps the player just stopped.
      */
     public void cancelAll() {
         if (activeTask != null) {
@@ -252,6 +312,7 @@ public class TaskManager {
             activeTask = null;
         }
         taskQueue.clear();
+        if (companion.getOwnerUUID() != null) PlanExecutor.cancel(companion.getOwnerUUID());
         companion.getNavigation().stop();
         if (chunkLoader.isLoading()) {
             chunkLoader.stopLoading();
@@ -326,7 +387,7 @@ public class TaskManager {
      *
      * For FAILURE continuations: always use AI — it needs to reason about alternatives.
      */
-    private void fireContinuation(TaskContinuation continuation, String taskDescription) {
+    private void fireContinuation(TaskContinuation continuation, String taskDescription, long chainId) {
         Player owner = companion.getOwner();
         if (!(owner instanceof ServerPlayer serverPlayer)) {
             MCAi.LOGGER.warn("Cannot fire task continuation — owner not online");
@@ -339,7 +400,8 @@ public class TaskManager {
 
         // Try deterministic execution first — parse "Call tool_name({...})" from nextSteps
         String nextSteps = continuation.nextSteps();
-        if (nextSteps != null && tryDeterministicContinuation(nextSteps, serverPlayer, companionName, taskDescription)) {
+        if (nextSteps != null && tryDeterministicContinuation(nextSteps, serverPlayer, companionName,
+                taskDescription, chainId)) {
             return; // Successfully executed without AI
         }
 
@@ -347,6 +409,8 @@ public class TaskManager {
         MCAi.LOGGER.info("Deterministic continuation not possible, falling back to AI");
         companion.getChat().say(CompanionChat.Category.TASK,
                 "Continuing the plan...");
+        // A waiting plan can't follow the chain through the LLM — hand it the plan's remaining steps too
+        if (chainId != 0) continuation = PlanExecutor.handOff(chainId, continuation);
 
         AIService.continueAfterTask(continuation, "Completed: " + taskDescription,
                 serverPlayer, companionName);
@@ -359,7 +423,7 @@ public class TaskManager {
      * Returns true if successful (tool was called), false if the format couldn't be parsed.
      */
     private boolean tryDeterministicContinuation(String nextSteps, ServerPlayer player,
-                                                   String companionName, String taskDescription) {
+                                                   String companionName, String taskDescription, long chainId) {
         // nextSteps format: "Call tool_name({\"arg\":\"val\",...})"
         // or for final crafts: "Call craft_item({\"item\":\"iron_pickaxe\",\"count\":1}) — all materials should be gathered now."
         String trimmed = nextSteps.trim();
@@ -418,12 +482,12 @@ public class TaskManager {
                 "Continuing: " + toolName.replace('_', ' ') + "...");
 
         // Add system note to conversation history
-        com.apocscode.mcai.ai.ConversationManager.addSystemMessage(
+        com.apocscode.mcai.ai.ConversationStore.forPlayer(player.getUUID()).addSystemMessage(
                 "[Task completed: " + taskDescription + " → auto-continuing with " + toolName + "]");
 
         // Execute tool on background thread (tools use ToolContext.runOnServer() internally)
         final com.google.gson.JsonObject finalArgs = args;
-        AIService.executeToolDeterministic(toolName, finalArgs, player, companionName);
+        AIService.executeToolDeterministic(toolName, finalArgs, player, companionName, chainId);
 
         return true;
     }